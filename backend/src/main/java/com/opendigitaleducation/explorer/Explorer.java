@@ -48,6 +48,10 @@ import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -57,6 +61,9 @@ import org.entcore.common.explorer.impl.ExplorerResourceDetailsQuery;
 import org.entcore.common.http.BaseServer;
 import org.entcore.common.postgres.IPostgresClient;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -65,6 +72,8 @@ import static java.util.Collections.emptySet;
 
 public class Explorer extends BaseServer {
     static Logger log = LoggerFactory.getLogger(Explorer.class);
+    /** Path of each version of the upsert script, the version being the position in the array starting from 1 */
+    static final String[] UPSERT_SCRIPTS = {"es/upsertScript.json", "es/upsertScriptV2.json"};
     public static final boolean DELETE_FOLDER_CONFIG_DEFAULT = true;
     public static final String DELETE_FOLDER_CONFIG = "delete-folder-definitely";
     public static final String CLEAN_FOLDER_CRON_CONFIG = "clean-folder-cron";
@@ -103,6 +112,11 @@ public class Explorer extends BaseServer {
         //init indexes
         ExplorerConfig.getInstance().setEsPrefix(config.getString("index-prefix", ExplorerConfig.DEFAULT_RESOURCE_INDEX));
         ExplorerConfig.getInstance().setEsIndexes(config.getJsonObject("indexes", new JsonObject()));
+        //init upsert script : every version is stored so that instances using different versions can run together
+        final String upsertScriptId = config.getString("upsert-resource-script", ExplorerConfig.DEFAULT_UPSERT_SCRIPT_ID);
+        final int upsertScriptVersion = getUpsertScriptVersion(config.getInteger("upsert-resource-script-version", 1));
+        ExplorerConfig.getInstance().setUpsertScriptId(getUpsertScriptId(upsertScriptId, upsertScriptVersion));
+        final Future<Void> upsertScriptChecked;
         final Set<String> apps = config.getJsonArray("applications").stream().map(Object::toString).collect(Collectors.toSet());
         if (config.getBoolean("create-index", true)) {
           //create elastic schema if needed
@@ -133,7 +147,15 @@ public class Explorer extends BaseServer {
           log.info("Creating ES Resource Folder using index" + index);
           futures.add(future);
 
-          futures.add(createUpsertScript(config.getString("upsert-resource-script", "explorer-upsert-ressource"), elasticClientManager));
+          for (int version = 1; version <= UPSERT_SCRIPTS.length; version++) {
+            futures.add(createUpsertScript(getUpsertScriptId(upsertScriptId, version), UPSERT_SCRIPTS[version - 1], elasticClientManager));
+          }
+          upsertScriptChecked = Future.succeededFuture();
+        } else if (upsertScriptVersion > 1) {
+          // scripts are only stored by the instances creating the indexes : the configured version may not exist yet
+          upsertScriptChecked = checkUpsertScript(upsertScriptId, upsertScriptVersion);
+        } else {
+          upsertScriptChecked = Future.succeededFuture();
         }
         //create resources service
         return FolderExplorerPlugin.create().compose(folderPlugin -> {
@@ -160,7 +182,8 @@ public class Explorer extends BaseServer {
             /*if (runjobInWroker) {
                 dep.setWorker(true).setWorkerPoolName("ingestjob").setWorkerPoolSize(config.getInteger("pool-size", 1));
             }*/
-            vertx.deployVerticle(new IngestJobWorker(), dep, onWorkerDeploy);
+            // the worker only starts once the version of the upsert script it uses is known to be stored
+            upsertScriptChecked.onComplete(checked -> vertx.deployVerticle(new IngestJobWorker(), dep, onWorkerDeploy));
             futures.add(onWorkerDeploy.future());
             if (ExplorerConfig.getInstance().skipIndexOfTrashedFolders) {
               try {
@@ -216,8 +239,72 @@ public class Explorer extends BaseServer {
       }).mapEmpty();
     }
 
-    private Future createUpsertScript(final String scriptId, final ElasticClientManager elasticClientManager) {
-        final Buffer upsertScript = vertx.fileSystem().readFileBlocking(FileResolver.absolutePath("es/upsertScript.json"));
+    /**
+     * @return The configured version of the upsert script or the first one if this version is unknown (whether it has
+     * actually been stored is checked by {@link #checkUpsertScript} when this instance does not store the scripts)
+     */
+    static int getUpsertScriptVersion(final int version) {
+        if (version < 1 || version > UPSERT_SCRIPTS.length) {
+            log.warn("No upsert script is stored for version " + version + ", falling back to version 1");
+            return 1;
+        }
+        return version;
+    }
+
+    /**
+     * @return Id of a version of the upsert script, the first version keeps the configured id
+     */
+    static String getUpsertScriptId(final String scriptId, final int version) {
+        return version <= 1 ? scriptId : scriptId + "-v" + version;
+    }
+
+    /**
+     * Fall back to the first version of the upsert script if the configured version has not been stored in OpenSearch
+     * (the scripts are only stored by the instances whose create-index is enabled). The configured version is kept
+     * when the script cannot be checked.
+     */
+    private Future<Void> checkUpsertScript(final String upsertScriptId, final int version) {
+        final String scriptId = getUpsertScriptId(upsertScriptId, version);
+        final JsonObject esConfig = config.getJsonObject("elasticsearchConfig", new JsonObject());
+        final JsonArray uris = esConfig.getJsonArray("uris", new JsonArray());
+        final URI uri;
+        try {
+            uri = uris.isEmpty() ? null : new URI(uris.getString(0));
+        } catch (URISyntaxException e) {
+            log.warn("Could not check that the upsert script " + scriptId + " is stored, invalid OpenSearch uri : " + uris.getString(0));
+            return Future.succeededFuture();
+        }
+        if (uri == null) {
+            log.warn("Could not check that the upsert script " + scriptId + " is stored, no OpenSearch uri is configured");
+            return Future.succeededFuture();
+        }
+        final boolean ssl = "https".equalsIgnoreCase(uri.getScheme());
+        final int port = uri.getPort() > 0 ? uri.getPort() : (ssl ? 443 : 80);
+        final String path = (uri.getPath() == null ? "" : uri.getPath().replaceAll("/+$", "")) + "/_scripts/" + scriptId;
+        final HttpClient client = vertx.createHttpClient(new HttpClientOptions().setSsl(ssl));
+        return client.request(HttpMethod.GET, port, uri.getHost(), path).compose(request -> {
+            final String user = esConfig.getString("user");
+            if (user != null) {
+                final String credentials = user + ":" + esConfig.getString("password", "");
+                request.putHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+            }
+            return request.send();
+        }).map(response -> {
+            if (response.statusCode() == 404) {
+                log.warn("The upsert script " + scriptId + " is not stored (it is stored by the instances whose create-index is enabled), falling back to version 1");
+                ExplorerConfig.getInstance().setUpsertScriptId(getUpsertScriptId(upsertScriptId, 1));
+            } else if (response.statusCode() != 200) {
+                log.warn("Could not check that the upsert script " + scriptId + " is stored, status : " + response.statusCode());
+            }
+            return (Void) null;
+        }).otherwise(th -> {
+            log.warn("Could not check that the upsert script " + scriptId + " is stored", th);
+            return null;
+        }).onComplete(e -> client.close());
+    }
+
+    private Future createUpsertScript(final String scriptId, final String path, final ElasticClientManager elasticClientManager) {
+        final Buffer upsertScript = vertx.fileSystem().readFileBlocking(FileResolver.absolutePath(path));
         final Future future = elasticClientManager.getClient().storeScript(scriptId, upsertScript);
         log.info("Creating Resource upsert script " + scriptId);
         return future;
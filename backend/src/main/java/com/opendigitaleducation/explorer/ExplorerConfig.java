@@ -21,7 +21,9 @@ public class ExplorerConfig {
     public static final String DEFAULT_FOLDER_INDEX = "folder";
     public static final String DEFAULT_RESOURCE_INDEX = "resource-";
     public static final Integer DEFAULT_SIZE = 10000;
+    public static final String DEFAULT_UPSERT_SCRIPT_ID = "explorer-upsert-ressource";
     protected Optional<String> prefixIndex = Optional.empty();
+    protected String upsertScriptId = DEFAULT_UPSERT_SCRIPT_ID;
     protected JsonObject esIndexes = new JsonObject();
     protected boolean skipIndexOfTrashedFolders;
 
@@ -34,6 +36,18 @@ public class ExplorerConfig {
         return this;
     }
 
+    /**
+     * @return Id of the stored script used to upsert resources
+     */
+    public String getUpsertScriptId() {
+        return upsertScriptId;
+    }
+
+    public ExplorerConfig setUpsertScriptId(final String upsertScriptId) {
+        this.upsertScriptId = upsertScriptId;
+        return this;
+    }
+
     public ExplorerConfig setEsIndexes(final JsonObject esIndexes) {
         this.esIndexes = esIndexes;
         return this;
@@ -44,6 +58,11 @@ public class ExplorerConfig {
         return this;
     }
 
+    public ExplorerConfig removeEsIndex(final String application) {
+        this.esIndexes.remove(application);
+        return this;
+    }
+
     public String getDefaultIndexName(final String application){
         final String prefix = this.prefixIndex.orElse(DEFAULT_RESOURCE_INDEX);
         return prefix + application;
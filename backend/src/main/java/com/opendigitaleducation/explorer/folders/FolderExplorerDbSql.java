@@ -147,39 +147,13 @@ public class FolderExplorerDbSql {
         for(final JsonObject json : resourcesList){
             resourcesMap.put(json.getString("ent_id"), json);
         }
-        final Map<String, Object> defaultVal = new HashMap<>();
-        final Collection<JsonObject> resourcesColl = resourcesMap.values();
-        final Tuple tuple = PostgresClient.insertValues(resourcesColl, Tuple.tuple(), defaultVal, getColumnsExtArray());
-        final String insertPlaceholder = PostgresClient.insertPlaceholders(resourcesColl, 1, getColumnsExtArray());
-        final StringBuilder queryTpl = new StringBuilder();
-        //do update on conflict (because of returning)
-        queryTpl.append("WITH upserted AS ( ");
-        queryTpl.append("  INSERT INTO explorer.folders as r (name,application,resource_type, parent_id, creator_id, creator_name, ent_id, parent_ent_id) ");
-        // keep explorer name if non empty else use migration name else empty name
-        queryTpl.append("  VALUES %s ON CONFLICT(ent_id) DO UPDATE SET name = COALESCE(NULLIF(r.name,''), EXCLUDED.name, '') RETURNING * ");
-        queryTpl.append(")  ");
-        queryTpl.append("SELECT * FROM upserted ");
-        final String query = String.format(queryTpl.toString(), insertPlaceholder);
-        return client.preparedQuery(query, tuple).map(rows->{
+        // a migration burst could exceed the number of parameters of a statement
+        return SqlChunks.execute(resourcesMap.values(), getColumnsExtArray().length, SqlChunks.DEFAULT_PARALLELISM, this::upsertFoldersChunk).map(chunks -> {
             final Map<String, JsonObject> results = new HashMap<>();
-            for(final Row row : rows){
-                final Object id = row.getValue("id");
-                final String name = row.getString("name");
-                final String application = row.getString("application");
-                final String resource_type = row.getString("resource_type");
-                final Object parent_id = row.getValue("parent_id");
-                final String creator_id = row.getString("creator_id");
-                final String creator_name = row.getString("creator_name");
-                final String parent_ent_id = row.getString("parent_ent_id");
-                final String ent_id = row.getString("ent_id");
-                final JsonObject json = new JsonObject().put("name",name).put("id",id).put("parent_ent_id",parent_ent_id)
-                        .put("application", application).put("resource_type", resource_type).put("parent_id", parent_id)
-                        .put("creator_id", creator_id).put("creator_name", creator_name).put("ent_id", ent_id);
-                results.put(ent_id,json);
+            for(final Map<String, JsonObject> chunk : chunks){
+                results.putAll(chunk);
             }
-            return (results);
-        }).onFailure(e->{
-            log.error("Failed to upsert folders:", e);
+            return results;
         }).compose(rows -> {
             //fetch folder
             return client.transaction(sqlConnection -> {
@@ -232,6 +206,42 @@ public class FolderExplorerDbSql {
         });
     }
 
+    private Future<Map<String, JsonObject>> upsertFoldersChunk(final Collection<JsonObject> resourcesColl){
+        final Map<String, Object> defaultVal = new HashMap<>();
+        final Tuple tuple = PostgresClient.insertValues(resourcesColl, Tuple.tuple(), defaultVal, getColumnsExtArray());
+        final String insertPlaceholder = PostgresClient.insertPlaceholders(resourcesColl, 1, getColumnsExtArray());
+        final StringBuilder queryTpl = new StringBuilder();
+        //do update on conflict (because of returning)
+        queryTpl.append("WITH upserted AS ( ");
+        queryTpl.append("  INSERT INTO explorer.folders as r (name,application,resource_type, parent_id, creator_id, creator_name, ent_id, parent_ent_id) ");
+        // keep explorer name if non empty else use migration name else empty name
+        queryTpl.append("  VALUES %s ON CONFLICT(ent_id) DO UPDATE SET name = COALESCE(NULLIF(r.name,''), EXCLUDED.name, '') RETURNING * ");
+        queryTpl.append(")  ");
+        queryTpl.append("SELECT * FROM upserted ");
+        final String query = String.format(queryTpl.toString(), insertPlaceholder);
+        return client.preparedQuery(query, tuple).map(rows->{
+            final Map<String, JsonObject> results = new HashMap<>();
+            for(final Row row : rows){
+                final Object id = row.getValue("id");
+                final String name = row.getString("name");
+                final String application = row.getString("application");
+                final String resource_type = row.getString("resource_type");
+                final Object parent_id = row.getValue("parent_id");
+                final String creator_id = row.getString("creator_id");
+                final String creator_name = row.getString("creator_name");
+                final String parent_ent_id = row.getString("parent_ent_id");
+                final String ent_id = row.getString("ent_id");
+                final JsonObject json = new JsonObject().put("name",name).put("id",id).put("parent_ent_id",parent_ent_id)
+                        .put("application", application).put("resource_type", resource_type).put("parent_id", parent_id)
+                        .put("creator_id", creator_id).put("creator_name", creator_name).put("ent_id", ent_id);
+                results.put(ent_id,json);
+            }
+            return (results);
+        }).onFailure(e->{
+            log.error("Failed to upsert folders:", e);
+        });
+    }
+
     public final Future<ResourceExplorerDbSql.FolderSql> update(final String id, final JsonObject source){
         beforeCreateOrUpdate(source);
         final Tuple tuple = Tuple.tuple();
@@ -28,12 +28,17 @@ import static java.util.Collections.emptySet;
 
 public class ResourceExplorerDbSql {
     private static final Logger log = LoggerFactory.getLogger(ResourceExplorerDbSql.class);
+    static final String[] UPSERT_COLUMNS = new String[]{"ent_id", "name", "application", "resource_type", "resource_unique_id", "creator_id", "version", "rights"};
     final IPostgresClient client;
     public ResourceExplorerDbSql(final IPostgresClient client) {
         this.client = client;
     }
 
     public Future<Map<Integer, ExplorerMessage>> deleteTemporarlyResources(final Collection<? extends ExplorerMessage> resources){
+        return deleteTemporarlyResources(null, resources);
+    }
+
+    public Future<Map<Integer, ExplorerMessage>> deleteTemporarlyResources(final SqlConnection sqlConnection, final Collection<? extends ExplorerMessage> resources){
         if(resources.isEmpty()){
             return Future.succeededFuture(new HashMap<>());
         }
@@ -42,7 +47,7 @@ public class ResourceExplorerDbSql {
         final String inPlaceholder = PostgresClient.inPlaceholder(uniqIds, 1);
         final String queryTpl = "UPDATE explorer.resources SET deleted=TRUE WHERE resource_unique_id IN (%s) RETURNING *";
         final String query = String.format(queryTpl, inPlaceholder);
-        return client.preparedQuery(query, tuple).map(rows-> resourcesToMap(resources, rows));
+        return preparedQuery(sqlConnection, query, tuple).map(rows-> resourcesToMap(resources, rows));
     }
 
     public Future<Map<Integer, ExplorerMessage>> deleteDefinitlyResources(final Collection<? extends ExplorerMessage> resources){
@@ -118,6 +123,10 @@ public class ResourceExplorerDbSql {
     }
 
     public Future<List<ResouceSql>> upsertResources(final Collection<? extends ExplorerMessage> resources){
+        return upsertResources(null, resources);
+    }
+
+    public Future<List<ResouceSql>> upsertResources(final SqlConnection sqlConnection, final Collection<? extends ExplorerMessage> resources){
         if(resources.isEmpty()){
             return Future.succeededFuture(new ArrayList<>());
         }
@@ -148,7 +157,10 @@ public class ResourceExplorerDbSql {
         for(final JsonObject json : resourcesList){
             final String id = json.getString("resource_unique_id");
             final JsonObject params = resourcesMap.getOrDefault(id, new JsonObject());
+            final long previousVersion = params.getLong("version", Long.MIN_VALUE);
             params.mergeIn(json);
+            // the row keeps the highest version of the batch
+            params.put("version", Math.max(previousVersion, params.getLong("version", 0L)));
             // if does not exists yet => creatorid should not be null
             if(params.getValue("creator_id") == null){
                 params.put("creator_id", "");
@@ -157,13 +169,23 @@ public class ResourceExplorerDbSql {
         }
         final Map<String, Object> defaultVal = new HashMap<>();
         defaultVal.put("name", "");
-        final Collection<JsonObject> resourcesColl = resourcesMap.values();
-        final Tuple tuple = PostgresClient.insertValues(resourcesColl, Tuple.tuple(), defaultVal, "ent_id", "name", "application","resource_type","resource_unique_id", "creator_id", "version", "rights");
-        final String insertPlaceholder = PostgresClient.insertPlaceholders(resourcesColl, 1, "ent_id", "name", "application","resource_type", "resource_unique_id", "creator_id", "version", "rights");
+        // a burst of resources could exceed the number of parameters of a statement
+        return SqlChunks.execute(resourcesMap.values(), UPSERT_COLUMNS.length, SqlChunks.DEFAULT_PARALLELISM, chunk -> upsertResourcesChunk(sqlConnection, chunk, defaultVal)).map(chunks -> {
+            final List<ResouceSql> models = new ArrayList<>();
+            for(final List<ResouceSql> chunk : chunks){
+                models.addAll(chunk);
+            }
+            return models;
+        });
+    }
+
+    private Future<List<ResouceSql>> upsertResourcesChunk(final SqlConnection sqlConnection, final Collection<JsonObject> resourcesColl, final Map<String, Object> defaultVal){
+        final Tuple tuple = PostgresClient.insertValues(resourcesColl, Tuple.tuple(), defaultVal, UPSERT_COLUMNS);
+        final String insertPlaceholder = PostgresClient.insertPlaceholders(resourcesColl, 1, UPSERT_COLUMNS);
         final StringBuilder queryTpl = new StringBuilder();
         queryTpl.append("WITH upserted AS ( ");
         queryTpl.append("  INSERT INTO explorer.resources as r (ent_id, name,application,resource_type, resource_unique_id, creator_id, version, rights) ");
-        queryTpl.append("  VALUES %s ON CONFLICT(resource_unique_id) DO UPDATE SET name=EXCLUDED.name, version=EXCLUDED.version, creator_id=COALESCE(NULLIF(EXCLUDED.creator_id,''), NULLIF(r.creator_id, ''), ''), rights=COALESCE(EXCLUDED.rights, r.rights, '[]') RETURNING * ");
+        queryTpl.append("  VALUES %s ON CONFLICT(resource_unique_id) DO UPDATE SET name=EXCLUDED.name, version=GREATEST(EXCLUDED.version, r.version), creator_id=COALESCE(NULLIF(EXCLUDED.creator_id,''), NULLIF(r.creator_id, ''), ''), rights=COALESCE(EXCLUDED.rights, r.rights, '[]') RETURNING * ");
         queryTpl.append(")  ");
         queryTpl.append("SELECT upserted.id as resource_id,upserted.ent_id,upserted.resource_unique_id, ");
         queryTpl.append("       upserted.creator_id, upserted.version, upserted.application, upserted.resource_type, upserted.muted_by, upserted.trashed_by, upserted.rights, ");
@@ -172,7 +194,7 @@ public class ResourceExplorerDbSql {
         queryTpl.append("LEFT JOIN explorer.folder_resources fr ON upserted.id=fr.resource_id ");
         queryTpl.append("LEFT JOIN explorer.folders f ON fr.folder_id=f.id ");
         final String query = String.format(queryTpl.toString(), insertPlaceholder);
-        return client.preparedQuery(query, tuple).map(rows->{
+        return preparedQuery(sqlConnection, query, tuple).map(rows->{
             final Map<Integer, ResouceSql> results = new HashMap<>();
             final Set<ResouceSql> models = new HashSet<>();
             for(final Row row : rows){
@@ -216,6 +238,10 @@ public class ResourceExplorerDbSql {
     }
 
     public Future<Map<String, Integer>> getResourceIdByEntId(final Set<String> entIds) {
+        return getResourceIdByEntId(null, entIds);
+    }
+
+    public Future<Map<String, Integer>> getResourceIdByEntId(final SqlConnection sqlConnection, final Set<String> entIds) {
         if(entIds == null || entIds.isEmpty()) {
             return Future.succeededFuture(Collections.emptyMap());
         } else {
@@ -223,7 +249,7 @@ public class ResourceExplorerDbSql {
             final String queryTpl = "SELECT id, ent_id FROM explorer.resources WHERE ent_id IN (%s)";
             final String query = String.format(queryTpl, inPlaceholder);
             final Tuple tuple = PostgresClient.inTuple(Tuple.tuple(), entIds);
-            return client.preparedQuery(query, tuple).map(rows ->{
+            return preparedQuery(sqlConnection, query, tuple).map(rows ->{
                 final Map<String, Integer> mapping = new HashMap<>();
                 for(final Row row : rows){ ;
                     final Integer id = row.getInteger("id");
@@ -378,6 +404,10 @@ public class ResourceExplorerDbSql {
      * @return a List of ResouceSql that contains all infos about resource upserted with their related folders (and users)
      */
     public Future<List<ResouceSql>> moveTo(final List<ResourceLink> links){
+        return moveTo(null, links);
+    }
+
+    public Future<List<ResouceSql>> moveTo(final SqlConnection sqlConnection, final List<ResourceLink> links){
         if(links.isEmpty()){
             return Future.succeededFuture(new ArrayList<>());
         }
@@ -398,7 +428,7 @@ public class ResourceExplorerDbSql {
         queryTpl.append("INNER JOIN updated ON updated.resource_id=upserted.id ");
         queryTpl.append("LEFT JOIN explorer.folders f ON updated.folder_id=f.id ");
         final String query = String.format(queryTpl.toString(), insertPlaceholder);
-        return client.preparedQuery(query, tuple).map(rows->{
+        return preparedQuery(sqlConnection, query, tuple).map(rows->{
             final Map<Integer, ResouceSql> results = new HashMap<>();
             final Set<ResouceSql> models = new HashSet<>();
             for(final Row row : rows){
@@ -421,11 +451,15 @@ public class ResourceExplorerDbSql {
      * the database or if the target folder could not be found.
      */
     public Future<List<ResouceSql>> moveExistingResources(final Collection<ResourceLinkByUri> links){
+        return moveExistingResources(null, links);
+    }
+
+    public Future<List<ResouceSql>> moveExistingResources(final SqlConnection sqlConnection, final Collection<ResourceLinkByUri> links){
         if(links.isEmpty()){
             return Future.succeededFuture(new ArrayList<>());
         }
         final Promise<List<ResouceSql>> promise = Promise.promise();
-        getResourceIdByEntId(links.stream().map(l -> l.entId).collect(Collectors.toSet()))
+        getResourceIdByEntId(sqlConnection, links.stream().map(l -> l.entId).collect(Collectors.toSet()))
           .compose(resourceIdByEntId -> {
               final List<JsonObject> jsons = links.stream()
                 .filter(l -> resourceIdByEntId.get(l.entId) != null)
@@ -448,7 +482,7 @@ public class ResourceExplorerDbSql {
               queryTpl.append("INNER JOIN updated ON updated.resource_id=upserted.id ");
               queryTpl.append("LEFT JOIN explorer.folders f ON updated.folder_id=f.id ");
               final String query = String.format(queryTpl.toString(), insertPlaceholder);
-              return client.preparedQuery(query, tuple).map(rows->{
+              return preparedQuery(sqlConnection, query, tuple).map(rows->{
                   final Map<Integer, ResouceSql> results = new HashMap<>();
                   final Set<ResouceSql> models = new HashSet<>();
                   for(final Row row : rows){
@@ -616,6 +650,17 @@ public class ResourceExplorerDbSql {
         return future;
     }
 
+    /**
+     * Execute a statement on the connection of the caller (so that it is pipelined with the other statements sent on
+     * it) or on a connection of the pool when no connection is given.
+     */
+    private Future<RowSet<Row>> preparedQuery(final SqlConnection sqlConnection, final String query, final Tuple tuple){
+        if(sqlConnection == null){
+            return client.preparedQuery(query, tuple);
+        }
+        return sqlConnection.preparedQuery(query).execute(tuple);
+    }
+
     private Map<Integer, ExplorerMessage> resourcesToMap(final Collection<? extends ExplorerMessage> resources, final RowSet<Row> rows){
         final Map<Integer,ExplorerMessage> newIds = new HashMap<>();
         for(final Row row : rows){
@@ -730,7 +775,7 @@ public class ResourceExplorerDbSql {
 
     private static final String UPSERT_RESOURCE_QUERY = "WITH upserted AS ( " +
             "  INSERT INTO explorer.resources as r (ent_id, name,application,resource_type, resource_unique_id, creator_id, version, muted_by) " +
-            "  VALUES %s ON CONFLICT(resource_unique_id) DO UPDATE SET name=EXCLUDED.name, version=EXCLUDED.version, muted_by=EXCLUDED.muted_by || r.muted_by RETURNING * " +
+            "  VALUES %s ON CONFLICT(resource_unique_id) DO UPDATE SET name=EXCLUDED.name, version=GREATEST(EXCLUDED.version, r.version), muted_by=EXCLUDED.muted_by || r.muted_by RETURNING * " +
             ")  " +
             "SELECT upserted.id as resource_id,ent_id,resource_unique_id, creator_id, version, " +
             "       application, resource_type, " +
@@ -0,0 +1,82 @@
+package com.opendigitaleducation.explorer.folders;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Splits multi-row statements so that none of them exceeds the number of bind parameters accepted by Postgres in one
+ * statement (65535) and runs the chunks with a bounded number of statements in flight.
+ */
+final class SqlChunks {
+    static final int MAX_PARAMETERS = 65535;
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private SqlChunks() {
+    }
+
+    /**
+     * @param items Rows to insert
+     * @param nbParametersPerItem Number of bind parameters used by each row
+     * @param maxParameters Maximum number of bind parameters of a statement
+     * @return The rows grouped so that each group fits in one statement
+     */
+    static <T> List<List<T>> split(final Collection<T> items, final int nbParametersPerItem, final int maxParameters) {
+        final int chunkSize = Math.max(1, maxParameters / Math.max(1, nbParametersPerItem));
+        final List<List<T>> chunks = new ArrayList<>();
+        List<T> current = new ArrayList<>();
+        for (final T item : items) {
+            if (current.size() == chunkSize) {
+                chunks.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(item);
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    /**
+     * Run one statement per chunk, at most <i>parallelism</i> of them being in flight at the same time.
+     * @param items Rows to insert
+     * @param nbParametersPerItem Number of bind parameters used by each row
+     * @param parallelism Maximum number of statements in flight
+     * @param statement Builds and runs the statement of a chunk
+     * @return The results of the statements in the order of the chunks
+     */
+    static <T, R> Future<List<R>> execute(final Collection<T> items, final int nbParametersPerItem, final int parallelism,
+                                          final Function<List<T>, Future<R>> statement) {
+        final List<List<T>> chunks = split(items, nbParametersPerItem, MAX_PARAMETERS);
+        if (chunks.size() == 1) {
+            return statement.apply(chunks.get(0)).map(result -> {
+                final List<R> results = new ArrayList<>();
+                results.add(result);
+                return results;
+            });
+        }
+        // each lane runs its chunks one after the other
+        final List<R> results = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            results.add(null);
+        }
+        final List<Future> lanes = new ArrayList<>();
+        for (int lane = 0; lane < Math.min(Math.max(1, parallelism), chunks.size()); lane++) {
+            Future<Void> futureIt = Future.succeededFuture();
+            for (int i = lane; i < chunks.size(); i += Math.max(1, parallelism)) {
+                final int index = i;
+                futureIt = futureIt.compose(e -> statement.apply(chunks.get(index)).map(result -> {
+                    results.set(index, result);
+                    return null;
+                }));
+            }
+            lanes.add(futureIt);
+        }
+        return CompositeFuture.all(lanes).map(all -> results);
+    }
+}
@@ -0,0 +1,80 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Computes the size of the next batch of messages to ingest based on the outcome of the previous ingestion cycles.
+ */
+public interface BatchSizeController {
+    /**
+     * @return The unique identifier of this controller (used by the factory).
+     */
+    String getId();
+
+    /**
+     * @return The current batch size
+     */
+    int getBatchSize();
+
+    /**
+     * Compute the next batch size.
+     * @param result Result of the cycle that has just completed ({@code null} if the cycle failed before ingesting
+     *               anything)
+     * @return The decision taken by the controller
+     */
+    Decision onCycleCompleted(final IngestJob.IngestJobResult result);
+
+    default void configure(final JsonObject configuration){};
+
+    enum Reason {
+        /** Nothing happened that should change the batch size.*/
+        Steady,
+        /** The cycle went well so the batch size can grow.*/
+        Grow,
+        /** The cycle failed as a whole.*/
+        ShrinkOnFailure,
+        /** OpenSearch rejected some operations because it is overloaded.*/
+        ShrinkOnRejection,
+        /** OpenSearch took too long to ingest the bulk.*/
+        ShrinkOnLatency,
+        /** The bulk payload was too big.*/
+        ShrinkOnPayload
+    }
+
+    class Decision {
+        private final int previousBatchSize;
+        private final int newBatchSize;
+        private final Reason reason;
+
+        public Decision(final int previousBatchSize, final int newBatchSize, final Reason reason) {
+            this.previousBatchSize = previousBatchSize;
+            this.newBatchSize = newBatchSize;
+            this.reason = reason;
+        }
+
+        public int getPreviousBatchSize() {
+            return previousBatchSize;
+        }
+
+        public int getNewBatchSize() {
+            return newBatchSize;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        public boolean hasChanged() {
+            return previousBatchSize != newBatchSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Decision{" +
+                    "previousBatchSize=" + previousBatchSize +
+                    ", newBatchSize=" + newBatchSize +
+                    ", reason=" + reason +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.opendigitaleducation.explorer.ingest;
+
+/**
+ * Statistics about the bulk requests sent to OpenSearch during an ingestion cycle. They are used to know whether
+ * OpenSearch is struggling to keep up (latency, rejections) or not.
+ */
+public class BulkIngestionStats {
+    /** Number of operations sent to OpenSearch.*/
+    private int nbOperations = 0;
+    /** Number of operations that failed because of their content (mapping error, not found, ...).*/
+    private int nbFailed = 0;
+    /** Number of operations that were rejected because OpenSearch was overloaded (429).*/
+    private int nbRejected = 0;
+    /** Estimated size in bytes of the payload sent to OpenSearch.*/
+    private long payloadBytes = 0;
+    /** Time (in milliseconds) spent waiting for OpenSearch.*/
+    private long elapsedTime = 0;
+    /**
+     * Time (in milliseconds) taken by the slowest bulk request. A cycle may send several requests (split by size, per
+     * index, bisected or retried) so the sum only tells how many requests were sent.
+     */
+    private long maxBulkElapsedTime = 0;
+    /** {@code true} if a whole batch failed (network error, timeout, ...).*/
+    private boolean batchFailed = false;
+
+    /**
+     * Type of the error returned by OpenSearch (with a 429 status) for the operations and the requests it rejects
+     * because its queues are full.
+     */
+    static final String REJECTED_EXECUTION_EXCEPTION = "es_rejected_execution_exception";
+
+    /**
+     * @param error Error of an operation or of a whole request
+     * @return {@code true} if OpenSearch rejected it because it is overloaded. Only the error type is matched : a
+     * message mentioning 429 (an id, a count...) is not a rejection.
+     */
+    public static boolean isRejection(final String error) {
+        return error != null && error.contains(REJECTED_EXECUTION_EXCEPTION);
+    }
+
+    public BulkIngestionStats onBulkCompleted(final int nbOperations, final long payloadBytes, final long elapsedTime) {
+        this.nbOperations += nbOperations;
+        this.payloadBytes += payloadBytes;
+        this.elapsedTime += elapsedTime;
+        this.maxBulkElapsedTime = Math.max(this.maxBulkElapsedTime, elapsedTime);
+        return this;
+    }
+
+    public BulkIngestionStats onOperationFailed(final String error) {
+        if (isRejection(error)) {
+            this.nbRejected++;
+        } else {
+            this.nbFailed++;
+        }
+        return this;
+    }
+
+    public BulkIngestionStats onBatchFailed(final String error, final int nbOperations) {
+        if (isRejection(error)) {
+            this.nbRejected += nbOperations;
+        } else {
+            this.batchFailed = true;
+        }
+        return this;
+    }
+
+    public BulkIngestionStats merge(final BulkIngestionStats other) {
+        if (other != null) {
+            this.nbOperations += other.nbOperations;
+            this.nbFailed += other.nbFailed;
+            this.nbRejected += other.nbRejected;
+            this.payloadBytes += other.payloadBytes;
+            this.elapsedTime += other.elapsedTime;
+            this.maxBulkElapsedTime = Math.max(this.maxBulkElapsedTime, other.maxBulkElapsedTime);
+            this.batchFailed = this.batchFailed || other.batchFailed;
+        }
+        return this;
+    }
+
+    public int getNbOperations() {
+        return nbOperations;
+    }
+
+    public int getNbFailed() {
+        return nbFailed;
+    }
+
+    public int getNbRejected() {
+        return nbRejected;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public long getMaxBulkElapsedTime() {
+        return maxBulkElapsedTime;
+    }
+
+    public boolean isBatchFailed() {
+        return batchFailed;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkIngestionStats{" +
+                "nbOperations=" + nbOperations +
+                ", nbFailed=" + nbFailed +
+                ", nbRejected=" + nbRejected +
+                ", payloadBytes=" + payloadBytes +
+                ", elapsedTime=" + elapsedTime +
+                ", maxBulkElapsedTime=" + maxBulkElapsedTime +
+                ", batchFailed=" + batchFailed +
+                '}';
+    }
+}
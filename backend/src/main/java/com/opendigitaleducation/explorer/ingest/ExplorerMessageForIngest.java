@@ -11,6 +11,10 @@ import java.util.stream.Collectors;
 
 public class ExplorerMessageForIngest extends ExplorerMessage {
     public static final String ATTEMPT_COUNT = "attempt_count";
+    /** Timestamp (in milliseconds) at which the message has been pushed in the queue.*/
+    public static final String ENQUEUED_AT = "enqueued_at";
+    /** Version of the resource held by the Postgres backup once the message has been written to it.*/
+    public static final String BACKUP_VERSION = "backup_version";
     private final Optional<String> idQueue;
     private String error = "";
     private String errorDetails = "";
@@ -106,6 +110,22 @@ public class ExplorerMessageForIngest extends ExplorerMessage {
         metadata.put(ATTEMPT_COUNT, attemptCount);
     }
 
+    public Optional<Long> getEnqueuedAt() {
+        return Optional.ofNullable(metadata.getLong(ENQUEUED_AT));
+    }
+
+    public void setEnqueuedAt(final long enqueuedAt) {
+        metadata.put(ENQUEUED_AT, enqueuedAt);
+    }
+
+    public Optional<Long> getBackupVersion() {
+        return Optional.ofNullable(metadata.getLong(BACKUP_VERSION));
+    }
+
+    public void setBackupVersion(final long backupVersion) {
+        metadata.put(BACKUP_VERSION, backupVersion);
+    }
+
     public boolean hasRights(final boolean excludeCreator){
         final JsonArray rights = this.getRights();
         if(rights == null || rights.size() == 0){
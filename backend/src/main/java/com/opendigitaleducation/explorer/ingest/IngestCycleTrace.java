@@ -0,0 +1,119 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing breakdown of one ingestion cycle (or of one batch of a lane) : how long each stage took and how many messages
+ * (and bytes) it handled. The last traces are exposed by the metrics action of the ingest job.
+ */
+public class IngestCycleTrace {
+    private final long idExecution;
+    private final String lane;
+    private final long startedAt = System.currentTimeMillis();
+    private final List<StageTrace> stages = new ArrayList<>();
+    private long completedAt = -1;
+    private boolean succeeded = false;
+
+    public IngestCycleTrace(final long idExecution, final String lane) {
+        this.idExecution = idExecution;
+        this.lane = lane;
+    }
+
+    public enum Stage {
+        /** Messages fetched from the queue (Redis or Postgres).*/
+        Read,
+        /** Messages of the same resource merged.*/
+        Merge,
+        /** Messages transformed by the transformer chain (html analysis, truncation...).*/
+        Transform,
+        /** Messages ingested in Postgres and OpenSearch.*/
+        Ingest,
+        /** Status of the messages updated in the queue.*/
+        Ack,
+        /** Messages attempted too many times handled.*/
+        PermanentErrorHandling
+    }
+
+    /**
+     * Estimated size in bytes of the serialized messages.
+     */
+    public static long payloadSize(final List<ExplorerMessageForIngest> messages) {
+        long size = 0;
+        for (final ExplorerMessageForIngest message : messages) {
+            size += JsonSizeEstimator.estimate(message.getMessage());
+        }
+        return size;
+    }
+
+    public IngestCycleTrace onStageCompleted(final Stage stage, final long stageStartedAt, final int nbMessages, final long payloadBytes) {
+        stages.add(new StageTrace(stage, System.currentTimeMillis() - stageStartedAt, nbMessages, payloadBytes));
+        return this;
+    }
+
+    public IngestCycleTrace onCompleted(final boolean succeeded) {
+        this.completedAt = System.currentTimeMillis();
+        this.succeeded = succeeded;
+        return this;
+    }
+
+    public List<StageTrace> getStages() {
+        return stages;
+    }
+
+    public JsonObject toJson() {
+        final JsonArray stagesJson = new JsonArray();
+        for (final StageTrace stage : stages) {
+            stagesJson.add(new JsonObject()
+                    .put("stage", stage.stage.name())
+                    .put("elapsed_ms", stage.elapsedTime)
+                    .put("messages", stage.nbMessages)
+                    .put("bytes", stage.payloadBytes));
+        }
+        final JsonObject json = new JsonObject()
+                .put("id", idExecution)
+                .put("started_at", startedAt)
+                .put("succeeded", succeeded)
+                .put("stages", stagesJson);
+        if (lane != null) {
+            json.put("lane", lane);
+        }
+        if (completedAt > 0) {
+            json.put("elapsed_ms", completedAt - startedAt);
+        }
+        return json;
+    }
+
+    public static class StageTrace {
+        private final Stage stage;
+        private final long elapsedTime;
+        private final int nbMessages;
+        private final long payloadBytes;
+
+        StageTrace(final Stage stage, final long elapsedTime, final int nbMessages, final long payloadBytes) {
+            this.stage = stage;
+            this.elapsedTime = elapsedTime;
+            this.nbMessages = nbMessages;
+            this.payloadBytes = payloadBytes;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        public int getNbMessages() {
+            return nbMessages;
+        }
+
+        public long getPayloadBytes() {
+            return payloadBytes;
+        }
+    }
+}
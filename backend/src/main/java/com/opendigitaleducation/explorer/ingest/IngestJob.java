@@ -10,7 +10,6 @@ import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageConsumer;
-import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -19,10 +18,8 @@ import static java.util.Collections.emptyList;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import org.apache.commons.lang3.tuple.Pair;
 import org.entcore.common.elasticsearch.ElasticClientManager;
-import static org.entcore.common.explorer.IExplorerPlugin.addressForIngestStateUpdate;
 
 import org.entcore.common.explorer.*;
-import org.entcore.common.explorer.to.ExplorerReindexResourcesRequest;
 import org.entcore.common.postgres.IPostgresClient;
 import org.entcore.common.user.UserInfos;
 
@@ -39,14 +36,43 @@ public class IngestJob {
     static final int DEFAULT_BATCH_SIZE = 100;
     static final int DEFAULT_MAX_ATTEMPT = 10;
     static final int DEFAULT_MAX_DELAY_MS = 45000;
-    private final int maxBatchSize;
+    static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+    static final int DEFAULT_MAX_BISECT_REQUESTS = 16;
+    static final long DEFAULT_STATE_NOTIFICATION_FLUSH_INTERVAL_MS = 500L;
+    static final int DEFAULT_STATE_NOTIFICATION_MAX_PAYLOAD_SIZE = 1000;
+    static final int DEFAULT_TRACE_HISTORY_SIZE = 20;
+    /** Largest window (15 minutes) of the throughput and freshness statistics.*/
+    static final int STATS_WINDOW_SECONDS = 900;
+    private final BatchSizeController batchSizeController;
     private int batchSize;
     private final int maxAttempt;
     private final Vertx vertx;
     private final MessageReader messageReader;
     private final MessageIngester messageIngester;
     private final int maxDelayBetweenExecutionMs;
+    /** Maximum number of batches being treated at once. 1 means that cycles are executed one after the other.*/
+    private final int maxInFlightBatches;
+    /** Maximum number of additional ingestion requests sent to isolate the messages that make a batch fail.*/
+    private final int maxBisectRequests;
     private final List<Future> pending = new ArrayList<>();
+    private int inFlightBatches = 0;
+    private Future<Void> lastReadStage = Future.succeededFuture();
+    private Future<Void> lastWriteStage = Future.succeededFuture();
+    private Future<Void> lastAckStage = Future.succeededFuture();
+    /** Lanes by application and entity type, null when the ingestion is not partitioned.*/
+    private final IngestLaneScheduler laneScheduler;
+    private boolean laneReadInProgress = false;
+    private boolean moreMessagesToRead = false;
+    private long laneWakeUpTimerId = -1;
+    /** Traces of the last cycles, exposed by the metrics action.*/
+    private final Deque<IngestCycleTrace> traces = new ArrayDeque<>();
+    private final int traceHistorySize;
+    /** Messages ingested over the last minutes.*/
+    private final SlidingWindowStats succeededStats = new SlidingWindowStats(STATS_WINDOW_SECONDS);
+    /** Time between the enqueuing and the ingestion of succeeded messages over the last minutes.*/
+    private final SlidingWindowStats freshnessStats = new SlidingWindowStats(STATS_WINDOW_SECONDS);
+    private final SlidingWindowStats failedStats = new SlidingWindowStats(STATS_WINDOW_SECONDS);
+    private long lastFreshnessMs = -1;
     private long idExecution = 0;
     private long nextExecutionTimerId = -1;
     private Function<Void, Void> subscription;
@@ -56,6 +82,10 @@ public class IngestJob {
 
     private PermanentIngestionErrorHandler permanentIngestionErrorHandler;
 
+    private final DebouncedMoveReindexer moveReindexer;
+
+    private final DebouncedIngestStateNotifier stateNotifier;
+
     private boolean pendingNotification = false;
     private final MessageConsumer messageConsumer;
 
@@ -71,14 +101,30 @@ public class IngestJob {
         this.messageIngester = messageIngester;
         this.messageMerger = MessageMergerRepository.getMerger(config.getString("message-merger", "default"));
         this.maxAttempt = config.getInteger("max-attempt", DEFAULT_MAX_ATTEMPT);
-        this.maxBatchSize = config.getInteger("batch-size", DEFAULT_BATCH_SIZE);
-        this.batchSize = maxBatchSize;
+        this.batchSizeController = BatchSizeControllerFactory.create(
+                config.getJsonObject("batch-size-controller", new JsonObject()),
+                config.getInteger("batch-size", DEFAULT_BATCH_SIZE));
+        this.batchSize = batchSizeController.getBatchSize();
         this.maxDelayBetweenExecutionMs = config.getInteger("max-delay-ms", DEFAULT_MAX_DELAY_MS);
+        this.maxInFlightBatches = Math.max(1, config.getInteger("max-in-flight-batches", DEFAULT_MAX_IN_FLIGHT_BATCHES));
+        this.traceHistorySize = Math.max(0, config.getInteger("trace-history-size", DEFAULT_TRACE_HISTORY_SIZE));
+        this.maxBisectRequests = Math.max(0, config.getInteger("max-bisect-requests", DEFAULT_MAX_BISECT_REQUESTS));
+        this.laneScheduler = IngestLaneScheduler.isEnabled(config) ?
+                new IngestLaneScheduler(config.getJsonObject("lanes"), this.batchSize, metricsRecorder) : null;
         this.messageTransformer = new MessageTransformerChain();
         this.messageConsumer = getRouter(vertx);
         this.ingestJobMetricsRecorder = metricsRecorder;
         loadTransformerChain(config);
         this.permanentIngestionErrorHandler = createIngestionErrorHandler(vertx, config);
+        this.stateNotifier = new DebouncedIngestStateNotifier(
+                vertx,
+                config.getLong("state-notification-flush-interval-ms", DEFAULT_STATE_NOTIFICATION_FLUSH_INTERVAL_MS),
+                config.getInteger("state-notification-max-payload-size", DEFAULT_STATE_NOTIFICATION_MAX_PAYLOAD_SIZE));
+        this.moveReindexer = new DebouncedMoveReindexer(
+                vertx,
+                metricsRecorder,
+                config.getLong("move-reindex-debounce-delay-ms", 0L),
+                config.getInteger("move-reindex-debounce-queue-max-size", -1));
     }
 
     private MessageConsumer getRouter(Vertx vertx) {
@@ -156,8 +202,35 @@ public class IngestJob {
 
     public Future<JsonObject> getMetrics() {
         final JsonObject metrics = new JsonObject();
+        final long now = System.currentTimeMillis();
         metrics.put("status", status.name());
-        return Future.succeededFuture(metrics);
+        metrics.put("batch_size", batchSize);
+        metrics.put("in_flight_cycles", isLaned() ? laneScheduler.getInFlightBatches() : inFlightBatches);
+        metrics.put("pending_cycles", pending.size());
+        final JsonObject throughput = new JsonObject();
+        final JsonObject freshness = new JsonObject().put("last_ms", lastFreshnessMs);
+        for (final int window : new int[]{60, 300, 900}) {
+            final String windowName = (window / 60) + "m";
+            throughput.put("succeeded_per_s_" + windowName, succeededStats.getRate(window, now));
+            throughput.put("failed_per_s_" + windowName, failedStats.getRate(window, now));
+            freshness.put("avg_ms_" + windowName, freshnessStats.getAverage(window, now));
+        }
+        metrics.put("throughput", throughput);
+        metrics.put("freshness", freshness);
+        if (isLaned()) {
+            metrics.put("lanes", laneScheduler.getMetrics());
+        }
+        final JsonArray tracesJson = new JsonArray();
+        for (final IngestCycleTrace trace : new ArrayList<>(traces)) {
+            tracesJson.add(trace.toJson());
+        }
+        metrics.put("traces", tracesJson);
+        return messageReader.getMetrics()
+                .map(readerMetrics -> metrics.put("reader", readerMetrics))
+                .otherwise(th -> {
+                    log.error("Could not get the metrics of the message reader", th);
+                    return metrics;
+                });
     }
 
     public boolean isRunning() {
@@ -170,118 +243,418 @@ public class IngestJob {
 
     public Future<Void> execute(boolean force) {
         //TODO dynamic config? (maxattempt, batchsize...)
-        //TODO define max concurrent thread
         //TODO define max bulk size according (dynamic bulk size acording to response?)
         //TODO debounce ms? (config)
         // lock running
         if (!isRunning() && !force) {
             return Future.failedFuture("resource loader is stopped");
         }
+        if (isLaned()) {
+            return executeLanes();
+        }
+        if (isPipelined() && inFlightBatches >= maxInFlightBatches) {
+            // pipeline is full => the completion of the oldest batch will trigger the next execution
+            return waitPending();
+        }
         final long start = System.currentTimeMillis();
         this.ingestJobMetricsRecorder.onBatchSizeUpdate(this.batchSize);
-        final List<Future> copyPending = new ArrayList<>(pending);
+        // in serial mode a cycle starts reading only when every previous cycle is over
+        // in pipelined mode it only waits for the previous read, following stages are chained stage by stage
+        final Future<Void> readGate = isPipelined() ? lastReadStage : CompositeFuture.join(new ArrayList<>(pending)).mapEmpty();
         final Promise<Void> current = Promise.promise();
         pending.add(current.future());
         idExecution++;
+        inFlightBatches++;
+        final long tmpIdExecution = idExecution;
+        final IngestCycleTrace trace = new IngestCycleTrace(tmpIdExecution, null);
         this.ingestJobMetricsRecorder.onNewPendingIngestCycle();
-        CompositeFuture.all(copyPending).onComplete(onReady -> {
-            final long tmpIdExecution = idExecution;
-            try {
+        try {
+            // read
+            final Future<List<ExplorerMessageForIngest>> read = readGate.transform(onReady -> {
                 this.ingestJobMetricsRecorder.onIngestCycleStarted();
-                final Future<List<ExplorerMessageForIngest>> messages = this.messageReader.getMessagesToTreat(batchSize, maxAttempt);
-
-                messages.onSuccess(readMessages -> notifyMessageStateUpdate(readMessages, IngestJobState.RECEIVED))
-                .onFailure(current::fail)
-                .map(this.messageMerger::mergeMessages)
-                .compose(result -> {
-                    final List<ExplorerMessageForIngest> messagesToTreat = messageTransformer.transform(result.getMessagesToTreat());
-                    log.debug("[IngestResult] [id=" + idExecution + "] Number of message to treat="+messagesToTreat.size()+ " batchSize="+batchSize);
-                    return this.messageIngester
-                            .ingest(messagesToTreat)
-                            .map(jobResult -> Pair.of(jobResult, result))
-                            .otherwise(cause -> {
-                                // Fail everything
-                                for (final ExplorerMessageForIngest failedMessage : messagesToTreat) {
-                                    if(isBlank(failedMessage.getError())) {
-                                        failedMessage.setError("batch.error");
-                                    }
-                                    if(isBlank(failedMessage.getErrorDetails())) {
-                                        failedMessage.setErrorDetails(cause.toString());
-                                    }
-                                }
-                                final IngestJobResult jobResult = new IngestJobResult(
-                                        emptyList(),
-                                        messagesToTreat,
-                                        emptyList());
-                                return Pair.of(jobResult, result);
-                            });
-                })
-                .compose(ingestResultAndJobResult -> {
-                    final IngestJobResult ingestResult = ingestResultAndJobResult.getLeft();
-                    final Future<IngestJobResult> future;
-                    this.ingestJobMetricsRecorder.onIngestCycleResult(ingestResultAndJobResult.getLeft(), ingestResultAndJobResult.getRight(), start);
-                    if (ingestResult.size() > 0) {
-                        final IngestJobResult transformedJob = transformIngestResult(ingestResult, ingestResultAndJobResult.getRight());
-                        ingestResult.succeed.stream().filter(m -> ExplorerMessage.ExplorerAction.Move.name().equals(m.getAction()))
-                          .forEach(m -> {
-                              final IExplorerPluginClient client = IExplorerPluginClient.withBus(vertx, m.getApplication(), m.getResourceType());
-                              client.reindex(new ExplorerReindexResourcesRequest(Collections.singleton(m.getId())));
-                          });
-                        future = this.messageReader.updateStatus(transformedJob, maxAttempt)
-                            .compose(e -> {
-                                final List<ExplorerMessageForIngest> permanentlyDeletedMessages =
-                                    ingestResult.getFailed().stream()
-                                        .filter(m -> m.getAttemptCount() > maxAttempt)
-                                        .collect(Collectors.toList());
-                                return permanentIngestionErrorHandler.handleDeletedMessages(permanentlyDeletedMessages);
-                            })
-                            .map(ingestResult);
-                    } else {
-                        future = Future.succeededFuture(ingestResult);
-                    }
-                    return future;
-                }).onComplete(messageRes -> {
-                    try {
-                        if (messageRes.succeeded()) {
-                            this.ingestJobMetricsRecorder.onIngestCycleSucceeded();
-                            final IngestJobResult ingestResult = messageRes.result();
-                            log.debug("[IngestResult] [id=" + idExecution + "] Number of message treated="+ingestResult.size()+ " batchSize="+batchSize);
-                            notifyMessageStateUpdate(ingestResult.succeed, IngestJobState.OK);
-                            notifyMessageStateUpdate(ingestResult.failed, IngestJobState.KO);
-                            this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.result()));
-                        } else {
-                            this.ingestJobMetricsRecorder.onIngestCycleFailed();
-                            log.error("Failed to ingest messages:", messageRes.cause());
-                            this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.cause()));
-                        }
-                    } catch (Exception exc) {
-                        this.ingestJobMetricsRecorder.onIngestCycleFailed();
-                        log.error("Failed to clean up job execution:", exc);
-                        this.onExecutionEnd.handle(new DefaultAsyncResult<>(exc));
-                    } finally {
-                        this.ingestJobMetricsRecorder.onIngestCycleCompleted();
-                        this.modifyBatchSizeAfterCycleCompleted(messageRes.result());
-                        if(messageRes.succeeded()) {
-                            this.logBatchResult(messageRes.result());
-                        }
-                        onTaskComplete(current);
-                        //if no pending execution => trigger next execution
-                        if (tmpIdExecution == idExecution) {
-                            scheduleNextExecution(messageRes);
-                        }
-                    }
-                });
+                final long readStart = System.currentTimeMillis();
+                return this.messageReader.getMessagesToTreat(batchSize, maxAttempt)
+                        .onSuccess(readMessages -> recordStage(trace, IngestCycleTrace.Stage.Read, readStart, readMessages));
+            });
+            read.onSuccess(readMessages -> {
+                notifyMessageStateUpdate(readMessages, IngestJobState.RECEIVED);
+                readAhead(readMessages);
+            }).onFailure(current::fail);
+            lastReadStage = completion(read);
+            // merge and transform
+            final Future<MergeMessagesResult> merged = read.map(readMessages -> merge(readMessages, trace));
+            // write into postgres and opensearch (batches are written in the order they were read)
+            final Future<Pair<IngestJobResult, MergeMessagesResult>> written = lastWriteStage
+                .transform(previousWrite -> merged)
+                .compose(mergedMessages -> writeStage(read.result(), mergedMessages, trace));
+            lastWriteStage = completion(written);
+            // ack (batches are acked in the order they were read)
+            final Future<IngestJobResult> acked = lastAckStage
+                .transform(previousAck -> written)
+                .compose(ingestResultAndJobResult -> ackStage(ingestResultAndJobResult, start, trace));
+            lastAckStage = completion(acked);
+            acked.onComplete(messageRes -> {
+                onTraceCompleted(trace, messageRes.succeeded());
+                onCycleCompleted(messageRes, read, current, tmpIdExecution);
+            });
+        } catch (Exception e) {
+            inFlightBatches--;
+            onTaskComplete(current);
+            //if no other pending execution => trigger next execution
+            if (tmpIdExecution == idExecution) {
+                scheduleNextExecution(new DefaultAsyncResult<>(e));
+            }
+        }
+        return current.future();
+    }
+
+    private boolean isPipelined() {
+        return maxInFlightBatches > 1;
+    }
+
+    private boolean isLaned() {
+        return laneScheduler != null;
+    }
+
+    /**
+     * Read messages into the lanes (if they have room for them) and start the batches of the lanes which are ready.
+     * @return A future completed when the messages have been read and dispatched
+     */
+    private Future<Void> executeLanes() {
+        final int capacity = Math.min(batchSize, laneScheduler.getRemainingCapacity());
+        if (laneReadInProgress || capacity <= 0) {
+            // the end of a lane batch will trigger the next read
+            scheduleLanes();
+            return Future.succeededFuture();
+        }
+        laneReadInProgress = true;
+        vertx.cancelTimer(nextExecutionTimerId);
+        final Promise<Void> current = Promise.promise();
+        pending.add(current.future());
+        idExecution++;
+        final long readStart = System.currentTimeMillis();
+        this.messageReader.getMessagesToTreat(capacity, maxAttempt).onComplete(read -> {
+            laneReadInProgress = false;
+            try {
+                if (read.succeeded()) {
+                    final List<ExplorerMessageForIngest> readMessages = read.result();
+                    recordStage(null, IngestCycleTrace.Stage.Read, readStart, readMessages);
+                    notifyMessageStateUpdate(readMessages, IngestJobState.RECEIVED);
+                    laneScheduler.dispatch(readMessages);
+                    moreMessagesToRead = readMessages.size() >= capacity;
+                } else {
+                    log.error("Failed to read messages to dispatch in lanes:", read.cause());
+                    moreMessagesToRead = false;
+                }
+                scheduleLanes();
             } catch (Exception e) {
+                log.error("Failed to dispatch messages in lanes:", e);
+            } finally {
                 onTaskComplete(current);
-                //if no other pending execution => trigger next execution
-                if (tmpIdExecution == idExecution) {
-                    scheduleNextExecution(new DefaultAsyncResult<>(e));
+                if (moreMessagesToRead && isRunning() && laneScheduler.getRemainingCapacity() > 0) {
+                    execute();
+                } else if (!moreMessagesToRead) {
+                    //if execute is not trigger before this delay -> execute
+                    nextExecutionTimerId = vertx.setTimer(maxDelayBetweenExecutionMs, e -> execute());
                 }
             }
         });
         return current.future();
     }
 
+    /**
+     * Start the batches of the lanes elected by the scheduler and wake up when a lane which is backing off will be
+     * ready again.
+     */
+    private void scheduleLanes() {
+        final long now = System.currentTimeMillis();
+        for (final IngestLaneScheduler.LaneBatch batch : laneScheduler.nextBatches(now)) {
+            executeLaneBatch(batch.getLane(), batch.getMessages());
+        }
+        vertx.cancelTimer(laneWakeUpTimerId);
+        final long wakeUpDelay = laneScheduler.getNextWakeUpDelay(now);
+        if (wakeUpDelay > 0 && isRunning()) {
+            laneWakeUpTimerId = vertx.setTimer(wakeUpDelay, e -> scheduleLanes());
+        }
+    }
+
+    private void executeLaneBatch(final IngestLane lane, final List<ExplorerMessageForIngest> messages) {
+        final long start = System.currentTimeMillis();
+        final Promise<Void> current = Promise.promise();
+        pending.add(current.future());
+        final IngestCycleTrace trace = new IngestCycleTrace(++idExecution, lane.getId());
+        this.ingestJobMetricsRecorder.onNewPendingIngestCycle();
+        this.ingestJobMetricsRecorder.onIngestCycleStarted();
+        Future<IngestJobResult> acked;
+        try {
+            final MergeMessagesResult merged = merge(messages, trace);
+            final Future<Pair<IngestJobResult, MergeMessagesResult>> written = lane.chainWrite(messages, () -> writeStage(messages, merged, trace));
+            acked = lane.chainAck(written, ingestResultAndJobResult -> ackStage(ingestResultAndJobResult, start, trace));
+        } catch (Exception e) {
+            acked = Future.failedFuture(e);
+        }
+        acked.onComplete(messageRes -> {
+            onTraceCompleted(trace, messageRes.succeeded());
+            onLaneBatchCompleted(lane, messages, messageRes, start, current);
+        });
+    }
+
+    private void onLaneBatchCompleted(final IngestLane lane,
+                                      final List<ExplorerMessageForIngest> messages,
+                                      final AsyncResult<IngestJobResult> messageRes,
+                                      final long start,
+                                      final Promise<Void> current) {
+        try {
+            if (messageRes.succeeded()) {
+                this.ingestJobMetricsRecorder.onIngestCycleSucceeded();
+                notifyMessageStateUpdate(messageRes.result().succeed, IngestJobState.OK);
+                notifyMessageStateUpdate(messageRes.result().failed, IngestJobState.KO);
+                this.logBatchResult(messageRes.result());
+                this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.result()));
+            } else {
+                this.ingestJobMetricsRecorder.onIngestCycleFailed();
+                log.error("Failed to ingest messages of lane " + lane.getId() + ":", messageRes.cause());
+                this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.cause()));
+            }
+        } catch (Exception exc) {
+            log.error("Failed to clean up lane batch execution:", exc);
+        } finally {
+            this.messageReader.releaseMessages(messages);
+            this.ingestJobMetricsRecorder.onIngestCycleCompleted();
+            final BatchSizeController.Decision decision = laneScheduler.onBatchCompleted(lane, messageRes.result(), System.currentTimeMillis() - start);
+            this.ingestJobMetricsRecorder.onBatchSizeDecision(decision);
+            if (decision.hasChanged()) {
+                log.info("Batch size of lane " + lane.getId() + " changed from " + decision.getPreviousBatchSize() + " to " + decision.getNewBatchSize() + " (" + decision.getReason() + ")");
+            }
+            onTaskComplete(current);
+            if (isRunning()) {
+                scheduleLanes();
+                if (moreMessagesToRead) {
+                    execute();
+                }
+            }
+        }
+    }
+
+    /**
+     * In pipelined mode, start reading the next batch as soon as the current one has been read if the reader seems to
+     * have more messages pending.
+     * @param readMessages Messages read by the current cycle
+     */
+    private void readAhead(final List<ExplorerMessageForIngest> readMessages) {
+        if (isPipelined() && isRunning() && readMessages.size() >= batchSize && inFlightBatches < maxInFlightBatches) {
+            log.debug("[IngestResult] [id=" + idExecution + "] Reading ahead next batch. inFlight=" + inFlightBatches);
+            execute();
+        }
+    }
+
+    private MergeMessagesResult merge(final List<ExplorerMessageForIngest> readMessages, final IngestCycleTrace trace) {
+        final long mergeStart = System.currentTimeMillis();
+        final MergeMessagesResult result = this.messageMerger.mergeMessages(readMessages);
+        recordStage(trace, IngestCycleTrace.Stage.Merge, mergeStart, result.getMessagesToTreat().size(), -1);
+        return result;
+    }
+
+    /**
+     * @param readMessages Messages read from the queue, the batch is dropped without being acknowledged if they have
+     *                     been assigned to another worker in the meantime (see {@link IngestWorkerCoordinator})
+     */
+    private Future<Pair<IngestJobResult, MergeMessagesResult>> writeStage(final List<ExplorerMessageForIngest> readMessages,
+                                                                          final MergeMessagesResult result, final IngestCycleTrace trace) {
+        if (!this.messageReader.isStillAssigned(readMessages)) {
+            log.warn("[IngestResult] [id=" + idExecution + "] Dropping a batch of " + readMessages.size() + " messages read before the assignment of this worker changed");
+            return Future.failedFuture(new IllegalStateException("ingest.assignment.changed"));
+        }
+        final long transformStart = System.currentTimeMillis();
+        final List<ExplorerMessageForIngest> messagesToTreat = messageTransformer.transform(result.getMessagesToTreat());
+        recordStage(trace, IngestCycleTrace.Stage.Transform, transformStart, messagesToTreat);
+        log.debug("[IngestResult] [id=" + idExecution + "] Number of message to treat="+messagesToTreat.size()+ " batchSize="+batchSize);
+        final long ingestStart = System.currentTimeMillis();
+        return ingestOrBisect(messagesToTreat, new int[]{maxBisectRequests})
+                .onSuccess(jobResult -> recordStage(trace, IngestCycleTrace.Stage.Ingest, ingestStart, messagesToTreat.size(), jobResult.getBulkStats().getPayloadBytes()))
+                .map(jobResult -> Pair.of(jobResult, result));
+    }
+
+    private void recordStage(final IngestCycleTrace trace, final IngestCycleTrace.Stage stage, final long stageStart,
+                             final List<ExplorerMessageForIngest> messages) {
+        recordStage(trace, stage, stageStart, messages.size(), IngestCycleTrace.payloadSize(messages));
+    }
+
+    /**
+     * Record the metrics of a stage and add it to the trace of the cycle (if any).
+     * @param payloadBytes Size of the messages handled by the stage, -1 if it is not relevant for this stage
+     */
+    private void recordStage(final IngestCycleTrace trace, final IngestCycleTrace.Stage stage, final long stageStart,
+                             final int nbMessages, final long payloadBytes) {
+        final long elapsedTime = System.currentTimeMillis() - stageStart;
+        this.ingestJobMetricsRecorder.onIngestStageCompleted(stage, nbMessages, payloadBytes, elapsedTime);
+        if (trace != null) {
+            trace.onStageCompleted(stage, stageStart, nbMessages, payloadBytes);
+        }
+    }
+
+    /**
+     * Update the throughput and the freshness (time between the enqueuing of a message and its ingestion) statistics.
+     * @param result Result of the cycle for the messages read from the queue
+     */
+    private void recordThroughput(final IngestJobResult result) {
+        final long now = System.currentTimeMillis();
+        long nbWithFreshness = 0;
+        long totalFreshness = 0;
+        for (final ExplorerMessageForIngest message : result.succeed) {
+            final Optional<Long> enqueuedAt = message.getEnqueuedAt();
+            if (enqueuedAt.isPresent()) {
+                lastFreshnessMs = now - enqueuedAt.get();
+                totalFreshness += lastFreshnessMs;
+                nbWithFreshness++;
+            }
+        }
+        freshnessStats.record(nbWithFreshness, totalFreshness, now);
+        succeededStats.record(result.succeed.size() + result.skipped.size(), 0, now);
+        failedStats.record(result.failed.size(), 0, now);
+    }
+
+    private void onTraceCompleted(final IngestCycleTrace trace, final boolean succeeded) {
+        if (traceHistorySize > 0) {
+            traces.addLast(trace.onCompleted(succeeded));
+            while (traces.size() > traceHistorySize) {
+                traces.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Ingest messages and, if the whole batch fails, split it in two halves which are ingested one after the other
+     * (to keep the order of the messages) so that healthy messages are ingested and only the messages which make the
+     * batch fail are marked as failed.
+     * <u>NB: </u> Batches rejected because OpenSearch is overloaded are not split (it would only add load) and the number
+     * of additional requests is bounded so that an unavailable backend does not multiply the requests.
+     * @param messages Messages to ingest
+     * @param remainingRequests Number of requests that can still be sent to split the batch
+     * @return The result of the ingestion, it never fails
+     */
+    private Future<IngestJobResult> ingestOrBisect(final List<ExplorerMessageForIngest> messages, final int[] remainingRequests) {
+        return this.messageIngester.ingest(messages).recover(cause -> {
+            if (messages.size() > 1 && remainingRequests[0] >= 2 && !BulkIngestionStats.isRejection(cause.toString())) {
+                remainingRequests[0] -= 2;
+                this.ingestJobMetricsRecorder.onBatchBisected(messages.size());
+                log.warn("[IngestResult] [id=" + idExecution + "] Batch of " + messages.size() + " messages failed, splitting it to isolate failures: " + cause.getMessage());
+                final int middle = messages.size() / 2;
+                final List<ExplorerMessageForIngest> firstHalf = new ArrayList<>(messages.subList(0, middle));
+                final List<ExplorerMessageForIngest> secondHalf = new ArrayList<>(messages.subList(middle, messages.size()));
+                return ingestOrBisect(firstHalf, remainingRequests).compose(firstResult ->
+                        ingestOrBisect(secondHalf, remainingRequests).map(secondResult -> mergeResults(firstResult, secondResult)));
+            }
+            return Future.succeededFuture(failAll(messages, cause));
+        });
+    }
+
+    private IngestJobResult failAll(final List<ExplorerMessageForIngest> messagesToTreat, final Throwable cause) {
+        for (final ExplorerMessageForIngest failedMessage : messagesToTreat) {
+            if(isBlank(failedMessage.getError())) {
+                failedMessage.setError("batch.error");
+            }
+            if(isBlank(failedMessage.getErrorDetails())) {
+                failedMessage.setErrorDetails(cause.toString());
+            }
+        }
+        final IngestJobResult jobResult = new IngestJobResult(
+                emptyList(),
+                messagesToTreat,
+                emptyList());
+        if (messagesToTreat.size() == 1) {
+            // an isolated message is a content error, not a sign that the backend is struggling
+            jobResult.getBulkStats().onOperationFailed(cause.toString());
+        } else {
+            jobResult.getBulkStats().onBatchFailed(cause.toString(), messagesToTreat.size());
+        }
+        return jobResult;
+    }
+
+    private static IngestJobResult mergeResults(final IngestJobResult first, final IngestJobResult second) {
+        final IngestJobResult merged = new IngestJobResult();
+        merged.succeed.addAll(first.succeed);
+        merged.succeed.addAll(second.succeed);
+        merged.failed.addAll(first.failed);
+        merged.failed.addAll(second.failed);
+        merged.skipped.addAll(first.skipped);
+        merged.skipped.addAll(second.skipped);
+        return merged.withBulkStats(first.getBulkStats()).withBulkStats(second.getBulkStats());
+    }
+
+    private Future<IngestJobResult> ackStage(final Pair<IngestJobResult, MergeMessagesResult> ingestResultAndJobResult, final long start, final IngestCycleTrace trace) {
+        final IngestJobResult ingestResult = ingestResultAndJobResult.getLeft();
+        final Future<IngestJobResult> future;
+        this.ingestJobMetricsRecorder.onIngestCycleResult(ingestResultAndJobResult.getLeft(), ingestResultAndJobResult.getRight(), start);
+        if (ingestResult.size() > 0) {
+            final IngestJobResult transformedJob = transformIngestResult(ingestResult, ingestResultAndJobResult.getRight());
+            recordThroughput(transformedJob);
+            this.moveReindexer.handleMovedMessages(ingestResult.succeed.stream()
+                .filter(m -> ExplorerMessage.ExplorerAction.Move.name().equals(m.getAction()))
+                .collect(Collectors.toList()));
+            final long ackStart = System.currentTimeMillis();
+            future = this.messageReader.updateStatus(transformedJob, maxAttempt)
+                .compose(e -> {
+                    recordStage(trace, IngestCycleTrace.Stage.Ack, ackStart, transformedJob.size(), -1);
+                    final List<ExplorerMessageForIngest> permanentlyDeletedMessages =
+                        ingestResult.getFailed().stream()
+                            .filter(m -> m.getAttemptCount() > maxAttempt)
+                            .collect(Collectors.toList());
+                    final long errorHandlingStart = System.currentTimeMillis();
+                    return permanentIngestionErrorHandler.handleDeletedMessages(permanentlyDeletedMessages)
+                        .onSuccess(handled -> recordStage(trace, IngestCycleTrace.Stage.PermanentErrorHandling, errorHandlingStart, permanentlyDeletedMessages.size(), -1));
+                })
+                .map(ingestResult);
+        } else {
+            future = Future.succeededFuture(ingestResult);
+        }
+        return future;
+    }
+
+    private void onCycleCompleted(final AsyncResult<IngestJobResult> messageRes,
+                                  final Future<List<ExplorerMessageForIngest>> read,
+                                  final Promise<Void> current,
+                                  final long tmpIdExecution) {
+        try {
+            if (messageRes.succeeded()) {
+                this.ingestJobMetricsRecorder.onIngestCycleSucceeded();
+                final IngestJobResult ingestResult = messageRes.result();
+                log.debug("[IngestResult] [id=" + tmpIdExecution + "] Number of message treated="+ingestResult.size()+ " batchSize="+batchSize);
+                notifyMessageStateUpdate(ingestResult.succeed, IngestJobState.OK);
+                notifyMessageStateUpdate(ingestResult.failed, IngestJobState.KO);
+                this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.result()));
+            } else {
+                this.ingestJobMetricsRecorder.onIngestCycleFailed();
+                log.error("Failed to ingest messages:", messageRes.cause());
+                this.onExecutionEnd.handle(new DefaultAsyncResult<>(messageRes.cause()));
+            }
+        } catch (Exception exc) {
+            this.ingestJobMetricsRecorder.onIngestCycleFailed();
+            log.error("Failed to clean up job execution:", exc);
+            this.onExecutionEnd.handle(new DefaultAsyncResult<>(exc));
+        } finally {
+            if (read.succeeded()) {
+                // messages have been acked (or failed to) so the reader can hand them out again if needed
+                this.messageReader.releaseMessages(read.result());
+            }
+            inFlightBatches--;
+            this.ingestJobMetricsRecorder.onIngestCycleCompleted();
+            this.modifyBatchSizeAfterCycleCompleted(messageRes.result());
+            if(messageRes.succeeded()) {
+                this.logBatchResult(messageRes.result());
+            }
+            onTaskComplete(current);
+            //if no pending execution => trigger next execution
+            if (tmpIdExecution == idExecution) {
+                scheduleNextExecution(messageRes);
+            }
+        }
+    }
+
+    private static <T> Future<Void> completion(final Future<T> stage) {
+        return stage.transform(done -> Future.succeededFuture());
+    }
+
     private void logBatchResult(final IngestJobResult result) {
         final List<ExplorerMessageForIngest> succeeded = result == null ? emptyList() : result.getSucceed();
         final List<ExplorerMessageForIngest> failed = result == null ? emptyList() : result.getFailed();
@@ -315,67 +688,25 @@ public class IngestJob {
     }
 
     private void modifyBatchSizeAfterCycleCompleted(final IngestJobResult result) {
-        final List<ExplorerMessageForIngest> succeeded = result == null ? emptyList() : result.getSucceed();
-        final List<ExplorerMessageForIngest> failed = result == null ? emptyList() : result.getFailed();
-        if(failed == null || failed.isEmpty()) {
-            // grow batch size only if some ingest succeed and maxBatchSize is not reached
-            if(succeeded.size() > 0 && this.batchSize != maxBatchSize) {
-                log.info("Growing back batch size to " + this.batchSize + " after a cycle without failures");
-                this.batchSize = Math.min(maxBatchSize, this.batchSize * 2);
-                this.ingestJobMetricsRecorder.onBatchSizeUpdate(this.batchSize);
+        final BatchSizeController.Decision decision = this.batchSizeController.onCycleCompleted(result);
+        this.ingestJobMetricsRecorder.onBatchSizeDecision(decision);
+        if(decision.hasChanged()) {
+            if(decision.getNewBatchSize() > decision.getPreviousBatchSize()) {
+                log.info("Growing back batch size to " + decision.getNewBatchSize() + " after a cycle without failures");
+            } else {
+                log.warn("Ingest cycle ended with " + decision.getReason() + " so we are going to shrink the batch size from " + decision.getPreviousBatchSize() + " to " + decision.getNewBatchSize());
             }
-        } else {
-            final int newBatchSize = Math.max(1, this.batchSize / 2);
-            log.warn("Ingest cycle failed so we are going to shrink the batch size from " + this.batchSize + " to " + newBatchSize);
-            this.batchSize = newBatchSize;
+            this.batchSize = decision.getNewBatchSize();
             this.ingestJobMetricsRecorder.onBatchSizeUpdate(this.batchSize);
         }
     }
 
-    private static class ApplicationAndEntity {
-        private final String application;
-        private final String entity;
-
-        private ApplicationAndEntity(final String application, final String entity) {
-            this.application = application;
-            this.entity = entity;
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (!(o instanceof ApplicationAndEntity)) {
-                return false;
-            }
-            final ApplicationAndEntity that = (ApplicationAndEntity) o;
-            return Objects.equals(application, that.application) && Objects.equals(entity, that.entity);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(application, entity);
-        }
-    }
-
     private void notifyMessageStateUpdate(final List<ExplorerMessageForIngest> readMessages, final IngestJobState state) {
-        readMessages.stream()
-        .filter(readMessage -> readMessage.getIdQueue().isPresent())
-        .collect(Collectors.groupingBy(m -> new ApplicationAndEntity(m.getApplication(), m.getEntityType())))
-        .entrySet().stream()
-        .forEach(messagesByApplication -> {
-            final ApplicationAndEntity key = messagesByApplication.getKey();
-            final List<ExplorerMessageForIngest> messages = messagesByApplication.getValue();
-            try {
-                final List<IngestJobStateUpdateMessage> messagesBatch = messages.stream()
-                        .map(readMessage -> new IngestJobStateUpdateMessage(readMessage.getId(), readMessage.getVersion(), state))
-                        .collect(Collectors.toList());
-                vertx.eventBus().send(addressForIngestStateUpdate(key.application, key.entity), Json.encode(messagesBatch));
-            } catch (Exception e) {
-                log.error("Could not notify a message state update (" + state + ") : " + messages, e);
-            }
-        });
+        try {
+            this.stateNotifier.notify(readMessages, state);
+        } catch (Exception e) {
+            log.error("Could not notify a message state update (" + state + ") : " + readMessages, e);
+        }
     }
 
     private IngestJobResult transformIngestResult(final IngestJobResult ingestResult, final MergeMessagesResult mergedMessages) {
@@ -390,7 +721,17 @@ public class IngestJob {
                                                          final Map<String, List<ExplorerMessageForIngest>> messagesByUniqueId) {
         return sourceMessagesExtractor.stream()
             .filter(message -> message.getIdQueue().isPresent()) // Because some synthetic messages can be added
-            .flatMap(message -> messagesByUniqueId.get(message.getIdQueue().get()).stream())
+            .flatMap(message -> {
+                final List<ExplorerMessageForIngest> sourceMessages = messagesByUniqueId.get(message.getIdQueue().get());
+                // a merged message is a new message : the readers store the error of the messages it was built from
+                for (final ExplorerMessageForIngest sourceMessage : sourceMessages) {
+                    if (sourceMessage != message) {
+                        sourceMessage.setError(message.getError());
+                        sourceMessage.setErrorDetails(message.getErrorDetails());
+                    }
+                }
+                return sourceMessages.stream();
+            })
             .collect(Collectors.toList());
     }
 
@@ -445,7 +786,9 @@ public class IngestJob {
                 return;
             }
             pendingNotification = true;
-            waitPending().onComplete(pending -> {
+            // in pipelined mode there is no need to wait for the end of pending cycles to read new messages
+            final Future<Void> ready = isPipelined() || isLaned() ? Future.succeededFuture() : waitPending();
+            ready.onComplete(pending -> {
                 pendingNotification = false;
                 execute();
             });
@@ -469,12 +812,16 @@ public class IngestJob {
         this.ingestJobMetricsRecorder.onJobStopped();
         this.messageReader.stop();
         this.status = IngestJobStatus.Stopped;
+        vertx.cancelTimer(laneWakeUpTimerId);
         if (subscription != null) {
             subscription.apply(null);
             this.subscription = null;
         }
         final Future<Void> future = waitPending().mapEmpty();
         return future.onComplete(ee -> {
+            // do not wait for the debounce delay to ask applications to reindex their moved resources
+            this.moveReindexer.sendReindexRequests();
+            this.stateNotifier.flush();
             this.onExecutionEnd = e -> {
             };
         });
@@ -488,6 +835,7 @@ public class IngestJob {
         final List<ExplorerMessageForIngest> succeed;
         final List<ExplorerMessageForIngest> failed;
         final List<ExplorerMessageForIngest> skipped;
+        private final BulkIngestionStats bulkStats = new BulkIngestionStats();
 
         public IngestJobResult() {
             this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
@@ -512,6 +860,15 @@ public class IngestJob {
             return skipped;
         }
 
+        public BulkIngestionStats getBulkStats() {
+            return bulkStats;
+        }
+
+        public IngestJobResult withBulkStats(final BulkIngestionStats stats) {
+            this.bulkStats.merge(stats);
+            return this;
+        }
+
         public int size() {
             return succeed.size() + failed.size() + skipped.size();
         }
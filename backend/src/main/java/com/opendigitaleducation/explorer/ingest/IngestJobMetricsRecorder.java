@@ -10,6 +10,8 @@ public interface IngestJobMetricsRecorder {
     void onJobStopped();
     /** Register the new batch size. */
     void onBatchSizeUpdate(final int newBatchSize);
+    /** Register the decision taken by the batch size controller at the end of a cycle. */
+    void onBatchSizeDecision(final BatchSizeController.Decision decision);
     /** Register the fact that a new cycle of ingestion has been started. */
     void onIngestCycleStarted();
     /** Register the fact that a new cycle of ingestion has succeeded. */
@@ -60,12 +62,62 @@ public interface IngestJobMetricsRecorder {
      */
     void onIngestOpenSearchResult(final int nbOk, final int nbKo, long elapsedTime);
 
+    /**
+     * Register a bulk request sent to OpenSearch
+     * @param nbOperations Number of operations of the request
+     * @param payloadBytes Estimated size in bytes of the request
+     */
+    void onOpenSearchBulkSent(final int nbOperations, final long payloadBytes);
+
     /**
      * Register statistics about the ingestion in Postgres
      * @param elapsedTime Time taken to process these messages in Postgres
      */
     void onIngestPostgresResult(long elapsedTime);
 
+    /**
+     * Register the time taken by a statement of the backup in Postgres
+     * @param statement Name of the statement (upsert_resources, delete_resources, transaction, etc.)
+     * @param elapsedTime Time between the moment the statement was sent and the moment its result was received
+     */
+    void onIngestPostgresStatement(final String statement, final long elapsedTime);
+
+    /**
+     * Register the fact that a batch failed as a whole and has been split to isolate the failing messages.
+     * @param batchSize Size of the batch that was split
+     */
+    void onBatchBisected(final int batchSize);
+
+    /**
+     * Register statistics about a stage of an ingestion cycle.
+     * @param stage The stage that has just completed
+     * @param nbMessages Number of messages handled by the stage
+     * @param payloadBytes Size in bytes of the messages handled by the stage, -1 if it has not been measured
+     * @param elapsedTime Time taken by the stage
+     */
+    void onIngestStageCompleted(final IngestCycleTrace.Stage stage, final int nbMessages, final long payloadBytes, final long elapsedTime);
+
+    /**
+     * Register the reindex requests sent to applications after resources have been moved.
+     * @param nbMovedResources Number of moved resources (i.e. number of requests that would have been sent one by one)
+     * @param nbRequests Number of requests actually sent
+     */
+    void onMoveReindexRequestsSent(final int nbMovedResources, final int nbRequests);
+
+    /**
+     * Register a new ingest lane so that its backlog, batch size and in-flight batches can be monitored.
+     * @param lane The lane that has just been created
+     */
+    void onLaneCreated(final IngestLane lane);
+
+    /**
+     * Register statistics about a batch ingested by a lane.
+     * @param lane Lane of the batch
+     * @param result Result of the batch or {@code null} if the whole batch failed
+     * @param elapsedTime Time taken to ingest the batch
+     */
+    void onLaneBatchCompleted(final IngestLane lane, final IngestJob.IngestJobResult result, final long elapsedTime);
+
     class NoopIngestJobMetricsRecorder implements IngestJobMetricsRecorder {
         @Override
         public void onJobStarted() {
@@ -122,9 +174,49 @@ public interface IngestJobMetricsRecorder {
 
         }
 
+        @Override
+        public void onOpenSearchBulkSent(final int nbOperations, final long payloadBytes) {
+
+        }
+
+        @Override
+        public void onIngestPostgresStatement(final String statement, final long elapsedTime) {
+
+        }
+
+        @Override
+        public void onBatchBisected(final int batchSize) {
+
+        }
+
+        @Override
+        public void onIngestStageCompleted(final IngestCycleTrace.Stage stage, final int nbMessages, final long payloadBytes, final long elapsedTime) {
+
+        }
+
+        @Override
+        public void onMoveReindexRequestsSent(final int nbMovedResources, final int nbRequests) {
+
+        }
+
+        @Override
+        public void onLaneCreated(final IngestLane lane) {
+
+        }
+
+        @Override
+        public void onLaneBatchCompleted(final IngestLane lane, final IngestJob.IngestJobResult result, final long elapsedTime) {
+
+        }
+
         @Override
         public void onBatchSizeUpdate(final int newBatchSize) {
 
         }
+
+        @Override
+        public void onBatchSizeDecision(final BatchSizeController.Decision decision) {
+
+        }
     }
 }
@@ -18,6 +18,8 @@ import java.util.List;
 public class IngestJobWorker extends AbstractVerticle {
     static Logger log = LoggerFactory.getLogger(Explorer.class);
     private IngestJob job;
+    private IngestWorkerCoordinator coordinator;
+    private ResourceQueueArchiver archiver;
 
     @Override
     public void start(final Promise<Void> startPromise) throws Exception {
@@ -46,13 +48,39 @@ public class IngestJobWorker extends AbstractVerticle {
           //create ingest job
           final JsonObject ingestConfig = config().getJsonObject("ingest");
           try {
-            MessageReader.create(vertx, config(), ingestConfig).onSuccess(reader -> {
+            final JsonObject readerConfig;
+            if (IngestWorkerCoordinator.isEnabled(ingestConfig)) {
+              coordinator = new IngestWorkerCoordinator(vertx, postgresClient, ingestConfig.getJsonObject("coordination"));
+              // each worker consumes the redis streams under its own name so that new messages are shared between them
+              readerConfig = ingestConfig.copy()
+                .put("consumer-name-per-instance", ingestConfig.getBoolean("consumer-name-per-instance", true))
+                .put("consumer-instance-id", ingestConfig.getString("consumer-instance-id", coordinator.getWorkerId()));
+            } else {
+              readerConfig = ingestConfig;
+            }
+            MessageReader.create(vertx, config(), readerConfig).onSuccess(reader -> {
               final IngestJobMetricsRecorder metricsRecorder = IngestJobMetricsRecorderFactory.getIngestJobMetricsRecorder();
               final MessageIngester ingester = MessageIngester.elasticWithPgBackup(elasticClientManager, postgresClient, metricsRecorder, config());
               log.info("Starting ingest job worker. pgBusEnabled=" + enablePgBus + " workerJobEnabled=" + runjobInWroker + " pgPoolEnabled=" + poolMode);
               job = new IngestJob(vertx, reader, ingester, metricsRecorder, ingestConfig);
               final List<Future> futures = new ArrayList<>();
-              futures.add(job.start());
+              // the queue is partitioned by day whatever the stream read by the worker : its partitions are always
+              // created in advance but only the postgres readers restrict their queries to the hot ones (processed
+              // partitions are only archived when it is enabled)
+              archiver = new ResourceQueueArchiver(vertx, postgresClient, ingestConfig, hotSince -> {
+                if (reader instanceof MessageReaderPostgres) {
+                  ((MessageReaderPostgres) reader).setHotSince(hotSince);
+                }
+              });
+              futures.add(archiver.start());
+              if (coordinator != null) {
+                coordinator.onAssignmentChanged(reader::onPartitionAssigned);
+                futures.add(coordinator.start()
+                  .onSuccess(reader::onPartitionAssigned)
+                  .transform(assigned -> job.start()));
+              } else {
+                futures.add(job.start());
+              }
               //call start promise
               CompositeFuture.all(futures).onComplete(e -> {
                 log.info("Ingest job started -> " + e.succeeded());
@@ -70,6 +98,12 @@ public class IngestJobWorker extends AbstractVerticle {
         final List<Future> futures = new ArrayList<>();
         log.info("Stopping ingest job worker... ");
         futures.add(job.stop());
+        if (coordinator != null) {
+            futures.add(coordinator.stop());
+        }
+        if (archiver != null) {
+            archiver.stop();
+        }
         //call stop promise
         CompositeFuture.all(futures).onComplete(e->{
             log.info("Ingest job stopped -> "+e.succeeded());
@@ -0,0 +1,211 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import com.opendigitaleducation.explorer.ingest.impl.BatchSizeControllerFactory;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Partition of the ingestion dedicated to one application and entity type (e.g. blog/blog, exercizer/subject).
+ * </p>
+ * <p>
+ * Each lane buffers the messages of its partition and ingests them with its own batch size, its own concurrency and
+ * its own backoff so that a partition whose messages are slow (or failing) to ingest does not delay the others.
+ * Messages of a resource always belong to the same lane. Up to <strong>max-concurrency</strong> batches of a lane are
+ * written at once, but a batch waits for the batches read before it which concern one of its resources so that two
+ * versions of a resource are never written concurrently. Batches are acknowledged in the order they were read.
+ * </p>
+ */
+public class IngestLane {
+    static final int DEFAULT_MAX_CONCURRENCY = 1;
+    static final long DEFAULT_BACKOFF_BASE_MS = 1000L;
+    static final long DEFAULT_BACKOFF_MAX_MS = 60000L;
+    private final String id;
+    private final String application;
+    private final String entityType;
+    private final Deque<ExplorerMessageForIngest> backlog = new ArrayDeque<>();
+    private final BatchSizeController batchSizeController;
+    /** Maximum number of batches of this lane being treated at once.*/
+    private final int maxConcurrency;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    /** Last write of each resource being written by this lane.*/
+    private final Map<String, Future<Void>> lastWriteByResource = new HashMap<>();
+    private Future<Void> lastAckStage = Future.succeededFuture();
+    private int inFlightBatches = 0;
+    private int consecutiveFailures = 0;
+    private long backoffUntil = 0L;
+    private long nbCycles = 0L;
+    private long nbSucceeded = 0L;
+    private long nbFailed = 0L;
+    private long nbBackoffs = 0L;
+    private long lastCycleDurationMs = 0L;
+
+    public IngestLane(final String application, final String entityType, final JsonObject config, final int defaultBatchSize) {
+        this.id = laneId(application, entityType);
+        this.application = application;
+        this.entityType = entityType;
+        this.batchSizeController = BatchSizeControllerFactory.create(
+                config.getJsonObject("batch-size-controller", new JsonObject()),
+                config.getInteger("batch-size", defaultBatchSize));
+        this.maxConcurrency = Math.max(1, config.getInteger("max-concurrency", DEFAULT_MAX_CONCURRENCY));
+        this.backoffBaseMs = config.getLong("backoff-base-ms", DEFAULT_BACKOFF_BASE_MS);
+        this.backoffMaxMs = config.getLong("backoff-max-ms", DEFAULT_BACKOFF_MAX_MS);
+    }
+
+    public static String laneId(final String application, final String entityType) {
+        return application + ":" + entityType;
+    }
+
+    public static String laneId(final ExplorerMessageForIngest message) {
+        return laneId(message.getApplication(), message.getEntityType());
+    }
+
+    void offer(final ExplorerMessageForIngest message) {
+        backlog.add(message);
+    }
+
+    /**
+     * @param now Current timestamp
+     * @return {@code true} if this lane has messages to ingest and is neither saturated nor backing off
+     */
+    boolean isReady(final long now) {
+        return !backlog.isEmpty() && inFlightBatches < maxConcurrency && now >= backoffUntil;
+    }
+
+    boolean isBackingOff(final long now) {
+        return !backlog.isEmpty() && inFlightBatches < maxConcurrency && now < backoffUntil;
+    }
+
+    /**
+     * Take the next batch of messages of this lane and consider it in flight.
+     * @return The messages to ingest in the order they were read
+     */
+    List<ExplorerMessageForIngest> startBatch() {
+        final int size = Math.min(backlog.size(), batchSizeController.getBatchSize());
+        final List<ExplorerMessageForIngest> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(backlog.poll());
+        }
+        inFlightBatches++;
+        nbCycles++;
+        return batch;
+    }
+
+    /**
+     * Writes of a lane are chained resource by resource so that two versions of the same resource are never written
+     * concurrently whereas batches concerning other resources are written at the same time.
+     * @param messages Messages of the batch
+     */
+    <T> Future<T> chainWrite(final Collection<ExplorerMessageForIngest> messages, final Supplier<Future<T>> write) {
+        final Set<String> resourceIds = new LinkedHashSet<>();
+        for (final ExplorerMessageForIngest message : messages) {
+            resourceIds.add(Objects.toString(message.getResourceUniqueId(), message.getId()));
+        }
+        final List<Future> previousWrites = new ArrayList<>();
+        for (final String resourceId : resourceIds) {
+            final Future<Void> previousWrite = lastWriteByResource.get(resourceId);
+            if (previousWrite != null && !previousWrites.contains(previousWrite)) {
+                previousWrites.add(previousWrite);
+            }
+        }
+        final Future<T> written = CompositeFuture.join(previousWrites).transform(previous -> write.get());
+        final Future<Void> done = written.transform(e -> Future.succeededFuture());
+        for (final String resourceId : resourceIds) {
+            lastWriteByResource.put(resourceId, done);
+        }
+        done.onComplete(e -> resourceIds.forEach(resourceId -> lastWriteByResource.remove(resourceId, done)));
+        return written;
+    }
+
+    <T, U> Future<U> chainAck(final Future<T> written, final Function<T, Future<U>> ack) {
+        final Future<U> acked = lastAckStage.transform(previous -> written).compose(ack);
+        lastAckStage = acked.transform(done -> Future.succeededFuture());
+        return acked;
+    }
+
+    /**
+     * Update the batch size and the backoff of this lane according to the result of one of its batches.
+     * @param result Result of the cycle, {@code null} if the cycle failed
+     * @param durationMs Duration of the cycle
+     * @return The decision of the batch size controller
+     */
+    BatchSizeController.Decision onBatchCompleted(final IngestJob.IngestJobResult result, final long durationMs, final long now) {
+        inFlightBatches--;
+        lastCycleDurationMs = durationMs;
+        if (result != null) {
+            nbSucceeded += result.getSucceed().size() + result.getSkipped().size();
+            nbFailed += result.getFailed().size();
+        }
+        final boolean capacityIssue = result == null
+                || result.getBulkStats().isBatchFailed()
+                || result.getBulkStats().getNbRejected() > 0;
+        if (capacityIssue) {
+            consecutiveFailures++;
+            nbBackoffs++;
+            final long delay = Math.min(backoffMaxMs, backoffBaseMs * (1L << Math.min(consecutiveFailures - 1, 20)));
+            backoffUntil = now + delay;
+        } else {
+            consecutiveFailures = 0;
+            backoffUntil = 0L;
+        }
+        return batchSizeController.onCycleCompleted(result);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public int getBacklogSize() {
+        return backlog.size();
+    }
+
+    public int getBatchSize() {
+        return batchSizeController.getBatchSize();
+    }
+
+    public int getInFlightBatches() {
+        return inFlightBatches;
+    }
+
+    public long getBackoffUntil() {
+        return backoffUntil;
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("backlog", backlog.size())
+                .put("batch_size", getBatchSize())
+                .put("in_flight", inFlightBatches)
+                .put("max_concurrency", maxConcurrency)
+                .put("cycles", nbCycles)
+                .put("succeeded", nbSucceeded)
+                .put("failed", nbFailed)
+                .put("backoffs", nbBackoffs)
+                .put("consecutive_failures", consecutiveFailures)
+                .put("backoff_until", backoffUntil)
+                .put("last_cycle_duration_ms", lastCycleDurationMs);
+    }
+}
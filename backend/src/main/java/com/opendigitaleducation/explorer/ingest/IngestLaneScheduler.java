@@ -0,0 +1,178 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Dispatches the messages read by the ingest job into {@link IngestLane}s (one per application and entity type) and
+ * elects, in a round-robin fashion, the lanes whose next batch should be ingested.
+ * </p>
+ * <p>
+ * It is configured by the <strong>lanes</strong> object of the ingest configuration :
+ * <ul>
+ *     <li>enabled, whether messages should be ingested by lanes (default false)</li>
+ *     <li>max-concurrent-batches, maximum number of batches (all lanes included) being ingested at once</li>
+ *     <li>max-buffered-messages, maximum number of read messages waiting in lanes before the job stops reading</li>
+ *     <li>default, configuration of each lane (batch-size, batch-size-controller, max-concurrency, backoff-base-ms,
+ *     backoff-max-ms)</li>
+ *     <li>overrides, configuration of a lane (or of all the lanes of an application) merged with the default one, by
+ *     lane id (application:entityType) or by application</li>
+ * </ul>
+ * </p>
+ */
+public class IngestLaneScheduler {
+    static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+    static final int DEFAULT_MAX_BUFFERED_MESSAGES = 1000;
+    private final Map<String, IngestLane> lanes = new LinkedHashMap<>();
+    private final JsonObject defaultLaneConfig;
+    private final JsonObject overrides;
+    private final int defaultBatchSize;
+    private final int maxConcurrentBatches;
+    private final int maxBufferedMessages;
+    private final IngestJobMetricsRecorder metricsRecorder;
+    /** Index of the lane that will be looked at first during the next election.*/
+    private int cursor = 0;
+    private int inFlightBatches = 0;
+
+    public IngestLaneScheduler(final JsonObject config, final int defaultBatchSize, final IngestJobMetricsRecorder metricsRecorder) {
+        this.defaultLaneConfig = config.getJsonObject("default", new JsonObject());
+        this.overrides = config.getJsonObject("overrides", new JsonObject());
+        this.defaultBatchSize = defaultBatchSize;
+        this.maxConcurrentBatches = Math.max(1, config.getInteger("max-concurrent-batches", DEFAULT_MAX_CONCURRENT_BATCHES));
+        this.maxBufferedMessages = Math.max(defaultBatchSize, config.getInteger("max-buffered-messages", DEFAULT_MAX_BUFFERED_MESSAGES));
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    public static boolean isEnabled(final JsonObject ingestConfig) {
+        return ingestConfig.getJsonObject("lanes", new JsonObject()).getBoolean("enabled", false);
+    }
+
+    /**
+     * Put read messages at the end of the backlog of their lane.
+     * @param messages Messages in the order they were read
+     */
+    public void dispatch(final List<ExplorerMessageForIngest> messages) {
+        for (final ExplorerMessageForIngest message : messages) {
+            getOrCreateLane(message).offer(message);
+        }
+    }
+
+    private IngestLane getOrCreateLane(final ExplorerMessageForIngest message) {
+        return lanes.computeIfAbsent(IngestLane.laneId(message), laneId -> {
+            final JsonObject laneConfig = defaultLaneConfig.copy()
+                    .mergeIn(overrides.getJsonObject(message.getApplication(), new JsonObject()))
+                    .mergeIn(overrides.getJsonObject(laneId, new JsonObject()));
+            final IngestLane lane = new IngestLane(message.getApplication(), message.getEntityType(), laneConfig, defaultBatchSize);
+            metricsRecorder.onLaneCreated(lane);
+            return lane;
+        });
+    }
+
+    /**
+     * Elect the lanes whose next batch should be ingested now. Each ready lane gets at most one batch per round and
+     * the next election starts after the last elected lane so that every lane gets its turn.
+     * @param now Current timestamp
+     * @return The lanes with the batch they should ingest
+     */
+    public List<LaneBatch> nextBatches(final long now) {
+        final List<LaneBatch> batches = new ArrayList<>();
+        final List<IngestLane> allLanes = new ArrayList<>(lanes.values());
+        boolean elected = true;
+        while (elected && inFlightBatches < maxConcurrentBatches && !allLanes.isEmpty()) {
+            elected = false;
+            for (int i = 0; i < allLanes.size() && inFlightBatches < maxConcurrentBatches; i++) {
+                final int index = (cursor + i) % allLanes.size();
+                final IngestLane lane = allLanes.get(index);
+                if (lane.isReady(now)) {
+                    batches.add(new LaneBatch(lane, lane.startBatch()));
+                    inFlightBatches++;
+                    elected = true;
+                    cursor = (index + 1) % allLanes.size();
+                    break;
+                }
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Register the end of a batch of a lane.
+     * @return The decision taken by the batch size controller of the lane
+     */
+    public BatchSizeController.Decision onBatchCompleted(final IngestLane lane, final IngestJob.IngestJobResult result, final long durationMs) {
+        inFlightBatches--;
+        final BatchSizeController.Decision decision = lane.onBatchCompleted(result, durationMs, System.currentTimeMillis());
+        metricsRecorder.onLaneBatchCompleted(lane, result, durationMs);
+        return decision;
+    }
+
+    /**
+     * @param now Current timestamp
+     * @return The delay before a lane which is backing off becomes ready, -1 if no lane is backing off
+     */
+    public long getNextWakeUpDelay(final long now) {
+        long delay = -1;
+        for (final IngestLane lane : lanes.values()) {
+            if (lane.isBackingOff(now)) {
+                final long laneDelay = lane.getBackoffUntil() - now;
+                delay = delay < 0 ? laneDelay : Math.min(delay, laneDelay);
+            }
+        }
+        return delay;
+    }
+
+    public int getBufferedMessages() {
+        int buffered = 0;
+        for (final IngestLane lane : lanes.values()) {
+            buffered += lane.getBacklogSize();
+        }
+        return buffered;
+    }
+
+    /**
+     * @return Number of messages that can still be read without exceeding the maximum number of buffered messages
+     */
+    public int getRemainingCapacity() {
+        return Math.max(0, maxBufferedMessages - getBufferedMessages());
+    }
+
+    public int getInFlightBatches() {
+        return inFlightBatches;
+    }
+
+    public JsonObject getMetrics() {
+        final JsonObject metrics = new JsonObject()
+                .put("in_flight", inFlightBatches)
+                .put("buffered", getBufferedMessages())
+                .put("max_concurrent_batches", maxConcurrentBatches)
+                .put("max_buffered_messages", maxBufferedMessages);
+        final JsonObject lanesMetrics = new JsonObject();
+        for (final IngestLane lane : lanes.values()) {
+            lanesMetrics.put(lane.getId(), lane.toJson());
+        }
+        return metrics.put("lanes", lanesMetrics);
+    }
+
+    public static class LaneBatch {
+        private final IngestLane lane;
+        private final List<ExplorerMessageForIngest> messages;
+
+        LaneBatch(final IngestLane lane, final List<ExplorerMessageForIngest> messages) {
+            this.lane = lane;
+            this.messages = messages;
+        }
+
+        public IngestLane getLane() {
+            return lane;
+        }
+
+        public List<ExplorerMessageForIngest> getMessages() {
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Coordinates the ingest workers running on several nodes through a lease table (explorer.ingest_workers).
+ * </p>
+ * <p>
+ * Each worker registers itself and renews its lease periodically. Workers whose lease has expired are removed and
+ * the remaining ones are sorted by id : the position of a worker in this list gives the partition it is assigned to.
+ * When a worker joins or leaves, every worker computes its new assignment at its next heartbeat and notifies its
+ * listeners so that the readers can rebalance.
+ * </p>
+ * <p>
+ * Workers do not learn a change at the same time (up to <strong>heartbeat-ms</strong> apart), so a new assignment is
+ * handed over in two steps : the worker first stops reading ({@link Assignment#NONE}, the readers then fence the
+ * batches read under the previous assignment, see {@link MessageReader#isStillAssigned}) and only takes its new
+ * partition <strong>heartbeat-ms</strong> later, once the previous owners have stopped reading it too. As a result :
+ * <ul>
+ *     <li>two workers may only write the same messages if a bulk request started before the previous owner learned
+ *     the change is still running when the new owner reads them</li>
+ *     <li>no worker reads a partition for up to 2 * heartbeat-ms when a worker joins or stops, and up to
+ *     lease-ttl-ms + 2 * heartbeat-ms when a worker crashes</li>
+ * </ul>
+ * </p>
+ * <p>
+ * It is configured by the <strong>coordination</strong> object of the ingest configuration :
+ * <ul>
+ *     <li>enabled, whether workers should be coordinated (default false)</li>
+ *     <li>worker-id, id of this worker (default: the name of the host, it has to be set when several workers run on
+ *     the same host)</li>
+ *     <li>heartbeat-ms, delay between two renewals of the lease</li>
+ *     <li>lease-ttl-ms, delay after which a worker which did not renew its lease is considered gone</li>
+ * </ul>
+ * </p>
+ */
+public class IngestWorkerCoordinator {
+    static final Logger log = LoggerFactory.getLogger(IngestWorkerCoordinator.class);
+    static final long DEFAULT_HEARTBEAT_MS = 5000L;
+    static final long DEFAULT_LEASE_TTL_MS = 20000L;
+    private final Vertx vertx;
+    private final IPostgresClient pgClient;
+    private final String workerId;
+    private final long heartbeatMs;
+    private final long leaseTtlMs;
+    private final List<Handler<Assignment>> listeners = new ArrayList<>();
+    /** Last assignment computed from the lease table.*/
+    private Assignment assignment = Assignment.SINGLE;
+    /** Assignment the listeners have been notified of (it lags behind during a handover).*/
+    private Assignment appliedAssignment = Assignment.SINGLE;
+    private long timerId = -1;
+    private long handoverTimerId = -1;
+
+    public IngestWorkerCoordinator(final Vertx vertx, final IPostgresClient pgClient, final JsonObject config) {
+        this.vertx = vertx;
+        this.pgClient = pgClient;
+        this.workerId = config.getString("worker-id", MessageReaderRedis.getDefaultInstanceId());
+        this.heartbeatMs = config.getLong("heartbeat-ms", DEFAULT_HEARTBEAT_MS);
+        this.leaseTtlMs = Math.max(heartbeatMs * 2, config.getLong("lease-ttl-ms", DEFAULT_LEASE_TTL_MS));
+    }
+
+    public static boolean isEnabled(final JsonObject ingestConfig) {
+        return ingestConfig != null && ingestConfig.getJsonObject("coordination", new JsonObject()).getBoolean("enabled", false);
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public Assignment getAssignment() {
+        return appliedAssignment;
+    }
+
+    public void onAssignmentChanged(final Handler<Assignment> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Register this worker and start renewing its lease.
+     * @return A future completed once the first assignment is known, with the assignment to apply right away
+     * ({@link Assignment#NONE} when the partition has to be handed over by the other workers first)
+     */
+    public Future<Assignment> start() {
+        return heartbeat().onComplete(e -> scheduleHeartbeat()).map(e -> appliedAssignment);
+    }
+
+    /**
+     * Stop renewing the lease and release it so that the other workers take over its partition right away.
+     */
+    public Future<Void> stop() {
+        vertx.cancelTimer(timerId);
+        vertx.cancelTimer(handoverTimerId);
+        return pgClient.preparedQuery("DELETE FROM explorer.ingest_workers WHERE worker_id = $1", Tuple.of(workerId))
+                .onFailure(e -> log.error("Could not release the lease of ingest worker " + workerId, e))
+                .mapEmpty();
+    }
+
+    private void scheduleHeartbeat() {
+        timerId = vertx.setTimer(heartbeatMs, e -> heartbeat().onComplete(ee -> scheduleHeartbeat()));
+    }
+
+    private Future<Assignment> heartbeat() {
+        final String renew = "INSERT INTO explorer.ingest_workers (worker_id) VALUES ($1) " +
+                "ON CONFLICT (worker_id) DO UPDATE SET heartbeat_at = NOW()";
+        final String expire = "DELETE FROM explorer.ingest_workers WHERE heartbeat_at < NOW() - ($1 * INTERVAL '1 millisecond')";
+        final String list = "SELECT worker_id FROM explorer.ingest_workers ORDER BY worker_id";
+        return pgClient.preparedQuery(renew, Tuple.of(workerId))
+                .compose(e -> pgClient.preparedQuery(expire, Tuple.of(leaseTtlMs)))
+                .compose(e -> pgClient.preparedQuery(list, Tuple.tuple()))
+                .map(rows -> {
+                    final List<String> workers = new ArrayList<>();
+                    for (final Row row : rows) {
+                        workers.add(row.getString("worker_id"));
+                    }
+                    final int index = workers.indexOf(workerId);
+                    // our own lease may have just expired, keep the previous assignment until the next renewal
+                    return index < 0 ? assignment : new Assignment(index, workers.size());
+                })
+                .onSuccess(this::updateAssignment)
+                .onFailure(e -> log.error("Could not renew the lease of ingest worker " + workerId, e));
+    }
+
+    private void updateAssignment(final Assignment newAssignment) {
+        if (!newAssignment.equals(assignment)) {
+            log.info("Ingest worker " + workerId + " is now assigned to " + newAssignment + " (previously " + assignment + "), taking it over in " + heartbeatMs + "ms");
+            assignment = newAssignment;
+            // the previous owners of the new partition may not know yet that it is not theirs anymore
+            applyAssignment(Assignment.NONE);
+            vertx.cancelTimer(handoverTimerId);
+            handoverTimerId = vertx.setTimer(heartbeatMs, e -> {
+                handoverTimerId = -1;
+                applyAssignment(assignment);
+            });
+        }
+    }
+
+    private void applyAssignment(final Assignment newAssignment) {
+        if (!newAssignment.equals(appliedAssignment)) {
+            appliedAssignment = newAssignment;
+            for (final Handler<Assignment> listener : new ArrayList<>(listeners)) {
+                listener.handle(newAssignment);
+            }
+        }
+    }
+
+    /**
+     * Partition of the queue a worker is responsible for.
+     */
+    public static class Assignment {
+        public static final Assignment SINGLE = new Assignment(0, 1);
+        /** No partition : the worker does not read any message while its assignment is handed over.*/
+        public static final Assignment NONE = new Assignment(0, 0);
+        private final int index;
+        private final int count;
+
+        public Assignment(final int index, final int count) {
+            this.index = index;
+            this.count = count;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean isPartitioned() {
+            return count > 1;
+        }
+
+        public boolean isAssigned() {
+            return count > 0;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Assignment)) {
+                return false;
+            }
+            final Assignment that = (Assignment) o;
+            return index == that.index && count == that.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, count);
+        }
+
+        @Override
+        public String toString() {
+            return isAssigned() ? index + "/" + count : "none";
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the size in bytes of the JSON encoding of a document by walking it, so that large messages (html content,
+ * subresources) do not have to be serialized into a buffer only to be measured.
+ */
+public final class JsonSizeEstimator {
+
+    private JsonSizeEstimator() {
+    }
+
+    public static long estimate(final JsonObject document) {
+        return document == null ? 4 : estimateValue(document.getMap());
+    }
+
+    static long estimateValue(final Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof CharSequence) {
+            return estimateString((CharSequence) value);
+        } else if (value instanceof JsonObject) {
+            return estimateValue(((JsonObject) value).getMap());
+        } else if (value instanceof JsonArray) {
+            return estimateValue(((JsonArray) value).getList());
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            long size = 2 + Math.max(0, map.size() - 1);
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                size += estimateString(String.valueOf(entry.getKey())) + 1 + estimateValue(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            long size = 2 + Math.max(0, list.size() - 1);
+            for (final Object item : list) {
+                size += estimateValue(item);
+            }
+            return size;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return value.toString().length();
+        }
+        // dates, enums, binary... are encoded as strings
+        return estimateString(value.toString());
+    }
+
+    private static long estimateString(final CharSequence value) {
+        long size = 2;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+                size += 2;
+            } else if (c < 0x20) {
+                size += 6;
+            } else if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // a surrogate pair takes 4 bytes, 2 for each of its chars
+                size += 2;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+}
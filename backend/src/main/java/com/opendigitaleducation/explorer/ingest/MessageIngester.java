@@ -19,7 +19,7 @@ public interface MessageIngester {
                                                final IngestJobMetricsRecorder ingestJobMetricsRecorder,
                                                final JsonObject config) {
         final MessageIngester ingester = elastic(elasticClient, ingestJobMetricsRecorder, config);
-        return new MessageIngesterPostgres(sql, ingester, ingestJobMetricsRecorder);
+        return new MessageIngesterPostgres(sql, ingester, ingestJobMetricsRecorder, config);
     }
 
     Future<IngestJob.IngestJobResult> ingest(final List<ExplorerMessageForIngest> messages);
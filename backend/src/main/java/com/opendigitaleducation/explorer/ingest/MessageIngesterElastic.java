@@ -1,7 +1,10 @@
 package com.opendigitaleducation.explorer.ingest;
 
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -12,35 +15,81 @@ import org.entcore.common.elasticsearch.ElasticClientManager;
 import org.entcore.common.explorer.ExplorerMessage;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * Sends the operations of a cycle to OpenSearch.
+ * <p>
+ * The operations are split into bulk requests whose estimated payload stays under
+ * <strong>opensearch-options.max-bulk-bytes</strong> so that large documents do not push a request past
+ * http.max_content_length. Operations rejected because OpenSearch is overloaded (429) are sent again within the same
+ * cycle, after a delay which grows with each attempt, up to <strong>opensearch-options.max-rejection-retries</strong>
+ * times. Any other failure of a whole bulk request fails the ingestion so that the batch can be split by the job.
+ * </p>
+ * <p>
+ * When <strong>opensearch-options.partition-by-index</strong> is set, the operations are also grouped by target
+ * index and routing key and the groups are sent concurrently (at most
+ * <strong>opensearch-options.max-concurrent-bulks</strong> requests in flight). The operations of a group keep their
+ * order, so do the operations targeting the same document.
+ * </p>
+ * <p>
+ * When <strong>opensearch-options.client-side-merge</strong> is set, the version of each upserted resource held by
+ * the Postgres backup (written before the bulk and whose version only grows) is used to check versions on the client :
+ * <ul>
+ *     <li>upserts older than the backup are acknowledged without being sent</li>
+ *     <li>upserts of the version held by the backup which do not carry subresources are sent as partial updates
+ *     instead of running the stored upsert script</li>
+ *     <li>the other upserts (subresources, unknown version, skipped version check) keep the stored script</li>
+ * </ul>
+ * A partial update overwrites the document whatever its version, so this mode must only be enabled when the messages
+ * of a resource are not written by several workers at the same time.
+ * </p>
+ */
 public class MessageIngesterElastic implements MessageIngester {
     static Logger log = LoggerFactory.getLogger(MessageIngesterElastic.class);
+    static final long DEFAULT_MAX_BULK_BYTES = 5 * 1024 * 1024;
+    static final int DEFAULT_MAX_REJECTION_RETRIES = 3;
+    static final int DEFAULT_MAX_CONCURRENT_BULKS = 4;
 
     private final ElasticClientManager elasticClient;
     private final IngestJobMetricsRecorder ingestJobMetricsRecorder;
     private final ElasticClient.ElasticOptions elasticOptions;
+    /** Maximum estimated size of the payload of a bulk request, 0 to send all the operations of a cycle at once.*/
+    private final long maxBulkBytes;
+    private final int maxRejectionRetries;
+    private final RetryBackoff rejectionBackoff;
+    private final boolean partitionByIndex;
+    private final int maxConcurrentBulks;
+    private final boolean clientSideMerge;
     public MessageIngesterElastic(final ElasticClientManager elasticClient,
                                   final IngestJobMetricsRecorder ingestJobMetricsRecorder,
                                   final JsonObject config) {
         this.elasticClient = elasticClient;
         this.ingestJobMetricsRecorder = ingestJobMetricsRecorder;
         this.elasticOptions = new ElasticClient.ElasticOptions();
-        if(config.containsKey("opensearch-options")) {
-            final JsonObject optionsParams = config.getJsonObject("opensearch-options");
-            if(optionsParams.containsKey("wait-for")) {
-                this.elasticOptions.withWaitFor(optionsParams.getBoolean("wait-for"));
-            }
-            if(optionsParams.containsKey("refresh")) {
-                this.elasticOptions.withRefresh(optionsParams.getBoolean("refresh"));
-            }
+        final JsonObject optionsParams = config.getJsonObject("opensearch-options", new JsonObject());
+        if(optionsParams.containsKey("wait-for")) {
+            this.elasticOptions.withWaitFor(optionsParams.getBoolean("wait-for"));
+        }
+        if(optionsParams.containsKey("refresh")) {
+            this.elasticOptions.withRefresh(optionsParams.getBoolean("refresh"));
         }
-        log.info("Elasticoptions is " + Json.encode(elasticOptions));
+        this.maxBulkBytes = optionsParams.getLong("max-bulk-bytes", DEFAULT_MAX_BULK_BYTES);
+        this.maxRejectionRetries = optionsParams.getInteger("max-rejection-retries", DEFAULT_MAX_REJECTION_RETRIES);
+        this.rejectionBackoff = RetryBackoff.create(optionsParams.getJsonObject("rejection-backoff", new JsonObject().put("base-ms", 200).put("max-ms", 5000)));
+        this.partitionByIndex = optionsParams.getBoolean("partition-by-index", false);
+        this.maxConcurrentBulks = Math.max(1, optionsParams.getInteger("max-concurrent-bulks", DEFAULT_MAX_CONCURRENT_BULKS));
+        this.clientSideMerge = optionsParams.getBoolean("client-side-merge", false);
+        log.info("Elasticoptions is " + Json.encode(elasticOptions) + ", maxBulkBytes=" + maxBulkBytes + ", maxRejectionRetries=" + maxRejectionRetries
+                + ", partitionByIndex=" + partitionByIndex + ", maxConcurrentBulks=" + maxConcurrentBulks + ", clientSideMerge=" + clientSideMerge);
     }
 
-    //TODO if 429 retry and set maxBatchSize less than
-    //TODO if payload greater than max reduce maxPayload
     @Override
     public Future<IngestJob.IngestJobResult> ingest(final List<ExplorerMessageForIngest> messages) {
         if(messages.isEmpty()){
@@ -48,13 +97,18 @@ public class MessageIngesterElastic implements MessageIngester {
         }
         final List<MessageIngesterElasticOperation> operations = new ArrayList<>();
         final List<ExplorerMessageForIngest> failedTransformationToOperation = new ArrayList<>();
+        final List<ExplorerMessageForIngest> staleMessages = new ArrayList<>();
         for (ExplorerMessageForIngest message : messages) {
             try {
                 final List<MessageIngesterElasticOperation> operation = MessageIngesterElasticOperation.create(message);
                 // Exclude move actions from the list of messages to process in OpenSearch, otherwise the resource
                 // appears in 2 different folders : the desired one and rootFolder.
                 if(!ExplorerMessage.ExplorerAction.Move.name().equals(message.getAction())) {
-                    operations.addAll(operation);
+                    if (clientSideMerge && isStale(operation)) {
+                        staleMessages.add(message);
+                    } else {
+                        operations.addAll(operation);
+                    }
                 }
             } catch (Exception e) {
                 message.setError("to.elastic.operation.failed");
@@ -70,6 +124,8 @@ public class MessageIngesterElastic implements MessageIngester {
                       .filter(m -> ExplorerMessage.ExplorerAction.Move.name().equals(m.getAction()))
                       .collect(Collectors.toList());
                     result.succeed.addAll(moveMessages);
+                    // a newer version of these resources has already been written
+                    result.succeed.addAll(staleMessages);
                     result.failed.addAll(failedTransformationToOperation);
                     return result;
                 });
@@ -88,18 +144,135 @@ public class MessageIngesterElastic implements MessageIngester {
          */
     }
 
+    /**
+     * Compare the version of the upserts with the version held by the Postgres backup : an upsert is sent as a partial
+     * update when it is the latest version of the resource.
+     * @return {@code true} if the backup already holds a newer version of the resource
+     */
+    static boolean isStale(final List<MessageIngesterElasticOperation> operations) {
+        for (final MessageIngesterElasticOperation operation : operations) {
+            if (!(operation instanceof MessageIngesterElasticOperation.MessageIngesterElasticOperationUpsert)) {
+                continue;
+            }
+            final MessageIngesterElasticOperation.MessageIngesterElasticOperationUpsert upsert = (MessageIngesterElasticOperation.MessageIngesterElasticOperationUpsert) operation;
+            final Optional<Long> backupVersion = upsert.message.getBackupVersion();
+            if (!upsert.canMergeOnClient() || !backupVersion.isPresent()) {
+                continue;
+            }
+            if (backupVersion.get() > upsert.getVersion()) {
+                return true;
+            }
+            upsert.withClientSideMerge(backupVersion.get() == upsert.getVersion());
+        }
+        return false;
+    }
+
     private Future<IngestJob.IngestJobResult> executeOperations(final List<MessageIngesterElasticOperation> operations) {
         final IngestJob.IngestJobResult ingestJobResult = new IngestJob.IngestJobResult();
         if(operations.isEmpty()) {
             return Future.succeededFuture(ingestJobResult);
         }
+        if (!partitionByIndex) {
+            return executeBulks(operations, ingestJobResult).map(ingestJobResult);
+        }
+        // each lane sends the bulks of its targets one after the other
+        final List<List<MessageIngesterElasticOperation>> partitions = new ArrayList<>(partitionByTarget(operations).values());
+        final List<Future> lanes = new ArrayList<>();
+        for (int lane = 0; lane < Math.min(maxConcurrentBulks, partitions.size()); lane++) {
+            Future<Void> futureIt = Future.succeededFuture();
+            for (int i = lane; i < partitions.size(); i += maxConcurrentBulks) {
+                final List<MessageIngesterElasticOperation> partition = partitions.get(i);
+                futureIt = futureIt.compose(e -> executeBulks(partition, ingestJobResult));
+            }
+            lanes.add(futureIt);
+        }
+        return CompositeFuture.all(lanes).map(all -> {
+            sortByOperationOrder(ingestJobResult.getSucceed(), operations);
+            sortByOperationOrder(ingestJobResult.getFailed(), operations);
+            return ingestJobResult;
+        });
+    }
+
+    private Future<Void> executeBulks(final List<MessageIngesterElasticOperation> operations, final IngestJob.IngestJobResult ingestJobResult) {
+        Future<Void> futureIt = Future.succeededFuture();
+        for (final List<MessageIngesterElasticOperation> bulkOperations : splitByPayloadSize(operations, maxBulkBytes)) {
+            futureIt = futureIt.compose(e -> executeBulk(bulkOperations, ingestJobResult, 1));
+        }
+        return futureIt;
+    }
+
+    /**
+     * @return The operations grouped by index and routing key, in the order of their first operation
+     */
+    static Map<String, List<MessageIngesterElasticOperation>> partitionByTarget(final List<MessageIngesterElasticOperation> operations) {
+        final Map<String, List<MessageIngesterElasticOperation>> partitions = new LinkedHashMap<>();
+        for (final MessageIngesterElasticOperation operation : operations) {
+            partitions.computeIfAbsent(operation.getTarget(), target -> new ArrayList<>()).add(operation);
+        }
+        return partitions;
+    }
+
+    /**
+     * Sort the messages of a result as their operations were sorted before being sent concurrently.
+     */
+    static void sortByOperationOrder(final List<ExplorerMessageForIngest> messages, final List<MessageIngesterElasticOperation> operations) {
+        final Map<ExplorerMessageForIngest, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            positions.putIfAbsent(operations.get(i).message, i);
+        }
+        messages.sort(Comparator.comparingInt(message -> positions.getOrDefault(message, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Group the operations (in their original order) so that the estimated payload of each group stays under the
+     * budget. An operation bigger than the budget is sent alone.
+     * @param operations Operations to send
+     * @param maxBytes Budget of a bulk request, 0 or less to keep all the operations together
+     * @return The operations of each bulk request
+     */
+    static List<List<MessageIngesterElasticOperation>> splitByPayloadSize(final List<MessageIngesterElasticOperation> operations, final long maxBytes) {
+        final List<List<MessageIngesterElasticOperation>> bulks = new ArrayList<>();
+        if (maxBytes <= 0) {
+            bulks.add(operations);
+            return bulks;
+        }
+        List<MessageIngesterElasticOperation> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (final MessageIngesterElasticOperation operation : operations) {
+            final long size = operation.getPayloadSize();
+            if (!current.isEmpty() && currentBytes + size > maxBytes) {
+                bulks.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(operation);
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            bulks.add(current);
+        }
+        return bulks;
+    }
+
+    /**
+     * Send one bulk request and report its results in the result of the cycle. Operations rejected by OpenSearch are
+     * sent again after a delay as long as they have not been attempted too many times.
+     * @param attempt Number of times these operations have been sent (1 for the first time)
+     */
+    private Future<Void> executeBulk(final List<MessageIngesterElasticOperation> operations, final IngestJob.IngestJobResult ingestJobResult, final int attempt) {
+        final boolean canRetry = attempt <= maxRejectionRetries;
         return elasticClient.getClient().bulk(elasticOptions).compose(bulk -> {
             for (MessageIngesterElasticOperation operation : operations) {
                 operation.execute(bulk);
             }
             long start = System.currentTimeMillis();
+            final long payloadBytes = operations.stream().mapToLong(MessageIngesterElasticOperation::getPayloadSize).sum();
+            final BulkIngestionStats stats = ingestJobResult.getBulkStats();
+            ingestJobMetricsRecorder.onOpenSearchBulkSent(operations.size(), payloadBytes);
             return bulk.end().map(results -> {
                 long delay = System.currentTimeMillis() - start;
+                stats.onBulkCompleted(operations.size(), payloadBytes, delay);
+                final List<MessageIngesterElasticOperation> rejected = new ArrayList<>();
                 int nbOk = 0;
                 int nbKo = 0;
                 if (results.isEmpty()) {
@@ -112,6 +285,13 @@ public class MessageIngesterElastic implements MessageIngester {
                     for (int i = 0; i < results.size(); i++) {
                         final ElasticBulkBuilder.ElasticBulkRequestResult res = results.get(i);
                         final MessageIngesterElasticOperation op = operations.get(i);
+                        // OpenSearch is overloaded : send the operation again (subresources included)
+                        if (!res.isOk() && canRetry && BulkIngestionStats.isRejection(res.getMessage())) {
+                            nbKo++;
+                            stats.onOperationFailed(res.getMessage());
+                            rejected.add(op);
+                            continue;
+                        }
                         //dont need to ACK subresources
                         if (op instanceof MessageIngesterElasticOperation.MessageIngesterElasticOperationUpsertSubResource) {
                             continue;
@@ -128,6 +308,7 @@ public class MessageIngesterElastic implements MessageIngester {
                                     log.warn("[MessageIngesterElastic] A not_found error was raised for a " + op.getMessage().getAction() + ": " + Json.encode(operations.get(i)));
                                 }
                             } else {
+                                stats.onOperationFailed(res.getMessage());
                                 log.warn("[MessageIngesterElastic] Error in ES for body : " + Json.encode(operations.get(i)));
                                 op.message.setError("elastic.ingestion.error: " + res.getMessage());
                                 op.message.setErrorDetails(res.getDetails());
@@ -137,9 +318,21 @@ public class MessageIngesterElastic implements MessageIngester {
                     }
                 }
                 ingestJobMetricsRecorder.onIngestOpenSearchResult(nbOk, nbKo, delay);
-                return ingestJobResult;
-            }).otherwise(th -> {
+                return rejected;
+            }).recover(th -> {
                 long delay = System.currentTimeMillis() - start;
+                stats.onBulkCompleted(operations.size(), payloadBytes, delay);
+                ingestJobMetricsRecorder.onIngestOpenSearchResult(0, operations.size(), delay);
+                if (!BulkIngestionStats.isRejection(th.getMessage())) {
+                    // the whole request has been refused (malformed document, request too large, ...) : the batch is
+                    // failed so that the job can split it to find the operations responsible
+                    log.warn("[MessageIngesterElastic] Bulk of " + operations.size() + " operations failed: " + th.getMessage());
+                    return Future.failedFuture(th);
+                }
+                stats.onBatchFailed(th.getMessage(), operations.size());
+                if (canRetry) {
+                    return Future.succeededFuture(operations);
+                }
                 final List<ExplorerMessageForIngest> failed = ingestJobResult.getFailed();
                 for (int i = 0; i < operations.size(); i++) {
                     final MessageIngesterElasticOperation op = operations.get(i);
@@ -147,9 +340,28 @@ public class MessageIngesterElastic implements MessageIngester {
                     op.message.setErrorDetails(th.toString());
                     failed.add(op.message);
                 }
-                ingestJobMetricsRecorder.onIngestOpenSearchResult(0, operations.size(), delay);
-                return ingestJobResult;
+                return Future.succeededFuture(new ArrayList<>());
             });
+        }).compose(rejected -> {
+            if (rejected.isEmpty()) {
+                return Future.succeededFuture();
+            }
+            final long delayMs = rejectionBackoff.getDelayMs(attempt);
+            log.warn("[MessageIngesterElastic] " + rejected.size() + " operations rejected by OpenSearch, attempt " + attempt + ", retrying in " + delayMs + "ms");
+            return waitFor(delayMs).compose(e -> executeBulk(rejected, ingestJobResult, attempt + 1));
         });
     }
+
+    /**
+     * The bulk responses are handled on the context of the client so the retries are scheduled on it.
+     */
+    private static Future<Void> waitFor(final long delayMs) {
+        final Context context = Vertx.currentContext();
+        if (delayMs <= 0 || context == null) {
+            return Future.succeededFuture();
+        }
+        final Promise<Void> promise = Promise.promise();
+        context.owner().setTimer(delayMs, e -> promise.complete());
+        return promise.future();
+    }
 }
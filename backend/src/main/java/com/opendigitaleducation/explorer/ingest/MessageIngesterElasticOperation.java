@@ -19,11 +19,30 @@ import org.entcore.common.share.ShareRoles;
 abstract class MessageIngesterElasticOperation {
     protected Logger log = LoggerFactory.getLogger(getClass());
     protected final ExplorerMessageForIngest message;
+    private long payloadSize = -1;
 
     public ExplorerMessage getMessage() {
         return message;
     }
 
+    /**
+     * @return An estimation of the number of bytes this operation will add to the bulk request
+     */
+    public long getPayloadSize() {
+        if (payloadSize < 0) {
+            payloadSize = JsonSizeEstimator.estimate(message.getMessage());
+        }
+        return payloadSize;
+    }
+
+    /**
+     * @return The index and the routing key targeted by this operation
+     */
+    public String getTarget() {
+        final String application = message.getApplication();
+        return ExplorerConfig.getInstance().getIndex(application, message.getResourceType()) + "/" + ResourceServiceElastic.getRoutingKey(application);
+    }
+
     public MessageIngesterElasticOperation(final ExplorerMessageForIngest message) {
         this.message = message;
     }
@@ -90,11 +109,51 @@ abstract class MessageIngesterElasticOperation {
 
     static class MessageIngesterElasticOperationUpsert extends MessageIngesterElasticOperation {
         private final long version;
-        private final JsonObject changes;
+        /** Computed when the stored script is used : documents which are upserted directly do not need it.*/
+        private JsonObject changes;
         private final int audienceDelta;
         private final JsonArray subresources;
+        /** The document is known to hold an older version : the changes are sent as a partial update.*/
+        private boolean clientSideMerge = false;
         MessageIngesterElasticOperationUpsert(final ExplorerMessageForIngest message) {
             super(message);
+            this.version = message.getVersion();
+            this.audienceDelta = 0;
+            this.subresources = message.getSubresources();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return {@code false} if the document is overwritten whatever its version
+         */
+        public boolean isVersionChecked() {
+            return !message.getSkipCheckVersion() && !IExplorerFolderTree.FOLDER_TYPE.equals(message.getEntityType());
+        }
+
+        /**
+         * @return {@code true} if the stored script is only needed to check the version (subresources are merged by
+         * the script)
+         */
+        public boolean canMergeOnClient() {
+            return isVersionChecked() && !message.hasSubResources();
+        }
+
+        public MessageIngesterElasticOperationUpsert withClientSideMerge(final boolean clientSideMerge) {
+            this.clientSideMerge = clientSideMerge && canMergeOnClient();
+            return this;
+        }
+
+        public boolean isClientSideMerge() {
+            return clientSideMerge;
+        }
+
+        private JsonObject getChanges() {
+            if (changes != null) {
+                return changes;
+            }
             JsonObject changes = message.getMessage().copy();
             if(message.isSynthetic()) {
                 changes = keepOnlyOverride(changes);
@@ -106,10 +165,8 @@ abstract class MessageIngesterElasticOperation {
                 // we are updating subresources or shares
                 changes = beforeUpdate(changes);
             }
-            this.version = message.getVersion();
             this.changes = changes;
-            this.audienceDelta = 0;
-            this.subresources = message.getSubresources();
+            return changes;
         }
 
         private static JsonObject keepOnlyOverride(JsonObject message) {
@@ -211,26 +268,36 @@ abstract class MessageIngesterElasticOperation {
             final String id = message.getPredictibleId().orElse(message.getId());
             final String routing = ResourceServiceElastic.getRoutingKey(application);
             final String index = ExplorerConfig.getInstance().getIndex(application, resource);
-            if(message.getSkipCheckVersion() || IExplorerFolderTree.FOLDER_TYPE.equals(message.getEntityType())){
+            if(!isVersionChecked()){
                 //copy for upsert
                 final JsonObject insert = beforeCreate(copy());
                 final JsonObject update = beforeUpdate(copy());
                 bulk.upsert(insert, update, Optional.ofNullable(id), Optional.of(index), Optional.ofNullable(routing));
+            }else if(clientSideMerge){
+                // same result as the stored script when the document is missing or older
+                final JsonObject insert = getChanges().copy().put("version", version).put("subresources", new JsonArray());
+                final JsonObject update = getChanges().copy().put("version", version);
+                update.remove("subresources");
+                bulk.upsert(insert, update, Optional.ofNullable(id), Optional.of(index), Optional.ofNullable(routing));
             }else{
                 final JsonObject params = new JsonObject()
                         .put("version", version)
-                        .put("changes", changes == null ? new JsonObject() : changes)
+                        .put("changes", getChanges())
                         .put("subresources", subresources == null ? new JsonArray() : subresources)
                         .put("audienceDelta", audienceDelta);
-                bulk.storedScript("explorer-upsert-ressource", params, of(id), of(index), of(routing), of(new JsonObject()));
+                bulk.storedScript(ExplorerConfig.getInstance().getUpsertScriptId(), params, of(id), of(index), of(routing), of(new JsonObject()));
             }
         }
 
         private JsonObject copy(){
-            final JsonObject original = message.getMessage();
-            final JsonObject copy = original.copy();
-            copy.remove("subresources");
-            return copy;
+            // only the fields sent are deep copied (subresources can be large)
+            final JsonObject fields = new JsonObject();
+            for (final Map.Entry<String, Object> field : message.getMessage()) {
+                if (!"subresources".equals(field.getKey())) {
+                    fields.put(field.getKey(), field.getValue());
+                }
+            }
+            return fields.copy();
         }
     }
 
@@ -263,16 +330,19 @@ abstract class MessageIngesterElasticOperation {
                     }
                 }
             }
-            //script source
+            // subresources added then deleted in the same message are not added
+            final Set<String> toRemoveIds = new HashSet<>(toAddIds);
+            toRemoveIds.addAll(toDelete);
+            toAdd.removeIf(sub -> toDelete.contains(sub.getValue("id").toString()));
+            //script source : ids are looked up in a set built once instead of scanning the params for each subresource
             final StringBuilder source = new StringBuilder();
             source.append("if(ctx._source.subresources==null) ctx._source.subresources = [];");
-            source.append("ctx._source.subresources.removeIf(item -> params.toAddIds.contains(item.id.toString()));");
+            source.append("Set toRemoveIds = new HashSet(params.toRemoveIds);");
+            source.append("ctx._source.subresources.removeIf(item -> toRemoveIds.contains(item.id.toString()));");
             source.append("ctx._source.subresources.addAll(params.toAdd);");
-            source.append("ctx._source.subresources.removeIf(item -> params.toDelete.contains(item.id.toString()));");
             //params
             final JsonObject params = new JsonObject();
-            params.put("toAddIds", new JsonArray(new ArrayList(toAddIds)));
-            params.put("toDelete", new JsonArray(new ArrayList(toDelete)));
+            params.put("toRemoveIds", new JsonArray(new ArrayList(toRemoveIds)));
             params.put("toAdd", new JsonArray(toAdd));
             //meta
             final String application = message.getApplication();
@@ -9,6 +9,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.sqlclient.SqlConnection;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -21,21 +22,40 @@ import org.entcore.common.user.UserInfos;
 
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
+/**
+ * Backs up the messages in Postgres before they are ingested in OpenSearch.
+ * <p>
+ * When <strong>postgres-backup.pipelined</strong> is set (next to opensearch-options), the writes of a batch (upsert,
+ * temporary deletion and moves of resources) are sent on one connection inside one transaction without waiting for
+ * each other so that the batch costs one round trip instead of one per statement. Batches which contain folders to
+ * migrate keep the sequential path because the migration must be committed before the folders are read.
+ * </p>
+ */
 public class MessageIngesterPostgres implements MessageIngester {
     private static final Logger log = LoggerFactory.getLogger(MessageIngesterPostgres.class);
+    private final IPostgresClient pgClient;
     private final ResourceExplorerDbSql sql;
     private final FolderExplorerDbSql folderSql;
     private final MessageIngester ingester;
     private final IngestJobMetricsRecorder ingestJobMetricsRecorder;
+    private final boolean pipelined;
 
     public MessageIngesterPostgres(final IPostgresClient sql, final MessageIngester ingester, final IngestJobMetricsRecorder ingestJobMetricsRecorder) {
+        this(sql, ingester, ingestJobMetricsRecorder, new JsonObject());
+    }
+
+    public MessageIngesterPostgres(final IPostgresClient sql, final MessageIngester ingester, final IngestJobMetricsRecorder ingestJobMetricsRecorder, final JsonObject config) {
         this.ingester = ingester;
+        this.pgClient = sql;
         this.sql = new ResourceExplorerDbSql(sql);
         this.folderSql = new FolderExplorerDbSql(sql);
         this.ingestJobMetricsRecorder = ingestJobMetricsRecorder;
+        final JsonObject backupConfig = config == null ? new JsonObject() : config.getJsonObject("postgres-backup", new JsonObject());
+        this.pipelined = backupConfig.getBoolean("pipelined", false);
     }
 
     @Override
@@ -86,18 +106,16 @@ public class MessageIngesterPostgres implements MessageIngester {
                 }
             }
         }
-        // first upsert resource
-        final Future<List<ExplorerMessageForIngest>> upsertResourceFuture = onUpsertResources(upsertResources);
-        return upsertResourceFuture.compose(upsertedResource -> {
-            // then migrate folder: upsert resources before to compute links between folder and resources
-            return migrate(upsertFolders, upsertResources);
-        }).compose(migrate -> {
-            // then upsert folder (not part of migration)
-            final Future<List<ExplorerMessageForIngest>> upsertFolderFuture = onUpsertFolders(upsertFolders);
-            // move resource after upsert => case of a resource created and moved atomically
-            final Future<List<ExplorerMessageForIngest>> moveResourceFuture = onMoveResource(moveResources, upsertResourceFuture.result());
-            final Future<List<ExplorerMessageForIngest>> deleteResourceFuture = onDeleteResources(deleteResources);
-            return CompositeFuture.join(upsertResourceFuture, deleteResourceFuture, upsertFolderFuture, moveResourceFuture).compose(all -> {
+        final boolean hasFoldersToMigrate = upsertFolders.stream().anyMatch(ExplorerMessage::getMigrationFlag);
+        final Future<PostgresBackup> backupFuture = pipelined && !hasFoldersToMigrate ?
+                backupPipelined(upsertResources, upsertFolders, moveResources, deleteResources) :
+                backupSequential(upsertResources, upsertFolders, moveResources, deleteResources);
+        return backupFuture.compose(backup -> {
+            final Future<List<ExplorerMessageForIngest>> upsertResourceFuture = backup.upsertResources;
+            final Future<List<ExplorerMessageForIngest>> upsertFolderFuture = backup.upsertFolders;
+            final Future<List<ExplorerMessageForIngest>> moveResourceFuture = backup.moveResources;
+            final Future<List<ExplorerMessageForIngest>> deleteResourceFuture = backup.deleteResources;
+            return CompositeFuture.join(upsertResourceFuture, deleteResourceFuture, upsertFolderFuture, moveResourceFuture, backup.commit).compose(all -> {
                 recordDelay(messages, start);
                 if(all.succeeded()) {
                     //ingest only resources created or deleted successfully in postgres
@@ -126,7 +144,8 @@ public class MessageIngesterPostgres implements MessageIngester {
                                 failedMessages.add(failedMessage);
                             }
                         }
-                        return new IngestJob.IngestJobResult(ingestResult.getSucceed(), failedMessages, skippedMessages);
+                        return new IngestJob.IngestJobResult(ingestResult.getSucceed(), failedMessages, skippedMessages)
+                            .withBulkStats(ingestResult.getBulkStats());
                     }).compose(ingestResult -> {
                         //delete definitely all resources deleted from ES
                         final List<ExplorerMessageForIngest> deleted = deleteResourceFuture.result();
@@ -134,7 +153,7 @@ public class MessageIngesterPostgres implements MessageIngester {
                             final Optional<ExplorerMessageForIngest> found = ingestResult.getSucceed().stream().filter(current -> current.getResourceUniqueId().equals(del.getResourceUniqueId())).findFirst();
                             return found.isPresent();
                         }).collect(Collectors.toList());
-                        return sql.deleteDefinitlyResources(deletedSuccess).map(ingestResult);
+                        return timed("delete_definitly_resources", () -> sql.deleteDefinitlyResources(deletedSuccess)).map(ingestResult);
                     });
                 } else {
                     log.warn("Error in PostgresIngester", all.cause());
@@ -159,6 +178,79 @@ public class MessageIngesterPostgres implements MessageIngester {
         });
     }
 
+    /**
+     * Send each statement on its own connection of the pool, waiting for the resources to be upserted (and the folders
+     * to be migrated) before the other statements are sent.
+     */
+    private Future<PostgresBackup> backupSequential(final List<ExplorerMessageForIngest> upsertResources,
+                                                    final List<ExplorerMessageForIngest> upsertFolders,
+                                                    final List<ExplorerMessageWithParent> moveResources,
+                                                    final List<ExplorerMessageForIngest> deleteResources) {
+        // first upsert resource
+        final Future<List<ExplorerMessageForIngest>> upsertResourceFuture = onUpsertResources(upsertResources);
+        return upsertResourceFuture.compose(upsertedResource -> {
+            // then migrate folder: upsert resources before to compute links between folder and resources
+            return timed("migrate_folders", () -> migrate(upsertFolders, upsertResources));
+        }).map(migrate -> {
+            final PostgresBackup backup = new PostgresBackup();
+            backup.upsertResources = upsertResourceFuture;
+            // then upsert folder (not part of migration)
+            backup.upsertFolders = onUpsertFolders(upsertFolders);
+            // move resource after upsert => case of a resource created and moved atomically
+            backup.moveResources = onMoveResource(moveResources, upsertResourceFuture.result());
+            backup.deleteResources = onDeleteResources(deleteResources);
+            backup.commit = Future.succeededFuture();
+            return backup;
+        });
+    }
+
+    /**
+     * Send all the writes on one connection inside one transaction : the statements which do not depend on each other
+     * are pipelined and the moves of upserted resources are sent as soon as their ids are known. Folders are only read,
+     * so they are fetched on the pool in the meantime.
+     */
+    private Future<PostgresBackup> backupPipelined(final List<ExplorerMessageForIngest> upsertResources,
+                                                   final List<ExplorerMessageForIngest> upsertFolders,
+                                                   final List<ExplorerMessageWithParent> moveResources,
+                                                   final List<ExplorerMessageForIngest> deleteResources) {
+        final PostgresBackup backup = new PostgresBackup();
+        backup.upsertFolders = onUpsertFolders(upsertFolders);
+        backup.commit = timed("transaction", () -> pgClient.transaction(sqlConnection -> {
+            backup.upsertResources = onUpsertResources(sqlConnection, upsertResources);
+            backup.deleteResources = onDeleteResources(sqlConnection, deleteResources);
+            if (moveResources.isEmpty()) {
+                backup.moveResources = Future.succeededFuture(new ArrayList<>());
+            } else {
+                final Future<List<ExplorerMessageForIngest>> moveExisting = moveExistingResources(sqlConnection, moveResources);
+                final Future<List<ExplorerMessageForIngest>> moveUpserted = backup.upsertResources.compose(upserted -> moveUpsertedResources(sqlConnection, moveResources, upserted));
+                backup.moveResources = CompositeFuture.all(moveUpserted, moveExisting).map(result -> {
+                    final List<ExplorerMessageForIngest> elements = new ArrayList<>(moveUpserted.result());
+                    elements.addAll(moveExisting.result());
+                    return elements;
+                });
+            }
+            return CompositeFuture.all(backup.upsertResources, backup.deleteResources, backup.moveResources).<Void>mapEmpty();
+        }));
+        // the statements have all completed once the transaction is over
+        return backup.commit.transform(result -> {
+            if (backup.upsertResources == null) {
+                // no connection could be obtained : nothing has been sent
+                backup.upsertResources = Future.failedFuture(result.cause());
+                backup.deleteResources = Future.failedFuture(result.cause());
+                backup.moveResources = Future.failedFuture(result.cause());
+            }
+            return Future.succeededFuture(backup);
+        });
+    }
+
+    /**
+     * Measure the time taken by a statement (or a group of statements) of the backup.
+     */
+    private <T> Future<T> timed(final String statement, final Supplier<Future<T>> query) {
+        final long start = System.currentTimeMillis();
+        return query.get().onComplete(e -> ingestJobMetricsRecorder.onIngestPostgresStatement(statement, System.currentTimeMillis() - start));
+    }
+
     private List<ExplorerMessageForIngest> populateError(final List<ExplorerMessageForIngest> messages, final Future<List<ExplorerMessageForIngest>> futureResult) {
         if(futureResult.failed()) {
             final String cause = futureResult.cause().toString();
@@ -180,10 +272,14 @@ public class MessageIngesterPostgres implements MessageIngester {
     }
 
     protected Future<List<ExplorerMessageForIngest>> onUpsertResources(final List<ExplorerMessageForIngest> messages) {
+        return onUpsertResources(null, messages);
+    }
+
+    protected Future<List<ExplorerMessageForIngest>> onUpsertResources(final SqlConnection sqlConnection, final List<ExplorerMessageForIngest> messages) {
         if (messages.isEmpty()) {
             return Future.succeededFuture(new ArrayList<>());
         }
-        return sql.upsertResources(messages).map(resourcesSql -> {
+        return timed("upsert_resources", () -> sql.upsertResources(sqlConnection, messages)).map(resourcesSql -> {
             return mapUpsertResourceToMessage(messages, resourcesSql);
         });
     }
@@ -204,6 +300,8 @@ public class MessageIngesterPostgres implements MessageIngester {
     private void updateMessageFromResourceSql(final ExplorerMessageForIngest mess, final ResourceExplorerDbSql.ResouceSql resSql ){
         //set predictible id
         mess.setPredictibleId(resSql.id.toString());
+        //keep the version held by postgres so that stale upserts can be detected before being sent to opensearch
+        mess.setBackupVersion(resSql.version);
         //set folder ids
         final Set<String> folderIds = new HashSet<>();
         final Set<String> usersForFolderIds = new HashSet<>();
@@ -226,10 +324,14 @@ public class MessageIngesterPostgres implements MessageIngester {
     }
 
     protected Future<List<ExplorerMessageForIngest>> onDeleteResources(final List<ExplorerMessageForIngest> messages) {
+        return onDeleteResources(null, messages);
+    }
+
+    protected Future<List<ExplorerMessageForIngest>> onDeleteResources(final SqlConnection sqlConnection, final List<ExplorerMessageForIngest> messages) {
         if (messages.isEmpty()) {
             return Future.succeededFuture(new ArrayList<>());
         }
-        return sql.deleteTemporarlyResources(messages).map(mapWithId -> {
+        return timed("delete_resources", () -> sql.deleteTemporarlyResources(sqlConnection, messages)).map(mapWithId -> {
             final List<ExplorerMessageForIngest> deleteSuccess = new ArrayList<>();
             for (final Map.Entry<Integer, ExplorerMessage> entry : mapWithId.entrySet()) {
                 final ExplorerMessageForIngest value = (ExplorerMessageForIngest) entry.getValue();
@@ -309,8 +411,8 @@ public class MessageIngesterPostgres implements MessageIngester {
         }
         // get resource unique ID
         return CompositeFuture.join(
-          moveUpsertedResources(toMoveList, upsertResources),
-          moveExistingResources(toMoveList)
+          moveUpsertedResources(null, toMoveList, upsertResources),
+          moveExistingResources(null, toMoveList)
         ).compose(result -> {
             final List<ExplorerMessageForIngest> elements = new ArrayList<>(result.resultAt(0));
             elements.addAll(result.resultAt(1));
@@ -320,10 +422,11 @@ public class MessageIngesterPostgres implements MessageIngester {
 
     /**
      * Move resources which were already present in the database and for which we received a MOVE action.
+     * @param sqlConnection Connection on which the statements are sent or null to use the pool
      * @param toMoveList List of messages to move
      * @return List of messages that indeed triggered a move (i.e. both the resource and the folder were found in DB).
      */
-    private Future<List<ExplorerMessageForIngest>> moveExistingResources(List<ExplorerMessageWithParent> toMoveList) {
+    private Future<List<ExplorerMessageForIngest>> moveExistingResources(final SqlConnection sqlConnection, List<ExplorerMessageWithParent> toMoveList) {
         final List<ExplorerMessageWithParent> existingResources = toMoveList.stream()
           .filter(elt -> ExplorerMessage.ExplorerAction.Move.name().equals(elt.message.getAction()))
           .collect(Collectors.toList());
@@ -333,7 +436,7 @@ public class MessageIngesterPostgres implements MessageIngester {
           final Long parentId = Long.valueOf(message.getParentId().get());
           links.put(message.getId(), new ResourceExplorerDbSql.ResourceLinkByUri(message.getId(), parentId, message.getUpdaterId()));
         }
-        return sql.moveExistingResources(links.values()).map(resourcesSql -> {
+        return timed("move_existing_resources", () -> sql.moveExistingResources(sqlConnection, links.values())).map(resourcesSql -> {
             final Set<String> movedResources = resourcesSql.stream().map(elt -> elt.entId).collect(Collectors.toSet());
             return existingResources.stream()
               .filter(elt -> movedResources.contains(elt.message.getId()))
@@ -344,10 +447,11 @@ public class MessageIngesterPostgres implements MessageIngester {
 
     /**
      * Move resources which may or may not exist in the database and for which we received a UPSERT action.
+     * @param sqlConnection Connection on which the statement is sent or null to use the pool
      * @param toMoveList List of messages to move
      * @return List of messages that indeed triggered a move (i.e. the folder was found in DB).
      */
-    private Future<List<ExplorerMessageForIngest>> moveUpsertedResources(List<ExplorerMessageWithParent> toMoveList, List<ExplorerMessageForIngest> upsertResources) {
+    private Future<List<ExplorerMessageForIngest>> moveUpsertedResources(final SqlConnection sqlConnection, List<ExplorerMessageWithParent> toMoveList, List<ExplorerMessageForIngest> upsertResources) {
         final Map<String, ExplorerMessageForIngest> upsertedById = upsertResources.stream()
           .collect(Collectors.toMap(ExplorerMessageForIngest::getId, Function.identity()));
         final List<ExplorerMessageWithParent> rscs = toMoveList.stream()
@@ -361,7 +465,7 @@ public class MessageIngesterPostgres implements MessageIngester {
               // predictable id has been set on upsert
               return new ResourceExplorerDbSql.ResourceLink(folderId, predictibleId.get(), updaterId);
           }).collect(Collectors.toList());
-        return sql.moveTo(links).map(resourcesSql -> {
+        return timed("move_upserted_resources", () -> sql.moveTo(sqlConnection, links)).map(resourcesSql -> {
             final List<ExplorerMessageForIngest> beforeMap = rscs.stream().map(e -> e.message).collect(Collectors.toList());
             final List<ExplorerMessageForIngest> mapped = mapUpsertResourceToMessage(beforeMap, resourcesSql);
             return mapped;
@@ -387,7 +491,7 @@ public class MessageIngesterPostgres implements MessageIngester {
         final Future<Map<String, FolderExplorerDbSql.FolderAncestor>> ancestorsF = folderSql.getAncestors(ids);
         // get parent/child relationship for folder and their parents
         final Future<Map<String, FolderExplorerDbSql.FolderRelationship>> relationsF = folderSql.getRelationships(idsAndParents);
-        return CompositeFuture.all(ancestorsF, relationsF).map(e -> {
+        return timed("read_folders", () -> CompositeFuture.all(ancestorsF, relationsF)).map(e -> {
             final Map<String, FolderExplorerDbSql.FolderAncestor> ancestors = ancestorsF.result();
             final Map<String, FolderExplorerDbSql.FolderRelationship> relations = relationsF.result();
             //Transform all
@@ -474,6 +578,18 @@ public class MessageIngesterPostgres implements MessageIngester {
         return message;
     }
 
+    /**
+     * Results of the statements of the backup of a batch.
+     */
+    static class PostgresBackup {
+        Future<List<ExplorerMessageForIngest>> upsertResources;
+        Future<List<ExplorerMessageForIngest>> upsertFolders;
+        Future<List<ExplorerMessageForIngest>> moveResources;
+        Future<List<ExplorerMessageForIngest>> deleteResources;
+        /** Completed once the writes are committed (immediately when they are not sent in a transaction). */
+        Future<Void> commit;
+    }
+
     class ExplorerMessageWithParent{
         final String parentId;
         final ExplorerMessageForIngest message;
@@ -21,7 +21,7 @@ public interface MessageReader {
             return RedisClient.create(vertx, ExplorerPluginFactory.getRedisConfig()).map(redis -> redis(vertx, redis, ingestConfig));
         }else{
             return IPostgresClient.create(vertx, ExplorerPluginFactory.getPostgresConfig(), true, false)
-              .map(postgres -> postgres(postgres, ingestConfig));
+              .map(postgres -> postgres(vertx, postgres, ingestConfig));
         }
     }
 
@@ -33,6 +33,10 @@ public interface MessageReader {
         return new MessageReaderPostgres(client, config);
     }
 
+    static MessageReader postgres(final Vertx vertx, final IPostgresClient client, final JsonObject config) {
+        return new MessageReaderPostgres(vertx, client, config);
+    }
+
     void stop();
 
     Future<Void> start();
@@ -57,22 +61,41 @@ public interface MessageReader {
      *     <li>messages which where not acknowledged</li>
      *     <li>new messages</li>
      * </ol>
-     * <u>NB: </u> The order is important ! Messages should be treated in the order they are presented.
+     * <u>NB: </u> The order is important ! Messages should be treated in the order they are presented.<br />
+     * Messages in error only take up to {@link #getRetryBatchRatio()} of the batch so that new messages keep flowing
+     * while errors persist, the rest of the batch is given back to them only if there are not enough new messages.
      * @param maxBatchSize Maximum number of batches
      * @param maxAttempt Maximum attempts
      * @return The list of the messages to treat
      */
     default Future<List<ExplorerMessageForIngest>> getMessagesToTreat(final int maxBatchSize, final int maxAttempt) {
-        return getFailedMessages(maxBatchSize, maxAttempt).flatMap(failedMessages -> {
+        final int maxRetries = Math.max(1, (int) Math.ceil(maxBatchSize * getRetryBatchRatio()));
+        return getFailedMessages(Math.min(maxBatchSize, maxRetries), maxAttempt).flatMap(failedMessages -> {
             final int nbMessagesLeftToFetch = maxBatchSize - failedMessages.size();
-            return getIncomingMessages(nbMessagesLeftToFetch).map(incominMessages -> {
+            return getIncomingMessages(nbMessagesLeftToFetch).flatMap(incominMessages -> {
                 final List<ExplorerMessageForIngest> allMessages = new ArrayList<>(failedMessages);
-                allMessages.addAll(incominMessages);
-                return allMessages;
+                final int nbRetriesLeftToFetch = nbMessagesLeftToFetch - incominMessages.size();
+                if (nbRetriesLeftToFetch <= 0 || failedMessages.size() < maxRetries) {
+                    allMessages.addAll(incominMessages);
+                    return Future.succeededFuture(allMessages);
+                }
+                // not enough new messages to fill the batch : give the remaining room to the next messages in error
+                return getFailedMessages(nbRetriesLeftToFetch, maxAttempt).map(moreFailedMessages -> {
+                    allMessages.addAll(moreFailedMessages);
+                    allMessages.addAll(incominMessages);
+                    return allMessages;
+                });
             });
         });
     }
 
+    /**
+     * @return Maximum share of a batch (between 0 and 1) given to messages in error
+     */
+    default double getRetryBatchRatio() {
+        return 1;
+    }
+
     Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize);
 
     Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt);
@@ -85,6 +108,33 @@ public interface MessageReader {
      */
     Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt);
 
+    /**
+     * Signals that the ingestion cycle which fetched these messages is over (whether their status could be updated or
+     * not). Until then, readers should not hand out these messages again so that a batch can be read while the
+     * previous ones are still being ingested.
+     * @param messages Messages returned by {@code getMessagesToTreat}
+     */
+    default void releaseMessages(final List<ExplorerMessageForIngest> messages) {
+    }
+
+    /**
+     * Called when the ingest workers are coordinated and the share of the queue of this worker changes (a worker
+     * joined or left). Readers whose messages are naturally balanced between consumers can ignore it.
+     * @param assignment The partition this worker is now responsible for
+     */
+    default void onPartitionAssigned(final IngestWorkerCoordinator.Assignment assignment) {
+    }
+
+    /**
+     * Called right before a batch is written : a batch read under a previous assignment must neither be written nor
+     * acknowledged since its messages may already be read by their new owner, they stay in the queue instead.
+     * @param messages Messages returned by {@code getMessagesToTreat}
+     * @return {@code false} if the assignment of this worker changed since these messages were read
+     */
+    default boolean isStillAssigned(final List<ExplorerMessageForIngest> messages) {
+        return true;
+    }
+
     Future<JsonObject> getMetrics();
 
     enum MessageReaderStatus {
@@ -3,6 +3,7 @@ package com.opendigitaleducation.explorer.ingest;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -11,32 +12,116 @@ import io.vertx.sqlclient.RowSet;
 import io.vertx.sqlclient.Tuple;
 import org.entcore.common.explorer.impl.ExplorerPluginCommunicationPostgres;
 import org.entcore.common.postgres.IPostgresClient;
-import org.entcore.common.postgres.PostgresClient;
 import org.entcore.common.postgres.PostgresClientChannel;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class MessageReaderPostgres implements MessageReader {
     static final Logger log = LoggerFactory.getLogger(MessageReaderPostgres.class);
     static final int DEFAULT_JOB_MODULO = 1;
+    static final long DEFAULT_METRICS_CACHE_MS = 30000L;
+    static final double DEFAULT_RETRY_BATCH_RATIO = 0.5;
+    static final long DEFAULT_CLAIM_LEASE_MS = 300000L;
+    /** Channel on which the trigger of the queue publishes the range of the ids inserted by each statement (see 013-resource-queue-notify.sql).*/
+    static final String QUEUE_IDS_CHANNEL = "explorer_resource_queue";
+    static final String NOTIFY_TRIGGER = "resource_queue_notify";
+    static final long DEFAULT_NOTIFY_WINDOW_MS = 50L;
+    static final int DEFAULT_NOTIFY_MAX_IDS = 1000;
+    static final long DEFAULT_RESCAN_INTERVAL_MS = 60000L;
+    static final String ACK_QUERY = "UPDATE explorer.resource_queue SET attempt_status=$1, attempted_count=attempted_count+1, attempted_at=NOW() WHERE id = ANY($2::bigint[])";
+    static final String FAIL_QUERY = "UPDATE explorer.resource_queue SET attempted_count=attempted_count+1, attempted_at=$1, next_attempt_at=$1 + %s WHERE id = ANY($2::bigint[])";
+    /** Suffix of the updates of claimed messages : a reader whose lease expired cannot overwrite the status set by the reader which claimed them again.*/
+    static final String OWNER_FILTER = " AND claimed_by = $3";
+    static final String CAUSES_QUERY = "INSERT INTO explorer.resource_queue_causes (id, id_resource, attempt_reason, attempted_at) " +
+            "SELECT causes.id, causes.id_resource, causes.reason, $4 FROM unnest($1::bigint[], $2::varchar[], $3::text[]) AS causes(id, id_resource, reason) " +
+            "ON CONFLICT(id) DO UPDATE SET attempt_reason = EXCLUDED.attempt_reason, attempted_at=EXCLUDED.attempted_at";
     static final int STATUS_SUCCESS = 1;
     static final int STATUS_FAIL = -1;
     static final int STATUS_PENDING = 0;
+    static final String ASSIGNMENT_EPOCH = "assignment_epoch";
     private final int modulo;
+    /** Partition assigned by the coordinator of the workers (if any), it replaces the static modulo.*/
+    private Optional<IngestWorkerCoordinator.Assignment> assignment = Optional.empty();
+    /** Incremented on every change of assignment, messages keep the epoch they were read under (see {@link #isStillAssigned}).*/
+    private int assignmentEpoch = 0;
     private final PostgresClientChannel pgClient;
     private final List<Handler<Void>> listeners = new ArrayList<>();
+    /** Ids of messages that have been fetched and whose ingestion cycle is not over yet.*/
+    private final Set<Long> inFlightIds = new HashSet<>();
     private final JsonObject metrics = new JsonObject();
+    /** Duration during which the statistics of the queue are reused instead of being queried again.*/
+    private final long metricsCacheMs;
+    /** Whether the statistics which need to scan the queue (dates of retried and failed messages, delayed retries) are computed.*/
+    private final boolean detailedQueueStats;
+    /** Delay before a failed message can be attempted again.*/
+    private final RetryBackoff retryBackoff;
+    private final double retryBatchRatio;
+    /** Update of failed messages (the backoff is part of the statement but does not change once configured).*/
+    private final String failQuery;
+    /** When enabled, messages are claimed by this reader for the duration of a lease so that any number of readers can share the queue.*/
+    private final boolean claimEnabled;
+    private final long claimLeaseMs;
+    private final String claimOwner;
+    private Future<JsonObject> queueStats;
+    /** Rows created before this date cannot be read anymore (computed by the {@link ResourceQueueArchiver}).*/
+    private Optional<LocalDateTime> hotSince = Optional.empty();
+    private long queueStatsAt = 0;
+    /**
+     * When enabled, new messages are fetched by the ids published by the trigger of the queue instead of scanning it.
+     * The queue is still scanned at startup, while a scan returns a full batch (there is a backlog), when too many ids
+     * have been published (gap) and periodically in case a notification was lost.
+     * The trigger is installed when the reader starts and dropped by readers which do not use it, if it cannot be
+     * installed the reader keeps scanning the queue.
+     */
+    private boolean notifyFetchEnabled;
+    private final long notifyWindowMs;
+    private final int notifyMaxIds;
+    private final long rescanIntervalMs;
+    private final Vertx vertx;
+    /** Ids of new messages published by the trigger and not fetched yet.*/
+    private final TreeSet<Long> notifiedIds = new TreeSet<>();
+    private boolean scanNeeded = true;
+    private long lastScanAt = 0;
+    private long notifyTimer = -1;
     private int pendingNotifications = 0;
     private MessageReaderStatus status = MessageReaderStatus.Running;
 
     public MessageReaderPostgres(final IPostgresClient postgresClient, final JsonObject config) {
+        this(null, postgresClient, config);
+    }
+
+    public MessageReaderPostgres(final Vertx vertx, final IPostgresClient postgresClient, final JsonObject config) {
+        this.vertx = vertx;
         this.pgClient = postgresClient.getClientChannel();
         this.modulo = config.getInteger("consumer-modulo", DEFAULT_JOB_MODULO);
+        this.metricsCacheMs = config.getLong("metrics-cache-ms", DEFAULT_METRICS_CACHE_MS);
+        this.detailedQueueStats = config.getBoolean("detailed-queue-stats", false);
+        this.retryBackoff = RetryBackoff.create(config.getJsonObject("retry-backoff"));
+        this.retryBatchRatio = config.getDouble("retry-batch-ratio", DEFAULT_RETRY_BATCH_RATIO);
+        this.failQuery = String.format(FAIL_QUERY, retryBackoff.toSqlInterval("(attempted_count+1)"));
+        final JsonObject claimConfig = config.getJsonObject("claim", new JsonObject());
+        this.claimEnabled = claimConfig.getBoolean("enabled", false);
+        this.claimLeaseMs = claimConfig.getLong("lease-ms", DEFAULT_CLAIM_LEASE_MS);
+        this.claimOwner = config.getString("consumer-instance-id", UUID.randomUUID().toString());
+        metrics.put("claim_enabled", claimEnabled);
+        final JsonObject notifyConfig = config.getJsonObject("notify-fetch", new JsonObject());
+        this.notifyFetchEnabled = notifyConfig.getBoolean("enabled", false);
+        this.notifyWindowMs = notifyConfig.getLong("window-ms", DEFAULT_NOTIFY_WINDOW_MS);
+        this.notifyMaxIds = notifyConfig.getInteger("max-ids", DEFAULT_NOTIFY_MAX_IDS);
+        this.rescanIntervalMs = notifyConfig.getLong("rescan-interval-ms", DEFAULT_RESCAN_INTERVAL_MS);
+        metrics.put("notify_fetch_enabled", notifyFetchEnabled);
+        if (notifyFetchEnabled) {
+            this.pgClient.listen(QUEUE_IDS_CHANNEL, this::onIdsNotified);
+        }
         //TODO close remove listeners?
         this.pgClient.listen(ExplorerPluginCommunicationPostgres.RESOURCE_CHANNEL, onMessage -> {
+            if (notifyFetchEnabled) {
+                // the trigger of the queue notifies the same inserts with their ids
+                return;
+            }
             this.pendingNotifications++;
             //do not notify each time
             if (isStopped()) {
@@ -51,6 +136,43 @@ public class MessageReaderPostgres implements MessageReader {
         });
     }
 
+    /**
+     * Keep the range of ids published by the trigger and wake up the listeners once for all the notifications
+     * received during the window.
+     * @param payload {"min": first id, "max": last id, "count": number of rows}
+     */
+    protected void onIdsNotified(final String payload) {
+        try {
+            final JsonObject range = new JsonObject(payload);
+            final long min = range.getLong("min");
+            final long max = range.getLong("max");
+            if (max - min + 1 + notifiedIds.size() > notifyMaxIds) {
+                // too many ids to be fetched by key : scan the queue instead
+                notifiedIds.clear();
+                scanNeeded = true;
+                metrics.put("notify_gap_count", metrics.getLong("notify_gap_count", 0L) + 1);
+            } else {
+                for (long id = min; id <= max; id++) {
+                    notifiedIds.add(id);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Unexpected notification of the resource queue, scanning it : " + payload);
+            scanNeeded = true;
+        }
+        this.pendingNotifications++;
+        metrics.put("last_listen_at", new Date().getTime());
+        metrics.put("listen_count", metrics.getInteger("listen_count", 0) + 1);
+        if (vertx == null || notifyWindowMs <= 0) {
+            notifyListeners();
+        } else if (notifyTimer < 0) {
+            notifyTimer = vertx.setTimer(notifyWindowMs, e -> {
+                notifyTimer = -1;
+                notifyListeners();
+            });
+        }
+    }
+
     @Override
     public Function<Void, Void> listenNewMessages(final Handler<Void> handler) {
         listeners.add(handler);
@@ -64,14 +186,48 @@ public class MessageReaderPostgres implements MessageReader {
     @Override
     public Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize) {
         final String attemptFilter = " AND attempted_count = 0 ";
-        return fetch(maxBatchSize, Optional.empty(), attemptFilter);
+        final long now = System.currentTimeMillis();
+        if (!notifyFetchEnabled || scanNeeded || now - lastScanAt > rescanIntervalMs) {
+            lastScanAt = now;
+            return fetch(maxBatchSize, Optional.empty(), attemptFilter, Optional.empty()).onSuccess(messages -> {
+                // keep scanning while there is a backlog
+                scanNeeded = messages.size() >= maxBatchSize;
+                metrics.put("scan_count", metrics.getLong("scan_count", 0L) + 1);
+            });
+        }
+        if (notifiedIds.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
+        // fetch by primary key the new messages which have been notified (more may have been published than fetched)
+        final List<Long> ids = new ArrayList<>();
+        while (!notifiedIds.isEmpty() && ids.size() < maxBatchSize) {
+            final Long id = notifiedIds.pollFirst();
+            // a notification can arrive after a scan already fetched the message
+            if (!inFlightIds.contains(id)) {
+                ids.add(id);
+            }
+        }
+        if (ids.isEmpty()) {
+            return Future.succeededFuture(new ArrayList<>());
+        }
+        metrics.put("fetch_by_ids_count", metrics.getLong("fetch_by_ids_count", 0L) + 1);
+        return fetch(maxBatchSize, Optional.empty(), attemptFilter, Optional.of(ids.toArray(new Long[0]))).onFailure(th -> {
+            // fetch them again next time
+            notifiedIds.addAll(ids);
+        });
     }
 
 
     @Override
     public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
-        final String attemptFilter = String.format(" AND attempted_count > 0 AND attempted_count <= %s ", maxAttempt);
-        return fetch(maxBatchSize, Optional.of(maxAttempt), attemptFilter);
+        // messages whose retry is not due yet are left in the queue
+        final String attemptFilter = String.format(" AND attempted_count > 0 AND attempted_count <= %s AND (next_attempt_at IS NULL OR next_attempt_at <= NOW()) ", maxAttempt);
+        return fetch(maxBatchSize, Optional.of(maxAttempt), attemptFilter, Optional.empty());
+    }
+
+    @Override
+    public double getRetryBatchRatio() {
+        return retryBatchRatio;
     }
 
     @Override
@@ -82,13 +238,44 @@ public class MessageReaderPostgres implements MessageReader {
     @Override
     public void stop() {
         this.status = MessageReaderStatus.Stopped;
+        if (vertx != null && notifyTimer >= 0) {
+            vertx.cancelTimer(notifyTimer);
+            notifyTimer = -1;
+        }
     }
 
     @Override
     public Future<Void> start() {
-        notifyListeners();
-        this.status = MessageReaderStatus.Running;
-        return Future.succeededFuture();
+        return installNotifyTrigger().map(e -> {
+            notifyListeners();
+            this.status = MessageReaderStatus.Running;
+            return null;
+        });
+    }
+
+    /**
+     * Install the trigger which publishes the ids of new messages when notify-fetch is enabled. It is never dropped by
+     * the readers : nodes starting with different configurations (e.g. during a rolling upgrade) would otherwise
+     * install and drop it in turn, each time locking the queue. The catalog is checked first so that the queue is only
+     * locked when the trigger is missing.
+     */
+    Future<Void> installNotifyTrigger() {
+        if (!notifyFetchEnabled) {
+            return Future.succeededFuture();
+        }
+        final String query = String.format("DO $$ BEGIN " +
+                "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = '%1$s' AND tgrelid = 'explorer.resource_queue'::regclass) THEN " +
+                "CREATE TRIGGER %1$s AFTER INSERT ON explorer.resource_queue REFERENCING NEW TABLE AS new_rows " +
+                "FOR EACH STATEMENT EXECUTE PROCEDURE explorer.notify_resource_queue(); " +
+                "END IF; " +
+                "EXCEPTION WHEN duplicate_object THEN NULL; " +
+                "END $$", NOTIFY_TRIGGER);
+        return this.pgClient.preparedQuery(query, Tuple.tuple()).<Void>mapEmpty().recover(th -> {
+            log.error("Could not install the trigger publishing the ids of new messages, scanning the queue instead", th);
+            notifyFetchEnabled = false;
+            metrics.put("notify_fetch_enabled", false);
+            return Future.succeededFuture();
+        });
     }
 
     protected void notifyListeners() {
@@ -101,33 +288,90 @@ public class MessageReaderPostgres implements MessageReader {
         this.pendingNotifications = 0;
     }
 
-    Future<List<ExplorerMessageForIngest>> fetch(final int maxBatchSize, final Optional<Integer> maxAttempt, final String attemptFilter) {
-        // use modulo to split between different thread
-        final String modulo = this.modulo == 1 ? "" : String.format(" AND MOD(id,%s)=0 ", this.modulo);
-        final String query = String.format("SELECT * FROM explorer.resource_queue WHERE attempt_status=$1 %s %s ORDER BY priority DESC, created_at ASC LIMIT $2", modulo, attemptFilter);
-        return this.pgClient.preparedQuery(query, Tuple.of(STATUS_PENDING, maxBatchSize)).map(result -> {
-            final List<ExplorerMessageForIngest> all = new ArrayList<>();
-            for (final Row row : result) {
-                final String resourceAction = row.getString("resource_action");
-                final Long idQueue = row.getLong("id");
-                final String idResource = row.getString("id_resource");
-                final JsonObject json = (JsonObject) (row.getJson("payload"));
-                final ExplorerMessageForIngest message = new ExplorerMessageForIngest(resourceAction, idQueue + "", idResource, json);
-                all.add(message);
-            }
-            //metrics
-            if (maxAttempt.isPresent()) {
-                metrics.put("last_fetch_max_attempt", maxAttempt.get());
-            }
-            metrics.put("last_fetch_max_batch_size", maxBatchSize);
-            metrics.put("last_fetch_at", new Date().getTime());
-            metrics.put("last_fetch_size", all.size());
-            metrics.put("fetch_count", metrics.getInteger("fetch_count", 0) + 1);
-            //return
-            return all;
+    Future<List<ExplorerMessageForIngest>> fetch(final int maxBatchSize, final Optional<Integer> maxAttempt, final String attemptFilter, final Optional<Long[]> ids) {
+        if (claimEnabled) {
+            return claim(maxBatchSize, maxAttempt, attemptFilter, ids);
+        }
+        if (assignment.isPresent() && !assignment.get().isAssigned()) {
+            // the partition of this worker is being handed over
+            return Future.succeededFuture(new ArrayList<>());
+        }
+        // use modulo to split between different thread (or between workers when they are coordinated)
+        final String modulo;
+        if (assignment.isPresent()) {
+            final IngestWorkerCoordinator.Assignment partition = assignment.get();
+            modulo = partition.isPartitioned() ? String.format(" AND MOD(id,%s)=%s ", partition.getCount(), partition.getIndex()) : "";
+        } else {
+            modulo = this.modulo == 1 ? "" : String.format(" AND MOD(id,%s)=0 ", this.modulo);
+        }
+        final StringBuilder idFilter = new StringBuilder();
+        final Tuple tuple = Tuple.of(STATUS_PENDING, maxBatchSize);
+        if (ids.isPresent()) {
+            tuple.addValue(ids.get());
+            idFilter.append(String.format(" AND id = ANY($%s::bigint[]) ", tuple.size()));
+        }
+        if (!inFlightIds.isEmpty()) {
+            // skip messages that are still being ingested by a previous cycle
+            tuple.addValue(inFlightIds.toArray(new Long[0]));
+            idFilter.append(String.format(" AND NOT (id = ANY($%s::bigint[])) ", tuple.size()));
+        }
+        final String query = String.format("SELECT * FROM explorer.resource_queue WHERE attempt_status=$1 %s %s %s %s ORDER BY priority DESC, created_at ASC LIMIT $2", getHotFilter(tuple), modulo, attemptFilter, idFilter);
+        return this.pgClient.preparedQuery(query, tuple).map(result -> toMessages(result, maxBatchSize, maxAttempt));
+    }
+
+    /**
+     * Claim the next messages with a lease : rows locked by another reader are skipped and rows whose lease expired
+     * (their reader stopped or crashed) can be claimed again. Claimed rows are not visible to other readers (nor to
+     * this one) until they are released, so neither the modulo nor the in flight ids are needed.
+     */
+    Future<List<ExplorerMessageForIngest>> claim(final int maxBatchSize, final Optional<Integer> maxAttempt, final String attemptFilter, final Optional<Long[]> ids) {
+        final String idFilter = ids.isPresent() ? " AND id = ANY($5::bigint[]) " : "";
+        final Tuple tuple = ids.isPresent() ? Tuple.of(STATUS_PENDING, maxBatchSize, claimOwner, claimLeaseMs, ids.get()) :
+                Tuple.of(STATUS_PENDING, maxBatchSize, claimOwner, claimLeaseMs);
+        final String query = String.format("UPDATE explorer.resource_queue SET claimed_by=$3, claimed_until=NOW() + $4 * INTERVAL '1 millisecond' " +
+                "WHERE id IN (SELECT id FROM explorer.resource_queue WHERE attempt_status=$1 AND (claimed_until IS NULL OR claimed_until < NOW()) %s %s %s " +
+                "ORDER BY priority DESC, created_at ASC LIMIT $2 FOR UPDATE SKIP LOCKED) RETURNING *", getHotFilter(tuple), attemptFilter, idFilter);
+        return this.pgClient.preparedQuery(query, tuple).map(result -> {
+            final List<Row> rows = new ArrayList<>();
+            result.forEach(rows::add);
+            // RETURNING does not keep the order of the sub query
+            rows.sort(Comparator.comparing((Row row) -> row.getInteger("priority")).reversed()
+                    .thenComparing(row -> row.getLocalDateTime("created_at"), Comparator.nullsFirst(Comparator.naturalOrder())));
+            metrics.put("claimed_count", metrics.getLong("claimed_count", 0L) + rows.size());
+            return toMessages(rows, maxBatchSize, maxAttempt);
         });
     }
 
+    private List<ExplorerMessageForIngest> toMessages(final Iterable<Row> rows, final int maxBatchSize, final Optional<Integer> maxAttempt) {
+        final List<ExplorerMessageForIngest> all = new ArrayList<>();
+        for (final Row row : rows) {
+            final String resourceAction = row.getString("resource_action");
+            final Long idQueue = row.getLong("id");
+            inFlightIds.add(idQueue);
+            // already fetched by a scan
+            notifiedIds.remove(idQueue);
+            final String idResource = row.getString("id_resource");
+            final JsonObject json = (JsonObject) (row.getJson("payload"));
+            final ExplorerMessageForIngest message = new ExplorerMessageForIngest(resourceAction, idQueue + "", idResource, json);
+            message.getMetadata().put(ASSIGNMENT_EPOCH, assignmentEpoch);
+            final LocalDateTime createdAt = row.getLocalDateTime("created_at");
+            if (createdAt != null) {
+                message.setEnqueuedAt(createdAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+            all.add(message);
+        }
+        //metrics
+        if (maxAttempt.isPresent()) {
+            metrics.put("last_fetch_max_attempt", maxAttempt.get());
+        }
+        metrics.put("last_fetch_max_batch_size", maxBatchSize);
+        metrics.put("last_fetch_at", new Date().getTime());
+        metrics.put("last_fetch_size", all.size());
+        metrics.put("fetch_count", metrics.getInteger("fetch_count", 0) + 1);
+        //return
+        return all;
+    }
+
     @Override
     public Future<Void> updateStatus(final IngestJob.IngestJobResult result, final int maxAttempt) {
         final List<ExplorerMessageForIngest> toAck = new ArrayList<>();
@@ -136,41 +380,41 @@ public class MessageReaderPostgres implements MessageReader {
         // they are not true failures and replaying them won't make
         // them pass
         toAck.addAll(result.skipped);
-        final List<ExplorerMessageForIngest> failed = result.failed;
-        final List<JsonObject> failedJson = result.failed.stream().filter(e->{
-            return e.getIdQueue().isPresent();
-        }).map(e -> {
-            return e.getMessage()
-                    .put("_idQueue", Long.valueOf(e.getIdQueue().get()))
-                    .put("_idResource", e.getId()).put("_error", e.getError());
-        }).collect(Collectors.toList());
+        // causes are keyed by id so a message must appear only once in the insert
+        final Map<Long, ExplorerMessageForIngest> failedById = new LinkedHashMap<>();
+        for (final ExplorerMessageForIngest message : result.failed) {
+            message.getIdQueue().ifPresent(idQueue -> failedById.put(Long.valueOf(idQueue), message));
+        }
         //save
         return this.pgClient.transaction().compose(transaction -> {
+            // statements take arrays so that their text (and their prepared statement) does not depend on the batch size
             if (!toAck.isEmpty()) {
-                final List<Long> ids = toAck.stream()
+                final Long[] ids = toAck.stream()
                     .filter(e-> e.getIdQueue().isPresent())
-                    .map(e -> Long.valueOf(e.getIdQueue().get())).collect(Collectors.toList());
-                final Tuple tuple = PostgresClient.inTuple(Tuple.of(STATUS_SUCCESS), ids);
-                final String placeholder = PostgresClient.inPlaceholder(toAck, 2);
-                final String query = String.format("UPDATE explorer.resource_queue SET  attempt_status=$1, attempted_count=attempted_count+1, attempted_at=NOW() WHERE id IN (%s)", placeholder);
-                transaction.addPreparedQuery(query, tuple);
+                    .map(e -> Long.valueOf(e.getIdQueue().get())).toArray(Long[]::new);
+                if (claimEnabled) {
+                    transaction.addPreparedQuery(ACK_QUERY + OWNER_FILTER, Tuple.of(STATUS_SUCCESS, ids, claimOwner));
+                } else {
+                    transaction.addPreparedQuery(ACK_QUERY, Tuple.of(STATUS_SUCCESS, ids));
+                }
             }
-            if (!failed.isEmpty()) {
+            if (!failedById.isEmpty()) {
                 final LocalDateTime now = LocalDateTime.now();
-                final Map<String, Object> defaultValues = new HashMap<>();
-                defaultValues.put("_attemptat", now);
-                defaultValues.put("_error", "");
-                final List<Long> ids = failed.stream().filter(e->{
-                    return e.getIdQueue().isPresent();
-                }).map(e -> Long.valueOf(e.getIdQueue().get())).collect(Collectors.toList());
-                final Tuple tuple = PostgresClient.inTuple(Tuple.of(now), ids);
-                final String placeholder = PostgresClient.inPlaceholder(failed, 2);
-                final String query = String.format("UPDATE explorer.resource_queue SET  attempted_count=attempted_count+1, attempted_at=$1 WHERE id IN (%s)", placeholder);
-                transaction.addPreparedQuery(query, tuple);
-                final Tuple tupleMessage = PostgresClient.insertValues(failedJson, Tuple.tuple(), defaultValues, "_idQueue", "_idResource", "_error", "_attemptat");
-                final String placeholderMessage = PostgresClient.insertPlaceholders(failedJson, 1, "_idQueue", "id_resource", "_error", "_attemptat");
-                final String queryMessage = String.format("INSERT INTO explorer.resource_queue_causes (id, id_resource, attempt_reason, attempted_at) VALUES %s  ON CONFLICT(id) DO UPDATE SET attempt_reason = EXCLUDED.attempt_reason, attempted_at=EXCLUDED.attempted_at;", placeholderMessage);
-                transaction.addPreparedQuery(queryMessage, tupleMessage);
+                final Long[] ids = failedById.keySet().toArray(new Long[0]);
+                final String[] idResources = new String[ids.length];
+                final String[] errors = new String[ids.length];
+                int i = 0;
+                for (final ExplorerMessageForIngest message : failedById.values()) {
+                    idResources[i] = message.getId();
+                    errors[i] = message.getError() == null ? "" : message.getError();
+                    i++;
+                }
+                if (claimEnabled) {
+                    transaction.addPreparedQuery(failQuery + OWNER_FILTER, Tuple.of(now, ids, claimOwner));
+                } else {
+                    transaction.addPreparedQuery(failQuery, Tuple.of(now, ids));
+                }
+                transaction.addPreparedQuery(CAUSES_QUERY, Tuple.of(ids, idResources, errors, now));
             }
             return transaction.commit().onFailure(e -> {
                 log.error("Could not update resource status on queue: ", e);
@@ -178,6 +422,75 @@ public class MessageReaderPostgres implements MessageReader {
         });
     }
 
+    /**
+     * @param hotSince Date before which no row can be read anymore so that the partitions of older days are skipped
+     */
+    public void setHotSince(final LocalDateTime hotSince) {
+        this.hotSince = Optional.ofNullable(hotSince);
+        metrics.put("hot_since", hotSince == null ? null : hotSince.toString());
+    }
+
+    /**
+     * @param tuple Parameters of the query, the date is added as the last one
+     * @return The filter of the rows which can still be read
+     */
+    private String getHotFilter(final Tuple tuple) {
+        if (!hotSince.isPresent()) {
+            return "";
+        }
+        tuple.addLocalDateTime(hotSince.get());
+        return String.format(" AND created_at >= $%s ", tuple.size());
+    }
+
+    @Override
+    public void onPartitionAssigned(final IngestWorkerCoordinator.Assignment assignment) {
+        if (this.assignment.isPresent() && this.assignment.get().equals(assignment)) {
+            return;
+        }
+        this.assignment = Optional.of(assignment);
+        this.assignmentEpoch++;
+        metrics.put("partition", assignment.toString());
+        metrics.put("assignment_epoch", assignmentEpoch);
+        // the new partition may already contain messages
+        this.pendingNotifications++;
+        notifyListeners();
+    }
+
+    /**
+     * Claimed messages do not depend on the assignment (their claim already fences the other readers).
+     */
+    @Override
+    public boolean isStillAssigned(final List<ExplorerMessageForIngest> messages) {
+        if (claimEnabled) {
+            return true;
+        }
+        for (final ExplorerMessageForIngest message : messages) {
+            final Integer epoch = message.getMetadata().getInteger(ASSIGNMENT_EPOCH);
+            if (epoch != null && epoch != assignmentEpoch) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void releaseMessages(final List<ExplorerMessageForIngest> messages) {
+        final List<Long> ids = new ArrayList<>();
+        for (final ExplorerMessageForIngest message : messages) {
+            message.getIdQueue().ifPresent(idQueue -> {
+                inFlightIds.remove(Long.valueOf(idQueue));
+                ids.add(Long.valueOf(idQueue));
+            });
+        }
+        if (claimEnabled && !ids.isEmpty()) {
+            // give back the claims right away (failed messages can then be retried by any reader once they are due)
+            final String query = "UPDATE explorer.resource_queue SET claimed_by=NULL, claimed_until=NULL WHERE id = ANY($1::bigint[]) AND claimed_by=$2";
+            pgClient.preparedQuery(query, Tuple.of(ids.toArray(new Long[0]), claimOwner)).onFailure(e -> {
+                log.error("Could not release claimed messages (they will be released when their lease expires): ", e);
+            });
+        }
+    }
+
     private Object dateToJsonValue( final Object date ) {
         if( date == null ) {
             return null;
@@ -191,30 +504,104 @@ public class MessageReaderPostgres implements MessageReader {
 
     @Override
     public Future<JsonObject> getMetrics() {
+        final long now = System.currentTimeMillis();
+        if (queueStats == null || queueStats.failed() || (queueStats.isComplete() && now - queueStatsAt > metricsCacheMs)) {
+            // the statistics of the queue are not computed on every call (even if they no longer need to scan it)
+            queueStatsAt = now;
+            queueStats = computeQueueStats();
+        }
+        return queueStats.map(stats -> this.metrics.copy().mergeIn(stats).put("stats_computed_at", queueStatsAt));
+    }
+
+    private Future<JsonObject> computeQueueStats() {
         final Integer lastMaxAtempt = metrics.getInteger("last_fetch_max_attempt", -1);
-        final JsonObject metrics = this.metrics.copy();
-        final Future<RowSet<Row>> f1 = pgClient.preparedQuery("SELECT COUNT(*) as nb, MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count = 0", Tuple.tuple()).onSuccess(result -> {
+        final JsonObject metrics = new JsonObject();
+        // counters maintained by the triggers of the queue (see 014-resource-queue-stats.sql) : their deltas are
+        // compacted by the archiver, readers only sum them
+        final String countersQuery = "SELECT priority, attempted_count, attempt_status, SUM(nb)::bigint AS nb FROM explorer.resource_queue_stats " +
+                "GROUP BY priority, attempted_count, attempt_status HAVING SUM(nb) <> 0";
+        final Future<JsonObject> counters = pgClient.preparedQuery(countersQuery, Tuple.tuple()).compose(result -> {
+            final JsonObject backlogByPriority = new JsonObject();
+            final JsonObject failedByAttempt = new JsonObject();
+            long pendingCount = 0, pendingRetryCount = 0, pendingFailedCount = 0;
             for (final Row row : result) {
-                metrics.put("pending_count", row.getValue("nb"));
-                metrics.put("pending_min", dateToJsonValue(row.getValue("mindate")));
-                metrics.put("pending_max", dateToJsonValue(row.getValue("maxdate")));
+                final long nb = row.getLong("nb");
+                final int attemptedCount = row.getInteger("attempted_count");
+                if (attemptedCount == 0) {
+                    pendingCount += nb;
+                }
+                if (attemptedCount < lastMaxAtempt) {
+                    pendingRetryCount += nb;
+                } else if (attemptedCount > lastMaxAtempt) {
+                    pendingFailedCount += nb;
+                }
+                if (row.getInteger("attempt_status") == STATUS_PENDING) {
+                    final String priority = String.valueOf(row.getInteger("priority"));
+                    final JsonObject priorityBacklog = backlogByPriority.getJsonObject(priority, new JsonObject());
+                    priorityBacklog.put("depth", priorityBacklog.getLong("depth", 0L) + nb);
+                    backlogByPriority.put(priority, priorityBacklog);
+                    if (attemptedCount > 0) {
+                        failedByAttempt.put(String.valueOf(attemptedCount), failedByAttempt.getLong(String.valueOf(attemptedCount), 0L) + nb);
+                    }
+                }
             }
-        });
-        final Future<RowSet<Row>> f2 = pgClient.preparedQuery("SELECT COUNT(*) as nb, MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count < $1", Tuple.of(lastMaxAtempt)).onSuccess(result -> {
-            for (final Row row : result) {
-                metrics.put("pending_retry_count", row.getValue("nb"));
-                metrics.put("pending_retry_min", dateToJsonValue(row.getValue("mindate")));
-                metrics.put("pending_retry_max", dateToJsonValue(row.getValue("maxdate")));
+            metrics.put("pending_count", pendingCount);
+            metrics.put("pending_retry_count", pendingRetryCount);
+            metrics.put("pending_failed_count", pendingFailedCount);
+            metrics.put("backlog", backlogByPriority);
+            metrics.put("failed_by_attempt", failedByAttempt);
+            metrics.put("retry_backoff", retryBackoff.toJson());
+            // the oldest pending message of each priority is the first entry of the index of pending messages
+            final List<Future> oldest = new ArrayList<>();
+            for (final String priority : backlogByPriority.fieldNames()) {
+                final JsonObject priorityBacklog = backlogByPriority.getJsonObject(priority);
+                if (priorityBacklog.getLong("depth") <= 0) {
+                    continue;
+                }
+                final String oldestQuery = "SELECT created_at FROM explorer.resource_queue WHERE attempt_status = $1 AND priority = $2 ORDER BY priority DESC, created_at ASC LIMIT 1";
+                oldest.add(pgClient.preparedQuery(oldestQuery, Tuple.of(STATUS_PENDING, Integer.valueOf(priority))).onSuccess(rows -> {
+                    for (final Row row : rows) {
+                        final LocalDateTime minDate = row.getLocalDateTime("created_at");
+                        if (minDate != null) {
+                            priorityBacklog.put("oldest_age_ms", System.currentTimeMillis() - minDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                        }
+                    }
+                }));
             }
+            return CompositeFuture.all(oldest).map(metrics);
         });
-        final Future<RowSet<Row>> f3 = pgClient.preparedQuery("SELECT COUNT(*) as nb, MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count > $1", Tuple.of(lastMaxAtempt)).onSuccess(result -> {
+        // read from the ends of the index of new messages
+        final Future<RowSet<Row>> newDates = pgClient.preparedQuery("SELECT MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count = 0", Tuple.tuple()).onSuccess(result -> {
             for (final Row row : result) {
-                metrics.put("pending_failed_count", row.getValue("nb"));
-                metrics.put("pending_failed_min", dateToJsonValue(row.getValue("mindate")));
-                metrics.put("pending_failed_max", dateToJsonValue(row.getValue("maxdate")));
+                metrics.put("pending_min", dateToJsonValue(row.getValue("mindate")));
+                metrics.put("pending_max", dateToJsonValue(row.getValue("maxdate")));
             }
         });
-        return CompositeFuture.all(f1, f2, f3).map(e -> {
+        final List<Future> futures = new ArrayList<>();
+        futures.add(counters);
+        futures.add(newDates);
+        if (detailedQueueStats) {
+            // these ones need to scan the queue
+            futures.add(pgClient.preparedQuery("SELECT MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count < $1", Tuple.of(lastMaxAtempt)).onSuccess(result -> {
+                for (final Row row : result) {
+                    metrics.put("pending_retry_min", dateToJsonValue(row.getValue("mindate")));
+                    metrics.put("pending_retry_max", dateToJsonValue(row.getValue("maxdate")));
+                }
+            }));
+            futures.add(pgClient.preparedQuery("SELECT MIN(created_at) mindate, MAX(created_at) maxdate FROM explorer.resource_queue WHERE attempted_count > $1", Tuple.of(lastMaxAtempt)).onSuccess(result -> {
+                for (final Row row : result) {
+                    metrics.put("pending_failed_min", dateToJsonValue(row.getValue("mindate")));
+                    metrics.put("pending_failed_max", dateToJsonValue(row.getValue("maxdate")));
+                }
+            }));
+            futures.add(pgClient.preparedQuery("SELECT COUNT(*) as nb FROM explorer.resource_queue WHERE attempt_status = $1 AND next_attempt_at > NOW()", Tuple.of(STATUS_PENDING)).onSuccess(result -> {
+                for (final Row row : result) {
+                    // failed messages waiting for their retry to be due
+                    metrics.put("delayed_count", row.getLong("nb"));
+                }
+            }));
+        }
+        return CompositeFuture.all(futures).map(e -> {
             return metrics;
         });
     }
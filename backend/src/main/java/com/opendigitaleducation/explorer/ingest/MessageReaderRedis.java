@@ -5,12 +5,30 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.redis.client.Response;
 import org.entcore.common.explorer.impl.ExplorerPluginCommunicationRedis;
 import org.entcore.common.redis.RedisClient;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+/**
+ * <p>
+ * Reads the messages of the redis streams through a consumer group. Messages in error are moved to a fail stream (or
+ * wait in a delayed set until their retry is due) by Lua scripts so that a message is acknowledged only once it has
+ * been moved.
+ * </p>
+ * <p>
+ * The scripts update several keys at once (a stream, its fail stream or delayed set and the hash counting the failed
+ * messages of the group) whose names are given by the applications writing to the streams : they must all live on the
+ * same node. Redis Cluster is not supported (the scripts would fail with CROSSSLOT), a warning is logged when the
+ * server runs in cluster mode.
+ * </p>
+ */
 public class MessageReaderRedis implements MessageReader {
     static final Logger log = LoggerFactory.getLogger(MessageReaderRedis.class);
     static final Integer DEFAULT_BLOCK_MS = 0;//infinity
@@ -18,17 +36,108 @@ public class MessageReaderRedis implements MessageReader {
     static final String DEFAULT_CONSUMER_NAME = "message_reader";
     static final String DEFAULT_STREAM_FAIL = "_fail";
     static final String DEFAULT_CONSUMER_GROUP = "message_reader_group";
+    static final long DEFAULT_RECLAIM_INTERVAL_MS = 60000L;
+    static final long DEFAULT_RECLAIM_MIN_IDLE_MS = 300000L;
+    static final int DEFAULT_RECLAIM_COUNT = 100;
+    static final long DEFAULT_CONSUMER_TTL_MS = 86400000L;
+    /** Maximum number of pages of pending entries claimed from a dead consumer of a stream on each reclaim.*/
+    static final int MAX_RECLAIM_PAGES = 10;
+    static final String DEFAULT_STREAM_DELAYED = "_delayed";
+    static final String DEFAULT_FAILED_COUNTERS_SUFFIX = "_failed_by_attempt";
+    static final double DEFAULT_RETRY_BATCH_RATIO = 0.5;
+    /**
+     * Moves the members of a sorted set (KEYS[1]) whose score (the due date of a retry) is in the past to a stream
+     * (KEYS[2]). Each member is only removed once it has been added to the stream, so that a failure cannot lose it.
+     */
+    static final String PROMOTE_DUE_SCRIPT = "redis.replicate_commands() " +
+            "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+            "for _, member in ipairs(due) do " +
+            "local fields = {} " +
+            "for k, v in pairs(cjson.decode(member)) do " +
+            "if v ~= cjson.null then table.insert(fields, k) table.insert(fields, tostring(v)) end " +
+            "end " +
+            "redis.call('XADD', KEYS[2], '*', unpack(fields)) " +
+            "redis.call('ZREM', KEYS[1], member) " +
+            "end " +
+            "return #due";
     private final Vertx vertx;
     private final String consumerName;
     private final String consumerGroup;
     private final String streamFailSuffix;
     private final Integer consumerBlockMs;
     private final Integer retryReadMs;
+    /** Delay between two reclaims of idle pending entries (0 or less to disable them).*/
+    private final long reclaimIntervalMs;
+    /**
+     * Minimum time a consumer must have been idle (no read nor acknowledgement) before it is considered dead and its
+     * pending entries reclaimed, live consumers keep their entries even if they wait in the backlog of a lane.
+     */
+    private final long reclaimMinIdleMs;
+    private final int reclaimCount;
+    /** Consumers of other instances without pending entries and idle for longer than this are removed from the group.*/
+    private final long consumerTtlMs;
+    private long reclaimTimer = -1;
+    /** Result of INFO, read once to check the version and the mode of the server.*/
+    private Future<String> serverInfo;
+    /** Delay before a failed message can be attempted again.*/
+    private final RetryBackoff retryBackoff;
+    private final double retryBatchRatio;
+    /** Suffix of the sorted sets in which failed messages wait until their retry is due before going to the fail stream.*/
+    private final String streamDelayedSuffix;
     private final Future<Void> onReady;
     private final RedisClient redisClient;
     private final List<String> streams = new ArrayList<>();
     private final List<Handler<Void>> listeners = new ArrayList<>();
+    /** Ids (by stream) of messages that have been fetched and whose ingestion cycle is not over yet.*/
+    private final Map<String, TreeSet<String>> inFlightIdsByStream = new HashMap<>();
     private final JsonObject metrics = new JsonObject();
+    /**
+     * Acknowledges and deletes entries of a stream (KEYS[1]) for a group (ARGV[1]), each entry being followed by the
+     * attempt count it is counted under in the hash of failed messages (KEYS[2]) if any. The counter is only
+     * decremented for entries which were still pending so that an entry acknowledged twice is not counted twice, and
+     * never below zero since entries added to the fail streams before the counters existed were never counted.
+     */
+    static final String ACK_DELETE_SCRIPT = "for i = 2, #ARGV, 2 do " +
+            "if redis.call('XACK', KEYS[1], ARGV[1], ARGV[i]) == 1 and ARGV[i + 1] ~= '' " +
+            "and tonumber(redis.call('HGET', KEYS[2], ARGV[i + 1]) or 0) > 0 then redis.call('HINCRBY', KEYS[2], ARGV[i + 1], -1) end " +
+            "redis.call('XDEL', KEYS[1], ARGV[i]) " +
+            "end " +
+            "return {}";
+    /**
+     * Moves entries of a stream (KEYS[1]) still pending for a consumer (ARGV[2]) of a group (ARGV[1]) to a stream or
+     * to a delayed set (KEYS[2], depending on ARGV[3]) and updates the hash of failed messages (KEYS[3]). Each entry is
+     * moved on its own : an entry which cannot be added stays pending (it is returned with its error) without
+     * preventing the other entries from being acknowledged. Like {@link #ACK_DELETE_SCRIPT} counters never go below
+     * zero.
+     */
+    static final String MOVE_SCRIPT = "redis.replicate_commands() " +
+            "local failed = {} " +
+            "local i = 4 " +
+            "while i <= #ARGV do " +
+            "local id, removed, added, score, n = ARGV[i], ARGV[i + 1], ARGV[i + 2], ARGV[i + 3], tonumber(ARGV[i + 4]) " +
+            "local values = {} " +
+            "for j = 1, n do values[j] = ARGV[i + 4 + j] end " +
+            "i = i + 5 + n " +
+            "local pending = redis.call('XPENDING', KEYS[1], ARGV[1], id, id, 1) " +
+            "if #pending > 0 and pending[1][2] == ARGV[2] then " +
+            "local res " +
+            "if ARGV[3] == 'zset' then res = redis.pcall('ZADD', KEYS[2], score, unpack(values)) " +
+            "else res = redis.pcall('XADD', KEYS[2], '*', unpack(values)) end " +
+            "if type(res) == 'table' and res.err then " +
+            "table.insert(failed, id) table.insert(failed, res.err) " +
+            "else " +
+            "redis.call('XACK', KEYS[1], ARGV[1], id) redis.call('XDEL', KEYS[1], id) " +
+            "if removed ~= '' and tonumber(redis.call('HGET', KEYS[3], removed) or 0) > 0 then redis.call('HINCRBY', KEYS[3], removed, -1) end " +
+            "if added ~= '' then redis.call('HINCRBY', KEYS[3], added, 1) end " +
+            "end " +
+            "end " +
+            "end " +
+            "return failed";
+    private static final Map<String, String> SCRIPT_SHAS = new ConcurrentHashMap<>();
+    /** Maximum number of entries updated by one script.*/
+    static final int MAX_ENTRIES_PER_SCRIPT = 200;
+    /** Hash holding the number of messages in the fail streams by attempt count, shared by the readers of the group.*/
+    private final String failedCountersKey;
     private int pendingNotifications = 0;
     private boolean listening = false;
     private Long retryTimer;
@@ -40,8 +149,22 @@ public class MessageReaderRedis implements MessageReader {
         this.retryReadMs = config.getInteger("retry-read-ms", DEFAULT_RETRY_READ_MS);
         this.consumerBlockMs = config.getInteger("consumer-block-ms", DEFAULT_BLOCK_MS);
         this.streamFailSuffix = config.getString("stream-fail-suffix", DEFAULT_STREAM_FAIL);
-        this.consumerName = config.getString("consumer-name", DEFAULT_CONSUMER_NAME);
+        final String consumerPrefix = config.getString("consumer-name", DEFAULT_CONSUMER_NAME);
+        // each instance may read under its own name so that several workers can read the streams concurrently, the
+        // name does not change when the instance restarts so that it gets its pending entries back. It is disabled by
+        // default so that an upgraded instance keeps reading under the name holding its pending entries (the entries
+        // of a renamed consumer are only reclaimed once it has been idle for reclaim-min-idle-ms)
+        this.consumerName = config.getBoolean("consumer-name-per-instance", false) ?
+                consumerPrefix + "_" + config.getString("consumer-instance-id", getDefaultInstanceId()) : consumerPrefix;
+        this.reclaimIntervalMs = config.getLong("reclaim-interval-ms", DEFAULT_RECLAIM_INTERVAL_MS);
+        this.reclaimMinIdleMs = config.getLong("reclaim-min-idle-ms", DEFAULT_RECLAIM_MIN_IDLE_MS);
+        this.reclaimCount = config.getInteger("reclaim-count", DEFAULT_RECLAIM_COUNT);
+        this.consumerTtlMs = config.getLong("consumer-ttl-ms", DEFAULT_CONSUMER_TTL_MS);
+        this.retryBackoff = RetryBackoff.create(config.getJsonObject("retry-backoff"));
+        this.retryBatchRatio = config.getDouble("retry-batch-ratio", DEFAULT_RETRY_BATCH_RATIO);
+        this.streamDelayedSuffix = config.getString("stream-delayed-suffix", DEFAULT_STREAM_DELAYED);
         this.consumerGroup = config.getString("consumer-group", DEFAULT_CONSUMER_GROUP);
+        this.failedCountersKey = config.getString("failed-counters-key", consumerGroup + DEFAULT_FAILED_COUNTERS_SUFFIX);
         final JsonArray streams = config.getJsonArray("streams", ExplorerPluginCommunicationRedis.DEFAULT_STREAMS);
         //order by priority DESC
         final List<String> initStreams = new ArrayList<>();
@@ -58,7 +181,7 @@ public class MessageReaderRedis implements MessageReader {
             if(e.failed()){
                 log.error("Could not create redis group: " + consumerGroup, e.cause());
             }
-        });
+        }).compose(e -> loadScripts());
     }
 
     protected boolean notifyListeners() {
@@ -146,20 +269,248 @@ public class MessageReaderRedis implements MessageReader {
         if(this.retryTimer != null){
             vertx.cancelTimer(this.retryTimer);
         }
+        if (reclaimTimer >= 0) {
+            vertx.cancelTimer(reclaimTimer);
+            reclaimTimer = -1;
+        }
     }
 
     @Override
     public Future<Void> start() {
         status = MessageReaderStatus.Running;
+        getServerInfo().onSuccess(info -> {
+            if (isClusterEnabled(info)) {
+                log.error("Redis Cluster is not supported by the reader : the streams of the group, their fail streams, delayed sets and " +
+                        failedCountersKey + " must live on the same node");
+            }
+        });
         //schedule listen
         scheduleXread();
+        scheduleReclaim();
         return onReady;
     }
 
+    protected void scheduleReclaim() {
+        if (reclaimIntervalMs <= 0 || reclaimTimer >= 0) {
+            return;
+        }
+        reclaimTimer = vertx.setPeriodic(reclaimIntervalMs, timer -> {
+            if (isStopped()) {
+                return;
+            }
+            reclaimIdleEntries().onSuccess(nbClaimed -> {
+                if (nbClaimed > 0) {
+                    // claimed entries are now pending for this consumer and will be read by the next cycle
+                    this.pendingNotifications++;
+                    notifyListeners();
+                }
+            });
+        });
+    }
+
+    /**
+     * Take ownership of the entries pending on dead consumers of the group (a crashed or renamed instance which has
+     * not read nor acknowledged anything for a while) so that they are not stuck in the group forever, then remove
+     * stale consumers.
+     * @return the number of entries claimed by this consumer
+     */
+    protected Future<Integer> reclaimIdleEntries() {
+        return onReady.compose(ready -> {
+            final List<String> allStreams = new ArrayList<>();
+            for (final String stream : streams) {
+                allStreams.add(stream);
+                allStreams.add(stream + streamFailSuffix);
+            }
+            Future<Integer> futureIt = Future.succeededFuture(0);
+            for (final String stream : allStreams) {
+                futureIt = futureIt.compose(total -> claimFromDeadConsumers(stream)
+                        .compose(nbClaimed -> removeStaleConsumers(stream).map(total + nbClaimed)));
+            }
+            return futureIt;
+        }).onSuccess(nbClaimed -> {
+            metrics.put("last_reclaim_at", new Date().getTime());
+            metrics.put("reclaimed_count", metrics.getLong("reclaimed_count", 0L) + nbClaimed);
+        }).onFailure(th -> log.error("Could not reclaim idle pending entries", th));
+    }
+
+    private Future<Integer> claimFromDeadConsumers(final String stream) {
+        return redisClient.getClient().xinfo(Arrays.asList("CONSUMERS", stream, consumerGroup)).compose(consumers -> {
+            Future<Integer> futureIt = Future.succeededFuture(0);
+            for (final Response consumer : consumers) {
+                final String name = getField(consumer, "name");
+                final String pending = getField(consumer, "pending");
+                final String idle = getField(consumer, "idle");
+                if (name == null || consumerName.equals(name) || "0".equals(pending) || idle == null || Long.parseLong(idle) < reclaimMinIdleMs) {
+                    continue;
+                }
+                log.info(String.format("Claiming the pending entries of dead consumer %s (idle for %sms) on stream %s", name, idle, stream));
+                futureIt = futureIt.compose(total -> claimEntries(stream, name, reclaimCount * MAX_RECLAIM_PAGES, "-").map(nbClaimed -> total + nbClaimed));
+            }
+            return futureIt;
+        });
+    }
+
+    /**
+     * Claim the pending entries of a consumer page by page (XPENDING then XCLAIM, which checks again the idle time of
+     * each entry so that an entry claimed by another reader in the meantime is skipped). Before Redis 6.2 XPENDING
+     * cannot filter the entries by idle time : they are filtered by the reader on the idle time returned by XPENDING.
+     * @param start Id of the first pending entry to look at
+     */
+    private Future<Integer> claimEntries(final String stream, final String owner, final int budget, final String start) {
+        return isPendingIdleSupported().compose(idleSupported -> {
+            final int count = Math.min(reclaimCount, budget);
+            final List<String> pendingArgs = new ArrayList<>(Arrays.asList(stream, consumerGroup));
+            if (idleSupported) {
+                pendingArgs.addAll(Arrays.asList("IDLE", String.valueOf(reclaimMinIdleMs)));
+            }
+            pendingArgs.addAll(Arrays.asList(start, "+", String.valueOf(count), owner));
+            return redisClient.getClient().xpending(pendingArgs).compose(entries -> {
+                if (entries == null || entries.size() == 0) {
+                    return Future.succeededFuture(0);
+                }
+                final List<String> claimArgs = new ArrayList<>(entries.size() + 4);
+                claimArgs.add(stream);
+                claimArgs.add(consumerGroup);
+                claimArgs.add(consumerName);
+                claimArgs.add(String.valueOf(reclaimMinIdleMs));
+                for (final Response entry : entries) {
+                    // each entry is [id, consumer, idle time, deliveries]
+                    if (idleSupported || entry.get(2).toLong() >= reclaimMinIdleMs) {
+                        claimArgs.add(entry.get(0).toString());
+                    }
+                }
+                final Future<Integer> claimFuture = claimArgs.size() == 4 ? Future.succeededFuture(0) :
+                        redisClient.getClient().xclaim(claimArgs).map(claimed -> claimed == null ? 0 : claimed.size());
+                return claimFuture.compose(nbClaimed -> {
+                    // a full page may be followed by more entries
+                    final int remaining = budget - entries.size();
+                    if (entries.size() < count || remaining <= 0) {
+                        return Future.succeededFuture(nbClaimed);
+                    }
+                    final String next = getNextId(entries.get(entries.size() - 1).get(0).toString());
+                    return claimEntries(stream, owner, remaining, next).map(nbNext -> nbNext + nbClaimed);
+                });
+            });
+        });
+    }
+
+    /**
+     * @return The result of INFO (an empty string if it cannot be read), the server is only queried once
+     */
+    private Future<String> getServerInfo() {
+        if (serverInfo == null) {
+            serverInfo = redisClient.getClient().info(Collections.emptyList())
+                    .map(info -> info == null ? "" : info.toString())
+                    .otherwise(th -> {
+                        log.warn("Could not read the information of the redis server", th);
+                        return "";
+                    });
+        }
+        return serverInfo;
+    }
+
+    /**
+     * @return Whether XPENDING can filter entries by idle time (Redis 6.2+), pending entries are filtered by the reader
+     * if the version of the server cannot be read
+     */
+    private Future<Boolean> isPendingIdleSupported() {
+        return getServerInfo().map(MessageReaderRedis::isPendingIdleSupported);
+    }
+
+    /**
+     * @param serverInfo The result of INFO
+     * @return Whether the redis_version of the server is at least 6.2
+     */
+    static boolean isPendingIdleSupported(final String serverInfo) {
+        if (serverInfo == null) {
+            return false;
+        }
+        for (final String line : serverInfo.split("\\r?\\n")) {
+            if (line.startsWith("redis_version:")) {
+                final String[] version = line.substring("redis_version:".length()).trim().split("\\.");
+                try {
+                    final int major = Integer.parseInt(version[0]);
+                    final int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+                    return major > 6 || (major == 6 && minor >= 2);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The smallest id of a stream greater than the given one (ranges are only exclusive since Redis 6.2)
+     */
+    static String getNextId(final String id) {
+        final int separator = id.indexOf('-');
+        if (separator < 0) {
+            return id + "-1";
+        }
+        return id.substring(0, separator) + "-" + (Long.parseLong(id.substring(separator + 1)) + 1);
+    }
+
+    /**
+     * @param serverInfo The result of INFO
+     * @return Whether the server runs in cluster mode
+     */
+    static boolean isClusterEnabled(final String serverInfo) {
+        if (serverInfo == null) {
+            return false;
+        }
+        for (final String line : serverInfo.split("\\r?\\n")) {
+            if (line.startsWith("cluster_enabled:")) {
+                return "1".equals(line.substring("cluster_enabled:".length()).trim());
+            }
+        }
+        return false;
+    }
+
+    private Future<Void> removeStaleConsumers(final String stream) {
+        if (consumerTtlMs <= 0) {
+            return Future.succeededFuture();
+        }
+        return redisClient.getClient().xinfo(Arrays.asList("CONSUMERS", stream, consumerGroup)).compose(consumers -> {
+            final List<Future> futures = new ArrayList<>();
+            for (final Response consumer : consumers) {
+                final String name = getField(consumer, "name");
+                final String pending = getField(consumer, "pending");
+                final String idle = getField(consumer, "idle");
+                if (name == null || consumerName.equals(name) || !"0".equals(pending) || idle == null) {
+                    continue;
+                }
+                if (Long.parseLong(idle) > consumerTtlMs) {
+                    log.info(String.format("Removing stale consumer %s from group %s of stream %s", name, consumerGroup, stream));
+                    futures.add(redisClient.getClient().xgroup(Arrays.asList("DELCONSUMER", stream, consumerGroup, name)));
+                }
+            }
+            return CompositeFuture.all(futures).mapEmpty();
+        });
+    }
+
+    /**
+     * Read a field of a reply which is a map (RESP3) or a flat list of keys and values (RESP2).
+     */
+    private static String getField(final Response reply, final String field) {
+        if (reply.getKeys() != null && reply.containsKey(field)) {
+            final Response value = reply.get(field);
+            return value == null ? null : value.toString();
+        }
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            if (field.equals(reply.get(i).toString())) {
+                final Response value = reply.get(i + 1);
+                return value == null ? null : value.toString();
+            }
+        }
+        return null;
+    }
+
     protected Future<List<JsonObject>> fetchOneStream(final String stream, int maxBatchSize, boolean pending) {
         return onReady.compose(e->{
             final Promise<List<JsonObject>> promise = Promise.promise();
-            final String startAt = pending ? "0" : ">";
+            // pending messages which are still being ingested by a previous cycle should not be read again
+            final String startAt = pending ? getLastInFlightId(stream).orElse("0") : ">";
             redisClient.xreadGroup(consumerGroup, consumerName, stream, true, Optional.of(maxBatchSize), Optional.empty(), Optional.of(startAt), true).onComplete(res -> {
                 if (res.succeeded()) {
                     promise.complete(res.result());
@@ -223,11 +574,54 @@ public class MessageReaderRedis implements MessageReader {
             final ExplorerMessageForIngest message = new ExplorerMessageForIngest(resourceAction, idQueue, idResource, json);
             message.getMetadata().put(RedisClient.NAME_STREAM, nameStream);
             message.setAttemptCount(attemptCount);
+            message.setEnqueuedAt(getStreamIdTime(idQueue));
             messages.add(message);
+            inFlightIdsByStream.computeIfAbsent(nameStream, k -> new TreeSet<>(MessageReaderRedis::compareStreamIds)).add(idQueue);
         }
         return messages;
     }
 
+    @Override
+    public void releaseMessages(final List<ExplorerMessageForIngest> messages) {
+        for (final ExplorerMessageForIngest message : messages) {
+            final String stream = message.getMetadata().getString(RedisClient.NAME_STREAM);
+            final TreeSet<String> inFlightIds = inFlightIdsByStream.get(stream);
+            if (inFlightIds != null && message.getIdQueue().isPresent()) {
+                inFlightIds.remove(message.getIdQueue().get());
+                if (inFlightIds.isEmpty()) {
+                    inFlightIdsByStream.remove(stream);
+                }
+            }
+        }
+    }
+
+    private Optional<String> getLastInFlightId(final String stream) {
+        final TreeSet<String> inFlightIds = inFlightIdsByStream.get(stream);
+        return inFlightIds == null || inFlightIds.isEmpty() ? Optional.empty() : Optional.of(inFlightIds.last());
+    }
+
+    /**
+     * Compare two stream entry ids (formatted as millisecondsTime-sequenceNumber).
+     */
+    static int compareStreamIds(final String id1, final String id2) {
+        final String[] parts1 = id1.split("-");
+        final String[] parts2 = id2.split("-");
+        final int compareTime = Long.compare(Long.parseLong(parts1[0]), Long.parseLong(parts2[0]));
+        if (compareTime != 0) {
+            return compareTime;
+        }
+        final long seq1 = parts1.length > 1 ? Long.parseLong(parts1[1]) : 0L;
+        final long seq2 = parts2.length > 1 ? Long.parseLong(parts2[1]) : 0L;
+        return Long.compare(seq1, seq2);
+    }
+
+    /**
+     * @return The time (in milliseconds) at which a stream entry has been added (first part of its id)
+     */
+    static long getStreamIdTime(final String id) {
+        return Long.parseLong(id.split("-")[0]);
+    }
+
     protected JsonObject toJson(final ExplorerMessageForIngest message) {
         final JsonObject json = new JsonObject();
         json.put("resource_action", message.getAction());
@@ -243,16 +637,57 @@ public class MessageReaderRedis implements MessageReader {
 
     @Override
     public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
-        return fetchAllStreams(new ArrayList<>(), maxBatchSize, Optional.of(this.streamFailSuffix), Optional.of(maxAttempt));
+        return promoteDueRetries(maxBatchSize).compose(promoted ->
+            fetchAllStreams(new ArrayList<>(), maxBatchSize, Optional.of(this.streamFailSuffix), Optional.of(maxAttempt))
+        );
+    }
+
+    @Override
+    public double getRetryBatchRatio() {
+        return retryBatchRatio;
+    }
+
+    /**
+     * Move the failed messages whose retry is due from the delayed sets to the fail streams so that the fail streams
+     * only contain messages which can be attempted right away.
+     * @param maxCount Maximum number of messages moved for each stream
+     * @return The number of messages moved (promotion errors are logged and do not prevent reading the fail streams)
+     */
+    protected Future<Integer> promoteDueRetries(final int maxCount) {
+        if (retryBackoff.isImmediate() || maxCount <= 0) {
+            return Future.succeededFuture(0);
+        }
+        final String now = String.valueOf(System.currentTimeMillis());
+        final List<Future> futures = new ArrayList<>();
+        for (final String stream : streams) {
+            final String failStream = stream + streamFailSuffix;
+            final List<String> args = Arrays.asList("2", failStream + streamDelayedSuffix, failStream, now, String.valueOf(maxCount));
+            futures.add(evalScript(PROMOTE_DUE_SCRIPT, args).map(promoted -> promoted == null ? 0 : promoted.toInteger()));
+        }
+        return CompositeFuture.join(futures).map(all -> {
+            int nbPromoted = 0;
+            for (int i = 0; i < all.size(); i++) {
+                nbPromoted += all.<Integer>resultAt(i);
+            }
+            metrics.put("promoted_retries_count", metrics.getLong("promoted_retries_count", 0L) + nbPromoted);
+            return nbPromoted;
+        }).otherwise(th -> {
+            log.error("Could not move due retries to the fail streams", th);
+            return 0;
+        });
     }
 
     @Override
     public Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt) {
         final Set<String> processed = new HashSet<>();
-        //prepare
-        final List<Future> transactions = new ArrayList<>();
-        //on succeed => ACK + DEL (DEL only if ACK succeed)
-        //if we want transaction we cannot push all ids to ack or delete CMD at once
+        // ids to ACK + DEL grouped by stream so that each stream costs one script whatever the batch size
+        final Map<String, StreamEntries> removalsByStream = new LinkedHashMap<>();
+        // failed messages grouped by source and target streams so that they are moved with one script
+        final Map<String, Map<String, StreamEntries>> movesBySourceStream = new LinkedHashMap<>();
+        // failed messages whose retry is delayed grouped by source stream and delayed set
+        final Map<String, Map<String, StreamEntries>> delaysBySourceStream = new LinkedHashMap<>();
+        final long now = System.currentTimeMillis();
+        //on succeed => ACK + DEL
         final List<ExplorerMessageForIngest> toAck = new ArrayList<>(ingestResult.succeed);
         // We also acknowledge skipped messages because we know that
         // they are not true failures and replaying them won't make
@@ -263,13 +698,10 @@ public class MessageReaderRedis implements MessageReader {
                 final String idQueue = mess.getIdQueue().get();
                 final String stream = mess.getMetadata().getString(RedisClient.NAME_STREAM);
                 processed.add(idQueue);
-                // ACK message then delete it
-                transactions.add(redisClient.xAck(stream, consumerGroup, idQueue).compose(onAck -> {
-                    return redisClient.xDel(stream, idQueue);
-                }));
+                removalsByStream.computeIfAbsent(stream, k -> new StreamEntries()).add(idQueue, getFailedAttempt(mess));
             }
         }
-        //on failed => ADD + ACK + DEL (ACK only if ADD suceed and DEL only if ACK succeed)
+        //on failed => ADD + ACK + DEL (ACK and DEL only if ADD succeed)
         for (final ExplorerMessageForIngest mess : ingestResult.failed) {
             if(mess.getIdQueue().isPresent() && !processed.contains(mess.getIdQueue().get())) {
                 final String idQueue = mess.getIdQueue().get();
@@ -278,45 +710,267 @@ public class MessageReaderRedis implements MessageReader {
                 processed.add(idQueue);
                 if(attemptCount > maxAttempt) {
                     log.warn("A message has been dropped because it was attempted " + attemptCount + " : " + mess);
-                    transactions.add(redisClient.xAck(stream, consumerGroup, idQueue).compose(onAck -> {
-                        return redisClient.xDel(stream, idQueue);
-                    }));
+                    removalsByStream.computeIfAbsent(stream, k -> new StreamEntries()).add(idQueue, getFailedAttempt(mess));
                 } else {
                     final JsonObject json = toJson(mess).put("attempt_count", attemptCount + 1)
                             .put("attempted_at", new Date().getTime())
                             .put("error", mess.getError());
                     //if already failed => do not add suffix to stream name
                     final String targetStream = stream.contains(streamFailSuffix)? stream : stream + streamFailSuffix;
-                    // add message to failed stream
-                    transactions.add(redisClient.xAdd(targetStream, json).compose(onAdd->{
-                        // ack message from old stream
-                        return redisClient.xAck(stream, consumerGroup, idQueue).compose(onAck -> {
-                            // del message from old stream
-                            return redisClient.xDel(stream, idQueue);
-                        });
-                    }));
+                    final long delayMs = retryBackoff.getDelayMs(attemptCount + 1);
+                    if (delayMs > 0) {
+                        // wait in the delayed set until the retry is due (the id makes the member unique)
+                        json.put("retry_of", idQueue).put("retry_at", now + delayMs);
+                        delaysBySourceStream.computeIfAbsent(stream, k -> new LinkedHashMap<>())
+                                .computeIfAbsent(targetStream + streamDelayedSuffix, k -> new StreamEntries())
+                                .addMove(idQueue, getFailedAttempt(mess), String.valueOf(attemptCount + 1), String.valueOf(now + delayMs),
+                                        Collections.singletonList(json.encode()));
+                    } else {
+                        movesBySourceStream.computeIfAbsent(stream, k -> new LinkedHashMap<>())
+                                .computeIfAbsent(targetStream, k -> new StreamEntries())
+                                .addMove(idQueue, getFailedAttempt(mess), String.valueOf(attemptCount + 1), "", toFields(json));
+                    }
                 }
             }
         }
+        //prepare : each group of entries is updated by one script (one round trip, applied atomically)
+        final List<Future> transactions = new ArrayList<>();
+        removalsByStream.forEach((stream, removals) -> transactions.add(
+            evalByChunks(ACK_DELETE_SCRIPT, Arrays.asList(stream, failedCountersKey), Collections.singletonList(consumerGroup), removals)
+        ));
+        movesBySourceStream.forEach((stream, movesByTarget) -> movesByTarget.forEach((targetStream, moves) ->
+            // add messages to failed stream then ack and delete them from the old stream
+            transactions.add(evalByChunks(MOVE_SCRIPT, Arrays.asList(stream, targetStream, failedCountersKey),
+                Arrays.asList(consumerGroup, consumerName, "stream"), moves))
+        ));
+        delaysBySourceStream.forEach((stream, delaysBySet) -> delaysBySet.forEach((delayedSet, delays) ->
+            // schedule messages then ack and delete them from the old stream
+            transactions.add(evalByChunks(MOVE_SCRIPT, Arrays.asList(stream, delayedSet, failedCountersKey),
+                Arrays.asList(consumerGroup, consumerName, "zset"), delays))
+        ));
         //execute batch
-        return CompositeFuture.all(transactions).onFailure(e -> {
+        return CompositeFuture.join(transactions).onFailure(e -> {
             log.error("Could not update resource status on queue: ", e);
         }).mapEmpty();
     }
 
+    /**
+     * Run a script on the entries of a stream, {@value MAX_ENTRIES_PER_SCRIPT} entries at a time so that a script does
+     * not block the server for too long. The script returns the entries it could not move (id then error) : they stay
+     * pending and are attempted again once reclaimed while the other entries of the group are acknowledged.
+     */
+    private Future<Void> evalByChunks(final String script, final List<String> keys, final List<String> args, final StreamEntries entries) {
+        final List<Future> futures = new ArrayList<>();
+        for (int from = 0; from < entries.entries.size(); from += MAX_ENTRIES_PER_SCRIPT) {
+            final List<String> evalArgs = new ArrayList<>();
+            evalArgs.add(String.valueOf(keys.size()));
+            evalArgs.addAll(keys);
+            evalArgs.addAll(args);
+            for (final List<String> entry : entries.entries.subList(from, Math.min(from + MAX_ENTRIES_PER_SCRIPT, entries.entries.size()))) {
+                evalArgs.addAll(entry);
+            }
+            futures.add(evalScript(script, evalArgs).onSuccess(failed -> {
+                if (failed == null) {
+                    return;
+                }
+                for (int i = 0; i + 1 < failed.size(); i += 2) {
+                    log.error("Could not move the entry " + failed.get(i) + " of " + keys.get(0) + " to " + keys.get(1) + " : " + failed.get(i + 1));
+                }
+                if (failed.size() > 0) {
+                    metrics.put("status_update_failed_count", metrics.getLong("status_update_failed_count", 0L) + failed.size() / 2);
+                }
+            }));
+        }
+        return CompositeFuture.join(futures).mapEmpty();
+    }
+
+    /**
+     * Load the scripts so that only their SHA1 is sent by each call. It does not prevent the reader from starting : a
+     * script unknown to the server is sent again when it is called.
+     */
+    private Future<Void> loadScripts() {
+        final List<Future> futures = new ArrayList<>();
+        for (final String script : Arrays.asList(ACK_DELETE_SCRIPT, MOVE_SCRIPT, PROMOTE_DUE_SCRIPT)) {
+            futures.add(redisClient.getClient().script(Arrays.asList("LOAD", script)));
+        }
+        return CompositeFuture.join(futures).onFailure(th -> log.warn("Could not load the scripts of the reader", th))
+                .<Void>mapEmpty().otherwise((Void) null);
+    }
+
+    /**
+     * Run a script by its SHA1. It is sent again if the server does not know it (restart, failover or SCRIPT FLUSH)
+     * since EVAL also caches it.
+     * @param keysAndArgs Number of keys, keys then arguments of the script
+     */
+    private Future<Response> evalScript(final String script, final List<String> keysAndArgs) {
+        final List<String> evalShaArgs = new ArrayList<>(keysAndArgs.size() + 1);
+        evalShaArgs.add(getScriptSha(script));
+        evalShaArgs.addAll(keysAndArgs);
+        return redisClient.getClient().evalsha(evalShaArgs).recover(th -> {
+            if (th.getMessage() == null || !th.getMessage().startsWith("NOSCRIPT")) {
+                return Future.failedFuture(th);
+            }
+            final List<String> evalArgs = new ArrayList<>(keysAndArgs.size() + 1);
+            evalArgs.add(script);
+            evalArgs.addAll(keysAndArgs);
+            return redisClient.getClient().eval(evalArgs);
+        });
+    }
+
+    /**
+     * @return The SHA1 (in hexadecimal) under which redis caches a script
+     */
+    static String getScriptSha(final String script) {
+        return SCRIPT_SHAS.computeIfAbsent(script, s -> {
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+                final StringBuilder sha = new StringBuilder(digest.length * 2);
+                for (final byte b : digest) {
+                    sha.append(String.format("%02x", b));
+                }
+                return sha.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * @return The fields of a stream entry holding this message (as they are added by {@link RedisClient#xAdd})
+     */
+    private static List<String> toFields(final JsonObject json) {
+        final List<String> fields = new ArrayList<>(json.size() * 2);
+        for (final Map.Entry<String, Object> field : json) {
+            if (field.getValue() != null) {
+                fields.add(field.getKey());
+                fields.add(field.getValue().toString());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return The attempt count under which the message is counted in the fail streams, an empty string if it was read
+     * from a stream of new messages
+     */
+    private String getFailedAttempt(final ExplorerMessageForIngest message) {
+        final String stream = message.getMetadata().getString(RedisClient.NAME_STREAM, "");
+        return stream.endsWith(streamFailSuffix) ? String.valueOf(message.getAttemptCount()) : "";
+    }
+
+    /**
+     * Arguments of the scripts which update the entries of a stream, one list for each entry.
+     */
+    private static class StreamEntries {
+        private final List<List<String>> entries = new ArrayList<>();
+
+        private void add(final String id, final String failedAttempt) {
+            entries.add(Arrays.asList(id, failedAttempt));
+        }
+
+        /**
+         * @param removedAttempt Attempt count of the message in the source fail stream (empty if it is not one)
+         * @param addedAttempt Attempt count of the message once moved
+         * @param score Score of the message if it is added to a delayed set
+         * @param values Fields of the new stream entry, or member of the delayed set
+         */
+        private void addMove(final String id, final String removedAttempt, final String addedAttempt, final String score, final List<String> values) {
+            final List<String> entry = new ArrayList<>(values.size() + 5);
+            entry.add(id);
+            entry.add(removedAttempt);
+            entry.add(addedAttempt);
+            entry.add(score);
+            entry.add(String.valueOf(values.size()));
+            entry.addAll(values);
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Extract the depth and the age of the oldest entry of a stream from the result of XINFO STREAM (which is O(1)).
+     */
+    static JsonObject summarizeStream(final JsonObject info, final long now) {
+        final JsonObject summary = new JsonObject();
+        final Object length = info.getValue("length");
+        if (length != null) {
+            summary.put("depth", Long.valueOf(length.toString()));
+        }
+        final Object firstEntry = info.getValue("first-entry");
+        String firstId = null;
+        if (firstEntry instanceof JsonArray && !((JsonArray) firstEntry).isEmpty()) {
+            firstId = ((JsonArray) firstEntry).getValue(0).toString();
+        } else if (firstEntry instanceof JsonObject) {
+            firstId = ((JsonObject) firstEntry).getString("id");
+        }
+        if (firstId != null) {
+            try {
+                summary.put("oldest_age_ms", now - getStreamIdTime(firstId));
+            } catch (NumberFormatException e) {
+                log.debug("Unexpected stream entry id : " + firstId);
+            }
+        }
+        return summary;
+    }
+
     @Override
     public Future<JsonObject> getMetrics() {
         final JsonObject metrics = this.metrics.copy();
+        final long now = System.currentTimeMillis();
+        final JsonObject backlog = new JsonObject();
         final List<Future> futures = new ArrayList<>();
         for (final String stream : this.streams) {
             futures.add(redisClient.xInfo(stream).onSuccess(info -> {
                 metrics.put("stream_" + stream + "_info", info);
+                backlog.put(stream, summarizeStream(info, now));
             }));
             futures.add(redisClient.xInfo(stream + streamFailSuffix).onSuccess(info -> {
                 metrics.put("stream_" + stream + streamFailSuffix + "_info", info);
+                backlog.put(stream + streamFailSuffix, summarizeStream(info, now));
+            }));
+        }
+        metrics.put("backlog", backlog);
+        final JsonObject pendingEntries = new JsonObject();
+        for (final String stream : this.streams) {
+            for (final String name : Arrays.asList(stream, stream + streamFailSuffix)) {
+                futures.add(redisClient.getClient().xpending(Arrays.asList(name, consumerGroup)).onSuccess(summary -> {
+                    pendingEntries.put(name, summary.get(0) == null ? 0L : summary.get(0).toLong());
+                }));
+            }
+        }
+        metrics.put("pending_entries", pendingEntries);
+        final JsonObject delayedRetries = new JsonObject();
+        for (final String stream : this.streams) {
+            final String delayedSet = stream + streamFailSuffix + streamDelayedSuffix;
+            futures.add(redisClient.getClient().zcard(delayedSet).onSuccess(count -> {
+                delayedRetries.put(delayedSet, count == null ? 0L : count.toLong());
             }));
         }
-        //TODO age of first and last foreach stream and reformat stream infos
+        metrics.put("delayed_retries", delayedRetries);
+        metrics.put("retry_backoff", retryBackoff.toJson());
+        metrics.put("consumer_name", consumerName);
+        final JsonObject failedByAttempt = new JsonObject();
+        futures.add(redisClient.getClient().hgetall(failedCountersKey).onSuccess(counters -> {
+            if (counters == null) {
+                return;
+            }
+            // a map (RESP3) or a flat list of keys and values (RESP2)
+            final Map<String, Long> byAttempt = new TreeMap<>();
+            if (counters.getKeys() != null) {
+                for (final String attempt : counters.getKeys()) {
+                    byAttempt.put(attempt, counters.get(attempt).toLong());
+                }
+            } else {
+                for (int i = 0; i + 1 < counters.size(); i += 2) {
+                    byAttempt.put(counters.get(i).toString(), counters.get(i + 1).toLong());
+                }
+            }
+            byAttempt.forEach((attempt, nb) -> {
+                if (nb > 0) {
+                    failedByAttempt.put(attempt, nb);
+                }
+            });
+        }));
+        metrics.put("failed_by_attempt", failedByAttempt);
         return CompositeFuture.all(futures).map(e -> {
             return metrics;
         }).otherwise(th -> {
@@ -324,4 +978,17 @@ public class MessageReaderRedis implements MessageReader {
             return metrics;
         });
     }
+
+    /**
+     * @return The name of the host, which does not change when the instance restarts (set consumer-instance-id when
+     * several instances run on the same host)
+     */
+    static String getDefaultInstanceId() {
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            log.warn("Could not get the name of the host, set consumer-instance-id to give a stable name to this consumer", e);
+            return "unknown";
+        }
+    }
 }
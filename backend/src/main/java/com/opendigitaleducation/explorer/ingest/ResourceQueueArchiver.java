@@ -0,0 +1,256 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Maintains the partitions of explorer.resource_queue (one partition per day of creation, see
+ * 012-resource-queue-partitions.sql) :
+ * <ul>
+ *     <li>the partitions of the next days are created in advance so that new rows do not land in the default one</li>
+ *     <li>the day of the oldest row which can still be read is computed so that readers only query the partitions
+ *     which are still hot</li>
+ *     <li>the deltas appended to the counters of the queue by its triggers (see 014-resource-queue-stats.sql) are
+ *     periodically compacted into one row per bucket, by a single worker at a time</li>
+ *     <li>when archiving is enabled, partitions older than the retention whose rows have all been processed (or
+ *     dropped after too many attempts) are detached and dropped (or only detached so that they can be archived
+ *     elsewhere) and the processed rows of the default partition are deleted</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The queue always keeps its default partition so that rows whose day has no partition yet are never refused, and
+ * Postgres refuses to detach a partition concurrently while the table has a default partition : partitions are
+ * detached under a lock timeout so that a detach waiting for its lock does not block the writers of the queue for
+ * long (it is attempted again at the next run).
+ * </p>
+ * <p>
+ * The partitions are maintained by every ingest worker whatever the stream it reads since the applications may
+ * write to the queue in both cases.
+ * </p>
+ * <p>
+ * It is configured by the <strong>archiver</strong> object of the ingest configuration :
+ * <ul>
+ *     <li>enabled, whether processed partitions should be archived (default false)</li>
+ *     <li>interval-ms, delay between two runs</li>
+ *     <li>partitions-ahead, number of days for which partitions are created in advance</li>
+ *     <li>retention-days, number of days during which processed partitions are kept</li>
+ *     <li>drop, whether detached partitions should be dropped (default false)</li>
+ *     <li>lock-timeout-ms, maximum time a detach waits for its lock</li>
+ *     <li>compaction-interval-ms, delay between two compactions of the counters of the queue</li>
+ * </ul>
+ * </p>
+ */
+public class ResourceQueueArchiver {
+    static final Logger log = LoggerFactory.getLogger(ResourceQueueArchiver.class);
+    static final long DEFAULT_INTERVAL_MS = 3600000L;
+    static final int DEFAULT_PARTITIONS_AHEAD = 2;
+    static final int DEFAULT_RETENTION_DAYS = 1;
+    static final long DEFAULT_LOCK_TIMEOUT_MS = 5000L;
+    static final long DEFAULT_COMPACTION_INTERVAL_MS = 60000L;
+    /** The deltas are moved in one statement, the advisory lock is released with its transaction.*/
+    static final String COMPACT_COUNTERS_QUERY = "WITH locked AS (SELECT pg_try_advisory_xact_lock(hashtext('explorer.resource_queue_stats')) AS locked), " +
+            "moved AS (DELETE FROM explorer.resource_queue_stats WHERE (SELECT locked FROM locked) RETURNING *) " +
+            "INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb) " +
+            "SELECT priority, attempted_count, attempt_status, SUM(nb) FROM moved GROUP BY priority, attempted_count, attempt_status HAVING SUM(nb) <> 0";
+    static final String DEFAULT_PARTITION = "resource_queue_default";
+    static final String PARTITION_PREFIX = "resource_queue_p";
+    static final DateTimeFormatter PARTITION_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private final Vertx vertx;
+    private final IPostgresClient pgClient;
+    private final long intervalMs;
+    private final int partitionsAhead;
+    private final int retentionDays;
+    private final boolean archive;
+    private final boolean drop;
+    private final long lockTimeoutMs;
+    private final long compactionIntervalMs;
+    private final int maxAttempt;
+    private final Handler<LocalDateTime> onHotSinceChanged;
+    private final JsonObject metrics = new JsonObject();
+    private long timerId = -1;
+    private long compactionTimerId = -1;
+
+    /**
+     * @param onHotSinceChanged Called with the date before which no row can be read anymore
+     */
+    public ResourceQueueArchiver(final Vertx vertx, final IPostgresClient pgClient, final JsonObject ingestConfig, final Handler<LocalDateTime> onHotSinceChanged) {
+        final JsonObject config = ingestConfig.getJsonObject("archiver", new JsonObject());
+        this.vertx = vertx;
+        this.pgClient = pgClient;
+        this.intervalMs = config.getLong("interval-ms", DEFAULT_INTERVAL_MS);
+        this.partitionsAhead = config.getInteger("partitions-ahead", DEFAULT_PARTITIONS_AHEAD);
+        this.retentionDays = config.getInteger("retention-days", DEFAULT_RETENTION_DAYS);
+        this.archive = config.getBoolean("enabled", false);
+        this.drop = config.getBoolean("drop", false);
+        this.lockTimeoutMs = config.getLong("lock-timeout-ms", DEFAULT_LOCK_TIMEOUT_MS);
+        this.compactionIntervalMs = config.getLong("compaction-interval-ms", DEFAULT_COMPACTION_INTERVAL_MS);
+        this.maxAttempt = ingestConfig.getInteger("max-attempt", IngestJob.DEFAULT_MAX_ATTEMPT);
+        this.onHotSinceChanged = onHotSinceChanged;
+    }
+
+    public Future<Void> start() {
+        final Future<Void> first = run();
+        timerId = vertx.setPeriodic(intervalMs, e -> run());
+        compactionTimerId = vertx.setPeriodic(compactionIntervalMs, e -> compactCounters());
+        return first.recover(th -> Future.succeededFuture());
+    }
+
+    public void stop() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        if (compactionTimerId >= 0) {
+            vertx.cancelTimer(compactionTimerId);
+            compactionTimerId = -1;
+        }
+    }
+
+    public JsonObject getMetrics() {
+        return metrics.copy();
+    }
+
+    /**
+     * Create the next partitions, archive the cold ones (if enabled) then compute the date from which rows are still
+     * readable.
+     */
+    public Future<Void> run() {
+        final LocalDate today = LocalDate.now();
+        return createPartitions(today)
+                .compose(created -> archive ? archivePartitions(today).compose(archived -> drainDefaultPartition()) : Future.succeededFuture())
+                .compose(archived -> computeHotSince())
+                .onSuccess(e -> metrics.put("last_run_at", System.currentTimeMillis()))
+                .onFailure(th -> log.error("Could not maintain the partitions of the resource queue", th));
+    }
+
+    /**
+     * Replace the deltas of the counters by their sum so that the readers sum a small table. Workers skip it while
+     * another one is compacting.
+     */
+    public Future<Void> compactCounters() {
+        return pgClient.preparedQuery(COMPACT_COUNTERS_QUERY, Tuple.tuple())
+                .onSuccess(rows -> {
+                    metrics.put("last_compaction_at", System.currentTimeMillis());
+                    metrics.put("compacted_buckets", rows.rowCount());
+                })
+                .onFailure(th -> log.warn("Could not compact the counters of the resource queue", th))
+                .mapEmpty();
+    }
+
+    private Future<Void> createPartitions(final LocalDate today) {
+        Future<Void> futureIt = Future.succeededFuture();
+        for (int i = 0; i <= partitionsAhead; i++) {
+            final LocalDate day = today.plusDays(i);
+            final String query = String.format("CREATE TABLE IF NOT EXISTS explorer.%s%s PARTITION OF explorer.resource_queue FOR VALUES FROM ('%s') TO ('%s')",
+                    PARTITION_PREFIX, day.format(PARTITION_SUFFIX_FORMAT), day, day.plusDays(1));
+            // a partition cannot be created if the default one already contains rows of that day : keep going
+            futureIt = futureIt.compose(e -> pgClient.preparedQuery(query, Tuple.tuple())
+                    .onFailure(th -> log.warn("Could not create the partition of the resource queue for " + day + " : " + th.getMessage()))
+                    .<Void>mapEmpty()
+                    .recover(th -> Future.succeededFuture()));
+        }
+        return futureIt;
+    }
+
+    private Future<Void> archivePartitions(final LocalDate today) {
+        final String query = "SELECT c.relname AS name FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "JOIN pg_class p ON p.oid = i.inhparent JOIN pg_namespace n ON n.oid = p.relnamespace " +
+                "WHERE n.nspname = 'explorer' AND p.relname = 'resource_queue' ORDER BY c.relname";
+        return pgClient.preparedQuery(query, Tuple.tuple()).compose(rows -> {
+            final List<String> coldPartitions = new ArrayList<>();
+            for (final Row row : rows) {
+                final String name = row.getString("name");
+                final LocalDate day = getPartitionDay(name);
+                if (day != null && day.plusDays(retentionDays).isBefore(today)) {
+                    coldPartitions.add(name);
+                }
+            }
+            metrics.put("partitions", rows.size());
+            Future<Void> futureIt = Future.succeededFuture();
+            for (final String partition : coldPartitions) {
+                futureIt = futureIt.compose(e -> archivePartition(partition));
+            }
+            return futureIt;
+        });
+    }
+
+    /**
+     * Detach (and drop) a partition unless some of its rows can still be read.
+     */
+    private Future<Void> archivePartition(final String partition) {
+        final String pendingQuery = String.format("SELECT EXISTS (SELECT 1 FROM explorer.%s WHERE attempt_status = 0 AND attempted_count <= $1) AS pending", partition);
+        return pgClient.preparedQuery(pendingQuery, Tuple.of(maxAttempt)).compose(rows -> {
+            if (rows.iterator().next().getBoolean("pending")) {
+                return Future.succeededFuture();
+            }
+            // detaching does not fire the triggers of the queue so its rows are removed from the counters too
+            final String countersQuery = String.format("INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb) " +
+                    "SELECT priority, attempted_count, attempt_status, -COUNT(*) FROM explorer.%s GROUP BY priority, attempted_count, attempt_status", partition);
+            final String detachQuery = String.format("DO $$ BEGIN " +
+                    "PERFORM set_config('lock_timeout', '%2$sms', true); %3$s; " +
+                    "ALTER TABLE explorer.resource_queue DETACH PARTITION explorer.%1$s; END $$", partition, lockTimeoutMs, countersQuery);
+            final Future<Void> detach = pgClient.preparedQuery(detachQuery, Tuple.tuple()).mapEmpty();
+            return detach.compose(e -> {
+                if (!drop) {
+                    log.info("Detached the processed partition of the resource queue " + partition);
+                    return Future.succeededFuture();
+                }
+                log.info("Dropping the processed partition of the resource queue " + partition);
+                return pgClient.preparedQuery(String.format("DROP TABLE explorer.%s", partition), Tuple.tuple()).mapEmpty();
+            }).onSuccess(e -> metrics.put("archived_count", metrics.getLong("archived_count", 0L) + 1)).mapEmpty();
+        });
+    }
+
+    /**
+     * Delete the processed rows of the default partition (rows whose day had no partition yet), through the queue so
+     * that its triggers keep the counters up to date.
+     */
+    private Future<Void> drainDefaultPartition() {
+        final String query = String.format("DELETE FROM explorer.resource_queue WHERE tableoid = 'explorer.%s'::regclass " +
+                "AND NOT (attempt_status = 0 AND attempted_count <= $1)", DEFAULT_PARTITION);
+        return pgClient.preparedQuery(query, Tuple.of(maxAttempt)).onSuccess(rows -> {
+            if (rows.rowCount() > 0) {
+                log.info("Deleted " + rows.rowCount() + " processed rows from the default partition of the resource queue");
+                metrics.put("drained_count", metrics.getLong("drained_count", 0L) + rows.rowCount());
+            }
+        }).mapEmpty();
+    }
+
+    private Future<Void> computeHotSince() {
+        final String query = "SELECT MIN(created_at) AS mindate FROM explorer.resource_queue WHERE attempt_status = 0 AND attempted_count <= $1";
+        return pgClient.preparedQuery(query, Tuple.of(maxAttempt)).map(rows -> {
+            final LocalDateTime minDate = rows.iterator().next().getLocalDateTime("mindate");
+            // rows may be created with the clock of another server : keep a margin of one day
+            final LocalDateTime hotSince = (minDate == null ? LocalDateTime.now() : minDate).toLocalDate().minusDays(1).atStartOfDay();
+            metrics.put("hot_since", hotSince.toString());
+            onHotSinceChanged.handle(hotSince);
+            return null;
+        });
+    }
+
+    static LocalDate getPartitionDay(final String partition) {
+        if (partition == null || !partition.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Random;
+
+/**
+ * Computes when a failed message should be attempted again : the delay doubles with each attempt (up to a maximum)
+ * and a random part of it is removed so that messages which failed together do not all come back at the same time.
+ */
+public class RetryBackoff {
+    static final long DEFAULT_BASE_MS = 1000L;
+    static final long DEFAULT_MAX_MS = 300000L;
+    static final double DEFAULT_JITTER = 0.5;
+    private final long baseMs;
+    private final long maxMs;
+    /** Share of the delay (between 0 and 1) which is randomized.*/
+    private final double jitter;
+    private final Random random;
+
+    public RetryBackoff(final long baseMs, final long maxMs, final double jitter, final Random random) {
+        this.baseMs = Math.max(0, baseMs);
+        this.maxMs = Math.max(this.baseMs, maxMs);
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.random = random;
+    }
+
+    public static RetryBackoff create(final JsonObject config) {
+        final JsonObject safeConfig = config == null ? new JsonObject() : config;
+        return new RetryBackoff(
+                safeConfig.getLong("base-ms", DEFAULT_BASE_MS),
+                safeConfig.getLong("max-ms", DEFAULT_MAX_MS),
+                safeConfig.getDouble("jitter", DEFAULT_JITTER),
+                new Random());
+    }
+
+    /**
+     * @return {@code true} if failed messages can be retried as soon as they are read again
+     */
+    public boolean isImmediate() {
+        return baseMs == 0;
+    }
+
+    /**
+     * @param attemptCount Number of times the message has already been attempted (1 after the first failure)
+     * @return The delay in milliseconds before the next attempt
+     */
+    public long getDelayMs(final int attemptCount) {
+        if (isImmediate()) {
+            return 0;
+        }
+        final int exponent = Math.max(0, Math.min(attemptCount - 1, 30));
+        final long delay = Math.min(maxMs, baseMs << exponent);
+        final long randomPart = (long) (delay * jitter * random.nextDouble());
+        return delay - randomPart;
+    }
+
+    /**
+     * Same computation as {@link #getDelayMs(int)} evaluated by Postgres for each row of an update.
+     * @param attemptCountExpression SQL expression of the number of attempts after the failure
+     * @return An SQL expression of the delay as an interval
+     */
+    public String toSqlInterval(final String attemptCountExpression) {
+        if (isImmediate()) {
+            return "INTERVAL '0 millisecond'";
+        }
+        return String.format("(LEAST(%s, %s * POWER(2, LEAST(GREATEST(%s - 1, 0), 30))) * (1 - %s * RANDOM())) * INTERVAL '1 millisecond'",
+                maxMs, baseMs, attemptCountExpression, jitter);
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject().put("base-ms", baseMs).put("max-ms", maxMs).put("jitter", jitter);
+    }
+}
@@ -0,0 +1,74 @@
+package com.opendigitaleducation.explorer.ingest;
+
+/**
+ * Counts events (and sums a value attached to them) over a sliding window with a resolution of one second, so that
+ * rates and averages over the last minutes can be computed at a constant cost.
+ */
+public class SlidingWindowStats {
+    private final int windowSeconds;
+    private final long[] seconds;
+    private final long[] counts;
+    private final double[] sums;
+
+    /**
+     * @param windowSeconds Largest window (in seconds) that can be queried
+     */
+    public SlidingWindowStats(final int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+        this.seconds = new long[windowSeconds];
+        this.counts = new long[windowSeconds];
+        this.sums = new double[windowSeconds];
+    }
+
+    /**
+     * @param nbEvents Number of events that occurred
+     * @param total Sum of the values attached to these events
+     * @param now Current timestamp in milliseconds
+     */
+    public synchronized void record(final long nbEvents, final double total, final long now) {
+        final long second = now / 1000;
+        final int slot = (int) (second % windowSeconds);
+        if (seconds[slot] != second) {
+            seconds[slot] = second;
+            counts[slot] = 0;
+            sums[slot] = 0;
+        }
+        counts[slot] += nbEvents;
+        sums[slot] += total;
+    }
+
+    /**
+     * @return Number of events per second over the last {@code window} seconds
+     */
+    public double getRate(final int window, final long now) {
+        final int safeWindow = Math.min(window, windowSeconds);
+        return (double) getCount(safeWindow, now) / safeWindow;
+    }
+
+    /**
+     * @return Average of the values attached to the events of the last {@code window} seconds, -1 if there were none
+     */
+    public synchronized double getAverage(final int window, final long now) {
+        long count = 0;
+        double sum = 0;
+        final long oldest = now / 1000 - Math.min(window, windowSeconds);
+        for (int i = 0; i < windowSeconds; i++) {
+            if (seconds[i] > oldest) {
+                count += counts[i];
+                sum += sums[i];
+            }
+        }
+        return count == 0 ? -1 : sum / count;
+    }
+
+    public synchronized long getCount(final int window, final long now) {
+        long count = 0;
+        final long oldest = now / 1000 - Math.min(window, windowSeconds);
+        for (int i = 0; i < windowSeconds; i++) {
+            if (seconds[i] > oldest) {
+                count += counts[i];
+            }
+        }
+        return count;
+    }
+}
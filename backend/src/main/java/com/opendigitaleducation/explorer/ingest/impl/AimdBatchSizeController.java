@@ -0,0 +1,103 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.BatchSizeController;
+import com.opendigitaleducation.explorer.ingest.BulkIngestionStats;
+import com.opendigitaleducation.explorer.ingest.IngestJob;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * <p>
+ * Additive increase / multiplicative decrease of the batch size driven by capacity signals sent back by OpenSearch :
+ * <ul>
+ *     <li>operations rejected because OpenSearch is overloaded (429)</li>
+ *     <li>latency of the slowest bulk request of the cycle above the configured target</li>
+ *     <li>bulk payload above the configured maximum</li>
+ *     <li>failure of a whole batch (network error, timeout, ...)</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Messages that failed because of their content (mapping error, ...) are not considered as capacity signals so one bad
+ * document will not shrink the batch size.
+ * </p>
+ */
+public class AimdBatchSizeController implements BatchSizeController {
+    static final int DEFAULT_MIN_BATCH_SIZE = 1;
+    static final int DEFAULT_ADDITIVE_STEP = 10;
+    static final double DEFAULT_DECREASE_FACTOR = 0.5;
+    static final long DEFAULT_TARGET_LATENCY_MS = 5000L;
+    static final long DEFAULT_MAX_PAYLOAD_BYTES = 10L * 1024L * 1024L;
+    private final int maxBatchSize;
+    private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+    private int additiveStep = DEFAULT_ADDITIVE_STEP;
+    private double decreaseFactor = DEFAULT_DECREASE_FACTOR;
+    private long targetLatencyMs = DEFAULT_TARGET_LATENCY_MS;
+    private long maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+    private int batchSize;
+
+    public AimdBatchSizeController(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = maxBatchSize;
+    }
+
+    @Override
+    public void configure(final JsonObject configuration) {
+        this.minBatchSize = Math.max(1, Math.min(maxBatchSize, configuration.getInteger("min-batch-size", DEFAULT_MIN_BATCH_SIZE)));
+        this.additiveStep = Math.max(1, configuration.getInteger("additive-step", DEFAULT_ADDITIVE_STEP));
+        this.decreaseFactor = configuration.getDouble("decrease-factor", DEFAULT_DECREASE_FACTOR);
+        if (this.decreaseFactor <= 0 || this.decreaseFactor >= 1) {
+            this.decreaseFactor = DEFAULT_DECREASE_FACTOR;
+        }
+        this.targetLatencyMs = configuration.getLong("target-latency-ms", DEFAULT_TARGET_LATENCY_MS);
+        this.maxPayloadBytes = configuration.getLong("max-payload-bytes", DEFAULT_MAX_PAYLOAD_BYTES);
+    }
+
+    @Override
+    public String getId() {
+        return "aimd";
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public Decision onCycleCompleted(final IngestJob.IngestJobResult result) {
+        final int previousBatchSize = this.batchSize;
+        if (result == null) {
+            // the cycle failed before ingesting anything (reader error, ...) so we know nothing about OpenSearch
+            return new Decision(previousBatchSize, previousBatchSize, Reason.Steady);
+        }
+        final BulkIngestionStats stats = result.getBulkStats();
+        final Reason reason;
+        if (stats.getNbRejected() > 0) {
+            reason = Reason.ShrinkOnRejection;
+            this.batchSize = decrease(this.batchSize);
+        } else if (stats.isBatchFailed()) {
+            reason = Reason.ShrinkOnFailure;
+            this.batchSize = decrease(this.batchSize);
+        } else if (stats.getNbOperations() > 0 && maxPayloadBytes > 0 && stats.getPayloadBytes() > maxPayloadBytes) {
+            reason = Reason.ShrinkOnPayload;
+            // keep the same average size of documents but fit into the payload budget
+            final long bytesPerOperation = Math.max(1L, stats.getPayloadBytes() / stats.getNbOperations());
+            this.batchSize = clamp((int) Math.min(decrease(this.batchSize), maxPayloadBytes / bytesPerOperation));
+        } else if (targetLatencyMs > 0 && stats.getMaxBulkElapsedTime() > targetLatencyMs) {
+            reason = Reason.ShrinkOnLatency;
+            this.batchSize = decrease(this.batchSize);
+        } else if (!result.getSucceed().isEmpty() && this.batchSize < maxBatchSize) {
+            reason = Reason.Grow;
+            this.batchSize = clamp(this.batchSize + additiveStep);
+        } else {
+            reason = Reason.Steady;
+        }
+        return new Decision(previousBatchSize, this.batchSize, reason);
+    }
+
+    private int decrease(final int size) {
+        return clamp((int) Math.floor(size * decreaseFactor));
+    }
+
+    private int clamp(final int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+}
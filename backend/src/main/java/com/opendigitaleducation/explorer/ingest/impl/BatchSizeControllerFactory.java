@@ -0,0 +1,34 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.BatchSizeController;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+public class BatchSizeControllerFactory {
+    static Logger log = LoggerFactory.getLogger(BatchSizeControllerFactory.class);
+
+    /**
+     * @param configuration Configuration of the controller (its field <strong>id</strong> identifies the controller to
+     *                      use, "halving" by default)
+     * @param maxBatchSize Maximum size of a batch
+     * @return A new controller
+     */
+    public static BatchSizeController create(final JsonObject configuration, final int maxBatchSize) {
+        final String controllerId = configuration.getString("id", "halving");
+        final BatchSizeController controller;
+        switch (controllerId) {
+            case "aimd":
+                controller = new AimdBatchSizeController(maxBatchSize);
+                break;
+            case "halving":
+                controller = new HalvingBatchSizeController(maxBatchSize);
+                break;
+            default:
+                log.error("Cannot find batch size controller " + controllerId);
+                controller = new HalvingBatchSizeController(maxBatchSize);
+        }
+        controller.configure(configuration);
+        return controller;
+    }
+}
@@ -0,0 +1,110 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.commons.lang3.tuple.Pair;
+import org.entcore.common.explorer.IngestJobState;
+import org.entcore.common.explorer.IngestJobStateUpdateMessage;
+
+import java.util.*;
+
+import static org.entcore.common.explorer.IExplorerPlugin.addressForIngestStateUpdate;
+
+/**
+ * <p>
+ * Coalesces the ingestion state updates sent to applications.
+ * </p>
+ * <p>
+ * Updates are accumulated per application and entity type during a configurable window and only the last state of
+ * each resource is sent when the window is over, so that a resource which has been received and ingested during the
+ * same window only produces one update. Pending updates of an application are sent right away (in several messages if
+ * needed) as soon as they reach the maximum payload size.
+ * </p>
+ */
+public class DebouncedIngestStateNotifier {
+
+  public static final Logger log = LoggerFactory.getLogger(DebouncedIngestStateNotifier.class);
+  private final Map<Pair<String, String>, Map<String, IngestJobStateUpdateMessage>> pendingUpdates = new HashMap<>();
+  private final Vertx vertx;
+  /** The time (in milliseconds) during which state updates are accumulated (0 to send them right away).*/
+  private final long flushInterval;
+  /** Maximum number of updates sent to an application in one message.*/
+  private final int maxPayloadSize;
+  private Long taskId = null;
+
+  /**
+   * @param vertx Vertx instance
+   * @param flushInterval Duration of the window during which updates are coalesced
+   * @param maxPayloadSize Maximum number of updates per message
+   */
+  public DebouncedIngestStateNotifier(final Vertx vertx, final long flushInterval, final int maxPayloadSize) {
+    this.vertx = vertx;
+    this.flushInterval = flushInterval;
+    this.maxPayloadSize = Math.max(1, maxPayloadSize);
+  }
+
+  public void notify(final List<ExplorerMessageForIngest> messages, final IngestJobState state) {
+    final Set<Pair<String, String>> fullPayloads = new HashSet<>();
+    for (final ExplorerMessageForIngest message : messages) {
+      if (!message.getIdQueue().isPresent()) {
+        // synthetic messages were not sent by applications
+        continue;
+      }
+      final Pair<String, String> key = Pair.of(message.getApplication(), message.getEntityType());
+      final Map<String, IngestJobStateUpdateMessage> updates = pendingUpdates.computeIfAbsent(key, k -> new LinkedHashMap<>());
+      // the latest state of a resource replaces the previous ones
+      updates.remove(message.getId());
+      updates.put(message.getId(), new IngestJobStateUpdateMessage(message.getId(), message.getVersion(), state));
+      if (updates.size() >= maxPayloadSize) {
+        fullPayloads.add(key);
+      }
+    }
+    if (flushInterval <= 0) {
+      flush();
+    } else {
+      fullPayloads.forEach(this::flush);
+      if (taskId == null && !pendingUpdates.isEmpty()) {
+        taskId = vertx.setTimer(flushInterval, e -> {
+          taskId = null;
+          flush();
+        });
+      }
+    }
+  }
+
+  /**
+   * Immediately send every pending update.
+   */
+  public void flush() {
+    for (final Pair<String, String> key : new ArrayList<>(pendingUpdates.keySet())) {
+      flush(key);
+    }
+  }
+
+  private void flush(final Pair<String, String> key) {
+    final Map<String, IngestJobStateUpdateMessage> updates = pendingUpdates.remove(key);
+    if (updates == null || updates.isEmpty()) {
+      return;
+    }
+    final List<IngestJobStateUpdateMessage> allUpdates = new ArrayList<>(updates.values());
+    final String address = addressForIngestStateUpdate(key.getLeft(), key.getRight());
+    for (int i = 0; i < allUpdates.size(); i += maxPayloadSize) {
+      final List<IngestJobStateUpdateMessage> chunk = allUpdates.subList(i, Math.min(allUpdates.size(), i + maxPayloadSize));
+      try {
+        vertx.eventBus().send(address, Json.encode(chunk));
+      } catch (Exception e) {
+        log.error("Could not notify a message state update to " + address + " : " + chunk.size() + " updates", e);
+      }
+    }
+  }
+
+  /**
+   * @return The number of updates waiting to be sent
+   */
+  public long getSize() {
+    return pendingUpdates.values().stream().mapToLong(Map::size).sum();
+  }
+}
@@ -0,0 +1,107 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.IngestJobMetricsRecorder;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.commons.lang3.tuple.Pair;
+import org.entcore.common.explorer.IExplorerPluginClient;
+import org.entcore.common.explorer.to.ExplorerReindexResourcesRequest;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Accumulate the resources which have been successfully moved and ask their application to reindex them with one
+ * request per application and resource type instead of one request per resource.
+ * Resources are sent at the end of each cycle or, if a debounce delay is configured, when no resource has been moved
+ * during this delay (or as soon as the maximum number of pending resources is reached).
+ */
+public class DebouncedMoveReindexer {
+
+  public static final Logger log = LoggerFactory.getLogger(DebouncedMoveReindexer.class);
+  private final Map<Pair<String, String>, Set<String>> resourcesToReindex = new HashMap<>();
+  private final Vertx vertx;
+  private final IngestJobMetricsRecorder metricsRecorder;
+  /** The time (in milliseconds) to wait before sending pending resources if no new resources have been moved.*/
+  private final long debounceDelay;
+  /** Maximum number of resources that can be held waiting. As soon as this limit is reached, they are sent.*/
+  private final int maxLength;
+  /** Number of moved resources received since the last sending (duplicates included).*/
+  private int nbMovedResources = 0;
+  private Long taskId = null;
+
+  /**
+   * @param vertx Vertx instance
+   * @param metricsRecorder Recorder of the number of reindex requests sent and saved
+   * @param debounceDelay The delay of inactivity before sending the pending resources (0 to send them right away)
+   * @param maxLength Maximum number of resources to stack before sending them
+   */
+  public DebouncedMoveReindexer(final Vertx vertx,
+                                final IngestJobMetricsRecorder metricsRecorder,
+                                final long debounceDelay,
+                                final int maxLength) {
+    this.vertx = vertx;
+    this.metricsRecorder = metricsRecorder;
+    this.debounceDelay = debounceDelay;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @param movedMessages Move messages which have been successfully ingested
+   */
+  public void handleMovedMessages(final List<ExplorerMessageForIngest> movedMessages) {
+    if (movedMessages.isEmpty()) {
+      return;
+    }
+    for (final ExplorerMessageForIngest movedMessage : movedMessages) {
+      final Pair<String, String> key = Pair.of(movedMessage.getApplication(), movedMessage.getResourceType());
+      resourcesToReindex.computeIfAbsent(key, k -> new HashSet<>()).add(movedMessage.getId());
+      nbMovedResources++;
+    }
+    if (taskId != null) {
+      vertx.cancelTimer(taskId);
+      taskId = null;
+    }
+    if (debounceDelay <= 0 || (maxLength > 0 && getSize() >= maxLength)) {
+      sendReindexRequests();
+    } else {
+      taskId = vertx.setTimer(debounceDelay, l -> sendReindexRequests());
+    }
+  }
+
+  /**
+   * Immediately send the pending resources to their applications.
+   * @return A Future that completes when the applications have answered
+   */
+  public Future<Void> sendReindexRequests() {
+    taskId = null;
+    if (resourcesToReindex.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    final List<Future> futures = resourcesToReindex.entrySet().stream().map(entry -> {
+      final Pair<String, String> key = entry.getKey();
+      final IExplorerPluginClient client = IExplorerPluginClient.withBus(vertx, key.getLeft(), key.getRight());
+      return client.reindex(new ExplorerReindexResourcesRequest(entry.getValue()))
+          .onFailure(e -> log.error("[DebouncedMoveReindexer@sendReindexRequests] Could not reindex moved resources of " + key, e));
+    }).collect(Collectors.toList());
+    final int nbRequests = resourcesToReindex.size();
+    log.debug("[DebouncedMoveReindexer@sendReindexRequests] Sending " + nbRequests + " reindex requests for " + nbMovedResources + " moved resources");
+    metricsRecorder.onMoveReindexRequestsSent(nbMovedResources, nbRequests);
+    resourcesToReindex.clear();
+    nbMovedResources = 0;
+    return CompositeFuture.join(futures).mapEmpty();
+  }
+
+  /**
+   * @return The number of resources waiting to be reindexed
+   */
+  public long getSize() {
+    return resourcesToReindex.values().stream()
+        .mapToLong(Set::size)
+        .sum();
+  }
+}
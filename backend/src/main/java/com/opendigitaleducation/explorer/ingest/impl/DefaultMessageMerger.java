@@ -0,0 +1,174 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.MergeMessagesResult;
+import com.opendigitaleducation.explorer.ingest.MessageMerger;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.StringUtils;
+import org.entcore.common.explorer.ExplorerMessage;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Folds consecutive messages concerning the same resource (same resource unique id) into one message so that only one
+ * operation per resource is sent to Postgres and OpenSearch :
+ * <ul>
+ *     <li>Upsert + Upsert => Upsert (the fields of the highest version win, override/custom fields and subresources are merged)</li>
+ *     <li>Upsert + Delete or Delete + Delete => Delete</li>
+ *     <li>Move + Move => Move (to the latest parent)</li>
+ * </ul>
+ * The merged message keeps the highest version of the folded messages.
+ * </p>
+ * <p>
+ * Messages that cannot be safely folded (Delete followed by Upsert, Audience, migration messages, upserts that do not
+ * concern the same part of the resource, ...) start a new run so that their relative order is kept.
+ * </p>
+ */
+public class DefaultMessageMerger implements MessageMerger {
+    @Override
+    public String getId() {
+        return "default";
+    }
+
+    @Override
+    public MergeMessagesResult mergeMessages(final List<ExplorerMessageForIngest> messagesFromReader) {
+        final List<MessageRun> runs = new ArrayList<>();
+        final Map<String, MessageRun> lastRunByResource = new HashMap<>();
+        for (final ExplorerMessageForIngest message : messagesFromReader) {
+            final String resourceUniqueId = getResourceUniqueId(message);
+            final MessageRun lastRun = resourceUniqueId == null ? null : lastRunByResource.get(resourceUniqueId);
+            if (lastRun != null && canFold(lastRun.merged, message)) {
+                lastRun.fold(message);
+            } else {
+                final MessageRun run = new MessageRun(message);
+                runs.add(run);
+                if (resourceUniqueId != null) {
+                    lastRunByResource.put(resourceUniqueId, run);
+                }
+            }
+        }
+        final List<ExplorerMessageForIngest> messagesToTreat = new ArrayList<>();
+        final Map<String, List<ExplorerMessageForIngest>> messagesToAck = new HashMap<>();
+        for (final MessageRun run : runs) {
+            messagesToTreat.add(run.merged);
+            messagesToAck.put(run.merged.getIdQueue().get(), run.sources);
+        }
+        return new MergeMessagesResult(messagesToTreat, messagesToAck);
+    }
+
+    private static String getResourceUniqueId(final ExplorerMessageForIngest message) {
+        final String resourceUniqueId = message.getResourceUniqueId();
+        return StringUtils.isBlank(resourceUniqueId) ? null : resourceUniqueId;
+    }
+
+    private static boolean canFold(final ExplorerMessageForIngest previous, final ExplorerMessageForIngest next) {
+        if (!next.getIdQueue().isPresent() || previous.getMigrationFlag() || next.getMigrationFlag()) {
+            return false;
+        }
+        final String previousAction = previous.getAction();
+        final String nextAction = next.getAction();
+        if (ExplorerMessage.ExplorerAction.Delete.name().equals(nextAction)) {
+            return ExplorerMessage.ExplorerAction.Upsert.name().equals(previousAction)
+                    || ExplorerMessage.ExplorerAction.Delete.name().equals(previousAction);
+        } else if (ExplorerMessage.ExplorerAction.Move.name().equals(nextAction)) {
+            return ExplorerMessage.ExplorerAction.Move.name().equals(previousAction);
+        } else if (ExplorerMessage.ExplorerAction.Upsert.name().equals(nextAction)) {
+            // upserts creating a resource, sharing it or updating its subresources are not ingested the same way
+            return ExplorerMessage.ExplorerAction.Upsert.name().equals(previousAction)
+                    && previous.hasSubResources() == next.hasSubResources()
+                    && previous.hasRights(true) == next.hasRights(true)
+                    && previous.getSkipCheckVersion() == next.getSkipCheckVersion();
+        }
+        return false;
+    }
+
+    /**
+     * Messages concerning the same resource that will be treated as one.
+     */
+    private static class MessageRun {
+        private final List<ExplorerMessageForIngest> sources = new ArrayList<>();
+        private ExplorerMessageForIngest merged;
+
+        private MessageRun(final ExplorerMessageForIngest first) {
+            this.merged = first;
+            this.sources.add(first);
+        }
+
+        private void fold(final ExplorerMessageForIngest next) {
+            final JsonObject mergedBody;
+            if (ExplorerMessage.ExplorerAction.Upsert.name().equals(next.getAction())) {
+                // a stale upsert (lower version) must not overwrite the fields of a newer one
+                mergedBody = next.getVersion() < merged.getVersion() ?
+                        mergeUpserts(next.getMessage(), merged.getMessage()) :
+                        mergeUpserts(merged.getMessage(), next.getMessage());
+            } else {
+                // the latest Delete or Move supersedes previous messages
+                mergedBody = next.getMessage().copy();
+            }
+            mergedBody.put("version", Math.max(merged.getVersion(), next.getVersion()));
+            final ExplorerMessageForIngest folded = new ExplorerMessageForIngest(next.getAction(), next.getIdQueue().get(), next.getId(), mergedBody);
+            folded.getMetadata().mergeIn(next.getMetadata().copy());
+            folded.setAttemptCount(Math.max(merged.getAttemptCount(), next.getAttemptCount()));
+            this.merged = folded;
+            this.sources.add(next);
+        }
+    }
+
+    static JsonObject mergeUpserts(final JsonObject previous, final JsonObject next) {
+        final JsonObject merged = previous.copy();
+        for (final String fieldName : next.fieldNames()) {
+            final Object value = next.getValue(fieldName);
+            if ("override".equals(fieldName) || "custom".equals(fieldName)) {
+                final JsonObject fields = merged.getJsonObject(fieldName, new JsonObject()).copy();
+                if (value instanceof JsonObject) {
+                    fields.mergeIn((JsonObject) value);
+                }
+                merged.put(fieldName, fields);
+            } else if ("subresources".equals(fieldName)) {
+                merged.put(fieldName, mergeSubresources(merged.getJsonArray(fieldName), (JsonArray) value));
+            } else {
+                merged.put(fieldName, value instanceof JsonObject ? ((JsonObject) value).copy() :
+                        value instanceof JsonArray ? ((JsonArray) value).copy() : value);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merge subresources by id. When a subresource is present in both lists, the one with the highest version is kept
+     * (the latest one in case of equality).
+     */
+    static JsonArray mergeSubresources(final JsonArray previous, final JsonArray next) {
+        if (previous == null || previous.isEmpty()) {
+            return next == null ? new JsonArray() : next.copy();
+        }
+        if (next == null) {
+            return previous.copy();
+        }
+        final Map<String, Object> subresourcesById = new LinkedHashMap<>();
+        final List<Object> withoutIds = new ArrayList<>();
+        for (final JsonArray subresources : Arrays.asList(previous, next)) {
+            for (final Object subresource : subresources) {
+                final Object id = subresource instanceof JsonObject ? ((JsonObject) subresource).getValue("id") : null;
+                if (id == null) {
+                    withoutIds.add(subresource);
+                } else {
+                    final Object existing = subresourcesById.get(id.toString());
+                    if (existing == null || getVersion((JsonObject) existing) <= getVersion((JsonObject) subresource)) {
+                        subresourcesById.put(id.toString(), ((JsonObject) subresource).copy());
+                    }
+                }
+            }
+        }
+        final JsonArray merged = new JsonArray(new ArrayList<>(subresourcesById.values()));
+        withoutIds.forEach(merged::add);
+        return merged;
+    }
+
+    private static long getVersion(final JsonObject subresource) {
+        final Object version = subresource.getValue("version");
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+}
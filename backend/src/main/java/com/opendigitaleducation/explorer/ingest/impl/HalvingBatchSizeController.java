@@ -0,0 +1,49 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.BatchSizeController;
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.IngestJob;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Halves the batch size as soon as a message fails and doubles it back after a cycle without failures.
+ */
+public class HalvingBatchSizeController implements BatchSizeController {
+    private final int maxBatchSize;
+    private int batchSize;
+
+    public HalvingBatchSizeController(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = maxBatchSize;
+    }
+
+    @Override
+    public String getId() {
+        return "halving";
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public Decision onCycleCompleted(final IngestJob.IngestJobResult result) {
+        final int previousBatchSize = this.batchSize;
+        final List<ExplorerMessageForIngest> succeeded = result == null ? emptyList() : result.getSucceed();
+        final List<ExplorerMessageForIngest> failed = result == null ? emptyList() : result.getFailed();
+        if(failed == null || failed.isEmpty()) {
+            // grow batch size only if some ingest succeed and maxBatchSize is not reached
+            if(succeeded.size() > 0 && this.batchSize != maxBatchSize) {
+                this.batchSize = Math.min(maxBatchSize, this.batchSize * 2);
+                return new Decision(previousBatchSize, this.batchSize, Reason.Grow);
+            }
+            return new Decision(previousBatchSize, this.batchSize, Reason.Steady);
+        }
+        this.batchSize = Math.max(1, this.batchSize / 2);
+        return new Decision(previousBatchSize, this.batchSize, Reason.ShrinkOnFailure);
+    }
+}
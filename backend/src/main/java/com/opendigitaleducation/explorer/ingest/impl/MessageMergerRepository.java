@@ -1,6 +1,7 @@
 package com.opendigitaleducation.explorer.ingest.impl;
 
 import com.opendigitaleducation.explorer.ingest.MessageMerger;
+import org.apache.commons.lang3.StringUtils;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -19,14 +20,13 @@ public class MessageMergerRepository {
      */
     public static MessageMerger getMerger(final String mergerId) {
         return mergers.computeIfAbsent(mergerId, k -> {
-            /*if(StringUtils.isBlank(k) || "default".equalsIgnoreCase(mergerId)) {
+            if(StringUtils.isBlank(k) || "default".equalsIgnoreCase(mergerId)) {
                 return new DefaultMessageMerger();
             } else if("noop".equalsIgnoreCase(mergerId)) {
                 return new NoopMessageMerger();
             } else {
                 throw new IllegalArgumentException("merger.type.unknown." + mergerId);
-            }*/
-            return new NoopMessageMerger();
+            }
         });
     }
 }
@@ -1,10 +1,14 @@
 package com.opendigitaleducation.explorer.ingest.impl;
 
+import com.opendigitaleducation.explorer.ingest.BatchSizeController;
 import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.IngestCycleTrace;
 import com.opendigitaleducation.explorer.ingest.IngestJob;
 import com.opendigitaleducation.explorer.ingest.IngestJobMetricsRecorder;
+import com.opendigitaleducation.explorer.ingest.IngestLane;
 import com.opendigitaleducation.explorer.ingest.MergeMessagesResult;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
@@ -14,7 +18,10 @@ import io.vertx.micrometer.backends.BackendRegistries;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -38,11 +45,22 @@ public class MicrometerJobMetricsRecorder implements IngestJobMetricsRecorder {
     private final Counter failedInOpenSearchCounter;
     private final Counter succeededInOpenSearchCounter;
     private final Timer ingestionPostgresTimes;
+    private final Counter bisectedBatchesCounter;
+    private final Counter moveReindexRequestsCounter;
+    private final Counter moveReindexRequestsSavedCounter;
+    private final DistributionSummary openSearchBulkBytes;
+    private final Map<IngestCycleTrace.Stage, Timer> stageTimes = new EnumMap<>(IngestCycleTrace.Stage.class);
+    private final Map<IngestCycleTrace.Stage, DistributionSummary> stageMessages = new EnumMap<>(IngestCycleTrace.Stage.class);
+    private final Map<IngestCycleTrace.Stage, DistributionSummary> stageBytes = new EnumMap<>(IngestCycleTrace.Stage.class);
+    private final Map<BatchSizeController.Reason, Counter> batchSizeDecisionCounters = new EnumMap<>(BatchSizeController.Reason.class);
+    /** Meters of each lane, registered once when the lane is created.*/
+    private final Map<String, LaneMeters> laneMeters = new HashMap<>();
+    private final MeterRegistry registry;
     private int batchSize = 0;
     private int nbPendingCycles = 0;
 
     public MicrometerJobMetricsRecorder(final Configuration configuration) {
-        final MeterRegistry registry = BackendRegistries.getDefaultNow();
+        registry = BackendRegistries.getDefaultNow();
         if(registry == null) {
             throw new IllegalStateException("micrometer.registries.empty");
         }
@@ -122,6 +140,45 @@ public class MicrometerJobMetricsRecorder implements IngestJobMetricsRecorder {
         succeededInOpenSearchCounter = Counter.builder("ingest.message.opensearch.succeeded")
                 .description("number of messages that have successfully been ingested in OpenSearch")
                 .register(registry);
+        bisectedBatchesCounter = Counter.builder("ingest.batch.bisected")
+                .description("number of batches that failed as a whole and were split to isolate failures")
+                .register(registry);
+        moveReindexRequestsCounter = Counter.builder("ingest.move.reindex.requests")
+                .description("number of reindex requests sent to applications after resources were moved")
+                .register(registry);
+        moveReindexRequestsSavedCounter = Counter.builder("ingest.move.reindex.saved")
+                .description("number of reindex requests saved by grouping moved resources")
+                .register(registry);
+        openSearchBulkBytes = DistributionSummary.builder("ingest.opensearch.bulk.bytes")
+                .description("estimated size in bytes of the bulk requests sent to OpenSearch")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        for (final IngestCycleTrace.Stage stage : IngestCycleTrace.Stage.values()) {
+            stageTimes.put(stage, Timer.builder("ingest.stage.time")
+                    .description("time taken by a stage of an ingestion cycle")
+                    .tag("stage", stage.name())
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(Duration.ofMinutes(1L))
+                    .register(registry));
+            stageMessages.put(stage, DistributionSummary.builder("ingest.stage.messages")
+                    .description("number of messages handled by a stage of an ingestion cycle")
+                    .tag("stage", stage.name())
+                    .publishPercentileHistogram()
+                    .register(registry));
+            stageBytes.put(stage, DistributionSummary.builder("ingest.stage.bytes")
+                    .description("size in bytes of the messages handled by a stage of an ingestion cycle")
+                    .baseUnit("bytes")
+                    .tag("stage", stage.name())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (final BatchSizeController.Reason reason : BatchSizeController.Reason.values()) {
+            batchSizeDecisionCounters.put(reason, Counter.builder("ingest.batch.size.decision")
+                    .description("number of decisions taken by the batch size controller")
+                    .tag("reason", reason.name())
+                    .register(registry));
+        }
     }
 
     @Override
@@ -201,6 +258,20 @@ public class MicrometerJobMetricsRecorder implements IngestJobMetricsRecorder {
         ingestionPostgresTimes.record(elapsedTime, TimeUnit.MILLISECONDS);
     }
 
+    @Override
+    public void onOpenSearchBulkSent(final int nbOperations, final long payloadBytes) {
+        openSearchBulkBytes.record(payloadBytes);
+    }
+
+    @Override
+    public void onIngestPostgresStatement(final String statement, final long elapsedTime) {
+        Timer.builder("ingest.ingestion.postgres.statement.time")
+                .description("time taken by a statement of the backup in Postgres")
+                .tag("statement", statement)
+                .register(registry)
+                .record(elapsedTime, TimeUnit.MILLISECONDS);
+    }
+
     public static class Configuration {
         private final List<Duration> sla;
         private final List<Duration> slaOpensearch;
@@ -250,8 +321,90 @@ public class MicrometerJobMetricsRecorder implements IngestJobMetricsRecorder {
         }
     }
 
+    @Override
+    public void onBatchBisected(final int batchSize) {
+        bisectedBatchesCounter.increment();
+    }
+
+    @Override
+    public void onIngestStageCompleted(final IngestCycleTrace.Stage stage, final int nbMessages, final long payloadBytes, final long elapsedTime) {
+        stageTimes.get(stage).record(elapsedTime, TimeUnit.MILLISECONDS);
+        stageMessages.get(stage).record(nbMessages);
+        if (payloadBytes >= 0) {
+            stageBytes.get(stage).record(payloadBytes);
+        }
+    }
+
+    @Override
+    public void onMoveReindexRequestsSent(final int nbMovedResources, final int nbRequests) {
+        moveReindexRequestsCounter.increment(nbRequests);
+        moveReindexRequestsSavedCounter.increment(Math.max(0, nbMovedResources - nbRequests));
+    }
+
+    @Override
+    public void onLaneCreated(final IngestLane lane) {
+        Gauge.builder("ingest.lane.backlog", lane::getBacklogSize)
+                .description("number of messages waiting in an ingest lane")
+                .tag("lane", lane.getId())
+                .register(registry);
+        Gauge.builder("ingest.lane.batch.size", lane::getBatchSize)
+                .description("current batch size of an ingest lane")
+                .tag("lane", lane.getId())
+                .register(registry);
+        Gauge.builder("ingest.lane.in.flight", lane::getInFlightBatches)
+                .description("number of batches of an ingest lane being ingested")
+                .tag("lane", lane.getId())
+                .register(registry);
+        laneMeters.computeIfAbsent(lane.getId(), laneId -> new LaneMeters(registry, laneId));
+    }
+
+    @Override
+    public void onLaneBatchCompleted(final IngestLane lane, final IngestJob.IngestJobResult result, final long elapsedTime) {
+        final LaneMeters meters = laneMeters.computeIfAbsent(lane.getId(), laneId -> new LaneMeters(registry, laneId));
+        meters.cycleTime.record(elapsedTime, TimeUnit.MILLISECONDS);
+        if(result == null) {
+            meters.failedBatches.increment();
+        } else {
+            meters.succeededMessages.increment(result.getSucceed().size());
+            meters.failedMessages.increment(result.getFailed().size());
+        }
+    }
+
     @Override
     public void onBatchSizeUpdate(final int newBatchSize) {
         this.batchSize = newBatchSize;
     }
+
+    @Override
+    public void onBatchSizeDecision(final BatchSizeController.Decision decision) {
+        batchSizeDecisionCounters.get(decision.getReason()).increment();
+    }
+
+    private static class LaneMeters {
+        private final Timer cycleTime;
+        private final Counter failedBatches;
+        private final Counter succeededMessages;
+        private final Counter failedMessages;
+
+        private LaneMeters(final MeterRegistry registry, final String laneId) {
+            cycleTime = Timer.builder("ingest.lane.cycle.time")
+                    .description("ingestion time of a batch of an ingest lane")
+                    .tag("lane", laneId)
+                    .register(registry);
+            failedBatches = Counter.builder("ingest.lane.batch.failed")
+                    .description("number of batches of an ingest lane that failed entirely")
+                    .tag("lane", laneId)
+                    .register(registry);
+            succeededMessages = Counter.builder("ingest.lane.message")
+                    .description("number of messages ingested by an ingest lane")
+                    .tag("lane", laneId)
+                    .tag("state", "succeeded")
+                    .register(registry);
+            failedMessages = Counter.builder("ingest.lane.message")
+                    .description("number of messages ingested by an ingest lane")
+                    .tag("lane", laneId)
+                    .tag("state", "failed")
+                    .register(registry);
+        }
+    }
 }
@@ -0,0 +1,6 @@
+CREATE TABLE explorer.ingest_workers (
+    worker_id VARCHAR(128) NOT NULL PRIMARY KEY,
+    started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    heartbeat_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+CREATE INDEX idx_ingest_workers_heartbeat_at ON explorer.ingest_workers USING btree (heartbeat_at);
@@ -0,0 +1 @@
+ALTER TABLE explorer.resource_queue ADD COLUMN next_attempt_at TIMESTAMP WITHOUT TIME ZONE;
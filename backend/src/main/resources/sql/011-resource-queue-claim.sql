@@ -0,0 +1,3 @@
+ALTER TABLE explorer.resource_queue ADD COLUMN claimed_by VARCHAR(128);
+ALTER TABLE explorer.resource_queue ADD COLUMN claimed_until TIMESTAMP WITHOUT TIME ZONE;
+CREATE INDEX idx_resource_queue_pending ON explorer.resource_queue USING btree (priority DESC, created_at ASC) WHERE attempt_status = 0;
@@ -0,0 +1,41 @@
+-- the queue becomes a table partitioned by day of creation so that processed rows can be dropped by partition
+ALTER TABLE explorer.resource_queue RENAME TO resource_queue_legacy;
+DROP INDEX IF EXISTS explorer.idx_resource_queue_pending;
+CREATE TABLE explorer.resource_queue (
+    id INTEGER NOT NULL DEFAULT nextval('explorer.resource_queue_id_seq'),
+    id_resource VARCHAR(128) NOT NULL,
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    resource_action VARCHAR(16) NOT NULL CHECK (resource_action IN ('Upsert', 'Delete', 'Audience')),
+    payload JSONB NOT NULL,
+    attempted_at TIMESTAMP WITHOUT TIME ZONE,
+    attempted_count INTEGER NOT NULL DEFAULT 0,
+    attempt_status SMALLINT NOT NULL DEFAULT 0,
+    priority INTEGER NOT NULL,
+    next_attempt_at TIMESTAMP WITHOUT TIME ZONE,
+    claimed_by VARCHAR(128),
+    claimed_until TIMESTAMP WITHOUT TIME ZONE,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+ALTER SEQUENCE explorer.resource_queue_id_seq OWNED BY explorer.resource_queue.id;
+-- rows whose day has no partition yet (every ingest worker creates them in advance whatever the stream it reads)
+CREATE TABLE explorer.resource_queue_default PARTITION OF explorer.resource_queue DEFAULT;
+-- only pending rows are read so the index does not grow with processed rows
+CREATE INDEX idx_resource_queue_pending ON explorer.resource_queue USING btree (priority DESC, created_at ASC) WHERE attempt_status = 0;
+DO $$
+DECLARE
+    day DATE;
+BEGIN
+    FOR i IN 0..2 LOOP
+        day := CURRENT_DATE + i;
+        EXECUTE format('CREATE TABLE explorer.resource_queue_p%s PARTITION OF explorer.resource_queue FOR VALUES FROM (%L) TO (%L)',
+            to_char(day, 'YYYYMMDD'), day, day + 1);
+    END LOOP;
+    -- older rows get a partition of their own rather than the default one : it is named after the day before the
+    -- migration so that the archiver handles it like the partition of a day once its rows have been processed
+    EXECUTE format('CREATE TABLE explorer.resource_queue_p%s PARTITION OF explorer.resource_queue FOR VALUES FROM (MINVALUE) TO (%L)',
+        to_char(CURRENT_DATE - 1, 'YYYYMMDD'), CURRENT_DATE);
+END $$;
+-- successfully processed rows are not needed anymore (failed ones are kept with their status)
+INSERT INTO explorer.resource_queue SELECT id, id_resource, created_at, resource_action, payload, attempted_at, attempted_count, attempt_status, priority, next_attempt_at, claimed_by, claimed_until
+    FROM explorer.resource_queue_legacy WHERE attempt_status <> 1;
+DROP TABLE explorer.resource_queue_legacy;
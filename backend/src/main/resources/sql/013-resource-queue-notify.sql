@@ -0,0 +1,10 @@
+-- publish the range of the ids inserted by each statement so that readers can fetch new rows by key
+-- the trigger (resource_queue_notify) is only installed by the readers when notify-fetch is enabled, they never drop it
+-- (run DROP TRIGGER resource_queue_notify ON explorer.resource_queue once notify-fetch is disabled on every node)
+CREATE OR REPLACE FUNCTION explorer.notify_resource_queue() RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_notify('explorer_resource_queue', json_build_object('min', MIN(id), 'max', MAX(id), 'count', COUNT(*))::text)
+        FROM new_rows HAVING COUNT(*) > 0;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,48 @@
+-- counters of the queue by bucket maintained by triggers : each statement appends its deltas (no contention between
+-- writers), they are periodically compacted by the archiver of the ingest workers
+CREATE TABLE explorer.resource_queue_stats (
+    priority INTEGER NOT NULL,
+    attempted_count INTEGER NOT NULL,
+    attempt_status SMALLINT NOT NULL,
+    nb BIGINT NOT NULL
+);
+CREATE OR REPLACE FUNCTION explorer.resource_queue_stats_insert() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb)
+        SELECT priority, attempted_count, attempt_status, COUNT(*) FROM new_rows GROUP BY priority, attempted_count, attempt_status;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION explorer.resource_queue_stats_update() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb)
+        SELECT priority, attempted_count, attempt_status, SUM(nb) FROM (
+            SELECT priority, attempted_count, attempt_status, -1 AS nb FROM old_rows
+            UNION ALL
+            SELECT priority, attempted_count, attempt_status, 1 AS nb FROM new_rows
+        ) deltas GROUP BY priority, attempted_count, attempt_status HAVING SUM(nb) <> 0;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+CREATE OR REPLACE FUNCTION explorer.resource_queue_stats_delete() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb)
+        SELECT priority, attempted_count, attempt_status, -COUNT(*) FROM old_rows GROUP BY priority, attempted_count, attempt_status;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+-- the queue is locked against writes so that each row is either counted by the seed or by the triggers
+DO $$
+BEGIN
+    LOCK TABLE explorer.resource_queue IN SHARE ROW EXCLUSIVE MODE;
+    CREATE TRIGGER resource_queue_stats_insert AFTER INSERT ON explorer.resource_queue
+        REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE explorer.resource_queue_stats_insert();
+    CREATE TRIGGER resource_queue_stats_update AFTER UPDATE ON explorer.resource_queue
+        REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE explorer.resource_queue_stats_update();
+    CREATE TRIGGER resource_queue_stats_delete AFTER DELETE ON explorer.resource_queue
+        REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE explorer.resource_queue_stats_delete();
+    INSERT INTO explorer.resource_queue_stats (priority, attempted_count, attempt_status, nb)
+        SELECT priority, attempted_count, attempt_status, COUNT(*) FROM explorer.resource_queue GROUP BY priority, attempted_count, attempt_status;
+END $$;
+-- the oldest and newest new messages are read from the ends of this index
+CREATE INDEX idx_resource_queue_new ON explorer.resource_queue USING btree (created_at) WHERE attempted_count = 0;
@@ -0,0 +1,111 @@
+package com.opendigitaleducation.explorer.folders;
+
+import com.opendigitaleducation.explorer.ExplorerConfig;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.common.explorer.IdAndVersion;
+import org.entcore.common.postgres.PostgresClient;
+import org.entcore.common.user.UserInfos;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(VertxUnitRunner.class)
+public class ExplorerDbSqlChunkTest {
+  private static final TestHelper test = TestHelper.helper();
+  private static final int NB_ROWS = 20000;
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static PostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    postgresClient = new PostgresClient(test.vertx(), postgresqlConfig);
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that rows are grouped so that no statement uses more than the allowed number of parameters and that
+   *    no row is lost or duplicated.
+   *  </p>
+   */
+  @Test
+  public void testSplitRespectsParameterLimit(final TestContext context) {
+    final List<Integer> rows = new ArrayList<>();
+    for (int i = 0; i < NB_ROWS; i++) {
+      rows.add(i);
+    }
+    final List<List<Integer>> chunks = SqlChunks.split(rows, 8, SqlChunks.MAX_PARAMETERS);
+    context.assertEquals(3, chunks.size());
+    int nbRows = 0;
+    for (final List<Integer> chunk : chunks) {
+      context.assertTrue(chunk.size() * 8 <= SqlChunks.MAX_PARAMETERS);
+      context.assertEquals(nbRows, chunk.get(0));
+      nbRows += chunk.size();
+    }
+    context.assertEquals(NB_ROWS, nbRows);
+    context.assertEquals(1, SqlChunks.split(rows.subList(0, 10), 8, SqlChunks.MAX_PARAMETERS).size());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that 20k resources (8 parameters each, i.e. 160k parameters) are upserted in one call and that they
+   *    can be upserted again (conflict path) without error.
+   *  </p>
+   */
+  @Test
+  public void testUpsertResourcesAboveParameterLimit(final TestContext context) {
+    final Async async = context.async();
+    final UserInfos user = test.directory().generateUser("chunkresource");
+    final List<ExplorerMessage> messages = new ArrayList<>();
+    for (int i = 0; i < NB_ROWS; i++) {
+      messages.add(ExplorerMessage.upsert(new IdAndVersion("chunk_resource_" + i, 1), user, false, "chunk", "chunk", "chunk").withCreator(user));
+    }
+    final ResourceExplorerDbSql sql = new ResourceExplorerDbSql(postgresClient);
+    sql.upsertResources(messages).compose(upserted -> {
+      context.assertEquals(NB_ROWS, upserted.size());
+      return sql.upsertResources(messages);
+    }).compose(upserted -> {
+      context.assertEquals(NB_ROWS, upserted.size());
+      return postgresClient.preparedQuery("SELECT COUNT(*) AS nb FROM explorer.resources WHERE application = 'chunk'", Tuple.tuple());
+    }).onComplete(context.asyncAssertSuccess(rows -> {
+      context.assertEquals((long) NB_ROWS, rows.iterator().next().getLong("nb"));
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that 20k folders (8 parameters each) are upserted in one call and that each of them is returned with
+   *    its id.
+   *  </p>
+   */
+  @Test
+  public void testUpsertFoldersAboveParameterLimit(final TestContext context) {
+    final Async async = context.async();
+    final UserInfos user = test.directory().generateUser("chunkfolder");
+    final List<ExplorerMessage> messages = new ArrayList<>();
+    for (int i = 0; i < NB_ROWS; i++) {
+      messages.add(ExplorerMessage.upsert(new IdAndVersion("chunk_folder_" + i, 1), user, false, ExplorerConfig.FOLDER_APPLICATION, ExplorerConfig.FOLDER_TYPE, ExplorerConfig.FOLDER_TYPE).withName("folder" + i).withCreator(user));
+    }
+    new FolderExplorerDbSql(postgresClient).upsert(messages).onComplete(context.asyncAssertSuccess(result -> {
+      context.assertEquals(NB_ROWS, result.folderEntById.size());
+      context.assertNotNull(result.folderEntById.get("chunk_folder_" + (NB_ROWS - 1)).getValue("id"));
+      async.complete();
+    }));
+  }
+}
@@ -0,0 +1,32 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkIngestionStatsTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that only the errors of type es_rejected_execution_exception are considered as rejections and that
+   *    errors which merely contain 429 (ids, counts...) are counted as failures.
+   *  </p>
+   */
+  @Test
+  public void testOnlyRejectedExecutionIsRejection() {
+    assertTrue(BulkIngestionStats.isRejection("es_rejected_execution_exception"));
+    assertTrue(BulkIngestionStats.isRejection("{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution of coordinating operation\"}"));
+    assertFalse(BulkIngestionStats.isRejection(null));
+    assertFalse(BulkIngestionStats.isRejection("document_missing_exception: [_doc][resource-4291]: document missing"));
+    assertFalse(BulkIngestionStats.isRejection("mapper_parsing_exception: failed to parse field [views] : 1429 is not a date"));
+    assertFalse(BulkIngestionStats.isRejection("not_found"));
+    final BulkIngestionStats stats = new BulkIngestionStats()
+      .onOperationFailed("es_rejected_execution_exception")
+      .onOperationFailed("document_missing_exception: [resource-429]");
+    assertEquals(1, stats.getNbRejected());
+    assertEquals(1, stats.getNbFailed());
+  }
+}
@@ -0,0 +1,67 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngestCycleTraceTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the stages of a cycle are recorded in the order they completed with their number of messages and
+   *    bytes and that the total duration is only exposed once the cycle is over.
+   *  </p>
+   */
+  @Test
+  public void testStagesAreRecorded() {
+    final IngestCycleTrace trace = new IngestCycleTrace(7, "blog");
+    final long start = System.currentTimeMillis() - 50;
+    trace.onStageCompleted(IngestCycleTrace.Stage.Read, start, 3, 120)
+      .onStageCompleted(IngestCycleTrace.Stage.Merge, start, 2, -1)
+      .onStageCompleted(IngestCycleTrace.Stage.Ack, start, 2, -1);
+    assertEquals(3, trace.getStages().size());
+    assertEquals(IngestCycleTrace.Stage.Read, trace.getStages().get(0).getStage());
+    assertEquals(3, trace.getStages().get(0).getNbMessages());
+    assertEquals(120L, trace.getStages().get(0).getPayloadBytes());
+    assertTrue(trace.getStages().get(0).getElapsedTime() >= 50);
+    assertEquals(IngestCycleTrace.Stage.Ack, trace.getStages().get(2).getStage());
+    final JsonObject running = trace.toJson();
+    assertEquals(7L, running.getLong("id").longValue());
+    assertEquals("blog", running.getString("lane"));
+    assertFalse(running.getBoolean("succeeded"));
+    assertFalse("The duration should only be known once the cycle is over", running.containsKey("elapsed_ms"));
+    final JsonObject completed = trace.onCompleted(true).toJson();
+    assertTrue(completed.getBoolean("succeeded"));
+    assertTrue(completed.containsKey("elapsed_ms"));
+    final JsonArray stages = completed.getJsonArray("stages");
+    assertEquals("Merge", stages.getJsonObject(1).getString("stage"));
+    assertEquals(2, stages.getJsonObject(1).getInteger("messages").intValue());
+    assertFalse("Cycles which are not laned should not expose a lane", new IngestCycleTrace(1, null).toJson().containsKey("lane"));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the payload size of a batch is the sum of the estimated size of its messages.
+   *  </p>
+   */
+  @Test
+  public void testPayloadSize() {
+    final JsonObject small = new JsonObject().put("name", "a");
+    final JsonObject large = new JsonObject().put("name", "a").put("contentPlain", "some longer content");
+    final long expected = JsonSizeEstimator.estimate(small) + JsonSizeEstimator.estimate(large);
+    assertEquals(expected, IngestCycleTrace.payloadSize(asList(message("r1", small), message("r2", large))));
+    assertTrue(JsonSizeEstimator.estimate(large) > JsonSizeEstimator.estimate(small));
+  }
+
+  private static ExplorerMessageForIngest message(final String id, final JsonObject json) {
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + id, id, json);
+  }
+}
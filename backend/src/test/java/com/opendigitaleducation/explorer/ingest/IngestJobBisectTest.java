@@ -0,0 +1,173 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.elasticsearch.ElasticClientManager;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Collections.emptyList;
+
+@RunWith(VertxUnitRunner.class)
+public class IngestJobBisectTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that when a batch fails as a whole because of one message, the batch is split so that every other
+   *    message is acknowledged in the same cycle and only the poison message is marked as failed.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testPoisonMessageIsIsolated(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      messages.add(new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + i, "id" + i,
+        new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog")));
+    }
+    final FakeReader reader = new FakeReader(messages);
+    final MessageIngester ingester = toIngest -> {
+      if (toIngest.stream().anyMatch(m -> "id11".equals(m.getId()))) {
+        return Future.failedFuture("mapper_parsing_exception");
+      }
+      return Future.succeededFuture(new IngestJob.IngestJobResult(new ArrayList<>(toIngest), new ArrayList<>(), new ArrayList<>()));
+    };
+    final IngestJob job = new IngestJob(vertx, reader, ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(),
+      new JsonObject().put("batch-size", 16).put("max-bisect-requests", 16));
+    job.execute(true).onComplete(e -> {
+      context.assertNotNull(reader.lastResult, "Status should have been updated");
+      context.assertEquals(15, reader.lastResult.getSucceed().size(), "Healthy messages should be acked");
+      context.assertEquals(1, reader.lastResult.getFailed().size(), "Only the poison message should fail");
+      context.assertEquals("id11", reader.lastResult.getFailed().get(0).getId());
+      job.stopConsumer();
+      async.complete();
+    });
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that when OpenSearch refuses a whole bulk request because of one malformed document (400), the failure
+   *    of the OpenSearch ingester makes the job split the batch so that only the poison message is marked as failed.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testPoisonDocumentRefusedByOpenSearchIsIsolated(final TestContext context) throws Exception {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      messages.add(new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + i, "id" + i,
+        new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog")
+          .put("name", i == 11 ? "poison" : "healthy").put("version", 1)));
+    }
+    final AtomicInteger nbBulkRequests = new AtomicInteger();
+    vertx.createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+      nbBulkRequests.incrementAndGet();
+      if (body.toString().contains("poison")) {
+        final JsonObject error = new JsonObject().put("type", "mapper_parsing_exception").put("reason", "failed to parse field [name]");
+        request.response().setStatusCode(400).putHeader("Content-Type", "application/json")
+          .end(new JsonObject().put("error", error).put("status", 400).encode());
+        return;
+      }
+      final JsonArray items = new JsonArray();
+      for (final String line : body.toString().split("\n")) {
+        final JsonObject action = line.trim().isEmpty() ? new JsonObject() : new JsonObject(line);
+        if (action.getValue("update") instanceof JsonObject) {
+          items.add(new JsonObject().put("update", action.getJsonObject("update").copy().put("status", 200).put("result", "updated")));
+        }
+      }
+      request.response().putHeader("Content-Type", "application/json")
+        .end(new JsonObject().put("took", 1).put("errors", false).put("items", items).encode());
+    })).listen(0, context.asyncAssertSuccess(server -> {
+      final FakeReader reader = new FakeReader(messages);
+      final MessageIngester ingester;
+      try {
+        ingester = new MessageIngesterElastic(new ElasticClientManager(vertx, new URI[]{new URI("http://localhost:" + server.actualPort())}),
+          new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(), new JsonObject());
+      } catch (Exception e) {
+        context.fail(e);
+        return;
+      }
+      final IngestJob job = new IngestJob(vertx, reader, ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(),
+        new JsonObject().put("batch-size", 16).put("max-bisect-requests", 16));
+      job.execute(true).onComplete(e -> {
+        context.assertNotNull(reader.lastResult, "Status should have been updated");
+        context.assertEquals(15, reader.lastResult.getSucceed().size(), "Healthy messages should be acked");
+        context.assertEquals(1, reader.lastResult.getFailed().size(), "Only the poison message should fail");
+        context.assertEquals("id11", reader.lastResult.getFailed().get(0).getId());
+        context.assertTrue(nbBulkRequests.get() > 1, "The batch should have been split");
+        job.stopConsumer();
+        server.close(context.asyncAssertSuccess(closed -> async.complete()));
+      });
+    }));
+  }
+
+  private static class FakeReader implements MessageReader {
+    private List<ExplorerMessageForIngest> messages;
+    private IngestJob.IngestJobResult lastResult;
+
+    private FakeReader(final List<ExplorerMessageForIngest> messages) {
+      this.messages = messages;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Future<Void> start() {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public MessageReaderStatus getStatus() {
+      return MessageReaderStatus.Running;
+    }
+
+    @Override
+    public Function<Void, Void> listenNewMessages(final Handler<Void> handler) {
+      return e -> null;
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize) {
+      final List<ExplorerMessageForIngest> toReturn = messages;
+      messages = emptyList();
+      return Future.succeededFuture(toReturn);
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
+      return Future.succeededFuture(emptyList());
+    }
+
+    @Override
+    public Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt) {
+      this.lastResult = ingestResult;
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public Future<JsonObject> getMetrics() {
+      return Future.succeededFuture(new JsonObject());
+    }
+  }
+}
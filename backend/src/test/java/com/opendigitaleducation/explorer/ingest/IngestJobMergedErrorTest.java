@@ -0,0 +1,79 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(VertxUnitRunner.class)
+public class IngestJobMergedErrorTest {
+  private static final TestHelper test = TestHelper.helper();
+  private static final String ERROR = "elastic.ingestion.error: mapper_parsing_exception";
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static IPostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final Async async = context.async();
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).onComplete(context.asyncAssertSuccess(client -> {
+      postgresClient = client;
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that when a message built by the default merger from several messages of the same resource fails, the
+   *    error is stored for each of the messages of the queue it was built from.
+   *  </p>
+   */
+  @Test
+  public void testErrorOfMergedMessageIsStored(final TestContext context) {
+    final Async async = context.async();
+    final String query = "INSERT INTO explorer.resource_queue (id_resource, created_at, resource_action, payload, priority) " +
+      "SELECT 'merged_error', NOW(), 'Upsert', json_build_object('application', 'blog', 'resourceType', 'blog', 'entityType', 'blog', 'version', g, 'name', 'edit' || g)::jsonb, 0 " +
+      "FROM generate_series(1, 3) g RETURNING id";
+    final MessageIngester ingester = messages -> {
+      final List<ExplorerMessageForIngest> failed = new ArrayList<>();
+      for (final ExplorerMessageForIngest message : messages) {
+        message.setError(ERROR);
+        failed.add(message);
+      }
+      return Future.succeededFuture(new IngestJob.IngestJobResult(new ArrayList<>(), failed, new ArrayList<>()));
+    };
+    final MessageReader reader = new MessageReaderPostgres(postgresClient, new JsonObject());
+    final IngestJob job = new IngestJob(test.vertx(), reader, ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(),
+      new JsonObject().put("batch-size", 10).put("message-merger", "default"));
+    postgresClient.preparedQuery(query, Tuple.tuple()).compose(inserted -> {
+      final List<Long> ids = new ArrayList<>();
+      for (final Row row : inserted) {
+        ids.add(row.getLong("id"));
+      }
+      return job.execute(true).compose(e -> postgresClient.preparedQuery(
+        "SELECT attempt_reason FROM explorer.resource_queue_causes WHERE id = ANY($1::bigint[])", Tuple.of(ids.toArray(new Long[0]))));
+    }).onComplete(context.asyncAssertSuccess(causes -> {
+      context.assertEquals(3, causes.rowCount(), "Each message of the queue should have a cause");
+      for (final Row cause : causes) {
+        context.assertEquals(ERROR, cause.getString("attempt_reason"));
+      }
+      job.stopConsumer();
+      async.complete();
+    }));
+  }
+}
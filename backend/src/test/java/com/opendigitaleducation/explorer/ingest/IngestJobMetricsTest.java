@@ -0,0 +1,159 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.emptyList;
+
+@RunWith(VertxUnitRunner.class)
+public class IngestJobMetricsTest {
+  private static final JsonObject BACKLOG = new JsonObject().put("stream_high", new JsonObject().put("depth", 42).put("oldest_age_ms", 1000));
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the metrics of the job expose the backlog of the reader, the throughput of succeeded and failed
+   *    messages over each window and the time between the enqueuing and the ingestion of succeeded messages.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testBacklogThroughputAndFreshness(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    final long enqueuedAt = System.currentTimeMillis() - 2000;
+    for (int i = 0; i < 6; i++) {
+      final ExplorerMessageForIngest message = new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + i, "id" + i,
+        new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog").put("version", 1));
+      message.setEnqueuedAt(enqueuedAt);
+      messages.add(message);
+    }
+    // the last message fails
+    final MessageIngester ingester = toIngest -> Future.succeededFuture(new IngestJob.IngestJobResult(
+      toIngest.stream().filter(m -> !"id5".equals(m.getId())).collect(Collectors.toList()),
+      toIngest.stream().filter(m -> "id5".equals(m.getId())).collect(Collectors.toList()),
+      new ArrayList<>()));
+    final IngestJob job = new IngestJob(vertx, new FakeReader(messages), ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(),
+      new JsonObject().put("batch-size", 10));
+    job.execute(true).compose(e -> job.getMetrics()).onComplete(context.asyncAssertSuccess(metrics -> {
+      context.assertEquals(BACKLOG, metrics.getJsonObject("reader").getJsonObject("backlog"), "The backlog of the reader should be exposed");
+      final JsonObject throughput = metrics.getJsonObject("throughput");
+      context.assertEquals(5 / 60.0, throughput.getDouble("succeeded_per_s_1m"));
+      context.assertEquals(1 / 60.0, throughput.getDouble("failed_per_s_1m"));
+      context.assertEquals(5 / 300.0, throughput.getDouble("succeeded_per_s_5m"));
+      context.assertEquals(5 / 900.0, throughput.getDouble("succeeded_per_s_15m"));
+      final JsonObject freshness = metrics.getJsonObject("freshness");
+      context.assertTrue(freshness.getLong("last_ms") >= 2000, "Freshness should be measured from the enqueuing of the messages");
+      context.assertTrue(freshness.getDouble("avg_ms_1m") >= 2000);
+      context.assertEquals(1, metrics.getJsonArray("traces").size());
+      final JsonObject trace = metrics.getJsonArray("traces").getJsonObject(0);
+      context.assertTrue(trace.getBoolean("succeeded"));
+      final List<String> stages = new ArrayList<>();
+      for (final Object stage : trace.getJsonArray("stages")) {
+        stages.add(((JsonObject) stage).getString("stage"));
+      }
+      context.assertTrue(stages.contains("Read") && stages.contains("Ingest") && stages.contains("Ack"), "Stages should be traced " + stages);
+      job.stopConsumer();
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that only the traces of the last cycles are kept and that no window reports a throughput or a freshness
+   *    before any message has been ingested.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testTraceHistoryIsBounded(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final MessageIngester ingester = toIngest -> Future.succeededFuture(new IngestJob.IngestJobResult(new ArrayList<>(toIngest), new ArrayList<>(), new ArrayList<>()));
+    final IngestJob job = new IngestJob(vertx, new FakeReader(emptyList()), ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(),
+      new JsonObject().put("trace-history-size", 2));
+    job.execute(true)
+      .compose(e -> job.execute(true))
+      .compose(e -> job.execute(true))
+      .compose(e -> job.getMetrics())
+      .onComplete(context.asyncAssertSuccess(metrics -> {
+        final JsonArray traces = metrics.getJsonArray("traces");
+        context.assertEquals(2, traces.size(), "Only the last cycles should be traced");
+        context.assertEquals(2L, traces.getJsonObject(0).getLong("id"));
+        context.assertEquals(3L, traces.getJsonObject(1).getLong("id"));
+        context.assertEquals(0.0, metrics.getJsonObject("throughput").getDouble("succeeded_per_s_1m"));
+        context.assertEquals(-1L, metrics.getJsonObject("freshness").getLong("last_ms"));
+        context.assertEquals(-1.0, metrics.getJsonObject("freshness").getDouble("avg_ms_1m"));
+        job.stopConsumer();
+        async.complete();
+      }));
+  }
+
+  /**
+   * Hands out its messages once and exposes a fixed backlog.
+   */
+  private static class FakeReader implements MessageReader {
+    private List<ExplorerMessageForIngest> messages;
+
+    private FakeReader(final List<ExplorerMessageForIngest> messages) {
+      this.messages = messages;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Future<Void> start() {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public MessageReaderStatus getStatus() {
+      return MessageReaderStatus.Running;
+    }
+
+    @Override
+    public Function<Void, Void> listenNewMessages(final Handler<Void> handler) {
+      return e -> null;
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize) {
+      final List<ExplorerMessageForIngest> toReturn = messages;
+      messages = emptyList();
+      return Future.succeededFuture(toReturn);
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
+      return Future.succeededFuture(emptyList());
+    }
+
+    @Override
+    public Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt) {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public Future<JsonObject> getMetrics() {
+      return Future.succeededFuture(new JsonObject().put("backlog", BACKLOG));
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Collections.emptyList;
+
+@RunWith(VertxUnitRunner.class)
+public class IngestJobPipelineTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that with several batches in flight :
+   *    <ul>
+   *      <li>the next batch is read while the previous one is still being written</li>
+   *      <li>successive upserts of the same resource read by different batches are written and acked in order</li>
+   *      <li>a batch whose ingestion fails is acked (as failed) before the next batch even if the next one is written
+   *      faster</li>
+   *    </ul>
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testBatchesOverlapButAreWrittenAndAckedInOrder(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<String> events = new ArrayList<>();
+    // the resource r1 is updated by the first two batches
+    final FakeReader reader = new FakeReader(events, Arrays.asList(
+      Arrays.asList(upsert(1, "r1", 1), upsert(1, "r2", 1)),
+      Arrays.asList(upsert(2, "r1", 2), upsert(2, "r3", 1))));
+    final MessageIngester ingester = toIngest -> {
+      final int batch = getBatch(toIngest.get(0));
+      events.add("ingest-start:" + batch);
+      final Promise<IngestJob.IngestJobResult> promise = Promise.promise();
+      // the first batch is slow and fails, the second one is fast and succeeds
+      vertx.setTimer(batch == 1 ? 300L : 1L, e -> {
+        events.add("ingest-end:" + batch);
+        if (batch == 1) {
+          promise.fail("ingest.failed");
+        } else {
+          promise.complete(new IngestJob.IngestJobResult(new ArrayList<>(toIngest), new ArrayList<>(), new ArrayList<>()));
+        }
+      });
+      return promise.future();
+    };
+    final JsonObject config = new JsonObject().put("batch-size", 2).put("max-in-flight-batches", 3).put("max-bisect-requests", 0);
+    final IngestJob job = new IngestJob(vertx, reader, ingester, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(), config);
+    reader.onAcked(2, acked -> job.stop().onComplete(stopped -> {
+      job.stopConsumer();
+      context.assertTrue(events.indexOf("read:2") < events.indexOf("ingest-end:1"), "The second batch should be read while the first one is written " + events);
+      context.assertTrue(events.indexOf("ingest-end:1") < events.indexOf("ingest-start:2"), "Batches should be written in the order they were read " + events);
+      context.assertTrue(events.indexOf("ack:1") < events.indexOf("ack:2"), "The failed batch should be acked first " + events);
+      final IngestJob.IngestJobResult first = reader.results.get(0);
+      context.assertEquals(2, first.getFailed().size());
+      context.assertTrue(first.getFailed().stream().anyMatch(m -> "r1".equals(m.getId()) && m.getVersion() == 1));
+      final IngestJob.IngestJobResult second = reader.results.get(1);
+      context.assertEquals(2, second.getSucceed().size());
+      context.assertTrue(second.getSucceed().stream().anyMatch(m -> "r1".equals(m.getId()) && m.getVersion() == 2));
+      async.complete();
+    }));
+    job.start();
+  }
+
+  private static ExplorerMessageForIngest upsert(final int batch, final String id, final long version) {
+    final JsonObject json = new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog")
+      .put("name", id + " v" + version).put("version", version);
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), batch + "-" + id + "-" + version, id, json);
+  }
+
+  private static int getBatch(final ExplorerMessageForIngest message) {
+    return Integer.parseInt(message.getIdQueue().get().split("-")[0]);
+  }
+
+  /**
+   * Hands out one batch per read and records the reads and the acknowledgements of the batches.
+   */
+  private static class FakeReader implements MessageReader {
+    private final List<String> events;
+    private final LinkedList<List<ExplorerMessageForIngest>> batches;
+    private final List<IngestJob.IngestJobResult> results = new ArrayList<>();
+    private int nbBatchesToAck;
+    private Handler<Void> onAcked;
+
+    private FakeReader(final List<String> events, final List<List<ExplorerMessageForIngest>> batches) {
+      this.events = events;
+      this.batches = new LinkedList<>(batches);
+    }
+
+    private void onAcked(final int nbBatches, final Handler<Void> handler) {
+      this.nbBatchesToAck = nbBatches;
+      this.onAcked = handler;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Future<Void> start() {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public MessageReaderStatus getStatus() {
+      return MessageReaderStatus.Running;
+    }
+
+    @Override
+    public Function<Void, Void> listenNewMessages(final Handler<Void> handler) {
+      return e -> null;
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize) {
+      if (batches.isEmpty()) {
+        return Future.succeededFuture(emptyList());
+      }
+      final List<ExplorerMessageForIngest> batch = batches.removeFirst();
+      events.add("read:" + getBatch(batch.get(0)));
+      return Future.succeededFuture(batch);
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
+      return Future.succeededFuture(emptyList());
+    }
+
+    @Override
+    public Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt) {
+      final List<ExplorerMessageForIngest> messages = new ArrayList<>(ingestResult.getSucceed());
+      messages.addAll(ingestResult.getFailed());
+      if (!messages.isEmpty()) {
+        events.add("ack:" + getBatch(messages.get(0)));
+        results.add(ingestResult);
+        if (results.size() == nbBatchesToAck) {
+          onAcked.handle(null);
+        }
+      }
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public Future<JsonObject> getMetrics() {
+      return Future.succeededFuture(new JsonObject());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngestLaneSchedulerTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a lane with a huge backlog does not prevent the other lanes from being elected : each lane gets
+   *    one batch per round and the concurrency limit is shared by all lanes.
+   *  </p>
+   */
+  @Test
+  public void testLanesAreElectedInRoundRobin() {
+    final IngestLaneScheduler scheduler = new IngestLaneScheduler(new JsonObject()
+      .put("max-concurrent-batches", 3)
+      .put("default", new JsonObject().put("max-concurrency", 2)), 10, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder());
+    scheduler.dispatch(messages("exercizer", 100));
+    scheduler.dispatch(messages("blog", 5));
+    scheduler.dispatch(messages("wiki", 5));
+    final List<IngestLaneScheduler.LaneBatch> batches = scheduler.nextBatches(System.currentTimeMillis());
+    assertEquals(3, batches.size());
+    assertEquals("exercizer:exercizer", batches.get(0).getLane().getId());
+    assertEquals(10, batches.get(0).getMessages().size());
+    assertEquals("blog:blog", batches.get(1).getLane().getId());
+    assertEquals(5, batches.get(1).getMessages().size());
+    assertEquals("wiki:wiki", batches.get(2).getLane().getId());
+    assertEquals(0, scheduler.nextBatches(System.currentTimeMillis()).size());
+    assertEquals(90, scheduler.getBufferedMessages());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a lane whose batch failed entirely backs off while the other lanes keep being elected.
+   *  </p>
+   */
+  @Test
+  public void testFailingLaneBacksOff() {
+    final IngestLaneScheduler scheduler = new IngestLaneScheduler(new JsonObject()
+      .put("default", new JsonObject().put("backoff-base-ms", 60000)), 10, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder());
+    scheduler.dispatch(messages("exercizer", 20));
+    scheduler.dispatch(messages("blog", 20));
+    final long now = System.currentTimeMillis();
+    final List<IngestLaneScheduler.LaneBatch> batches = scheduler.nextBatches(now);
+    assertEquals(2, batches.size());
+    scheduler.onBatchCompleted(batches.get(0).getLane(), null, 1000);
+    scheduler.onBatchCompleted(batches.get(1).getLane(), new IngestJob.IngestJobResult(), 10);
+    final List<IngestLaneScheduler.LaneBatch> nextBatches = scheduler.nextBatches(System.currentTimeMillis());
+    assertEquals(1, nextBatches.size());
+    assertEquals("blog:blog", nextBatches.get(0).getLane().getId());
+    assertTrue(scheduler.getNextWakeUpDelay(System.currentTimeMillis()) > 0);
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the batches of a lane concerning other resources are written concurrently whereas a batch waits
+   *    for the writes of the previous batches concerning one of its resources.
+   *  </p>
+   */
+  @Test
+  public void testWritesAreChainedByResource() {
+    final IngestLane lane = new IngestLane("blog", "blog", new JsonObject().put("max-concurrency", 3), 10);
+    final List<ExplorerMessageForIngest> messages = messages("blog", 3);
+    final Promise<Void> firstWrite = Promise.promise();
+    final List<String> started = new ArrayList<>();
+    lane.chainWrite(Arrays.asList(messages.get(0), messages.get(1)), () -> {
+      started.add("first");
+      return firstWrite.future();
+    });
+    lane.chainWrite(Arrays.asList(messages.get(2)), () -> {
+      started.add("other resource");
+      return Future.succeededFuture();
+    });
+    lane.chainWrite(Arrays.asList(messages.get(1)), () -> {
+      started.add("same resource");
+      return Future.succeededFuture();
+    });
+    assertEquals(Arrays.asList("first", "other resource"), started);
+    assertFalse(started.contains("same resource"));
+    firstWrite.fail("write failed");
+    assertEquals(Arrays.asList("first", "other resource", "same resource"), started);
+  }
+
+  private static List<ExplorerMessageForIngest> messages(final String application, final int nb) {
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    for (int i = 0; i < nb; i++) {
+      messages.add(new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), application + i, application + i,
+        new JsonObject().put("application", application).put("resourceType", application).put("entityType", application)));
+    }
+    return messages;
+  }
+}
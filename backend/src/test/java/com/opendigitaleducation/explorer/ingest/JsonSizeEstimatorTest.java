@@ -0,0 +1,33 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonSizeEstimatorTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the estimated size of a message matches the size of its JSON encoding for nested objects, arrays,
+   *    numbers, null values, escaped and non-ASCII characters.
+   *  </p>
+   */
+  @Test
+  public void testEstimateMatchesEncodedSize() {
+    final JsonObject document = new JsonObject()
+      .put("id", "resource1")
+      .put("version", 1234567890123L)
+      .put("trashed", false)
+      .putNull("parentId")
+      .put("name", "Élève \"quoted\" \\ 日本 😀")
+      .put("contentHtml", "<p>hello</p>")
+      .put("rights", new JsonArray().add("creator:user1").add("read:group1"))
+      .put("subresources", new JsonArray().add(new JsonObject().put("id", 1).put("content", "sub")).add(new JsonObject()))
+      .put("override", new JsonObject().put("ratio", 0.5));
+    assertEquals(document.toBuffer().length(), JsonSizeEstimator.estimate(document));
+    assertEquals(new JsonObject().toBuffer().length(), JsonSizeEstimator.estimate(new JsonObject()));
+  }
+}
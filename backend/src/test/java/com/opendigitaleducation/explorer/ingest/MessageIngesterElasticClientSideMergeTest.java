@@ -0,0 +1,72 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIngesterElasticClientSideMergeTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that an upsert older than the version held by the Postgres backup is detected as stale and that only the
+   *    upserts of the version held by the backup are sent as partial updates.
+   *  </p>
+   */
+  @Test
+  public void testVersionIsCheckedAgainstTheBackup() {
+    final List<MessageIngesterElasticOperation> stale = operations(upsert(2, 3L));
+    assertTrue("An upsert older than the backup should not be sent", MessageIngesterElastic.isStale(stale));
+    final List<MessageIngesterElasticOperation> latest = operations(upsert(3, 3L));
+    assertFalse(MessageIngesterElastic.isStale(latest));
+    assertTrue("The latest version should be sent as a partial update", isClientSideMerge(latest));
+    final List<MessageIngesterElasticOperation> unknown = operations(upsert(3, null));
+    assertFalse(MessageIngesterElastic.isStale(unknown));
+    assertFalse("An upsert whose version is unknown should keep the stored script", isClientSideMerge(unknown));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that upserts which skip the version check or carry subresources are never dropped nor sent as partial
+   *    updates.
+   *  </p>
+   */
+  @Test
+  public void testUpsertsNeedingTheScriptAreKept() {
+    final ExplorerMessageForIngest skipCheckVersion = upsert(2, 3L);
+    skipCheckVersion.getMessage().put("skipCheckVersion", true);
+    final List<MessageIngesterElasticOperation> skipped = operations(skipCheckVersion);
+    assertFalse(MessageIngesterElastic.isStale(skipped));
+    assertFalse(isClientSideMerge(skipped));
+    final ExplorerMessageForIngest withSubresources = upsert(3, 3L);
+    withSubresources.getMessage().put("subresources", new JsonArray().add(new JsonObject().put("id", "s1").put("version", 3)));
+    final List<MessageIngesterElasticOperation> subresources = operations(withSubresources);
+    assertFalse(MessageIngesterElastic.isStale(subresources));
+    assertFalse(isClientSideMerge(subresources));
+  }
+
+  private static List<MessageIngesterElasticOperation> operations(final ExplorerMessageForIngest message) {
+    return MessageIngesterElasticOperation.create(message);
+  }
+
+  private static boolean isClientSideMerge(final List<MessageIngesterElasticOperation> operations) {
+    return ((MessageIngesterElasticOperation.MessageIngesterElasticOperationUpsert) operations.get(0)).isClientSideMerge();
+  }
+
+  private static ExplorerMessageForIngest upsert(final long version, final Long backupVersion) {
+    final JsonObject json = new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog")
+      .put("name", "version " + version).put("version", version);
+    final ExplorerMessageForIngest message = new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + version, "r1", json);
+    if (backupVersion != null) {
+      message.setBackupVersion(backupVersion);
+    }
+    return message;
+  }
+}
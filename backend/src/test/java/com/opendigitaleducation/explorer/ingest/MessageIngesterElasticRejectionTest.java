@@ -0,0 +1,147 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.elasticsearch.ElasticClientManager;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.test.TestHelper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk requests are sent to a fake OpenSearch which rejects the items of the first requests as an overloaded node
+ * does (429 / es_rejected_execution_exception).
+ */
+@RunWith(VertxUnitRunner.class)
+public class MessageIngesterElasticRejectionTest {
+  private static final TestHelper test = TestHelper.helper();
+  private static final long BACKOFF_MS = 100L;
+  /** Number of the next bulk requests whose items are rejected.*/
+  private static final AtomicInteger nbRequestsToReject = new AtomicInteger();
+  /** Time at which each bulk request has been received.*/
+  private static final List<Long> bulkRequests = new CopyOnWriteArrayList<>();
+  static HttpServer server;
+  static ElasticClientManager elasticClientManager;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final Async async = context.async();
+    test.vertx().createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+      final boolean reject = request.path().endsWith("/_bulk") && nbRequestsToReject.getAndDecrement() > 0;
+      if (request.path().endsWith("/_bulk")) {
+        bulkRequests.add(System.currentTimeMillis());
+      }
+      final JsonArray items = new JsonArray();
+      for (final String line : body.toString().split("\n")) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        final JsonObject action = new JsonObject(line);
+        for (final String type : Arrays.asList("index", "create", "update", "delete")) {
+          if (action.containsKey(type)) {
+            final JsonObject item = new JsonObject().put("_index", action.getJsonObject(type).getString("_index"))
+              .put("_id", action.getJsonObject(type).getString("_id"));
+            if (reject) {
+              item.put("status", 429).put("error", new JsonObject()
+                .put("type", BulkIngestionStats.REJECTED_EXECUTION_EXCEPTION)
+                .put("reason", BulkIngestionStats.REJECTED_EXECUTION_EXCEPTION + ": rejected execution of coordinating operation"));
+            } else {
+              item.put("status", 200).put("result", "deleted");
+            }
+            items.add(new JsonObject().put(type, item));
+          }
+        }
+      }
+      final JsonObject response = new JsonObject().put("took", 1).put("errors", reject).put("items", items);
+      request.response().putHeader("Content-Type", "application/json").end(response.encode());
+    })).listen(0, context.asyncAssertSuccess(started -> {
+      server = started;
+      try {
+        elasticClientManager = new ElasticClientManager(test.vertx(), new URI[]{new URI("http://localhost:" + started.actualPort())});
+      } catch (Exception e) {
+        context.fail(e);
+      }
+      async.complete();
+    }));
+  }
+
+  @AfterClass
+  public static void tearDown(TestContext context) {
+    server.close(context.asyncAssertSuccess());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that operations rejected because OpenSearch is overloaded are sent again within the same cycle after
+   *    the configured backoff, that they succeed once OpenSearch accepts them and that the rejections are counted in
+   *    the statistics of the bulk.
+   *  </p>
+   */
+  @Test
+  public void testRejectedOperationsAreSentAgainAfterBackoff(final TestContext context) {
+    final Async async = context.async();
+    nbRequestsToReject.set(2);
+    bulkRequests.clear();
+    final MessageIngesterElastic ingester = ingester(3);
+    final ExplorerMessageForIngest message = delete("rejected_then_accepted");
+    ingester.ingest(Arrays.asList(message)).onComplete(context.asyncAssertSuccess(result -> {
+      context.assertEquals(3, bulkRequests.size(), "The rejected operation should be sent until it is accepted");
+      for (int i = 1; i < bulkRequests.size(); i++) {
+        context.assertTrue(bulkRequests.get(i) - bulkRequests.get(i - 1) >= BACKOFF_MS, "Retries should wait for the backoff");
+      }
+      context.assertEquals(Arrays.asList(message), result.getSucceed());
+      context.assertTrue(result.getFailed().isEmpty());
+      context.assertEquals(2, result.getBulkStats().getNbRejected());
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that operations which are still rejected once max-rejection-retries is reached are reported as failed
+   *    with the rejection so that the reader retries them later.
+   *  </p>
+   */
+  @Test
+  public void testRejectionsAreReportedOnceRetriesAreExhausted(final TestContext context) {
+    final Async async = context.async();
+    nbRequestsToReject.set(Integer.MAX_VALUE);
+    bulkRequests.clear();
+    final MessageIngesterElastic ingester = ingester(2);
+    final ExplorerMessageForIngest message = delete("always_rejected");
+    ingester.ingest(Arrays.asList(message)).onComplete(context.asyncAssertSuccess(result -> {
+      context.assertEquals(3, bulkRequests.size(), "The operation should be sent once then retried max-rejection-retries times");
+      context.assertTrue(result.getSucceed().isEmpty());
+      context.assertEquals(Arrays.asList(message), result.getFailed());
+      context.assertTrue(BulkIngestionStats.isRejection(message.getError()), "The rejection should be kept as the error of the message");
+      nbRequestsToReject.set(0);
+      async.complete();
+    }));
+  }
+
+  private static MessageIngesterElastic ingester(final int maxRejectionRetries) {
+    final JsonObject config = new JsonObject().put("opensearch-options", new JsonObject()
+      .put("max-rejection-retries", maxRejectionRetries)
+      .put("rejection-backoff", new JsonObject().put("base-ms", BACKOFF_MS).put("max-ms", BACKOFF_MS).put("jitter", 0)));
+    return new MessageIngesterElastic(elasticClientManager, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(), config);
+  }
+
+  private static ExplorerMessageForIngest delete(final String id) {
+    final JsonObject json = new JsonObject().put("application", "blog").put("resourceType", "blog").put("entityType", "blog").put("version", 1);
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Delete.name(), "q_" + id, id, json);
+  }
+}
@@ -0,0 +1,84 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIngesterElasticSplitTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that operations are grouped, in their original order, into bulk requests whose estimated payload stays
+   *    under the budget, that an operation bigger than the budget is sent alone and that a budget of 0 keeps all the
+   *    operations in one request.
+   *  </p>
+   */
+  @Test
+  public void testSplitByPayloadSize() {
+    final List<MessageIngesterElasticOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      operations.add(createOperation("small" + i, 100));
+    }
+    final MessageIngesterElasticOperation big = createOperation("big", 10000);
+    operations.add(5, big);
+    final long smallSize = operations.get(0).getPayloadSize();
+    final long budget = smallSize * 3;
+    final List<List<MessageIngesterElasticOperation>> bulks = MessageIngesterElastic.splitByPayloadSize(operations, budget);
+    final List<MessageIngesterElasticOperation> flattened = new ArrayList<>();
+    for (final List<MessageIngesterElasticOperation> bulk : bulks) {
+      final long bulkSize = bulk.stream().mapToLong(MessageIngesterElasticOperation::getPayloadSize).sum();
+      assertTrue(bulk.size() == 1 || bulkSize <= budget);
+      flattened.addAll(bulk);
+    }
+    assertEquals(operations, flattened);
+    assertTrue(bulks.stream().anyMatch(bulk -> bulk.size() == 1 && bulk.get(0) == big));
+    assertEquals(1, MessageIngesterElastic.splitByPayloadSize(operations, 0).size());
+    assertSame(operations, MessageIngesterElastic.splitByPayloadSize(operations, 0).get(0));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that operations are grouped by target index without changing their order within a group and that the
+   *    messages of the result can be put back in the order of their operations once the groups have been sent.
+   *  </p>
+   */
+  @Test
+  public void testPartitionByTargetKeepsOrder() {
+    final List<MessageIngesterElasticOperation> operations = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      operations.add(createOperation("app" + (i % 3), "op" + i, 10));
+    }
+    final Map<String, List<MessageIngesterElasticOperation>> partitions = MessageIngesterElastic.partitionByTarget(operations);
+    assertEquals(3, partitions.size());
+    final List<MessageIngesterElasticOperation> first = partitions.values().iterator().next();
+    assertEquals(Arrays.asList(operations.get(0), operations.get(3), operations.get(6)), first);
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    for (final List<MessageIngesterElasticOperation> partition : partitions.values()) {
+      partition.forEach(operation -> messages.add(operation.message));
+    }
+    MessageIngesterElastic.sortByOperationOrder(messages, operations);
+    for (int i = 0; i < operations.size(); i++) {
+      assertSame(operations.get(i).message, messages.get(i));
+    }
+  }
+
+  private static MessageIngesterElasticOperation createOperation(final String id, final int contentSize) {
+    return createOperation("blog", id, contentSize);
+  }
+
+  private static MessageIngesterElasticOperation createOperation(final String application, final String id, final int contentSize) {
+    final JsonObject json = new JsonObject().put("application", application).put("resourceType", application).put("content", StringUtils.repeat('a', contentSize));
+    return new MessageIngesterElasticOperation.MessageIngesterElasticOperationNoop(new ExplorerMessageForIngest("Upsert", id, id, json));
+  }
+}
@@ -0,0 +1,91 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.common.explorer.IdAndVersion;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.common.user.UserInfos;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(VertxUnitRunner.class)
+public class MessageIngesterPostgresTest {
+  private static final TestHelper test = TestHelper.helper();
+  private static final String APPLICATION = "pipelined";
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static IPostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final Async async = context.async();
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).onComplete(context.asyncAssertSuccess(client -> {
+      postgresClient = client;
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that when the backup is pipelined, the upserts and deletions of a batch are written in one transaction,
+   *    that the messages written in Postgres are handed to OpenSearch and that the deleted resources are removed once
+   *    OpenSearch succeeded.
+   *  </p>
+   */
+  @Test
+  public void testPipelinedBackupWritesTheBatch(final TestContext context) {
+    final Async async = context.async();
+    final List<String> statements = new ArrayList<>();
+    final IngestJobMetricsRecorder recorder = new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder() {
+      @Override
+      public void onIngestPostgresStatement(final String statement, final long elapsedTime) {
+        statements.add(statement);
+      }
+    };
+    final List<ExplorerMessageForIngest> sentToOpenSearch = new ArrayList<>();
+    final MessageIngester openSearch = messages -> {
+      sentToOpenSearch.addAll(messages);
+      return Future.succeededFuture(new IngestJob.IngestJobResult(new ArrayList<>(messages), new ArrayList<>(), new ArrayList<>()));
+    };
+    final JsonObject config = new JsonObject().put("postgres-backup", new JsonObject().put("pipelined", true));
+    final MessageIngesterPostgres ingester = new MessageIngesterPostgres(postgresClient, openSearch, recorder, config);
+    final UserInfos user = test.directory().generateUser("pipelined");
+    final ExplorerMessageForIngest deleted = upsert("pipelined_deleted", user);
+    final List<ExplorerMessageForIngest> firstBatch = Arrays.asList(upsert("pipelined_1", user), deleted);
+    ingester.ingest(firstBatch).compose(first -> {
+      context.assertEquals(2, first.getSucceed().size());
+      final ExplorerMessageForIngest delete = new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Delete.name(), "q_delete", deleted.getId(), deleted.getMessage().copy());
+      return ingester.ingest(Arrays.asList(upsert("pipelined_2", user), delete));
+    }).compose(second -> {
+      context.assertEquals(2, second.getSucceed().size());
+      context.assertTrue(second.getFailed().isEmpty());
+      return postgresClient.preparedQuery("SELECT ent_id FROM explorer.resources WHERE application = $1 ORDER BY ent_id", Tuple.of(APPLICATION));
+    }).onComplete(context.asyncAssertSuccess(rows -> {
+      final List<String> entIds = new ArrayList<>();
+      rows.forEach(row -> entIds.add(row.getString("ent_id")));
+      context.assertEquals(Arrays.asList("pipelined_1", "pipelined_2"), entIds);
+      context.assertEquals(4, sentToOpenSearch.size(), "Every message written in Postgres should be sent to OpenSearch");
+      context.assertEquals(2, statements.stream().filter("transaction"::equals).count(), "Each batch should be written in one transaction");
+      async.complete();
+    }));
+  }
+
+  private static ExplorerMessageForIngest upsert(final String id, final UserInfos user) {
+    return new ExplorerMessageForIngest(ExplorerMessage.upsert(new IdAndVersion(id, 1), user, false, APPLICATION, APPLICATION, APPLICATION).withCreator(user));
+  }
+}
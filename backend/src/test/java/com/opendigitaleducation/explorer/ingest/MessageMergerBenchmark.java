@@ -0,0 +1,140 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import com.opendigitaleducation.explorer.ingest.impl.DefaultMessageMerger;
+import com.opendigitaleducation.explorer.ingest.impl.NoopMessageMerger;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.elasticsearch.ElasticClientManager;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.test.TestHelper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bulk requests, bulk items and bytes sent to a fake OpenSearch for the same batch of messages with and
+ * without merging them.
+ * Not named after the tests so that it is only run on demand : {@code mvn test -Dtest=MessageMergerBenchmark}
+ */
+@RunWith(VertxUnitRunner.class)
+public class MessageMergerBenchmark {
+  private static final TestHelper test = TestHelper.helper();
+  private static final int NB_RESOURCES = 100;
+  private static final int NB_EDITS_PER_RESOURCE = 10;
+  private static final AtomicLong nbBulkRequests = new AtomicLong();
+  private static final AtomicLong nbBulkItems = new AtomicLong();
+  private static final AtomicLong nbBytes = new AtomicLong();
+  static HttpServer server;
+  static ElasticClientManager elasticClientManager;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final Async async = context.async();
+    test.vertx().createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+      final JsonArray items = new JsonArray();
+      if (request.path().endsWith("/_bulk")) {
+        nbBulkRequests.incrementAndGet();
+        nbBytes.addAndGet(body.length());
+        for (final String line : body.toString().split("\n")) {
+          if (line.trim().isEmpty()) {
+            continue;
+          }
+          final JsonObject action = new JsonObject(line);
+          for (final String type : Arrays.asList("index", "create", "update", "delete")) {
+            if (action.containsKey(type) && action.getValue(type) instanceof JsonObject && action.getJsonObject(type).containsKey("_id")) {
+              nbBulkItems.incrementAndGet();
+              items.add(new JsonObject().put(type, new JsonObject()
+                .put("_index", action.getJsonObject(type).getString("_index"))
+                .put("_id", action.getJsonObject(type).getString("_id"))
+                .put("status", 200).put("result", "updated")));
+            }
+          }
+        }
+      }
+      final JsonObject response = new JsonObject().put("took", 1).put("errors", false).put("items", items);
+      request.response().putHeader("Content-Type", "application/json").end(response.encode());
+    })).listen(0, context.asyncAssertSuccess(started -> {
+      server = started;
+      try {
+        elasticClientManager = new ElasticClientManager(test.vertx(), new URI[]{new URI("http://localhost:" + started.actualPort())});
+      } catch (Exception e) {
+        context.fail(e);
+      }
+      async.complete();
+    }));
+  }
+
+  @AfterClass
+  public static void tearDown(TestContext context) {
+    server.close(context.asyncAssertSuccess());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Compare what is sent to OpenSearch for a batch where {@value NB_RESOURCES} resources are edited
+   *    {@value NB_EDITS_PER_RESOURCE} times each (autosave-like pattern) when the messages are merged by the default
+   *    merger and when they are not, and ensure that merging sends one bulk item per resource.
+   *  </p>
+   */
+  @Test
+  public void benchmarkBulkOperationsReduction(final TestContext context) {
+    final Async async = context.async();
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    int idQueue = 0;
+    for (int edit = 1; edit <= NB_EDITS_PER_RESOURCE; edit++) {
+      for (int resource = 0; resource < NB_RESOURCES; resource++) {
+        messages.add(upsert("q" + (idQueue++), "r" + resource, edit));
+      }
+    }
+    final MergeMessagesResult notMerged = new NoopMessageMerger().mergeMessages(messages);
+    final MergeMessagesResult merged = new DefaultMessageMerger().mergeMessages(messages);
+    measure(notMerged).compose(withoutMerge -> measure(merged).map(withMerge -> {
+      System.out.println("[MessageMergerBenchmark] messages=" + messages.size() +
+        " without merge: " + withoutMerge.encode() + " with merge: " + withMerge.encode());
+      context.assertEquals((long) messages.size(), withoutMerge.getLong("items"));
+      context.assertEquals((long) NB_RESOURCES, withMerge.getLong("items"), "One bulk item per resource should be sent once merged");
+      context.assertTrue(withMerge.getLong("bytes") < withoutMerge.getLong("bytes"));
+      return null;
+    })).onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  /**
+   * @return The number of bulk requests, bulk items and bytes sent to ingest the messages to treat
+   */
+  private Future<JsonObject> measure(final MergeMessagesResult result) {
+    nbBulkRequests.set(0);
+    nbBulkItems.set(0);
+    nbBytes.set(0);
+    final JsonObject config = new JsonObject().put("opensearch-options", new JsonObject().put("max-bulk-bytes", 64 * 1024));
+    final MessageIngesterElastic ingester = new MessageIngesterElastic(elasticClientManager, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(), config);
+    return ingester.ingest(result.getMessagesToTreat()).map(ingested -> new JsonObject()
+      .put("requests", nbBulkRequests.get())
+      .put("items", nbBulkItems.get())
+      .put("bytes", nbBytes.get())
+      .put("succeed", ingested.getSucceed().size()));
+  }
+
+  private static ExplorerMessageForIngest upsert(final String idQueue, final String id, final long version) {
+    final JsonObject json = new JsonObject()
+      .put("application", "blog")
+      .put("resourceType", "blog")
+      .put("entityType", "blog")
+      .put("name", "edit " + version)
+      .put("contentPlain", "content of " + id + " at version " + version)
+      .put("version", version);
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), idQueue, id, json);
+  }
+}
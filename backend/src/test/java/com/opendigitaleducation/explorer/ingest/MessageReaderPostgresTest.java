@@ -0,0 +1,243 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+@RunWith(VertxUnitRunner.class)
+public class MessageReaderPostgresTest {
+  private static final TestHelper test = TestHelper.helper();
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static IPostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final Async async = context.async();
+    // function of the trigger installed by the readers when notify-fetch is enabled
+    final String notifyFunction = test.vertx().fileSystem().readFileBlocking("sql/013-resource-queue-notify.sql").toString();
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).compose(client -> {
+      postgresClient = client;
+      return client.preparedQuery(notifyFunction, Tuple.tuple());
+    }).onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that messages read under an assignment are fenced once the assignment of the worker changes and that no
+   *    message is read while the partition is handed over.
+   *  </p>
+   */
+  @Test
+  public void testMessagesAreFencedWhenAssignmentChanges(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres reader = new MessageReaderPostgres(postgresClient, new JsonObject());
+    reader.onPartitionAssigned(IngestWorkerCoordinator.Assignment.SINGLE);
+    insert("fenced").compose(e -> reader.getIncomingMessages(1000)).compose(read -> {
+      final List<ExplorerMessageForIngest> messages = ofResource(read, "fenced");
+      context.assertEquals(1, messages.size());
+      context.assertTrue(reader.isStillAssigned(messages));
+      // same assignment notified twice (listener and start of the coordinator)
+      reader.onPartitionAssigned(IngestWorkerCoordinator.Assignment.SINGLE);
+      context.assertTrue(reader.isStillAssigned(messages));
+      reader.onPartitionAssigned(IngestWorkerCoordinator.Assignment.NONE);
+      context.assertFalse(reader.isStillAssigned(messages));
+      reader.releaseMessages(read);
+      return reader.getIncomingMessages(1000);
+    }).onComplete(context.asyncAssertSuccess(read -> {
+      context.assertTrue(read.isEmpty(), "No message should be read while the partition is handed over");
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that messages claimed by a reader are not read by another reader while the lease of the claim lasts.
+   *  </p>
+   */
+  @Test
+  public void testClaimedMessagesAreNotReadByOtherReaders(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres readerA = claimingReader("claim_a", 60000L);
+    final MessageReaderPostgres readerB = claimingReader("claim_b", 60000L);
+    insert("claimed").compose(e -> readerA.getIncomingMessages(1000)).compose(readByA -> {
+      context.assertEquals(1, ofResource(readByA, "claimed").size());
+      return readerB.getIncomingMessages(1000);
+    }).onComplete(context.asyncAssertSuccess(readByB -> {
+      context.assertTrue(ofResource(readByB, "claimed").isEmpty(), "A claimed message should not be read by another reader");
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that messages whose lease expired are claimed again by another reader and that the reader whose lease
+   *    expired cannot update their status anymore while the new owner can.
+   *  </p>
+   */
+  @Test
+  public void testExpiredClaimIsReclaimedAndFenced(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres readerA = claimingReader("expired_a", 1L);
+    final MessageReaderPostgres readerB = claimingReader("expired_b", 60000L);
+    insert("reclaimed").compose(e -> readerA.getIncomingMessages(1000)).compose(readByA -> {
+      final List<ExplorerMessageForIngest> messagesOfA = ofResource(readByA, "reclaimed");
+      context.assertEquals(1, messagesOfA.size());
+      final Promise<List<ExplorerMessageForIngest>> expired = Promise.promise();
+      test.vertx().setTimer(100L, t -> readerB.getIncomingMessages(1000).onComplete(expired));
+      return expired.future().compose(readByB -> {
+        final List<ExplorerMessageForIngest> messagesOfB = ofResource(readByB, "reclaimed");
+        context.assertEquals(1, messagesOfB.size(), "A message whose lease expired should be claimed again");
+        context.assertEquals(messagesOfA.get(0).getIdQueue(), messagesOfB.get(0).getIdQueue());
+        final Long id = Long.valueOf(messagesOfB.get(0).getIdQueue().get());
+        // the previous owner fails the message : its update must be ignored
+        return readerA.updateStatus(new IngestJob.IngestJobResult(new ArrayList<>(), messagesOfA, new ArrayList<>()), 5)
+          .compose(ee -> status(id))
+          .compose(row -> {
+            context.assertEquals(MessageReaderPostgres.STATUS_PENDING, row.getInteger("attempt_status").intValue());
+            context.assertEquals(0, row.getInteger("attempted_count"));
+            return readerB.updateStatus(new IngestJob.IngestJobResult(messagesOfB, new ArrayList<>(), new ArrayList<>()), 5);
+          })
+          .compose(ee -> status(id));
+      });
+    }).onComplete(context.asyncAssertSuccess(row -> {
+      context.assertEquals(MessageReaderPostgres.STATUS_SUCCESS, row.getInteger("attempt_status").intValue());
+      context.assertEquals("expired_b", row.getString("claimed_by"));
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the trigger publishing the ids of new messages is installed by the readers which fetch them by id
+   *    and is not dropped by the other ones (nodes with different configurations would otherwise lock the queue in
+   *    turn).
+   *  </p>
+   */
+  @Test
+  public void testNotifyTriggerIsOnlyInstalledWhenEnabled(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres notifiedReader = new MessageReaderPostgres(postgresClient, notifyConfig());
+    final MessageReaderPostgres scanningReader = new MessageReaderPostgres(postgresClient, new JsonObject());
+    notifiedReader.start().compose(e -> hasNotifyTrigger()).compose(installed -> {
+      context.assertTrue(installed, "The trigger should be installed when notify-fetch is enabled");
+      return scanningReader.start().compose(e -> hasNotifyTrigger());
+    }).onComplete(context.asyncAssertSuccess(installed -> {
+      context.assertTrue(installed, "The trigger should not be dropped by a reader whose notify-fetch is disabled");
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a message whose id is notified after it has been read by a scan is not read again while it is
+   *    being ingested.
+   *  </p>
+   */
+  @Test
+  public void testNotifiedMessagesInFlightAreNotReadAgain(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres reader = new MessageReaderPostgres(postgresClient, notifyConfig());
+    insert("notified_in_flight").compose(id -> reader.getIncomingMessages(1000).compose(scanned -> {
+      context.assertEquals(1, ofResource(scanned, "notified_in_flight").size());
+      // the notification of the insert arrives after the scan
+      reader.onIdsNotified(range(id));
+      return reader.getIncomingMessages(1000);
+    })).onComplete(context.asyncAssertSuccess(read -> {
+      context.assertTrue(ofResource(read, "notified_in_flight").isEmpty(), "A message in flight should not be read again");
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the ids of new messages are kept when they could not be fetched so that the messages are read by
+   *    the next fetch instead of waiting for the next scan of the queue.
+   *  </p>
+   */
+  @Test
+  public void testNotifiedIdsAreKeptWhenFetchFails(final TestContext context) {
+    final Async async = context.async();
+    final AtomicBoolean failed = new AtomicBoolean();
+    final MessageReaderPostgres reader = new MessageReaderPostgres(postgresClient, notifyConfig()) {
+      @Override
+      Future<List<ExplorerMessageForIngest>> fetch(final int maxBatchSize, final Optional<Integer> maxAttempt, final String attemptFilter, final Optional<Long[]> ids) {
+        if (ids.isPresent() && failed.compareAndSet(false, true)) {
+          return Future.failedFuture("fetch.failed");
+        }
+        return super.fetch(maxBatchSize, maxAttempt, attemptFilter, ids);
+      }
+    };
+    // first scan of the queue
+    reader.getIncomingMessages(1000).compose(e -> insert("notified_retried")).compose(id -> {
+      reader.onIdsNotified(range(id));
+      return reader.getIncomingMessages(1000).transform(first -> {
+        context.assertTrue(first.failed());
+        return reader.getIncomingMessages(1000);
+      });
+    }).onComplete(context.asyncAssertSuccess(read -> {
+      context.assertEquals(1, ofResource(read, "notified_retried").size(), "Notified ids should be fetched again after a failure");
+      async.complete();
+    }));
+  }
+
+  private static JsonObject notifyConfig() {
+    return new JsonObject().put("notify-fetch", new JsonObject().put("enabled", true));
+  }
+
+  private static String range(final Long id) {
+    return new JsonObject().put("min", id).put("max", id).put("count", 1).encode();
+  }
+
+  private Future<Boolean> hasNotifyTrigger() {
+    return postgresClient.preparedQuery("SELECT COUNT(*) AS nb FROM pg_trigger WHERE tgname = $1", Tuple.of(MessageReaderPostgres.NOTIFY_TRIGGER))
+      .map(rows -> rows.iterator().next().getLong("nb") > 0);
+  }
+
+  private static MessageReaderPostgres claimingReader(final String owner, final long leaseMs) {
+    final JsonObject config = new JsonObject()
+      .put("consumer-instance-id", owner)
+      .put("claim", new JsonObject().put("enabled", true).put("lease-ms", leaseMs));
+    return new MessageReaderPostgres(postgresClient, config);
+  }
+
+  private Future<Row> status(final Long id) {
+    return postgresClient.preparedQuery("SELECT attempt_status, attempted_count, claimed_by FROM explorer.resource_queue WHERE id = $1", Tuple.of(id))
+      .map(rows -> rows.iterator().next());
+  }
+
+  private Future<Long> insert(final String idResource) {
+    final String query = "INSERT INTO explorer.resource_queue (id_resource, created_at, resource_action, payload, priority) " +
+      "VALUES ($1, NOW(), 'Upsert', json_build_object('application', 'blog', 'resourceType', 'blog', 'entityType', 'blog', 'version', 1)::jsonb, 0) RETURNING id";
+    return postgresClient.preparedQuery(query, Tuple.of(idResource)).map(rows -> rows.iterator().next().getLong("id"));
+  }
+
+  private static List<ExplorerMessageForIngest> ofResource(final List<ExplorerMessageForIngest> messages, final String idResource) {
+    return messages.stream().filter(message -> idResource.equals(message.getId())).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,245 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.redis.client.Response;
+import org.entcore.common.redis.RedisClient;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class MessageReaderRedisTest {
+  private static final TestHelper test = TestHelper.helper();
+  @ClassRule
+  public static GenericContainer redisContainer = new GenericContainer(DockerImageName.parse("redis:5.0.3-alpine")).withExposedPorts(6379);
+  static RedisClient redisClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) {
+    final JsonObject redisConfig = new JsonObject().put("host", redisContainer.getHost()).put("port", redisContainer.getMappedPort(6379));
+    redisClient = new RedisClient(test.vertx(), redisConfig);
+    redisClient.getClient().flushall(new ArrayList<>(), context.asyncAssertSuccess());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the IDLE filter of XPENDING is only used with Redis 6.2+, that pending entries are paged by id
+   *    without exclusive ranges and that the cluster mode is detected.
+   *  </p>
+   */
+  @Test
+  public void testServerInfoIsParsed() {
+    assertFalse(MessageReaderRedis.isPendingIdleSupported("# Server\r\nredis_version:5.0.3\r\nredis_mode:standalone\r\n"));
+    assertFalse(MessageReaderRedis.isPendingIdleSupported("# Server\r\nredis_version:6.0.16\r\n"));
+    assertTrue(MessageReaderRedis.isPendingIdleSupported("# Server\r\nredis_version:6.2.0\r\n"));
+    assertTrue(MessageReaderRedis.isPendingIdleSupported("# Server\nredis_version:7.2.4\n"));
+    assertFalse(MessageReaderRedis.isPendingIdleSupported("# Server\r\n"));
+    assertFalse(MessageReaderRedis.isPendingIdleSupported(null));
+    assertEquals("1700000000000-1", MessageReaderRedis.getNextId("1700000000000-0"));
+    assertEquals("1700000000000-10", MessageReaderRedis.getNextId("1700000000000-9"));
+    assertTrue(MessageReaderRedis.isClusterEnabled("# Cluster\r\ncluster_enabled:1\r\n"));
+    assertFalse(MessageReaderRedis.isClusterEnabled("# Cluster\r\ncluster_enabled:0\r\n"));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that succeeded messages are acknowledged and deleted from their stream by the script, even when the
+   *    server does not know the script anymore (restart or SCRIPT FLUSH).
+   *  </p>
+   */
+  @Test
+  public void testSucceededMessagesAreAcknowledgedAndDeleted(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderRedis reader = new MessageReaderRedis(test.vertx(), redisClient, config("ack_stream", "ack_group"));
+    ready(reader)
+      .compose(e -> addMessages("ack_stream", "ack1", "ack2", "ack3"))
+      .compose(e -> reader.getIncomingMessages(10))
+      .compose(read -> {
+        context.assertEquals(3, read.size());
+        return redisClient.getClient().script(Collections.singletonList("FLUSH"))
+          .compose(e -> reader.updateStatus(new IngestJob.IngestJobResult(read, new ArrayList<>(), new ArrayList<>()), 5));
+      })
+      .compose(e -> redisClient.getClient().xlen("ack_stream"))
+      .compose(length -> {
+        context.assertEquals(0L, length.toLong(), "Succeeded messages should be deleted from the stream");
+        return redisClient.getClient().xpending(Arrays.asList("ack_stream", "ack_group"));
+      }).onComplete(context.asyncAssertSuccess(pending -> {
+        context.assertEquals(0L, pending.get(0).toLong(), "Succeeded messages should be acknowledged");
+        async.complete();
+      }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a failed message waits in the delayed set until its retry is due, is then promoted to the fail
+   *    stream and that the counter of failed messages follows it until it succeeds.
+   *  </p>
+   */
+  @Test
+  public void testFailedMessageIsDelayedThenPromoted(final TestContext context) {
+    final Async async = context.async();
+    final JsonObject config = config("retry_stream", "retry_group")
+      .put("retry-backoff", new JsonObject().put("base-ms", 300).put("max-ms", 300).put("jitter", 0));
+    final MessageReaderRedis reader = new MessageReaderRedis(test.vertx(), redisClient, config);
+    final String delayedSet = "retry_stream" + MessageReaderRedis.DEFAULT_STREAM_FAIL + MessageReaderRedis.DEFAULT_STREAM_DELAYED;
+    final String countersKey = "retry_group" + MessageReaderRedis.DEFAULT_FAILED_COUNTERS_SUFFIX;
+    ready(reader)
+      .compose(e -> addMessages("retry_stream", "retry1"))
+      .compose(e -> reader.getIncomingMessages(10))
+      .compose(read -> {
+        context.assertEquals(1, read.size());
+        reader.releaseMessages(read);
+        return reader.updateStatus(new IngestJob.IngestJobResult(new ArrayList<>(), read, new ArrayList<>()), 5);
+      })
+      .compose(e -> redisClient.getClient().zcard(delayedSet))
+      .compose(delayed -> {
+        context.assertEquals(1L, delayed.toLong(), "A failed message should wait in the delayed set");
+        return redisClient.getClient().hget(countersKey, "1");
+      })
+      .compose(counter -> {
+        context.assertEquals(1L, counter.toLong());
+        return reader.getFailedMessages(10, 5);
+      })
+      .compose(notDue -> {
+        context.assertTrue(notDue.isEmpty(), "A retry should not be read before it is due");
+        return delay(400L).compose(e -> reader.getFailedMessages(10, 5));
+      })
+      .compose(due -> {
+        context.assertEquals(1, due.size(), "A due retry should be promoted to the fail stream");
+        context.assertEquals("retry1", due.get(0).getId());
+        context.assertEquals(1, due.get(0).getAttemptCount());
+        return redisClient.getClient().zcard(delayedSet).compose(delayed -> {
+          context.assertEquals(0L, delayed.toLong());
+          reader.releaseMessages(due);
+          return reader.updateStatus(new IngestJob.IngestJobResult(due, new ArrayList<>(), new ArrayList<>()), 5);
+        });
+      })
+      .compose(e -> redisClient.getClient().hget(countersKey, "1"))
+      .onComplete(context.asyncAssertSuccess(counter -> {
+        context.assertEquals(0L, counter.toLong(), "The counter should be decremented once the retry succeeded");
+        async.complete();
+      }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a message added to a fail stream before the counters of failed messages existed does not make its
+   *    counter negative once it succeeds.
+   *  </p>
+   */
+  @Test
+  public void testCounterOfUncountedFailedMessageIsNotNegative(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderRedis reader = new MessageReaderRedis(test.vertx(), redisClient, config("legacy_stream", "legacy_group"));
+    final String countersKey = "legacy_group" + MessageReaderRedis.DEFAULT_FAILED_COUNTERS_SUFFIX;
+    final JsonObject legacy = new JsonObject().put("resource_action", "Upsert").put("id_resource", "legacy1")
+      .put("payload", new JsonObject().put("application", "blog").put("resourceType", "blog").encode()).put("attempt_count", "2");
+    ready(reader)
+      .compose(e -> redisClient.xAdd("legacy_stream" + MessageReaderRedis.DEFAULT_STREAM_FAIL, Collections.singletonList(legacy)))
+      .compose(e -> reader.getFailedMessages(10, 5))
+      .compose(read -> {
+        context.assertEquals(1, read.size());
+        reader.releaseMessages(read);
+        return reader.updateStatus(new IngestJob.IngestJobResult(read, new ArrayList<>(), new ArrayList<>()), 5);
+      })
+      .compose(e -> redisClient.getClient().hget(countersKey, "2"))
+      .onComplete(context.asyncAssertSuccess(counter -> {
+        context.assertTrue(counter == null || counter.toLong() == 0L, "The counter should not be decremented below zero");
+        async.complete();
+      }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the entries pending on a consumer which stopped reading are claimed by a live consumer once they
+   *    have been idle long enough (filtered by the reader on this server which does not support XPENDING IDLE).
+   *  </p>
+   */
+  @Test
+  public void testIdleEntriesOfDeadConsumerAreReclaimed(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderRedis dead = new MessageReaderRedis(test.vertx(), redisClient, config("reclaim_stream", "reclaim_group")
+      .put("consumer-name", "dead"));
+    final MessageReaderRedis live = new MessageReaderRedis(test.vertx(), redisClient, config("reclaim_stream", "reclaim_group")
+      .put("consumer-name", "live").put("reclaim-min-idle-ms", 300));
+    ready(dead)
+      .compose(e -> ready(live))
+      .compose(e -> addMessages("reclaim_stream", "reclaim1", "reclaim2"))
+      .compose(e -> dead.getIncomingMessages(10))
+      .compose(read -> {
+        context.assertEquals(2, read.size());
+        return live.reclaimIdleEntries();
+      })
+      .compose(nbClaimed -> {
+        context.assertEquals(0, nbClaimed, "Entries should not be claimed before they are idle");
+        return delay(400L).compose(e -> live.reclaimIdleEntries());
+      })
+      .compose(nbClaimed -> {
+        context.assertEquals(2, nbClaimed);
+        return redisClient.getClient().xpending(Arrays.asList("reclaim_stream", "reclaim_group", "-", "+", "10"));
+      })
+      .compose(pending -> {
+        context.assertEquals(2, pending.size());
+        for (final Response entry : pending) {
+          context.assertEquals("live", entry.get(1).toString());
+        }
+        return live.getIncomingMessages(10);
+      }).onComplete(context.asyncAssertSuccess(read -> {
+        context.assertEquals(2, read.size(), "Claimed entries should be read by the live consumer");
+        async.complete();
+      }));
+  }
+
+  private static JsonObject config(final String stream, final String group) {
+    return new JsonObject()
+      .put("streams", new JsonArray().add(stream))
+      .put("consumer-group", group)
+      .put("reclaim-interval-ms", 0);
+  }
+
+  /**
+   * Wait until the group of the reader has been created (without listening to the streams in the background).
+   */
+  private static Future<Integer> ready(final MessageReaderRedis reader) {
+    return reader.reclaimIdleEntries();
+  }
+
+  private static Future<List<String>> addMessages(final String stream, final String... ids) {
+    final List<JsonObject> messages = new ArrayList<>();
+    for (final String id : ids) {
+      final JsonObject payload = new JsonObject().put("application", "blog").put("resourceType", "blog").put("name", id);
+      messages.add(new JsonObject().put("resource_action", "Upsert").put("id_resource", id).put("payload", payload.encode()));
+    }
+    return redisClient.xAdd(stream, messages);
+  }
+
+  private static Future<Void> delay(final long delayMs) {
+    final Promise<Void> promise = Promise.promise();
+    test.vertx().setTimer(delayMs, e -> promise.complete());
+    return promise.future();
+  }
+}
@@ -0,0 +1,133 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(VertxUnitRunner.class)
+public class ResourceQueueArchiverTest {
+  private static final TestHelper test = TestHelper.helper();
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorerPartitioned.sql").withReuse(true);
+  static IPostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final Async async = context.async();
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).onComplete(context.asyncAssertSuccess(client -> {
+      postgresClient = client;
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that when archiving is enabled, the partitions of the next days are created, the old partitions whose
+   *    rows have all been processed are dropped while the ones holding pending rows are kept, the processed rows of the
+   *    default partition are deleted and the readers are given the day before the oldest pending row.
+   *  </p>
+   */
+  @Test
+  public void testProcessedPartitionsAreArchived(final TestContext context) {
+    final Async async = context.async();
+    final LocalDate today = LocalDate.now();
+    final LocalDate processedDay = today.minusDays(10);
+    final LocalDate pendingDay = today.minusDays(9);
+    final LocalDate defaultDay = today.plusDays(30);
+    final AtomicReference<LocalDateTime> hotSince = new AtomicReference<>();
+    final JsonObject config = new JsonObject().put("archiver", new JsonObject().put("enabled", true).put("drop", true).put("retention-days", 1));
+    final ResourceQueueArchiver archiver = new ResourceQueueArchiver(test.vertx(), postgresClient, config, hotSince::set);
+    // rows left by a previous run of a reused container
+    postgresClient.preparedQuery("DELETE FROM explorer.resource_queue WHERE id_resource = 'archived'", Tuple.tuple())
+      .compose(e -> createPartition(processedDay))
+      .compose(e -> createPartition(pendingDay))
+      .compose(e -> insert(processedDay, MessageReaderPostgres.STATUS_SUCCESS))
+      .compose(e -> insert(pendingDay, MessageReaderPostgres.STATUS_PENDING))
+      .compose(e -> insert(defaultDay, MessageReaderPostgres.STATUS_SUCCESS))
+      .compose(e -> insert(defaultDay, MessageReaderPostgres.STATUS_PENDING))
+      .compose(e -> archiver.run())
+      .compose(e -> partitions())
+      .compose(partitions -> {
+        context.assertFalse(partitions.contains(partitionName(processedDay)), "A processed partition should be dropped");
+        context.assertTrue(partitions.contains(partitionName(pendingDay)), "A partition holding pending rows should be kept");
+        for (int i = 0; i <= ResourceQueueArchiver.DEFAULT_PARTITIONS_AHEAD; i++) {
+          context.assertTrue(partitions.contains(partitionName(today.plusDays(i))), "The partitions of the next days should be created");
+        }
+        return postgresClient.preparedQuery("SELECT attempt_status FROM explorer.resource_queue_default", Tuple.tuple());
+      })
+      .onComplete(context.asyncAssertSuccess(rows -> {
+        context.assertEquals(1, rows.size(), "Only the pending row of the default partition should be kept");
+        context.assertEquals(MessageReaderPostgres.STATUS_PENDING, rows.iterator().next().getInteger("attempt_status").intValue());
+        context.assertEquals(pendingDay.minusDays(1).atStartOfDay(), hotSince.get());
+        async.complete();
+      }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that processed partitions are kept when archiving has not been enabled.
+   *  </p>
+   */
+  @Test
+  public void testArchivingIsOptIn(final TestContext context) {
+    final Async async = context.async();
+    final LocalDate processedDay = LocalDate.now().minusDays(20);
+    final ResourceQueueArchiver archiver = new ResourceQueueArchiver(test.vertx(), postgresClient, new JsonObject(), hotSince -> {});
+    createPartition(processedDay)
+      .compose(e -> insert(processedDay, MessageReaderPostgres.STATUS_SUCCESS))
+      .compose(e -> archiver.run())
+      .compose(e -> partitions())
+      .onComplete(context.asyncAssertSuccess(partitions -> {
+        context.assertTrue(partitions.contains(partitionName(processedDay)), "Partitions should only be archived when it is enabled");
+        async.complete();
+      }));
+  }
+
+  private static String partitionName(final LocalDate day) {
+    return ResourceQueueArchiver.PARTITION_PREFIX + day.format(ResourceQueueArchiver.PARTITION_SUFFIX_FORMAT);
+  }
+
+  private Future<Void> createPartition(final LocalDate day) {
+    final String query = String.format("CREATE TABLE IF NOT EXISTS explorer.%s PARTITION OF explorer.resource_queue FOR VALUES FROM ('%s') TO ('%s')",
+      partitionName(day), day, day.plusDays(1));
+    return postgresClient.preparedQuery(query, Tuple.tuple()).mapEmpty();
+  }
+
+  private Future<Void> insert(final LocalDate day, final int status) {
+    final String query = "INSERT INTO explorer.resource_queue (id_resource, created_at, resource_action, payload, priority, attempt_status) " +
+      "VALUES ('archived', $1, 'Upsert', '{}'::jsonb, 0, $2)";
+    return postgresClient.preparedQuery(query, Tuple.of(day.atTime(12, 0), status)).mapEmpty();
+  }
+
+  private Future<Set<String>> partitions() {
+    final String query = "SELECT c.relname AS name FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+      "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = 'resource_queue'";
+    return postgresClient.preparedQuery(query, Tuple.tuple()).map(rows -> {
+      final Set<String> partitions = new HashSet<>();
+      for (final Row row : rows) {
+        partitions.add(row.getString("name"));
+      }
+      return partitions;
+    });
+  }
+}
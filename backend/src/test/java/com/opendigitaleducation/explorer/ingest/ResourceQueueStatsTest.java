@@ -0,0 +1,124 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RunWith(VertxUnitRunner.class)
+public class ResourceQueueStatsTest {
+  private static final TestHelper test = TestHelper.helper();
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static IPostgresClient postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final String migration = test.vertx().fileSystem().readFileBlocking("sql/014-resource-queue-stats.sql").toString();
+    // the counters are created by the migration itself (dropped first when the container is reused)
+    final List<String> queries = new ArrayList<>(Arrays.asList(
+      "DROP TRIGGER IF EXISTS resource_queue_stats_insert ON explorer.resource_queue",
+      "DROP TRIGGER IF EXISTS resource_queue_stats_update ON explorer.resource_queue",
+      "DROP TRIGGER IF EXISTS resource_queue_stats_delete ON explorer.resource_queue",
+      "DROP TABLE IF EXISTS explorer.resource_queue_stats",
+      "DROP INDEX IF EXISTS explorer.idx_resource_queue_new"));
+    queries.addAll(statements(migration));
+    final Async async = context.async();
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).compose(client -> {
+      postgresClient = client;
+      Future<Void> futureIt = Future.succeededFuture();
+      for (final String query : queries) {
+        futureIt = futureIt.compose(e -> client.preparedQuery(query, Tuple.tuple()).mapEmpty());
+      }
+      return futureIt;
+    }).onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the counters maintained by the triggers of the queue give the same metrics as counting its rows
+   *    after messages have been inserted, acknowledged, failed and deleted, and that compacting them (even by several
+   *    workers at the same time) neither changes the metrics nor leaves more than one row per bucket.
+   *  </p>
+   */
+  @Test
+  public void testCountersFollowTheQueue(final TestContext context) {
+    final Async async = context.async();
+    final MessageReaderPostgres reader = new MessageReaderPostgres(postgresClient, new JsonObject().put("metrics-cache-ms", 0L));
+    final ResourceQueueArchiver archiver = new ResourceQueueArchiver(test.vertx(), postgresClient, new JsonObject(), hotSince -> {});
+    final String insertQuery = "INSERT INTO explorer.resource_queue (id_resource, created_at, resource_action, payload, priority) " +
+      "SELECT 'counted', NOW(), 'Upsert', json_build_object('application', 'blog', 'resourceType', 'blog', 'entityType', 'blog', 'version', g)::jsonb, g % 2 " +
+      "FROM generate_series(1, 6) g";
+    postgresClient.preparedQuery(insertQuery, Tuple.tuple())
+      .compose(e -> reader.getIncomingMessages(1000))
+      .compose(read -> {
+        final List<ExplorerMessageForIngest> counted = read.stream().filter(message -> "counted".equals(message.getId())).collect(Collectors.toList());
+        final List<ExplorerMessageForIngest> failed = new ArrayList<>(counted.subList(0, 2));
+        failed.forEach(message -> message.setError("error"));
+        final IngestJob.IngestJobResult result = new IngestJob.IngestJobResult(new ArrayList<>(counted.subList(2, 4)), failed, new ArrayList<>());
+        return reader.updateStatus(result, 5).onComplete(e -> reader.releaseMessages(read));
+      })
+      .compose(e -> postgresClient.preparedQuery("DELETE FROM explorer.resource_queue WHERE id IN (SELECT id FROM explorer.resource_queue WHERE id_resource = 'counted' AND attempt_status = $1 LIMIT 1)", Tuple.of(MessageReaderPostgres.STATUS_SUCCESS)))
+      .compose(e -> assertMetricsMatchQueue(context, reader))
+      .compose(e -> CompositeFuture.all(archiver.compactCounters(), archiver.compactCounters()))
+      .compose(e -> assertMetricsMatchQueue(context, reader))
+      .compose(e -> postgresClient.preparedQuery("SELECT COUNT(*) AS nb, COUNT(DISTINCT (priority, attempted_count, attempt_status)) AS buckets FROM explorer.resource_queue_stats", Tuple.tuple()))
+      .onComplete(context.asyncAssertSuccess(rows -> {
+        final Row row = rows.iterator().next();
+        context.assertEquals(row.getLong("buckets"), row.getLong("nb"), "Compacted counters should hold one row per bucket");
+        async.complete();
+      }));
+  }
+
+  private Future<Void> assertMetricsMatchQueue(final TestContext context, final MessageReaderPostgres reader) {
+    final String countQuery = "SELECT priority, COUNT(*) FILTER (WHERE attempted_count = 0) AS pending, COUNT(*) FILTER (WHERE attempt_status = $1) AS depth " +
+      "FROM explorer.resource_queue GROUP BY priority";
+    return CompositeFuture.all(reader.getMetrics(), postgresClient.preparedQuery(countQuery, Tuple.of(MessageReaderPostgres.STATUS_PENDING))).map(results -> {
+      final JsonObject metrics = results.resultAt(0);
+      long pending = 0;
+      for (final Row row : results.<Iterable<Row>>resultAt(1)) {
+        pending += row.getLong("pending");
+        final long depth = row.getLong("depth");
+        final JsonObject backlog = metrics.getJsonObject("backlog").getJsonObject(String.valueOf(row.getInteger("priority")), new JsonObject());
+        context.assertEquals(depth, backlog.getLong("depth", 0L), "The backlog of priority " + row.getInteger("priority") + " should match the queue");
+      }
+      context.assertEquals(pending, metrics.getLong("pending_count"), "The number of new messages should match the queue");
+      return null;
+    });
+  }
+
+  /**
+   * Split a migration into its statements : the bodies of the functions and of the DO blocks contain semicolons.
+   */
+  private static List<String> statements(final String script) {
+    final List<String> statements = new ArrayList<>();
+    final StringBuilder statement = new StringBuilder();
+    for (final String line : script.split("\n")) {
+      statement.append(line).append("\n");
+      final boolean inBody = statement.toString().split("\\$\\$", -1).length % 2 == 0;
+      if (line.trim().endsWith(";") && !inBody) {
+        statements.add(statement.toString());
+        statement.setLength(0);
+      }
+    }
+    return statements;
+  }
+}
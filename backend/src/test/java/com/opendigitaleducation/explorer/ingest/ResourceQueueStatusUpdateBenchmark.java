@@ -0,0 +1,148 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import org.entcore.common.postgres.IPostgresClient;
+import org.entcore.common.postgres.PostgresClient;
+import org.entcore.common.postgres.PostgresClientChannel;
+import org.entcore.test.TestHelper;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Not named after the tests so that it is only run on demand : {@code mvn test -Dtest=ResourceQueueStatusUpdateBenchmark}
+ */
+@RunWith(VertxUnitRunner.class)
+public class ResourceQueueStatusUpdateBenchmark {
+  private static final TestHelper test = TestHelper.helper();
+  private static final int NB_ROUNDS = 20;
+  @ClassRule
+  public static PostgreSQLContainer<?> pgContainer = test.database().createPostgreSQLContainer().withInitScript("initExplorer.sql").withReuse(true);
+  static PostgresClientChannel postgresClient;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final JsonObject postgresqlConfig = new JsonObject().put("host", pgContainer.getHost()).put("database", pgContainer.getDatabaseName()).put("user", pgContainer.getUsername()).put("password", pgContainer.getPassword()).put("port", pgContainer.getMappedPort(5432));
+    final Async async = context.async();
+    // same kind of client as the one used by the reader
+    IPostgresClient.create(test.vertx(), new JsonObject().put("postgresConfig", postgresqlConfig), true, false).onComplete(context.asyncAssertSuccess(client -> {
+      postgresClient = client.getClientChannel();
+      async.complete();
+    }));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Compare the status update of a batch of messages with one placeholder per message (a new statement for each
+   *    batch size) and with array parameters (one statement whatever the batch size) for batches of 10, 100 and 1000
+   *    messages, acknowledged and failed messages being updated in the same transaction as in the reader.
+   *  </p>
+   */
+  @Test
+  public void benchmarkPlaceholdersVersusArrays(final TestContext context) {
+    final Async async = context.async();
+    Future<Void> futureIt = Future.succeededFuture();
+    for (final int batchSize : new int[]{10, 100, 1000}) {
+      futureIt = futureIt.compose(e -> insertMessages(batchSize)).compose(ids ->
+        measure(NB_ROUNDS, () -> updateWithPlaceholders(ids)).compose(placeholdersMs ->
+          measure(NB_ROUNDS, () -> updateWithArrays(ids)).map(arraysMs -> {
+            System.out.println("[ResourceQueueStatusUpdate] batch=" + batchSize + " rounds=" + NB_ROUNDS +
+              " placeholders=" + placeholdersMs + "ms arrays=" + arraysMs + "ms");
+            return null;
+          })
+        ).compose(e -> checkAttempts(context, ids, 2 * NB_ROUNDS))
+      );
+    }
+    futureIt.onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  private Future<List<Long>> insertMessages(final int nbMessages) {
+    final String query = "INSERT INTO explorer.resource_queue (id_resource, created_at, resource_action, payload, priority) " +
+      "SELECT 'benchmark_' || g, NOW(), 'Upsert', '{}'::jsonb, 0 FROM generate_series(1, $1) g RETURNING id";
+    return postgresClient.preparedQuery(query, Tuple.of(nbMessages)).map(rows -> {
+      final List<Long> ids = new ArrayList<>();
+      for (final Row row : rows) {
+        ids.add(row.getLong("id"));
+      }
+      return ids;
+    });
+  }
+
+  /**
+   * Statements as they were written before : one placeholder per id and per cause.
+   */
+  private Future<Void> updateWithPlaceholders(final List<Long> ids) {
+    final List<Long> acked = ids.subList(0, ids.size() / 2);
+    final List<Long> failed = ids.subList(ids.size() / 2, ids.size());
+    final LocalDateTime now = LocalDateTime.now();
+    return postgresClient.transaction().compose(transaction -> {
+      transaction.addPreparedQuery(String.format("UPDATE explorer.resource_queue SET  attempt_status=$1, attempted_count=attempted_count+1, attempted_at=NOW() WHERE id IN (%s)",
+        PostgresClient.inPlaceholder(acked, 2)), PostgresClient.inTuple(Tuple.of(MessageReaderPostgres.STATUS_PENDING), acked));
+      transaction.addPreparedQuery(String.format("UPDATE explorer.resource_queue SET  attempted_count=attempted_count+1, attempted_at=$1 WHERE id IN (%s)",
+        PostgresClient.inPlaceholder(failed, 2)), PostgresClient.inTuple(Tuple.of(now), failed));
+      final StringBuilder placeholders = new StringBuilder();
+      final Tuple tuple = Tuple.tuple();
+      int index = 1;
+      for (final Long id : failed) {
+        placeholders.append(placeholders.length() == 0 ? "" : ",").append(String.format("($%s,$%s,$%s,$%s)", index, index + 1, index + 2, index + 3));
+        tuple.addLong(id).addString("benchmark_" + id).addString("error").addLocalDateTime(now);
+        index += 4;
+      }
+      transaction.addPreparedQuery(String.format("INSERT INTO explorer.resource_queue_causes (id, id_resource, attempt_reason, attempted_at) VALUES %s  ON CONFLICT(id) DO UPDATE SET attempt_reason = EXCLUDED.attempt_reason, attempted_at=EXCLUDED.attempted_at;", placeholders), tuple);
+      return transaction.commit().mapEmpty();
+    });
+  }
+
+  /**
+   * Statements used by {@link MessageReaderPostgres#updateStatus(IngestJob.IngestJobResult, int)}.
+   */
+  private Future<Void> updateWithArrays(final List<Long> ids) {
+    final Long[] acked = ids.subList(0, ids.size() / 2).toArray(new Long[0]);
+    final Long[] failed = ids.subList(ids.size() / 2, ids.size()).toArray(new Long[0]);
+    final String[] idResources = new String[failed.length];
+    final String[] errors = new String[failed.length];
+    for (int i = 0; i < failed.length; i++) {
+      idResources[i] = "benchmark_" + failed[i];
+      errors[i] = "error";
+    }
+    final LocalDateTime now = LocalDateTime.now();
+    final String failQuery = String.format(MessageReaderPostgres.FAIL_QUERY, "INTERVAL '0 millisecond'");
+    return postgresClient.transaction().compose(transaction -> {
+      // messages stay pending so that each round updates the same rows
+      transaction.addPreparedQuery(MessageReaderPostgres.ACK_QUERY, Tuple.of(MessageReaderPostgres.STATUS_PENDING, acked));
+      transaction.addPreparedQuery(failQuery, Tuple.of(now, failed));
+      transaction.addPreparedQuery(MessageReaderPostgres.CAUSES_QUERY, Tuple.of(failed, idResources, errors, now));
+      return transaction.commit().mapEmpty();
+    });
+  }
+
+  private Future<Long> measure(final int nbRounds, final java.util.function.Supplier<Future<Void>> round) {
+    final long start = System.nanoTime();
+    Future<Void> futureIt = Future.succeededFuture();
+    for (int i = 0; i < nbRounds; i++) {
+      futureIt = futureIt.compose(e -> round.get());
+    }
+    return futureIt.map(e -> (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private Future<Void> checkAttempts(final TestContext context, final List<Long> ids, final int expectedAttempts) {
+    final String query = "SELECT COUNT(*) AS nb FROM explorer.resource_queue WHERE id = ANY($1::bigint[]) AND attempted_count = $2";
+    return postgresClient.preparedQuery(query, Tuple.of(ids.toArray(new Long[0]), expectedAttempts)).map(rows -> {
+      context.assertEquals((long) ids.size(), rows.iterator().next().getLong("nb"));
+      return null;
+    });
+  }
+}
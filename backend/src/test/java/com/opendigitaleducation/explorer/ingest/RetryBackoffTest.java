@@ -0,0 +1,130 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBackoffTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the delay before a retry doubles with each attempt, never exceeds the configured maximum and that
+   *    the jitter only removes up to its share of the delay.
+   *  </p>
+   */
+  @Test
+  public void testDelayGrowsExponentiallyWithJitter() {
+    final RetryBackoff noJitter = new RetryBackoff(1000, 60000, 0, new Random(0));
+    assertEquals(1000, noJitter.getDelayMs(1));
+    assertEquals(2000, noJitter.getDelayMs(2));
+    assertEquals(8000, noJitter.getDelayMs(4));
+    assertEquals(60000, noJitter.getDelayMs(10));
+    assertEquals(60000, noJitter.getDelayMs(1000));
+    final RetryBackoff withJitter = new RetryBackoff(1000, 60000, 0.5, new Random(0));
+    for (int i = 0; i < 100; i++) {
+      final long delay = withJitter.getDelayMs(3);
+      assertTrue(delay >= 2000 && delay <= 4000);
+    }
+    final RetryBackoff immediate = RetryBackoff.create(new JsonObject().put("base-ms", 0));
+    assertTrue(immediate.isImmediate());
+    assertEquals(0, immediate.getDelayMs(5));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that messages in error only take their share of a batch when new messages are waiting and that they
+   *    are given the rest of the batch when there are not enough new messages.
+   *  </p>
+   */
+  @Test
+  public void testRetriesShareOfBatchIsBounded() {
+    final FakeReader busy = new FakeReader(100, 100);
+    final List<ExplorerMessageForIngest> busyBatch = busy.getMessagesToTreat(10, 5).result();
+    assertEquals(10, busyBatch.size());
+    assertEquals(5, busyBatch.stream().filter(m -> m.getIdQueue().get().startsWith("failed")).count());
+    final FakeReader quiet = new FakeReader(100, 2);
+    final List<ExplorerMessageForIngest> quietBatch = quiet.getMessagesToTreat(10, 5).result();
+    assertEquals(10, quietBatch.size());
+    assertEquals(8, quietBatch.stream().filter(m -> m.getIdQueue().get().startsWith("failed")).count());
+    // messages in error stay first
+    assertTrue(quietBatch.get(7).getIdQueue().get().startsWith("failed"));
+    assertTrue(quietBatch.get(8).getIdQueue().get().startsWith("new"));
+  }
+
+  private static class FakeReader implements MessageReader {
+    private int nbFailed;
+    private int nbNew;
+
+    private FakeReader(final int nbFailed, final int nbNew) {
+      this.nbFailed = nbFailed;
+      this.nbNew = nbNew;
+    }
+
+    private List<ExplorerMessageForIngest> take(final String prefix, final int available, final int max) {
+      final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+      for (int i = 0; i < Math.min(available, max); i++) {
+        messages.add(new ExplorerMessageForIngest("Upsert", prefix + i, prefix + "-resource" + i, new JsonObject()));
+      }
+      return messages;
+    }
+
+    @Override
+    public double getRetryBatchRatio() {
+      return 0.5;
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getIncomingMessages(final int maxBatchSize) {
+      final List<ExplorerMessageForIngest> messages = take("new", nbNew, maxBatchSize);
+      nbNew -= messages.size();
+      return Future.succeededFuture(messages);
+    }
+
+    @Override
+    public Future<List<ExplorerMessageForIngest>> getFailedMessages(final int maxBatchSize, final int maxAttempt) {
+      final List<ExplorerMessageForIngest> messages = take("failed", nbFailed, maxBatchSize);
+      nbFailed -= messages.size();
+      return Future.succeededFuture(messages);
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Future<Void> start() {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public MessageReaderStatus getStatus() {
+      return MessageReaderStatus.Running;
+    }
+
+    @Override
+    public Function<Void, Void> listenNewMessages(final Handler<Void> handler) {
+      return e -> null;
+    }
+
+    @Override
+    public Future<Void> updateStatus(final IngestJob.IngestJobResult ingestResult, final int maxAttempt) {
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public Future<JsonObject> getMetrics() {
+      return Future.succeededFuture(new JsonObject());
+    }
+  }
+}
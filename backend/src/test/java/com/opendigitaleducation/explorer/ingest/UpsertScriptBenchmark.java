@@ -0,0 +1,166 @@
+package com.opendigitaleducation.explorer.ingest;
+
+import com.opendigitaleducation.explorer.ExplorerConfig;
+import com.opendigitaleducation.explorer.services.impl.ResourceServiceElastic;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.elasticsearch.ElasticClient;
+import org.entcore.common.elasticsearch.ElasticClientManager;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.test.TestHelper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Not named after the tests so that it is only run on demand : {@code mvn test -Dtest=UpsertScriptBenchmark}
+ */
+@RunWith(VertxUnitRunner.class)
+public class UpsertScriptBenchmark {
+  private static final TestHelper test = TestHelper.helper();
+  private static final String APPLICATION = "benchmark";
+  private static final String SCRIPT_ID = "explorer-upsert-ressource-benchmark";
+  private static final int NB_ROUNDS = 20;
+  private static final int NB_SUBRESOURCES_PER_ROUND = 100;
+  @ClassRule
+  public static ElasticsearchContainer esContainer = test.database().createOpenSearchContainer().withReuse(true);
+  static ElasticClientManager elasticClientManager;
+  static String index;
+
+  @BeforeClass
+  public static void setUp(TestContext context) throws Exception {
+    final URI[] uris = new URI[]{new URI("http://" + esContainer.getHttpHostAddress())};
+    elasticClientManager = new ElasticClientManager(test.vertx(), uris);
+    index = ExplorerConfig.DEFAULT_RESOURCE_INDEX + System.currentTimeMillis();
+    ExplorerConfig.getInstance().setEsIndex(APPLICATION, index);
+    final Buffer mapping = test.vertx().fileSystem().readFileBlocking("es/mappingResource.json");
+    final Buffer scriptV1 = test.vertx().fileSystem().readFileBlocking("es/upsertScript.json");
+    final Buffer scriptV2 = test.vertx().fileSystem().readFileBlocking("es/upsertScriptV2.json");
+    final Async async = context.async();
+    CompositeFuture.all(elasticClientManager.getClient().createMapping(index, mapping),
+        elasticClientManager.getClient().storeScript(SCRIPT_ID, scriptV1),
+        elasticClientManager.getClient().storeScript(SCRIPT_ID + "-v2", scriptV2))
+      .onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  @AfterClass
+  public static void tearDown(TestContext context) {
+    ExplorerConfig.getInstance().setUpsertScriptId(ExplorerConfig.DEFAULT_UPSERT_SCRIPT_ID);
+    ExplorerConfig.getInstance().removeEsIndex(APPLICATION);
+    elasticClientManager.getClient().deleteMapping(index).onComplete(context.asyncAssertSuccess());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Compare the time taken by both versions of the upsert script to merge {@value NB_ROUNDS} messages of
+   *    {@value NB_SUBRESOURCES_PER_ROUND} subresources (updated, deleted and added) into documents holding 1000 and
+   *    5000 subresources, and ensure that both versions leave the same subresources.
+   *  </p>
+   */
+  @Test
+  public void benchmarkSubresourceMerge(final TestContext context) {
+    final Async async = context.async();
+    Future<Void> futureIt = Future.succeededFuture();
+    for (final int nbSubresources : new int[]{1000, 5000}) {
+      final String idV1 = "v1_" + nbSubresources;
+      final String idV2 = "v2_" + nbSubresources;
+      futureIt = futureIt.compose(e -> measure(SCRIPT_ID, idV1, nbSubresources)).compose(v1Ms ->
+        measure(SCRIPT_ID + "-v2", idV2, nbSubresources).compose(v2Ms -> {
+          System.out.println("[UpsertScriptBenchmark] subresources=" + nbSubresources + " rounds=" + NB_ROUNDS +
+            " v1=" + v1Ms + "ms v2=" + v2Ms + "ms");
+          return CompositeFuture.all(fetchSubresources(idV1), fetchSubresources(idV2));
+        })
+      ).map(results -> {
+        final List<JsonObject> subresourcesV1 = results.resultAt(0);
+        final List<JsonObject> subresourcesV2 = results.resultAt(1);
+        context.assertEquals(subresourcesV1, subresourcesV2);
+        return null;
+      });
+    }
+    futureIt.onComplete(context.asyncAssertSuccess(e -> async.complete()));
+  }
+
+  /**
+   * Create a document holding the subresources then send the rounds of changes one after the other.
+   * @return The time taken by the rounds of changes in milliseconds
+   */
+  private Future<Long> measure(final String scriptId, final String id, final int nbSubresources) {
+    ExplorerConfig.getInstance().setUpsertScriptId(scriptId);
+    final JsonObject config = new JsonObject().put("opensearch-options", new JsonObject().put("wait-for", true));
+    final MessageIngesterElastic ingester = new MessageIngesterElastic(elasticClientManager, new IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder(), config);
+    final JsonArray subresources = new JsonArray();
+    for (int i = 0; i < nbSubresources; i++) {
+      subresources.add(subresource(i, 1, false));
+    }
+    return ingest(ingester, message(id, 1, subresources)).compose(e -> {
+      final long start = System.currentTimeMillis();
+      Future<Void> futureIt = Future.succeededFuture();
+      for (int round = 0; round < NB_ROUNDS; round++) {
+        final int version = round + 2;
+        final int offset = round * NB_SUBRESOURCES_PER_ROUND / 2;
+        final JsonArray changes = new JsonArray();
+        for (int i = 0; i < NB_SUBRESOURCES_PER_ROUND; i++) {
+          // updates of existing subresources, a few deletions and new subresources at the end
+          final int subresourceId = i < NB_SUBRESOURCES_PER_ROUND - 10 ? offset + i : nbSubresources + offset + i;
+          changes.add(subresource(subresourceId, version, i % 10 == 0));
+        }
+        futureIt = futureIt.compose(ee -> ingest(ingester, message(id, version, changes)));
+      }
+      return futureIt.map(ee -> System.currentTimeMillis() - start);
+    });
+  }
+
+  private Future<Void> ingest(final MessageIngesterElastic ingester, final ExplorerMessageForIngest message) {
+    return ingester.ingest(Collections.singletonList(message)).compose(result -> {
+      if (!result.getFailed().isEmpty()) {
+        return Future.failedFuture(result.getFailed().get(0).getError());
+      }
+      return Future.succeededFuture();
+    });
+  }
+
+  private Future<List<JsonObject>> fetchSubresources(final String id) {
+    final JsonObject query = new JsonObject().put("query", new JsonObject().put("ids", new JsonObject().put("values", new JsonArray().add(id))));
+    final ElasticClient.ElasticOptions options = new ElasticClient.ElasticOptions().withRouting(ResourceServiceElastic.getRoutingKey(APPLICATION));
+    return elasticClientManager.getClient().search(index, query, options).map(rows -> {
+      final List<JsonObject> subresources = new ArrayList<>();
+      rows.getJsonObject(0).getJsonArray("subresources").forEach(subresource -> subresources.add((JsonObject) subresource));
+      subresources.sort(Comparator.comparing(subresource -> subresource.getString("id")));
+      return subresources;
+    });
+  }
+
+  private static ExplorerMessageForIngest message(final String id, final long version, final JsonArray subresources) {
+    final JsonObject json = new JsonObject()
+      .put("application", APPLICATION)
+      .put("resourceType", APPLICATION)
+      .put("name", "benchmark " + id)
+      .put("version", version)
+      .put("subresources", subresources);
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), id + "_" + version, id, json);
+  }
+
+  private static JsonObject subresource(final int id, final long version, final boolean deleted) {
+    return new JsonObject()
+      .put("id", "sub" + id)
+      .put("version", version)
+      .put("content", "content of subresource " + id + " at version " + version)
+      .put("deleted", deleted);
+  }
+}
@@ -0,0 +1,103 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.BatchSizeController;
+import com.opendigitaleducation.explorer.ingest.BulkIngestionStats;
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.IngestJob;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+public class AimdBatchSizeControllerTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a message failing because of its content does not shrink the batch size.
+   *  </p>
+   */
+  @Test
+  public void testContentErrorsAreNotCapacitySignals() {
+    final AimdBatchSizeController controller = new AimdBatchSizeController(100);
+    final IngestJob.IngestJobResult result = new IngestJob.IngestJobResult();
+    result.getFailed().add(message("id1"));
+    result.getSucceed().add(message("id2"));
+    result.getBulkStats().onBulkCompleted(2, 100, 10).onOperationFailed("mapper_parsing_exception");
+    final BatchSizeController.Decision decision = controller.onCycleCompleted(result);
+    assertEquals(BatchSizeController.Reason.Steady, decision.getReason());
+    assertEquals(100, controller.getBatchSize());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the batch size is shrunk multiplicatively on rejections and grows back additively.
+   *  </p>
+   */
+  @Test
+  public void testShrinkOnRejectionAndGrowBackAdditively() {
+    final AimdBatchSizeController controller = new AimdBatchSizeController(100);
+    controller.configure(new JsonObject().put("additive-step", 10));
+    final IngestJob.IngestJobResult rejected = new IngestJob.IngestJobResult();
+    rejected.getFailed().add(message("id1"));
+    rejected.getBulkStats().onBulkCompleted(1, 100, 10).onOperationFailed("es_rejected_execution_exception");
+    assertEquals(BatchSizeController.Reason.ShrinkOnRejection, controller.onCycleCompleted(rejected).getReason());
+    assertEquals(50, controller.getBatchSize());
+    final IngestJob.IngestJobResult succeeded = new IngestJob.IngestJobResult(singletonList(message("id1")), singletonList(message("id2")), singletonList(message("id3")));
+    assertEquals(BatchSizeController.Reason.Grow, controller.onCycleCompleted(succeeded).getReason());
+    assertEquals(60, controller.getBatchSize());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the batch size is reduced to fit the payload budget.
+   *  </p>
+   */
+  @Test
+  public void testShrinkOnPayload() {
+    final AimdBatchSizeController controller = new AimdBatchSizeController(100);
+    controller.configure(new JsonObject().put("max-payload-bytes", 1000L));
+    final IngestJob.IngestJobResult result = new IngestJob.IngestJobResult();
+    result.getSucceed().add(message("id1"));
+    result.getBulkStats().onBulkCompleted(100, 100 * 100, 10);
+    assertEquals(BatchSizeController.Reason.ShrinkOnPayload, controller.onCycleCompleted(result).getReason());
+    assertEquals(10, controller.getBatchSize());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the latency compared with the target is the one of the slowest bulk request : a cycle made of many
+   *    fast requests (split by size, per index, bisected...) must not shrink the batch size whereas one slow request
+   *    must.
+   *  </p>
+   */
+  @Test
+  public void testShrinkOnLatencyOfOneBulk() {
+    final AimdBatchSizeController controller = new AimdBatchSizeController(100);
+    controller.configure(new JsonObject().put("target-latency-ms", 1000L).put("max-payload-bytes", 0L));
+    final IngestJob.IngestJobResult fastBulks = new IngestJob.IngestJobResult();
+    fastBulks.getSucceed().add(message("id1"));
+    final BulkIngestionStats other = new BulkIngestionStats();
+    for (int i = 0; i < 10; i++) {
+      fastBulks.getBulkStats().onBulkCompleted(10, 1000, 400);
+      other.onBulkCompleted(10, 1000, 400);
+    }
+    fastBulks.getBulkStats().merge(other);
+    assertEquals(8000, fastBulks.getBulkStats().getElapsedTime());
+    assertEquals(BatchSizeController.Reason.Steady, controller.onCycleCompleted(fastBulks).getReason());
+    final IngestJob.IngestJobResult slowBulk = new IngestJob.IngestJobResult();
+    slowBulk.getSucceed().add(message("id1"));
+    slowBulk.getBulkStats().onBulkCompleted(10, 1000, 400).onBulkCompleted(10, 1000, 1500);
+    assertEquals(BatchSizeController.Reason.ShrinkOnLatency, controller.onCycleCompleted(slowBulk).getReason());
+    assertEquals(50, controller.getBatchSize());
+  }
+
+  private static ExplorerMessageForIngest message(final String id) {
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), id, id, new JsonObject());
+  }
+}
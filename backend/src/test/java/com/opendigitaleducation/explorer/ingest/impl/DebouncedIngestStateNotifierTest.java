@@ -0,0 +1,76 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.entcore.common.explorer.IngestJobState;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.entcore.common.explorer.IExplorerPlugin.addressForIngestStateUpdate;
+
+@RunWith(VertxUnitRunner.class)
+public class DebouncedIngestStateNotifierTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the states of a resource received and ingested during the same window are coalesced into one
+   *    message which only contains the final state.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testStatesAreCoalescedDuringTheWindow(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<JsonArray> received = new ArrayList<>();
+    vertx.eventBus().consumer(addressForIngestStateUpdate("app", "type"), message -> received.add(new JsonArray(message.body().toString())));
+    final DebouncedIngestStateNotifier notifier = new DebouncedIngestStateNotifier(vertx, 200L, 1000);
+    notifier.notify(asList(message("id1"), message("id2")), IngestJobState.RECEIVED);
+    notifier.notify(asList(message("id1"), message("id2")), IngestJobState.OK);
+    context.assertEquals(2L, notifier.getSize(), "There should be one pending update per resource");
+    vertx.setTimer(500L, e -> {
+      context.assertEquals(1, received.size(), "Updates should have been sent in one message");
+      context.assertEquals(2, received.get(0).size());
+      context.assertEquals(0L, notifier.getSize(), "There should be no pending updates");
+      async.complete();
+    });
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that pending updates are sent right away, in several messages, when they reach the maximum payload size.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testUpdatesAreSentWhenPayloadIsFull(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final List<JsonArray> received = new ArrayList<>();
+    vertx.eventBus().consumer(addressForIngestStateUpdate("app", "type"), message -> received.add(new JsonArray(message.body().toString())));
+    final DebouncedIngestStateNotifier notifier = new DebouncedIngestStateNotifier(vertx, 60000L, 2);
+    notifier.notify(asList(message("id1"), message("id2"), message("id3")), IngestJobState.OK);
+    context.assertEquals(0L, notifier.getSize(), "Full payloads should not wait for the end of the window");
+    vertx.setTimer(200L, e -> {
+      context.assertEquals(2, received.size(), "Updates should have been split in two messages");
+      async.complete();
+    });
+  }
+
+  private static ExplorerMessageForIngest message(final String id) {
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Upsert.name(), "q" + id, id,
+      new JsonObject().put("application", "app").put("resourceType", "type").put("entityType", "type").put("version", 1));
+  }
+}
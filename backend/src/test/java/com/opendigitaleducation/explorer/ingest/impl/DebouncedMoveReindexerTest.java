@@ -0,0 +1,98 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.IngestJobMetricsRecorder;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class DebouncedMoveReindexerTest {
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that the resources moved during the debounce delay are sent with one reindex request per application and
+   *    resource type and that the requests saved by grouping them are recorded.
+   *  </p>
+   * @param context Context
+   */
+  @Test
+  public void testMovedResourcesAreGroupedByApplicationAndType(final TestContext context) {
+    final Async async = context.async();
+    final Vertx vertx = Vertx.vertx();
+    final Set<String> addresses = new HashSet<>();
+    vertx.eventBus().addOutboundInterceptor(delivery -> {
+      addresses.add(delivery.message().address());
+      delivery.next();
+    });
+    final RecordingMetricsRecorder recorder = new RecordingMetricsRecorder();
+    final DebouncedMoveReindexer reindexer = new DebouncedMoveReindexer(vertx, recorder, 200L, -1);
+    reindexer.handleMovedMessages(asList(moved("blog", "b1"), moved("blog", "b2"), moved("blog", "b1"), moved("wiki", "w1")));
+    reindexer.handleMovedMessages(asList(moved("blog", "b3")));
+    context.assertEquals(4L, reindexer.getSize(), "A resource moved twice should only be reindexed once");
+    context.assertTrue(recorder.calls.isEmpty(), "Resources should wait for the end of the debounce delay");
+    vertx.setTimer(500L, e -> {
+      context.assertEquals(0L, reindexer.getSize());
+      context.assertEquals(1, recorder.calls.size(), "Pending resources should have been sent at once");
+      context.assertEquals(5, recorder.calls.get(0)[0], "Every moved resource should be counted");
+      context.assertEquals(2, recorder.calls.get(0)[1], "One request should be sent by application and resource type");
+      context.assertEquals(2, addresses.size(), "Requests should be sent to the application of each resource type");
+      async.complete();
+    });
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that pending resources are sent right away when there is no debounce delay or when they reach the
+   *    maximum number of pending resources.
+   *  </p>
+   */
+  @Test
+  public void testResourcesAreSentWithoutDelayWhenFull() {
+    final Vertx vertx = Vertx.vertx();
+    final RecordingMetricsRecorder recorder = new RecordingMetricsRecorder();
+    final DebouncedMoveReindexer immediate = new DebouncedMoveReindexer(vertx, recorder, 0L, -1);
+    immediate.handleMovedMessages(asList(moved("blog", "b1")));
+    final DebouncedMoveReindexer bounded = new DebouncedMoveReindexer(vertx, recorder, 60000L, 2);
+    bounded.handleMovedMessages(asList(moved("blog", "b1")));
+    bounded.handleMovedMessages(asList(moved("blog", "b2"), moved("blog", "b2")));
+    assertEquals(0L, immediate.getSize());
+    assertEquals(0L, bounded.getSize());
+    assertEquals(2, recorder.calls.size());
+    assertArrayEquals(new int[]{1, 1}, recorder.calls.get(0));
+    assertArrayEquals(new int[]{3, 1}, recorder.calls.get(1));
+  }
+
+  private static ExplorerMessageForIngest moved(final String application, final String id) {
+    return new ExplorerMessageForIngest(ExplorerMessage.ExplorerAction.Move.name(), "q" + id, id,
+      new JsonObject().put("application", application).put("resourceType", application).put("entityType", application).put("version", 1));
+  }
+
+  /**
+   * Records the number of moved resources and of reindex requests of each sending.
+   */
+  private static class RecordingMetricsRecorder extends IngestJobMetricsRecorder.NoopIngestJobMetricsRecorder {
+    private final List<int[]> calls = new ArrayList<>();
+
+    @Override
+    public void onMoveReindexRequestsSent(final int nbMovedResources, final int nbRequests) {
+      calls.add(new int[]{nbMovedResources, nbRequests});
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.opendigitaleducation.explorer.ingest.impl;
+
+import com.opendigitaleducation.explorer.ingest.ExplorerMessageForIngest;
+import com.opendigitaleducation.explorer.ingest.MergeMessagesResult;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.explorer.ExplorerMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultMessageMergerTest {
+  private final DefaultMessageMerger merger = new DefaultMessageMerger();
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that consecutive upserts of the same resource are folded into one message keeping the fields of the
+   *    highest version (even when a stale upsert comes last), merging override and subresources and keeping the
+   *    highest version. All source messages must be acknowledged with the folded message.
+   *  </p>
+   */
+  @Test
+  public void testFoldUpserts() {
+    final ExplorerMessageForIngest first = upsert("q1", "r1", 1)
+      .put("name", "first")
+      .put("override", new JsonObject().put("a", 1))
+      .put("subresources", new JsonArray().add(new JsonObject().put("id", "s1").put("version", 1).put("content", "s1v1")))
+      .build();
+    final ExplorerMessageForIngest second = upsert("q2", "r1", 3)
+      .put("name", "second")
+      .put("override", new JsonObject().put("b", 2))
+      .put("subresources", new JsonArray()
+        .add(new JsonObject().put("id", "s1").put("version", 2).put("content", "s1v2"))
+        .add(new JsonObject().put("id", "s2").put("version", 1).put("content", "s2v1")))
+      .build();
+    final ExplorerMessageForIngest third = upsert("q3", "r1", 2)
+      .put("name", "stale")
+      .put("contentPlain", "stale content")
+      .put("override", new JsonObject().put("b", 1).put("c", 3))
+      .put("subresources", new JsonArray().add(new JsonObject().put("id", "s1").put("version", 1).put("content", "stale")))
+      .build();
+    final MergeMessagesResult result = merger.mergeMessages(Arrays.asList(first, second, third));
+    assertEquals(1, result.getMessagesToTreat().size());
+    final ExplorerMessageForIngest merged = result.getMessagesToTreat().get(0);
+    assertEquals(ExplorerMessage.ExplorerAction.Upsert.name(), merged.getAction());
+    assertEquals("The stale upsert should not overwrite the fields of the newer one", "second", merged.getMessage().getString("name"));
+    assertEquals("stale content", merged.getMessage().getString("contentPlain"));
+    assertEquals(new JsonObject().put("a", 1).put("b", 2).put("c", 3), merged.getMessage().getJsonObject("override"));
+    assertEquals(3, merged.getVersion());
+    final JsonArray subresources = merged.getMessage().getJsonArray("subresources");
+    assertEquals(2, subresources.size());
+    assertEquals("s1v2", subresources.getJsonObject(0).getString("content"));
+    assertEquals("s2v1", subresources.getJsonObject(1).getString("content"));
+    assertEquals(Arrays.asList(first, second, third), result.getMessagesToAckByTratedMessageIdQueue().get(merged.getIdQueue().get()));
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that upserts followed by a delete are folded into the delete, whereas an upsert following a delete
+   *    (i.e. a restoration) is kept as is and after the delete.
+   *  </p>
+   */
+  @Test
+  public void testFoldDeletes() {
+    final MergeMessagesResult result = merger.mergeMessages(Arrays.asList(
+      upsert("q1", "r1", 1).build(),
+      upsert("q2", "r1", 2).build(),
+      message(ExplorerMessage.ExplorerAction.Delete, "q3", "r1", 3).build(),
+      upsert("q4", "r1", 4).build()
+    ));
+    assertEquals(2, result.getMessagesToTreat().size());
+    assertEquals(ExplorerMessage.ExplorerAction.Delete.name(), result.getMessagesToTreat().get(0).getAction());
+    assertEquals("q3", result.getMessagesToTreat().get(0).getIdQueue().get());
+    assertEquals(3, result.getMessagesToAckByTratedMessageIdQueue().get("q3").size());
+    assertEquals(ExplorerMessage.ExplorerAction.Upsert.name(), result.getMessagesToTreat().get(1).getAction());
+    assertEquals(1, result.getMessagesToAckByTratedMessageIdQueue().get("q4").size());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that messages of different resources or of incompatible kinds (sharing vs content update, audience) are
+   *    not folded.
+   *  </p>
+   */
+  @Test
+  public void testDoNotFoldIncompatibleMessages() {
+    final MergeMessagesResult result = merger.mergeMessages(Arrays.asList(
+      upsert("q1", "r1", 1).build(),
+      upsert("q2", "r2", 1).build(),
+      upsert("q3", "r1", 2).put("rights", new JsonArray().add("user:u1:read")).build(),
+      message(ExplorerMessage.ExplorerAction.Audience, "q4", "r1", 3).build(),
+      message(ExplorerMessage.ExplorerAction.Audience, "q5", "r1", 4).build()
+    ));
+    assertEquals(5, result.getMessagesToTreat().size());
+  }
+
+  /**
+   *  <h1>GOAL</h1>
+   *  <p>
+   *    Ensure that a batch where resources are edited several times (autosave-like pattern) is reduced to one
+   *    operation per resource.
+   *  </p>
+   */
+  @Test
+  public void testOperationsReduction() {
+    final int nbResources = 100;
+    final int nbEditsPerResource = 10;
+    final List<ExplorerMessageForIngest> messages = new ArrayList<>();
+    int idQueue = 0;
+    for (int edit = 1; edit <= nbEditsPerResource; edit++) {
+      for (int resource = 0; resource < nbResources; resource++) {
+        messages.add(upsert("q" + (idQueue++), "r" + resource, edit).put("name", "edit" + edit).build());
+      }
+    }
+    final MergeMessagesResult result = merger.mergeMessages(messages);
+    assertEquals(nbResources, result.getMessagesToTreat().size());
+    assertTrue(result.getMessagesToTreat().stream().allMatch(m -> m.getVersion() == nbEditsPerResource));
+    assertEquals(messages.size(), result.getMessagesToAckByTratedMessageIdQueue().values().stream().mapToInt(List::size).sum());
+  }
+
+  private static MessageBuilder upsert(final String idQueue, final String id, final long version) {
+    return message(ExplorerMessage.ExplorerAction.Upsert, idQueue, id, version);
+  }
+
+  private static MessageBuilder message(final ExplorerMessage.ExplorerAction action, final String idQueue, final String id, final long version) {
+    return new MessageBuilder(action, idQueue, id, version);
+  }
+
+  private static class MessageBuilder {
+    private final ExplorerMessage.ExplorerAction action;
+    private final String idQueue;
+    private final String id;
+    private final JsonObject json;
+
+    private MessageBuilder(final ExplorerMessage.ExplorerAction action, final String idQueue, final String id, final long version) {
+      this.action = action;
+      this.idQueue = idQueue;
+      this.id = id;
+      this.json = new JsonObject()
+        .put("application", "blog")
+        .put("resourceType", "blog")
+        .put("entityType", "blog")
+        .put("version", version);
+    }
+
+    private MessageBuilder put(final String key, final Object value) {
+      json.put(key, value);
+      return this;
+    }
+
+    private ExplorerMessageForIngest build() {
+      return new ExplorerMessageForIngest(action.name(), idQueue, id, json);
+    }
+  }
+}
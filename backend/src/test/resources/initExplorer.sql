@@ -13,7 +13,16 @@ CREATE TABLE explorer.resource_queue (
     attempted_at TIMESTAMP WITHOUT TIME ZONE,
     attempted_count INTEGER NOT NULL DEFAULT 0,
     attempt_status SMALLINT NOT NULL DEFAULT 0,
-    priority INTEGER NOT NULL
+    priority INTEGER NOT NULL,
+    next_attempt_at TIMESTAMP WITHOUT TIME ZONE,
+    claimed_by VARCHAR(128),
+    claimed_until TIMESTAMP WITHOUT TIME ZONE
+);
+CREATE TABLE explorer.resource_queue_stats (
+    priority INTEGER NOT NULL,
+    attempted_count INTEGER NOT NULL,
+    attempt_status SMALLINT NOT NULL,
+    nb BIGINT NOT NULL
 );
 CREATE TABLE explorer.resource_queue_causes (
     id BIGINT PRIMARY KEY,
@@ -0,0 +1,25 @@
+DROP SCHEMA IF EXISTS explorer CASCADE;
+CREATE SCHEMA explorer;
+CREATE SEQUENCE explorer.resource_queue_id_seq;
+CREATE TABLE explorer.resource_queue (
+    id INTEGER NOT NULL DEFAULT nextval('explorer.resource_queue_id_seq'),
+    id_resource VARCHAR(128) NOT NULL,
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    resource_action VARCHAR(16) NOT NULL CHECK (resource_action IN ('Upsert', 'Delete', 'Audience')),
+    payload JSONB NOT NULL,
+    attempted_at TIMESTAMP WITHOUT TIME ZONE,
+    attempted_count INTEGER NOT NULL DEFAULT 0,
+    attempt_status SMALLINT NOT NULL DEFAULT 0,
+    priority INTEGER NOT NULL,
+    next_attempt_at TIMESTAMP WITHOUT TIME ZONE,
+    claimed_by VARCHAR(128),
+    claimed_until TIMESTAMP WITHOUT TIME ZONE,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+CREATE TABLE explorer.resource_queue_default PARTITION OF explorer.resource_queue DEFAULT;
+CREATE TABLE explorer.resource_queue_stats (
+    priority INTEGER NOT NULL,
+    attempted_count INTEGER NOT NULL,
+    attempt_status SMALLINT NOT NULL,
+    nb BIGINT NOT NULL
+);